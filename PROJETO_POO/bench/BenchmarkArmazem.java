@@ -0,0 +1,111 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark do arranque com o armazém de faturas em memória mapeada, comparado com a leitura completa
+ * do formato binário compacto. Mede o tempo de abertura e a memória ocupada depois de carregar,
+ * e verifica que uma segunda gravação (que copia os produtos não lidos) mantém os totais.
+ * Uso: {@code java BenchmarkArmazem [numFaturas] [produtosPorFatura]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkArmazem {
+    private static final int REPETICOES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path origem = GeradorDados.paraBenchmark().escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        Path binario = Files.createTempFile("dados-bench", ".bin");
+        Path mapeado = Files.createTempFile("dados-bench", ".map");
+        Path copia = Files.createTempFile("dados-bench-copia", ".map");
+        try {
+            List<Cliente> clientes = new ArrayList<>();
+            List<Fatura> faturas = new ArrayList<>();
+            clientes.addAll(new ImportadorParalelo(new FicheiroHandler()).carregarClientesComFaturas(origem.toFile(), faturas));
+            double totalOriginal = total(faturas);
+            double semIVAOriginal = 0;
+            for (Fatura fatura : faturas) {
+                for (Produto produto : fatura.getProdutos()) {
+                    semIVAOriginal += produto.getValorUnitario() * produto.getQuantidade();
+                }
+            }
+
+            new FicheiroBinarioHandler().salvar(binario.toFile(), clientes, faturas);
+            ArmazemFaturas.salvar(mapeado.toFile(), clientes, faturas);
+            clientes = null;
+            faturas = null;
+
+            medir("ler .bin", () -> {
+                List<Fatura> lidas = new ArrayList<>();
+                new FicheiroBinarioHandler().carregar(binario.toFile(), new ArrayList<>(), lidas);
+                return lidas;
+            });
+            List<Fatura> lidas = medir("abrir .map", () -> {
+                List<Fatura> stubs = new ArrayList<>();
+                ArmazemFaturas.abrir(mapeado.toFile()).carregar(new ArrayList<>(), stubs);
+                return stubs;
+            });
+
+            if (total(lidas) != totalOriginal) {
+                throw new IllegalStateException("Os totais do índice não coincidem com os originais.");
+            }
+            Fatura consultada = lidas.get(lidas.size() / 2);
+            System.out.printf("Fatura %d: %d produtos lidos a pedido%n", consultada.getNumero(), consultada.getProdutos().size());
+
+            List<Cliente> clientesLidos = new ArrayList<>();
+            List<Fatura> faturasLidas = new ArrayList<>();
+            ArmazemFaturas.abrir(mapeado.toFile()).carregar(clientesLidos, faturasLidas);
+            long inicio = System.nanoTime();
+            ArmazemFaturas.salvar(copia.toFile(), clientesLidos, faturasLidas);
+            System.out.printf("Regravar .map sem descodificar: %.1f ms%n", (System.nanoTime() - inicio) / 1e6);
+
+            List<Fatura> copiadas = new ArrayList<>();
+            ArmazemFaturas.abrir(copia.toFile()).carregar(new ArrayList<>(), copiadas);
+            double totalProdutos = 0;
+            for (Fatura fatura : copiadas) {
+                for (Produto produto : fatura.getProdutos()) {
+                    totalProdutos += produto.getValorUnitario() * produto.getQuantidade();
+                }
+            }
+            if (totalProdutos != semIVAOriginal) {
+                throw new IllegalStateException("Os produtos copiados não coincidem com os originais.");
+            }
+            System.out.printf("Verificação: %d faturas, total sem IVA %.2f%n", copiadas.size(), totalProdutos);
+        } finally {
+            Files.deleteIfExists(origem);
+            Files.deleteIfExists(binario);
+            Files.deleteIfExists(mapeado);
+            Files.deleteIfExists(copia);
+        }
+    }
+
+    private static List<Fatura> medir(String nome, Medicao.Tarefa<List<Fatura>> tarefa) throws Exception {
+        Medicao<List<Fatura>> medicao = Medicao.medir(1, REPETICOES, tarefa);
+        System.out.printf("%-12s %8.1f ms, %6.1f MB em memória%n", nome, medicao.getMelhorMs(),
+                memoriaUsada() / (1024.0 * 1024));
+        return medicao.getResultado();
+    }
+
+    private static long memoriaUsada() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double total(List<Fatura> faturas) {
+        double total = 0;
+        for (Fatura fatura : faturas) {
+            total += fatura.getValorTotalComIVA();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Benchmark do arquivo colunar, comparado com o ficheiro de objetos e o formato binário compacto.
+ * Mede o tamanho de cada ficheiro, o tempo de leitura completa e o tempo de cálculo das estatísticas
+ * diretamente das colunas, e verifica que os dados reconstruídos e as estatísticas coincidem com os originais.
+ * Uso: {@code java BenchmarkArquivo [numFaturas] [produtosPorFatura]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkArquivo {
+    private static final int REPETICOES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path origem = GeradorDados.paraBenchmark().escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        Path objetos = Files.createTempFile("dados-bench", ".obj");
+        Path binario = Files.createTempFile("dados-bench", ".bin");
+        Path colunar = Files.createTempFile("dados-bench", ".col");
+        try {
+            List<Cliente> clientes = new ArrayList<>();
+            List<Fatura> faturas = new ArrayList<>();
+            clientes.addAll(new ImportadorParalelo(new FicheiroHandler()).carregarClientesComFaturas(origem.toFile(), faturas));
+            EstatisticasFaturas original = EstatisticasFaturas.calcular(faturas);
+
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(objetos.toFile()))) {
+                oos.writeObject(clientes);
+                oos.writeObject(faturas);
+            }
+            new FicheiroBinarioHandler().salvar(binario.toFile(), clientes, faturas);
+            long inicio = System.nanoTime();
+            ArquivoColunar.salvar(colunar.toFile(), clientes, faturas);
+            System.out.printf("Gravar .col: %.1f ms%n", (System.nanoTime() - inicio) / 1e6);
+
+            System.out.printf("%-6s %10s%n", "", "tamanho");
+            for (Path ficheiro : new Path[]{origem, objetos, binario, colunar}) {
+                String nome = ficheiro.getFileName().toString();
+                System.out.printf("%-6s %7.1f MB%n", nome.substring(nome.lastIndexOf('.') + 1),
+                        Files.size(ficheiro) / (1024.0 * 1024));
+            }
+
+            medir("ler .bin", () -> {
+                new FicheiroBinarioHandler().carregar(binario.toFile(), new ArrayList<>(), new ArrayList<>());
+                return 0;
+            });
+            List<Fatura> lidas = new ArrayList<>();
+            medir("ler .col", () -> {
+                lidas.clear();
+                ArquivoColunar.abrir(colunar.toFile()).carregar(new ArrayList<>(), lidas);
+                return lidas.size();
+            });
+            medir("estatísticas (objetos)", () -> (int) EstatisticasFaturas.calcular(faturas).getNumFaturas());
+            medir("estatísticas (.col)", () -> (int) ArquivoColunar.abrir(colunar.toFile()).calcularEstatisticas().getNumFaturas());
+            medir("soma IVA (.col)", () -> {
+                long[] total = new long[1];
+                ArquivoColunar.abrir(colunar.toFile()).percorrer(EnumSet.of(ArquivoColunar.Coluna.IVA), grupo -> {
+                    for (long iva : grupo.getTotaisIva()) {
+                        total[0] += iva;
+                    }
+                });
+                return (int) (total[0] % 1000);
+            });
+
+            EstatisticasFaturas doArquivo = ArquivoColunar.abrir(colunar.toFile()).calcularEstatisticas();
+            EstatisticasFaturas dasLidas = EstatisticasFaturas.calcular(lidas);
+            for (EstatisticasFaturas estatisticas : new EstatisticasFaturas[]{doArquivo, dasLidas}) {
+                if (estatisticas.getNumFaturas() != original.getNumFaturas()
+                        || estatisticas.getQuantidadeProdutos() != original.getQuantidadeProdutos()
+                        || estatisticas.getTotalSemIVACentimos() != original.getTotalSemIVACentimos()
+                        || estatisticas.getTotalIvaCentimos() != original.getTotalIvaCentimos()
+                        || estatisticas.getMeses().length != original.getMeses().length) {
+                    throw new IllegalStateException("As estatísticas do arquivo não coincidem com as originais.");
+                }
+            }
+            System.out.printf("Verificação: %d faturas, IVA %s%n", lidas.size(), Dinheiro.formatar(doArquivo.getTotalIvaCentimos()));
+        } finally {
+            Files.deleteIfExists(origem);
+            Files.deleteIfExists(objetos);
+            Files.deleteIfExists(binario);
+            Files.deleteIfExists(colunar);
+        }
+    }
+
+    private static void medir(String nome, Medicao.Tarefa<Integer> tarefa) throws Exception {
+        System.out.printf("%-24s %8.1f ms%n", nome, Medicao.medir(1, REPETICOES, tarefa).getMelhorMs());
+    }
+}
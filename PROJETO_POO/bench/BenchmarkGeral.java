@@ -0,0 +1,134 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Conjunto de benchmarks para detetar regressões: leitura e escrita do ficheiro de texto, do ficheiro de objetos
+ * e do formato binário, cálculo do imposto de todas as faturas e estatísticas, para vários tamanhos de histórico.
+ * Os dados são criados pelo {@link GeradorDados}; em cada cenário é apresentado o melhor tempo das repetições.
+ * <p>
+ * Uso: {@code java BenchmarkGeral [tamanhos] [produtosPorFatura] [proporcaoAlimentar] [repeticoes]},
+ * por exemplo {@code java -Xmx4g BenchmarkGeral 10000,100000,1000000 5 0.5 3}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkGeral {
+    private static int repeticoes = 3;
+
+    public static void main(String[] args) throws Exception {
+        String[] tamanhos = (args.length > 0 ? args[0] : "10000,100000").split(",");
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double proporcaoAlimentar = args.length > 2 ? Double.parseDouble(args[2]) : 0.5;
+        repeticoes = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        System.out.printf("%-22s %10s %10s%n", "Cenário", "Faturas", "ms");
+        for (String tamanho : tamanhos) {
+            executar(Integer.parseInt(tamanho.trim()), produtosPorFatura, proporcaoAlimentar);
+        }
+    }
+
+    private static void executar(int numFaturas, int produtosPorFatura, double proporcaoAlimentar) throws Exception {
+        GeradorDados gerador = GeradorDados.paraBenchmark();
+        gerador.setProporcaoAlimentar(proporcaoAlimentar);
+        Path texto = gerador.escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        Path textoGravado = Files.createTempFile("clientes-bench-gravado", ".txt");
+        Path objetos = Files.createTempFile("dados-bench", ".obj");
+        Path binario = Files.createTempFile("dados-bench", ".bin");
+        try {
+            FicheiroHandler handler = new FicheiroHandler();
+            List<Cliente> clientes = new ArrayList<>();
+            List<Fatura> faturas = new ArrayList<>();
+            clientes.addAll(new ImportadorParalelo(handler).carregarClientesComFaturas(texto.toFile(), faturas));
+
+            medir("texto: ler", numFaturas, () -> {
+                int[] contador = new int[1];
+                handler.lerEmStreaming(texto.toFile(), new LeitorClientesFaturas.Ouvinte() {
+                    @Override
+                    public void cliente(Cliente cliente) {
+                    }
+
+                    @Override
+                    public void fatura(Fatura fatura) {
+                        contador[0]++;
+                    }
+                });
+                return contador[0];
+            });
+            medir("texto: ler paralelo", numFaturas, () -> {
+                List<Fatura> lidas = new ArrayList<>();
+                new ImportadorParalelo(handler).carregarClientesComFaturas(texto.toFile(), lidas);
+                return lidas.size();
+            });
+            medir("texto: gravar", numFaturas, () -> {
+                handler.salvarClientesComFaturas(textoGravado.toFile(), clientes, faturas);
+                return faturas.size();
+            });
+
+            medir("objeto: gravar", numFaturas, () -> {
+                try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(objetos.toFile())))) {
+                    oos.writeObject(clientes);
+                    oos.writeObject(faturas);
+                }
+                return faturas.size();
+            });
+            medir("objeto: ler", numFaturas, () -> {
+                try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(objetos.toFile())))) {
+                    ois.readObject();
+                    return ((List<?>) ois.readObject()).size();
+                }
+            });
+
+            FicheiroBinarioHandler binarioHandler = new FicheiroBinarioHandler();
+            medir("binário: gravar", numFaturas, () -> {
+                binarioHandler.salvar(binario.toFile(), clientes, faturas);
+                return faturas.size();
+            });
+            medir("binário: ler", numFaturas, () -> {
+                List<Fatura> lidas = new ArrayList<>();
+                binarioHandler.carregar(binario.toFile(), new ArrayList<>(), lidas);
+                return lidas.size();
+            });
+
+            medir("imposto", numFaturas, () -> {
+                long total = 0;
+                for (Fatura fatura : faturas) {
+                    Localizacao localizacao = fatura.getCliente().getLocalizacao();
+                    for (Produto produto : fatura.getProdutos()) {
+                        total += produto.calcularImpostoCentimos(localizacao);
+                    }
+                }
+                return (int) (total % 1000);
+            });
+            medir("estatísticas (streams)", numFaturas, () -> {
+                // Os cálculos que POOFS.exibirEstatisticas fazia antes do EstatisticasFaturas, como referência
+                int numeroDeProdutos = faturas.stream()
+                        .flatMap(f -> f.getProdutos().stream())
+                        .mapToInt(Produto::getQuantidade)
+                        .sum();
+                long totalSemIVA = faturas.stream().mapToLong(Fatura::getTotalSemIVACentimos).sum();
+                long totalIVA = faturas.stream().mapToLong(Fatura::getTotalIvaCentimos).sum();
+                long totalComIVA = faturas.stream().mapToLong(Fatura::getTotalComIVACentimos).sum();
+                return (int) ((numeroDeProdutos + totalSemIVA + totalIVA + totalComIVA) % 1000);
+            });
+            medir("estatísticas", numFaturas, () -> {
+                // Uma passagem com todos os totais detalhados, como em POOFS.exibirEstatisticas
+                EstatisticasFaturas estatisticas = EstatisticasFaturas.calcular(faturas);
+                return (int) ((estatisticas.getQuantidadeProdutos() + estatisticas.getTotalSemIVACentimos()
+                        + estatisticas.getTotalIvaCentimos() + estatisticas.getTotalComIVACentimos()) % 1000);
+            });
+        } finally {
+            Files.deleteIfExists(texto);
+            Files.deleteIfExists(textoGravado);
+            Files.deleteIfExists(objetos);
+            Files.deleteIfExists(binario);
+        }
+    }
+
+    private static void medir(String nome, int numFaturas, Medicao.Tarefa<Integer> tarefa) throws Exception {
+        System.out.printf("%-22s %10d %10.1f%n", nome, numFaturas, Medicao.medir(1, repeticoes, tarefa).getMelhorMs());
+    }
+}
@@ -0,0 +1,133 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark do cálculo do IVA: a implementação anterior (switch sobre as Strings da localização e do tipo de taxa,
+ * reproduzida aqui como referência) contra a {@link TabelaIVA}. Verifica também que, para todos os produtos
+ * e localizações, o imposto em cêntimos difere no máximo um cêntimo do valor em double arredondado,
+ * e conta as linhas em que o arredondamento exato corrige o double.
+ * Uso: {@code java BenchmarkIVA [numFaturas] [produtosPorFatura]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkIVA {
+    private static final int REPETICOES = 10;
+
+    public static void main(String[] args) throws Exception {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Fatura> faturas = new ArrayList<>();
+        Path origem = GeradorDados.paraBenchmark().escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        try {
+            new ImportadorParalelo(new FicheiroHandler()).carregarClientesComFaturas(origem.toFile(), faturas);
+        } finally {
+            Files.deleteIfExists(origem);
+        }
+
+        List<Produto> produtos = new ArrayList<>();
+        for (Fatura fatura : faturas) {
+            produtos.addAll(fatura.getProdutos());
+        }
+        String[] nomes = {"Continente", "Madeira", "Açores"};
+        Localizacao[] localizacoes = {Localizacao.CONTINENTE, Localizacao.MADEIRA, Localizacao.ACORES};
+
+        int corrigidas = 0;
+        for (Produto produto : produtos) {
+            for (int i = 0; i < nomes.length; i++) {
+                long referencia = Dinheiro.deDouble(impostoReferencia(produto, nomes[i]));
+                long exato = produto.calcularImpostoCentimos(localizacoes[i]);
+                if (Math.abs(referencia - exato) > 1) {
+                    throw new IllegalStateException("Valores diferentes para " + produto + " em " + nomes[i]);
+                }
+                if (referencia != exato) {
+                    corrigidas++;
+                }
+            }
+        }
+        System.out.printf("%d produtos x %d localizações verificados (%d arredondamentos corrigidos)%n",
+                produtos.size(), nomes.length, corrigidas);
+
+        double referencia = medir("switch (anterior)", () -> {
+            double total = 0;
+            for (Produto produto : produtos) {
+                for (String nome : nomes) {
+                    total += impostoReferencia(produto, nome);
+                }
+            }
+            return total;
+        });
+        double tabela = medir("TabelaIVA", () -> {
+            long total = 0;
+            for (Produto produto : produtos) {
+                for (Localizacao localizacao : localizacoes) {
+                    total += produto.calcularImpostoCentimos(localizacao);
+                }
+            }
+            return Dinheiro.paraDouble(total);
+        });
+        System.out.printf("Aceleração: %.2fx%n", referencia / tabela);
+    }
+
+    private static double medir(String nome, Medicao.Tarefa<Double> tarefa) throws Exception {
+        Medicao<Double> medicao = Medicao.medir(3, REPETICOES, tarefa);
+        System.out.printf("%-18s %8.2f ms (total %.2f)%n", nome, medicao.getMelhorMs(), medicao.getResultado());
+        return medicao.getMelhorMs();
+    }
+
+    /**
+     * Cálculo do imposto tal como era feito antes da {@link TabelaIVA}.
+     */
+    private static double impostoReferencia(Produto produto, String tipoLocalizacao) {
+        double taxaBase;
+        if (produto instanceof ProdutoAlimentar alimentar) {
+            taxaBase = switch (tipoLocalizacao) {
+                case "Continente" -> switch (alimentar.getTipoTaxa()) {
+                    case "Taxa reduzida" -> 6;
+                    case "Taxa intermédia" -> 13;
+                    case "Taxa normal" -> 23;
+                    default -> 0;
+                };
+                case "Madeira" -> switch (alimentar.getTipoTaxa()) {
+                    case "Taxa reduzida" -> 5;
+                    case "Taxa intermédia" -> 12;
+                    case "Taxa normal" -> 22;
+                    default -> 0;
+                };
+                case "Açores" -> switch (alimentar.getTipoTaxa()) {
+                    case "Taxa reduzida" -> 4;
+                    case "Taxa intermédia" -> 9;
+                    case "Taxa normal" -> 16;
+                    default -> 0;
+                };
+                default -> throw new IllegalArgumentException("Tipo de localização inválido.");
+            };
+            if (alimentar.isBiologico()) {
+                taxaBase -= taxaBase * 0.10;
+            }
+            if (alimentar.getCertificacoes().size() == 4) {
+                taxaBase -= 1;
+            }
+            if ("vinho".equalsIgnoreCase(alimentar.getCategoria())) {
+                taxaBase += 1;
+            }
+        } else {
+            ProdutoFarmacia farmacia = (ProdutoFarmacia) produto;
+            switch (tipoLocalizacao) {
+                case "Continente" -> taxaBase = farmacia.isComPrescricao() ? 6 : 23;
+                case "Madeira" -> taxaBase = farmacia.isComPrescricao() ? 5 : 23;
+                case "Açores" -> taxaBase = farmacia.isComPrescricao() ? 4 : 23;
+                default -> throw new IllegalArgumentException("Tipo de localização inválido.");
+            }
+            if (!farmacia.isComPrescricao() && farmacia.getCategoria().equalsIgnoreCase("Animais")) {
+                taxaBase -= 1;
+            }
+        }
+        taxaBase = Math.max(taxaBase, 0);
+        return (produto.getValorUnitario() * produto.getQuantidade() * taxaBase) / 100;
+    }
+}
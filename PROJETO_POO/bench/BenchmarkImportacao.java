@@ -0,0 +1,73 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark da importação do ficheiro de clientes: leitura sequencial contra leitura paralela
+ * com 1, 2, 4, ... threads, até ao número de processadores disponíveis.
+ * Uso: {@code java BenchmarkImportacao [numFaturas] [produtosPorFatura]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkImportacao {
+    private static final int REPETICOES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path ficheiro = GeradorDados.paraBenchmark().escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        try {
+            System.out.printf("Ficheiro: %d faturas, %.1f MB%n", numFaturas, Files.size(ficheiro) / (1024.0 * 1024));
+
+            FicheiroHandler handler = new FicheiroHandler();
+            double base = medir("sequencial", () -> {
+                List<Fatura> faturas = new ArrayList<>();
+                handler.lerEmStreaming(ficheiro.toFile(), ouvinteContador(faturas));
+                return faturas.size();
+            });
+
+            int processadores = Runtime.getRuntime().availableProcessors();
+            for (int threads = 1; threads <= processadores; threads *= 2) {
+                ImportadorParalelo importador = new ImportadorParalelo(handler, threads);
+                File origem = ficheiro.toFile();
+                double tempo = medir("paralelo x" + threads, () -> {
+                    List<Fatura> faturas = new ArrayList<>();
+                    importador.importar(origem, ouvinteContador(faturas));
+                    return faturas.size();
+                });
+                System.out.printf("  aceleração face ao sequencial: %.2fx%n", base / tempo);
+            }
+        } finally {
+            Files.deleteIfExists(ficheiro);
+        }
+    }
+
+    private static double medir(String nome, Medicao.Tarefa<Integer> tarefa) throws Exception {
+        Medicao<Integer> medicao = Medicao.medir(1, REPETICOES, tarefa);
+        System.out.printf("%-14s %8.1f ms (%d faturas)%n", nome, medicao.getMelhorMs(), medicao.getResultado());
+        return medicao.getMelhorMs();
+    }
+
+    private static LeitorClientesFaturas.Ouvinte ouvinteContador(List<Fatura> faturas) {
+        return new LeitorClientesFaturas.Ouvinte() {
+            @Override
+            public void cliente(Cliente cliente) {
+            }
+
+            @Override
+            public void fatura(Fatura fatura) {
+                faturas.add(fatura);
+            }
+
+            @Override
+            public void erro(int numeroLinha, String mensagem) {
+                throw new IllegalStateException("Linha " + numeroLinha + ": " + mensagem);
+            }
+        };
+    }
+}
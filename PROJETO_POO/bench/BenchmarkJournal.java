@@ -0,0 +1,91 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Benchmark da escrita no journal: esperar por cada registo antes de pedir o seguinte (uma sincronização
+ * com o disco por registo), várias threads a registar em simultâneo (os registos pedidos durante uma escrita
+ * são escritos em conjunto) e todos os registos pedidos sem esperar, com uma única espera no fim.
+ * O journal é escrito num ficheiro temporário; o snapshot não é usado.
+ * Uso: {@code java BenchmarkJournal [numRegistos] [threads]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkJournal {
+    public static void main(String[] args) throws Exception {
+        int numRegistos = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+        Cliente cliente = new Cliente("Cliente Bench", "Continente", 1234);
+        List<Fatura> faturas = new ArrayList<>(numRegistos);
+        for (int i = 0; i < numRegistos; i++) {
+            Fatura fatura = new Fatura(i + 1, cliente, LocalDate.of(2024, 1, 1));
+            List<Produto> produtos = new ArrayList<>();
+            produtos.add(new ProdutoFarmacia("P" + i, "Produto " + i, "Produto de teste", 2.5, false,
+                    "Outro", null, 1 + i % 5, "Normal"));
+            fatura.setProdutos(produtos);
+            faturas.add(fatura);
+        }
+
+        double base = medir("uma espera por registo", numRegistos, journal -> {
+            for (Fatura fatura : faturas) {
+                journal.registarFatura(fatura).join();
+            }
+        });
+
+        double concorrente = medir(threads + " threads, uma espera por registo", numRegistos, journal -> {
+            List<Thread> ativas = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int primeiro = t;
+                Thread thread = new Thread(() -> {
+                    for (int i = primeiro; i < faturas.size(); i += threads) {
+                        journal.registarFatura(faturas.get(i)).join();
+                    }
+                });
+                thread.start();
+                ativas.add(thread);
+            }
+            for (Thread thread : ativas) {
+                thread.join();
+            }
+        });
+        System.out.printf("  aceleração: %.1fx%n", base / concorrente);
+
+        double semEspera = medir("sem espera, sincronizar no fim", numRegistos, journal -> {
+            List<CompletableFuture<Void>> escritos = new ArrayList<>(faturas.size());
+            for (Fatura fatura : faturas) {
+                escritos.add(journal.registarFatura(fatura));
+            }
+            journal.sincronizar().join();
+            CompletableFuture.allOf(escritos.toArray(new CompletableFuture<?>[0])).join();
+        });
+        System.out.printf("  aceleração: %.1fx%n", base / semEspera);
+    }
+
+    private interface Tarefa {
+        void executar(FicheiroJournal journal) throws Exception;
+    }
+
+    private static double medir(String nome, int numRegistos, Tarefa tarefa) throws Exception {
+        File ficheiro = Files.createTempFile("journal-bench", ".journal").toFile();
+        FicheiroJournal journal = new FicheiroJournal(ficheiro, new FicheiroHandler(), (clientes, faturas) -> {
+            throw new IOException("Snapshot não usado no benchmark.");
+        });
+        try {
+            // Uma única execução, com um journal novo: uma repetição encontraria o journal já escrito
+            double ms = Medicao.melhorTempo(0, 1, () -> tarefa.executar(journal));
+            System.out.printf("%-40s %9.1f ms  %10.0f registos/s  (%d KB)%n", nome, ms,
+                    numRegistos / (ms / 1000), ficheiro.length() / 1024);
+            return ms;
+        } finally {
+            journal.fechar();
+            Files.deleteIfExists(ficheiro.toPath());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark da persistência: serialização Java ("dados.obj") contra o formato binário compacto ("dados.bin").
+ * Mede o tempo de gravação e de leitura e o tamanho do ficheiro, e verifica que os totais lidos coincidem.
+ * Uso: {@code java BenchmarkPersistencia [numFaturas] [produtosPorFatura]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkPersistencia {
+    private static final int REPETICOES = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path origem = GeradorDados.paraBenchmark().escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        Path objetos = Files.createTempFile("dados-bench", ".obj");
+        Path binario = Files.createTempFile("dados-bench", ".bin");
+        try {
+            List<Cliente> clientes = new ArrayList<>();
+            List<Fatura> faturas = new ArrayList<>();
+            clientes.addAll(new ImportadorParalelo(new FicheiroHandler()).carregarClientesComFaturas(origem.toFile(), faturas));
+            double totalOriginal = total(faturas);
+            System.out.printf("%d clientes, %d faturas%n", clientes.size(), faturas.size());
+
+            double gravarObj = medir("gravar .obj", () -> {
+                try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(objetos.toFile())))) {
+                    oos.writeObject(clientes);
+                    oos.writeObject(faturas);
+                }
+            });
+            double lerObj = medir("ler .obj", () -> {
+                try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(objetos.toFile())))) {
+                    ois.readObject();
+                    // O segundo objeto gravado acima é a lista de faturas
+                    @SuppressWarnings("unchecked")
+                    List<Fatura> lidas = (List<Fatura>) ois.readObject();
+                    verificar(totalOriginal, lidas);
+                }
+            });
+
+            FicheiroBinarioHandler handler = new FicheiroBinarioHandler();
+            double gravarBin = medir("gravar .bin", () -> handler.salvar(binario.toFile(), clientes, faturas));
+            double lerBin = medir("ler .bin", () -> {
+                List<Fatura> lidas = new ArrayList<>();
+                handler.carregar(binario.toFile(), new ArrayList<>(), lidas);
+                verificar(totalOriginal, lidas);
+            });
+
+            System.out.printf("Tamanho: .obj %.1f MB, .bin %.1f MB%n",
+                    Files.size(objetos) / (1024.0 * 1024), Files.size(binario) / (1024.0 * 1024));
+            System.out.printf("Aceleração: gravar %.2fx, ler %.2fx%n", gravarObj / gravarBin, lerObj / lerBin);
+        } finally {
+            Files.deleteIfExists(origem);
+            Files.deleteIfExists(objetos);
+            Files.deleteIfExists(binario);
+        }
+    }
+
+    private static double medir(String nome, Medicao.Acao acao) throws Exception {
+        double melhor = Medicao.melhorTempo(1, REPETICOES, acao);
+        System.out.printf("%-12s %8.1f ms%n", nome, melhor);
+        return melhor;
+    }
+
+    private static double total(List<Fatura> faturas) {
+        double total = 0;
+        for (Fatura fatura : faturas) {
+            total += fatura.getValorTotalComIVA();
+        }
+        return total;
+    }
+
+    private static void verificar(double esperado, List<Fatura> faturas) {
+        if (total(faturas) != esperado) {
+            throw new IllegalStateException("Os totais lidos não coincidem com os originais.");
+        }
+    }
+}
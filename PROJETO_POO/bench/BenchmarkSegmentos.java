@@ -0,0 +1,98 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark do armazém segmentado: tempo de uma gravação completa contra gravações depois de pequenas alterações
+ * (nenhuma, editar o nome de um cliente, editar uma fatura, criar uma fatura), e o número de segmentos escritos
+ * em cada uma. No fim, verifica que os dados lidos do armazém coincidem com os gravados.
+ * Uso: {@code java BenchmarkSegmentos [numFaturas] [produtosPorFatura]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class BenchmarkSegmentos {
+    public static void main(String[] args) throws Exception {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int produtosPorFatura = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        Path origem = GeradorDados.paraBenchmark().escreverFicheiroTemporario(numFaturas, produtosPorFatura);
+        Path pasta = Files.createTempDirectory("dados-bench-seg");
+        try {
+            List<Fatura> faturas = new ArrayList<>();
+            List<Cliente> clientes = new ImportadorParalelo(new FicheiroHandler()).carregarClientesComFaturas(origem.toFile(), faturas);
+            System.out.printf("%d clientes, %d faturas%n", clientes.size(), faturas.size());
+
+            ArmazemSegmentado armazem = new ArmazemSegmentado(pasta.toFile());
+            double completa = medir("gravação completa", armazem, clientes, faturas);
+            medir("sem alterações", armazem, clientes, faturas);
+
+            Cliente cliente = clientes.get(clientes.size() / 2);
+            cliente.setNome(cliente.getNome() + " (editado)");
+            double editarCliente = medir("editar um cliente", armazem, clientes, faturas);
+
+            Fatura fatura = faturas.get(faturas.size() / 3);
+            fatura.setData(fatura.getData().plusDays(1));
+            double editarFatura = medir("editar uma fatura", armazem, clientes, faturas);
+
+            Fatura nova = new Fatura(faturas.size() + 1, cliente, LocalDate.of(2024, 6, 1));
+            nova.setProdutos(new ArrayList<>(fatura.getProdutos()));
+            faturas.add(nova);
+            double criarFatura = medir("criar uma fatura", armazem, clientes, faturas);
+
+            System.out.printf("Aceleração face à gravação completa: cliente %.0fx, fatura %.0fx, nova fatura %.0fx%n",
+                    completa / editarCliente, completa / editarFatura, completa / criarFatura);
+
+            List<Cliente> clientesLidos = new ArrayList<>();
+            List<Fatura> faturasLidas = new ArrayList<>();
+            new ArmazemSegmentado(pasta.toFile()).carregar(clientesLidos, faturasLidas);
+            verificar(clientes, faturas, clientesLidos, faturasLidas);
+            System.out.println("Os dados lidos coincidem com os gravados.");
+        } finally {
+            Files.deleteIfExists(origem);
+            try (Stream<Path> ficheiros = Files.walk(pasta)) {
+                for (Path ficheiro : ficheiros.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(ficheiro);
+                }
+            }
+        }
+    }
+
+    private static double medir(String nome, ArmazemSegmentado armazem, List<Cliente> clientes, List<Fatura> faturas)
+            throws Exception {
+        // Uma única execução: cada gravação só escreve o que mudou desde a anterior
+        Medicao<Integer> medicao = Medicao.medir(0, 1, () -> armazem.guardar(clientes, faturas));
+        System.out.printf("%-20s %9.1f ms  %4d segmentos escritos%n", nome, medicao.getMelhorMs(), medicao.getResultado());
+        return medicao.getMelhorMs();
+    }
+
+    private static void verificar(List<Cliente> clientes, List<Fatura> faturas,
+                                  List<Cliente> clientesLidos, List<Fatura> faturasLidas) {
+        if (clientesLidos.size() != clientes.size() || faturasLidas.size() != faturas.size()) {
+            throw new IllegalStateException("O número de clientes ou de faturas lidos não coincide.");
+        }
+        for (int i = 0; i < clientes.size(); i++) {
+            if (!clientes.get(i).getNome().equals(clientesLidos.get(i).getNome())) {
+                throw new IllegalStateException("O cliente " + i + " lido não coincide.");
+            }
+        }
+        List<Fatura> ordenadas = new ArrayList<>(faturas);
+        ordenadas.sort(Comparator.comparingInt(Fatura::getNumero));
+        faturasLidas.sort(Comparator.comparingInt(Fatura::getNumero));
+        for (int i = 0; i < ordenadas.size(); i++) {
+            Fatura esperada = ordenadas.get(i);
+            Fatura lida = faturasLidas.get(i);
+            if (esperada.getNumero() != lida.getNumero() || !esperada.getData().equals(lida.getData())
+                    || esperada.getTotalComIVACentimos() != lida.getTotalComIVACentimos()
+                    || esperada.getCliente().getNumeroContribuinte() != lida.getCliente().getNumeroContribuinte()) {
+                throw new IllegalStateException("A fatura " + esperada.getNumero() + " lida não coincide.");
+            }
+        }
+    }
+}
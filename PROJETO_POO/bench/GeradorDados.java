@@ -0,0 +1,178 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Gerador de dados sintéticos para os benchmarks.
+ * Produz ficheiros de clientes no mesmo formato e codificação (UTF-8) que {@link FicheiroHandler}, com uma mistura
+ * de produtos alimentares e de farmácia e clientes nas três localizações.
+ * A proporção de produtos alimentares e o peso de cada localização podem ser configurados.
+ * Também pode ser usado diretamente:
+ * {@code java GeradorDados destino numClientes numFaturas produtosPorFatura [proporcaoAlimentar]}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class GeradorDados {
+    private static final long SEMENTE_BENCHMARK = 42;
+    private static final int CLIENTES_BENCHMARK = 5000;
+
+    private static final String[] LOCALIZACOES = {"Continente", "Madeira", "Açores"};
+    private static final String[] CERTIFICACOES = {"ISO22000", "FSSC22000", "HACCP", "GMP"};
+    private static final String[] CATEGORIAS_FARMACIA = {"Beleza", "Bem-estar", "Bebês", "Animais", "Outro"};
+
+    private final Random random;
+    private double proporcaoAlimentar = 0.5;
+    private int[] pesosLocalizacoes = {1, 1, 1};
+
+    /**
+     * Construtor do gerador.
+     *
+     * @param semente Semente do gerador aleatório, para obter sempre os mesmos dados.
+     */
+    public GeradorDados(long semente) {
+        this.random = new Random(semente);
+    }
+
+    /**
+     * Cria o gerador usado pelos benchmarks, com uma semente fixa para que todos meçam os mesmos dados.
+     *
+     * @return Gerador com a semente dos benchmarks.
+     */
+    public static GeradorDados paraBenchmark() {
+        return new GeradorDados(SEMENTE_BENCHMARK);
+    }
+
+    /**
+     * Define a proporção de produtos alimentares (os restantes são de farmácia).
+     *
+     * @param proporcaoAlimentar Valor entre 0 e 1.
+     * @throws IllegalArgumentException se o valor estiver fora do intervalo.
+     */
+    public void setProporcaoAlimentar(double proporcaoAlimentar) {
+        if (proporcaoAlimentar < 0 || proporcaoAlimentar > 1) {
+            throw new IllegalArgumentException("A proporção de produtos alimentares deve estar entre 0 e 1.");
+        }
+        this.proporcaoAlimentar = proporcaoAlimentar;
+    }
+
+    /**
+     * Define o peso relativo de cada localização na distribuição dos clientes.
+     *
+     * @param continente Peso do Continente.
+     * @param madeira Peso da Madeira.
+     * @param acores Peso dos Açores.
+     * @throws IllegalArgumentException se algum peso for negativo ou todos forem zero.
+     */
+    public void setPesosLocalizacoes(int continente, int madeira, int acores) {
+        if (continente < 0 || madeira < 0 || acores < 0 || continente + madeira + acores == 0) {
+            throw new IllegalArgumentException("Os pesos das localizações devem ser não negativos e não todos nulos.");
+        }
+        this.pesosLocalizacoes = new int[]{continente, madeira, acores};
+    }
+
+    /**
+     * Escreve um ficheiro de clientes com faturas sintéticas.
+     *
+     * @param destino Ficheiro a criar.
+     * @param numClientes Número de clientes (no máximo 9000, por causa dos NIF de 4 dígitos).
+     * @param numFaturas Número de faturas.
+     * @param produtosPorFatura Número de produtos em cada fatura.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public void escreverFicheiroClientes(Path destino, int numClientes, int numFaturas, int produtosPorFatura)
+            throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(destino, StandardCharsets.UTF_8)) {
+            bw.write("# Clientes\n");
+            for (int i = 0; i < numClientes; i++) {
+                bw.write("Cliente " + i + ";" + localizacao(i) + ";" + (1000 + i) + "\n");
+            }
+
+            bw.write("# Faturas\n");
+            LocalDate inicio = LocalDate.of(2020, 1, 1);
+            for (int f = 1; f <= numFaturas; f++) {
+                bw.write(f + ";" + inicio.plusDays(random.nextInt(1500)) + ";" + (1000 + random.nextInt(numClientes)) + "\n");
+                for (int p = 0; p < produtosPorFatura; p++) {
+                    bw.write(linhaProduto(f, p));
+                    bw.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Escreve um ficheiro temporário de clientes com os clientes dos benchmarks e as faturas indicadas.
+     * O ficheiro deve ser apagado por quem o pede; se a escrita falhar, é apagado aqui.
+     *
+     * @param numFaturas Número de faturas.
+     * @param produtosPorFatura Número de produtos em cada fatura.
+     * @return Caminho do ficheiro criado.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public Path escreverFicheiroTemporario(int numFaturas, int produtosPorFatura) throws IOException {
+        Path destino = Files.createTempFile("clientes-bench", ".txt");
+        try {
+            escreverFicheiroClientes(destino, CLIENTES_BENCHMARK, numFaturas, produtosPorFatura);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(destino);
+            throw e;
+        }
+        return destino;
+    }
+
+    /**
+     * Escolhe a localização do cliente i de forma determinística, respeitando os pesos configurados.
+     */
+    private String localizacao(int cliente) {
+        int total = pesosLocalizacoes[0] + pesosLocalizacoes[1] + pesosLocalizacoes[2];
+        int posicao = cliente % total;
+        for (int i = 0; i < LOCALIZACOES.length; i++) {
+            if (posicao < pesosLocalizacoes[i]) {
+                return LOCALIZACOES[i];
+            }
+            posicao -= pesosLocalizacoes[i];
+        }
+        return LOCALIZACOES[0];
+    }
+
+    private String linhaProduto(int fatura, int indice) {
+        String codigo = "P" + (fatura * 31 + indice) % 5000;
+        int centimos = 1 + random.nextInt(9999);
+        String valor = centimos / 100 + "." + (centimos % 100 < 10 ? "0" : "") + centimos % 100;
+        int quantidade = 1 + random.nextInt(20);
+
+        if (random.nextDouble() < proporcaoAlimentar) {
+            // Alimentar: sem certificações nem biológico (normal), congelados (intermédia) ou com certificações (reduzida)
+            return switch (random.nextInt(3)) {
+                case 0 -> codigo + ";Produto " + codigo + ";Alimentar normal;Alimentar;" + valor + ";" + quantidade + ";null;false;";
+                case 1 -> codigo + ";Produto " + codigo + ";Congelado;Alimentar;" + valor + ";" + quantidade + ";congelados;false;"
+                        + CERTIFICACOES[random.nextInt(4)];
+                default -> codigo + ";Produto " + codigo + ";Certificado;Alimentar;" + valor + ";" + quantidade + ";null;"
+                        + random.nextBoolean() + ";" + String.join(",", java.util.Arrays.copyOf(CERTIFICACOES, 1 + random.nextInt(4)));
+            };
+        }
+        if (random.nextInt(4) == 0) {
+            return codigo + ";Medicamento " + codigo + ";Com receita;Farmacia;" + valor + ";" + quantidade + ";null;true;Dr. Silva";
+        }
+        return codigo + ";Artigo " + codigo + ";Sem receita;Farmacia;" + valor + ";" + quantidade + ";"
+                + CATEGORIAS_FARMACIA[random.nextInt(CATEGORIAS_FARMACIA.length)] + ";false;null";
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.out.println("Uso: java GeradorDados destino numClientes numFaturas produtosPorFatura [proporcaoAlimentar]");
+            return;
+        }
+        GeradorDados gerador = new GeradorDados(42);
+        if (args.length > 4) {
+            gerador.setProporcaoAlimentar(Double.parseDouble(args[4]));
+        }
+        gerador.escreverFicheiroClientes(Path.of(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]));
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Medição de tempos para os benchmarks. A tarefa é executada algumas vezes para aquecimento e depois
+ * repetida, ficando o melhor tempo, que é o menos afetado pelo JIT, pelo GC e por outros processos.
+ * Com zero aquecimentos e uma repetição mede uma única execução, para tarefas que alteram o estado.
+ *
+ * @param <T> Tipo do resultado da tarefa.
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class Medicao<T> {
+    /**
+     * Tarefa medida, que devolve um resultado (por exemplo, o número de faturas lidas).
+     *
+     * @param <T> Tipo do resultado.
+     */
+    public interface Tarefa<T> {
+        T executar() throws Exception;
+    }
+
+    /**
+     * Tarefa medida sem resultado.
+     */
+    public interface Acao {
+        void executar() throws Exception;
+    }
+
+    private final double melhorMs;
+    private final T resultado;
+
+    private Medicao(double melhorMs, T resultado) {
+        this.melhorMs = melhorMs;
+        this.resultado = resultado;
+    }
+
+    /**
+     * Executa a tarefa {@code aquecimentos} vezes sem medir e depois {@code repeticoes} vezes, medindo cada execução.
+     *
+     * @param aquecimentos Número de execuções de aquecimento.
+     * @param repeticoes Número de execuções medidas (pelo menos uma).
+     * @param tarefa Tarefa a medir.
+     * @return O melhor tempo e o resultado da última execução.
+     * @throws Exception se a tarefa falhar.
+     */
+    public static <T> Medicao<T> medir(int aquecimentos, int repeticoes, Tarefa<T> tarefa) throws Exception {
+        if (aquecimentos < 0 || repeticoes < 1) {
+            throw new IllegalArgumentException("São precisas pelo menos uma repetição e zero ou mais aquecimentos.");
+        }
+        for (int i = 0; i < aquecimentos; i++) {
+            tarefa.executar();
+        }
+        double melhor = Double.MAX_VALUE;
+        T resultado = null;
+        for (int i = 0; i < repeticoes; i++) {
+            resultado = null; // O resultado anterior pode ser libertado enquanto se mede o seguinte
+            long inicio = System.nanoTime();
+            resultado = tarefa.executar();
+            melhor = Math.min(melhor, (System.nanoTime() - inicio) / 1e6);
+        }
+        return new Medicao<>(melhor, resultado);
+    }
+
+    /**
+     * Como {@link #medir(int, int, Tarefa)}, para tarefas sem resultado.
+     *
+     * @param aquecimentos Número de execuções de aquecimento.
+     * @param repeticoes Número de execuções medidas (pelo menos uma).
+     * @param acao Tarefa a medir.
+     * @return O melhor tempo, em milissegundos.
+     * @throws Exception se a tarefa falhar.
+     */
+    public static double melhorTempo(int aquecimentos, int repeticoes, Acao acao) throws Exception {
+        return medir(aquecimentos, repeticoes, () -> {
+            acao.executar();
+            return null;
+        }).getMelhorMs();
+    }
+
+    /**
+     * Retorna o melhor tempo das execuções medidas.
+     *
+     * @return Tempo em milissegundos.
+     */
+    public double getMelhorMs() {
+        return melhorMs;
+    }
+
+    /**
+     * Retorna o resultado da última execução medida.
+     *
+     * @return Resultado da tarefa.
+     */
+    public T getResultado() {
+        return resultado;
+    }
+}
@@ -0,0 +1,342 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Teste de conformidade e de desempenho dos motores de armazenamento ({@link Armazenamento}).
+ * <p>
+ * Cada motor é testado numa pasta temporária própria: começa vazio, guarda os dados, volta a carregá-los numa nova
+ * instância, percorre um período, acrescenta um cliente e faturas (uma delas com outro objeto para um cliente
+ * já guardado), guarda de novo depois de editar um cliente e uma fatura, e recusa um cliente repetido.
+ * Depois de cada passo, os dados lidos têm de coincidir com os esperados: clientes pela ordem guardada e
+ * faturas por número, com os mesmos produtos e totais. As estatísticas calculadas pelo motor têm de coincidir
+ * com as calculadas a partir das faturas lidas.
+ * No fim, mostra o tempo de cada operação com todos os dados.
+ * <p>
+ * O motor SQL só é testado se for indicado o início do URL JDBC (por exemplo {@code jdbc:h2:} ou
+ * {@code jdbc:sqlite:}), a que é acrescentado o caminho da base de dados; o driver tem de estar no classpath.
+ * Uso: {@code java TesteArmazenamento [numFaturas] [inicioUrlSQL]}. Termina com código 1 se algum motor falhar.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class TesteArmazenamento {
+    private static final int NUM_CLIENTES = 2000;
+    private static final int NIF_NOVO = 9999;
+    private static final int FATURAS_ACRESCENTADAS = 100;
+    private static final LocalDate INICIO_PERIODO = LocalDate.of(2021, 3, 1);
+    private static final LocalDate FIM_PERIODO = LocalDate.of(2021, 3, 31);
+
+    private static final FicheiroHandler FORMATO_TEXTO = new FicheiroHandler();
+
+    /**
+     * Motor a testar: o nome, o formato de {@link FicheiroObjetoHandler} a usar (ou null) e a forma de o criar
+     * numa pasta.
+     */
+    private record Motor(String nome, String formato, Function<File, Armazenamento> criar) {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+
+        List<Motor> motores = new ArrayList<>();
+        motores.add(new Motor("texto", null, pasta -> new ArmazenamentoTexto(FORMATO_TEXTO, new File(pasta, "clientes.txt"))));
+        for (String formato : new String[]{"objetos", "binario", "mapeado", "colunar", "segmentado"}) {
+            motores.add(new Motor(formato, formato,
+                    pasta -> new ArmazenamentoObjetos(new FicheiroObjetoHandler(pasta), null)));
+        }
+        if (args.length > 1) {
+            String inicioUrl = args[1];
+            motores.add(new Motor("sql", null,
+                    pasta -> new ArmazenamentoSQL(inicioUrl + new File(pasta, "dados").getAbsolutePath(), null)));
+        }
+
+        Path origem = Files.createTempFile("clientes-armazenamento", ".txt");
+        List<Cliente> clientes;
+        List<Fatura> faturas = new ArrayList<>();
+        try {
+            new GeradorDados(42).escreverFicheiroClientes(origem, NUM_CLIENTES, numFaturas, 4);
+            clientes = new ImportadorParalelo(FORMATO_TEXTO).carregarClientesComFaturas(origem.toFile(), faturas);
+        } finally {
+            Files.deleteIfExists(origem);
+        }
+        System.out.printf("%d clientes, %d faturas%n", clientes.size(), faturas.size());
+
+        List<String> falhas = new ArrayList<>();
+        System.out.printf("%-11s %10s %10s %12s %10s %12s  %s%n", "motor", "guardar", "carregar", "acrescentar", "percorrer",
+                "estatísticas", "conformidade");
+        for (Motor motor : motores) {
+            String formatoAnterior = System.getProperty("poofs.formato");
+            if (motor.formato() != null) {
+                System.setProperty("poofs.formato", motor.formato());
+            }
+            Path pasta = Files.createTempDirectory("armazenamento-" + motor.nome());
+            try {
+                testar(motor, pasta.toFile(), clientes, faturas);
+            } catch (IOException | RuntimeException e) {
+                falhas.add(motor.nome() + ": " + e);
+                System.out.printf("%-11s %s%n", motor.nome(), "FALHOU: " + e.getMessage());
+            } finally {
+                apagar(pasta);
+                if (formatoAnterior == null) {
+                    System.clearProperty("poofs.formato");
+                } else {
+                    System.setProperty("poofs.formato", formatoAnterior);
+                }
+            }
+        }
+
+        if (falhas.isEmpty()) {
+            System.out.println("Todos os motores passaram.");
+            return;
+        }
+        falhas.forEach(System.out::println);
+        System.exit(1);
+    }
+
+    private static void testar(Motor motor, File pasta, List<Cliente> clientesOriginais, List<Fatura> faturasOriginais)
+            throws IOException {
+        // Cópias, para que as edições de um motor não afetem os seguintes
+        List<Cliente> clientes = new ArrayList<>();
+        List<Fatura> faturas = new ArrayList<>();
+        copiar(clientesOriginais, faturasOriginais, clientes, faturas);
+
+        Armazenamento armazenamento = motor.criar().apply(pasta);
+        comparar("vazio", motor, pasta, List.of(), List.of());
+
+        long inicio = System.nanoTime();
+        armazenamento.guardar(clientes, faturas);
+        double guardar = (System.nanoTime() - inicio) / 1e6;
+
+        Armazenamento outra = motor.criar().apply(pasta);
+        inicio = System.nanoTime();
+        comparar("guardar", outra, clientes, faturas);
+        double carregar = (System.nanoTime() - inicio) / 1e6;
+
+        List<Fatura> doPeriodo = new ArrayList<>();
+        for (Fatura fatura : faturas) {
+            if (!fatura.getData().isBefore(INICIO_PERIODO) && !fatura.getData().isAfter(FIM_PERIODO)) {
+                doPeriodo.add(fatura);
+            }
+        }
+        List<Fatura> percorridas = new ArrayList<>();
+        inicio = System.nanoTime();
+        outra.percorrer(INICIO_PERIODO, FIM_PERIODO, percorridas::add);
+        double percorrer = (System.nanoTime() - inicio) / 1e6;
+        compararFaturas("percorrer", doPeriodo, percorridas);
+
+        // Um cliente novo e faturas para ele e para um cliente guardado (através de outro objeto com o mesmo NIF)
+        Cliente novo = new Cliente("Cliente novo", "Madeira", NIF_NOVO);
+        Cliente copiaGuardado = new Cliente(clientes.get(0).getNome(), clientes.get(0).getTipoLocalizacao(),
+                clientes.get(0).getNumeroContribuinte());
+        List<Fatura> novas = new ArrayList<>();
+        for (int i = 0; i < FATURAS_ACRESCENTADAS; i++) {
+            Fatura modelo = faturas.get(i);
+            Fatura fatura = new Fatura(faturas.size() + 1 + i, i % 2 == 0 ? novo : copiaGuardado, LocalDate.of(2024, 1, 1 + i % 28));
+            fatura.setProdutos(modelo.getProdutos());
+            novas.add(fatura);
+        }
+        inicio = System.nanoTime();
+        outra.acrescentar(List.of(novo), novas);
+        double acrescentar = (System.nanoTime() - inicio) / 1e6;
+        clientes.add(novo);
+        for (Fatura fatura : novas) {
+            if (fatura.getCliente() == copiaGuardado) {
+                fatura.setCliente(clientes.get(0));
+            }
+            faturas.add(fatura);
+        }
+        comparar("acrescentar", motor, pasta, clientes, faturas);
+
+        // Editar um cliente e uma fatura e guardar tudo de novo
+        clientes.get(1).setNome("Cliente editado");
+        clientes.get(2).setTipoLocalizacao("Açores");
+        Fatura editada = faturas.get(faturas.size() / 2);
+        editada.setData(editada.getData().plusDays(3));
+        editada.setProdutos(faturas.get(0).getProdutos());
+        Armazenamento terceira = motor.criar().apply(pasta);
+        lerTudo(terceira, null); // Como no arranque: os dados são carregados antes de serem guardados
+        terceira.guardar(clientes, faturas);
+        comparar("editar", motor, pasta, clientes, faturas);
+
+        Armazenamento quarta = motor.criar().apply(pasta);
+        List<Fatura> lidas = lerTudo(quarta, null);
+        inicio = System.nanoTime();
+        EstatisticasFaturas doMotor = quarta.calcularEstatisticas(lidas);
+        double estatisticas = (System.nanoTime() - inicio) / 1e6;
+        compararEstatisticas(EstatisticasFaturas.calcular(lidas), doMotor, clientes);
+        quarta.fechar();
+
+        try {
+            terceira.acrescentar(List.of(new Cliente("Repetido", "Continente", NIF_NOVO)), List.of());
+            throw new IllegalStateException("acrescentar: um cliente repetido foi aceite.");
+        } catch (IllegalArgumentException e) {
+            // Esperado
+        }
+        outra.fechar();
+        terceira.fechar();
+        armazenamento.fechar();
+
+        System.out.printf("%-11s %8.1f ms %8.1f ms %10.1f ms %8.1f ms %10.1f ms  ok%n", motor.nome(), guardar, carregar,
+                acrescentar, percorrer, estatisticas);
+    }
+
+    /**
+     * Lê todos os dados do motor, para listas novas.
+     */
+    private static List<Fatura> lerTudo(Armazenamento armazenamento, List<Cliente> clientes) throws IOException {
+        List<Fatura> faturas = new ArrayList<>();
+        armazenamento.carregar(new LeitorClientesFaturas.Ouvinte() {
+            @Override
+            public void cliente(Cliente cliente) {
+                if (clientes != null) {
+                    clientes.add(cliente);
+                }
+            }
+
+            @Override
+            public void fatura(Fatura fatura) {
+                faturas.add(fatura);
+            }
+        });
+        return faturas;
+    }
+
+    private static void comparar(String etapa, Armazenamento armazenamento, List<Cliente> clientes, List<Fatura> faturas)
+            throws IOException {
+        List<Cliente> lidos = new ArrayList<>();
+        List<Fatura> lidas = lerTudo(armazenamento, lidos);
+        compararClientes(etapa, clientes, lidos);
+        compararFaturas(etapa, faturas, lidas);
+    }
+
+    /**
+     * Compara os dados lidos por uma nova instância do motor, que é fechada no fim.
+     */
+    private static void comparar(String etapa, Motor motor, File pasta, List<Cliente> clientes, List<Fatura> faturas)
+            throws IOException {
+        Armazenamento armazenamento = motor.criar().apply(pasta);
+        try {
+            comparar(etapa, armazenamento, clientes, faturas);
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+
+    private static void compararEstatisticas(EstatisticasFaturas esperadas, EstatisticasFaturas lidas, List<Cliente> clientes) {
+        List<long[]> totaisEsperados = new ArrayList<>();
+        List<long[]> totaisLidos = new ArrayList<>();
+        totaisEsperados.add(new long[]{esperadas.getNumFaturas(), esperadas.getQuantidadeProdutos(),
+                esperadas.getTotalSemIVACentimos(), esperadas.getTotalIvaCentimos()});
+        totaisLidos.add(new long[]{lidas.getNumFaturas(), lidas.getQuantidadeProdutos(),
+                lidas.getTotalSemIVACentimos(), lidas.getTotalIvaCentimos()});
+        for (Localizacao localizacao : Localizacao.values()) {
+            totaisEsperados.add(esperadas.getTotaisPorLocalizacao(localizacao));
+            totaisLidos.add(lidas.getTotaisPorLocalizacao(localizacao));
+        }
+        for (boolean alimentar : new boolean[]{true, false}) {
+            totaisEsperados.add(esperadas.getTotaisPorTipoProduto(alimentar));
+            totaisLidos.add(lidas.getTotaisPorTipoProduto(alimentar));
+        }
+        for (ClasseTaxa classe : ClasseTaxa.values()) {
+            totaisEsperados.add(esperadas.getTotaisPorClasseTaxa(classe));
+            totaisLidos.add(lidas.getTotaisPorClasseTaxa(classe));
+        }
+        totaisEsperados.add(esperadas.getTotaisSemClasseTaxa());
+        totaisLidos.add(lidas.getTotaisSemClasseTaxa());
+        if (!Arrays.equals(esperadas.getMeses(), lidas.getMeses())) {
+            throw new IllegalStateException("estatísticas: os meses não coincidem.");
+        }
+        for (int mes : esperadas.getMeses()) {
+            totaisEsperados.add(esperadas.getTotaisPorMes(mes));
+            totaisLidos.add(lidas.getTotaisPorMes(mes));
+        }
+        for (Cliente cliente : clientes) {
+            totaisEsperados.add(esperadas.getTotaisPorNif(cliente.getNumeroContribuinte()));
+            totaisLidos.add(lidas.getTotaisPorNif(cliente.getNumeroContribuinte()));
+        }
+        for (int i = 0; i < totaisEsperados.size(); i++) {
+            if (!Arrays.equals(totaisEsperados.get(i), totaisLidos.get(i))) {
+                throw new IllegalStateException("estatísticas: os totais " + i + " não coincidem: esperados "
+                        + Arrays.toString(totaisEsperados.get(i)) + ", lidos " + Arrays.toString(totaisLidos.get(i)) + ".");
+            }
+        }
+    }
+
+    private static void compararClientes(String etapa, List<Cliente> esperados, List<Cliente> lidos) {
+        if (esperados.size() != lidos.size()) {
+            throw new IllegalStateException(etapa + ": esperados " + esperados.size() + " clientes, lidos " + lidos.size() + ".");
+        }
+        for (int i = 0; i < esperados.size(); i++) {
+            Cliente esperado = esperados.get(i);
+            Cliente lido = lidos.get(i);
+            if (esperado.getNumeroContribuinte() != lido.getNumeroContribuinte() || !esperado.getNome().equals(lido.getNome())
+                    || !esperado.getTipoLocalizacao().equals(lido.getTipoLocalizacao())) {
+                throw new IllegalStateException(etapa + ": o cliente " + i + " lido não coincide: " + lido);
+            }
+        }
+    }
+
+    private static void compararFaturas(String etapa, List<Fatura> esperadas, List<Fatura> lidas) {
+        if (esperadas.size() != lidas.size()) {
+            throw new IllegalStateException(etapa + ": esperadas " + esperadas.size() + " faturas, lidas " + lidas.size() + ".");
+        }
+        List<Fatura> ordenadasEsperadas = new ArrayList<>(esperadas);
+        List<Fatura> ordenadasLidas = new ArrayList<>(lidas);
+        ordenadasEsperadas.sort(Comparator.comparingInt(Fatura::getNumero));
+        ordenadasLidas.sort(Comparator.comparingInt(Fatura::getNumero));
+        for (int i = 0; i < ordenadasEsperadas.size(); i++) {
+            Fatura esperada = ordenadasEsperadas.get(i);
+            Fatura lida = ordenadasLidas.get(i);
+            if (esperada.getNumero() != lida.getNumero() || !esperada.getData().equals(lida.getData())
+                    || esperada.getCliente().getNumeroContribuinte() != lida.getCliente().getNumeroContribuinte()
+                    || esperada.getTotalSemIVACentimos() != lida.getTotalSemIVACentimos()
+                    || esperada.getTotalIvaCentimos() != lida.getTotalIvaCentimos()
+                    || !produtos(esperada).equals(produtos(lida))) {
+                throw new IllegalStateException(etapa + ": a fatura " + esperada.getNumero() + " lida não coincide.");
+            }
+        }
+    }
+
+    private static List<String> produtos(Fatura fatura) {
+        List<String> linhas = new ArrayList<>();
+        for (Produto produto : fatura.getProdutos()) {
+            linhas.add(FORMATO_TEXTO.formatarProduto(produto));
+        }
+        return linhas;
+    }
+
+    /**
+     * Copia os clientes e as faturas, com as faturas a referir as cópias dos clientes.
+     */
+    private static void copiar(List<Cliente> clientes, List<Fatura> faturas, List<Cliente> copiaClientes, List<Fatura> copiaFaturas) {
+        MapaInteiro<Cliente> porNif = new MapaInteiro<>();
+        for (Cliente cliente : clientes) {
+            Cliente copia = new Cliente(cliente.getNome(), cliente.getTipoLocalizacao(), cliente.getNumeroContribuinte());
+            porNif.put(copia.getNumeroContribuinte(), copia);
+            copiaClientes.add(copia);
+        }
+        for (Fatura fatura : faturas) {
+            Fatura copia = new Fatura(fatura.getNumero(), porNif.get(fatura.getCliente().getNumeroContribuinte()), fatura.getData());
+            copia.setProdutos(fatura.getProdutos());
+            copiaFaturas.add(copia);
+        }
+    }
+
+    private static void apagar(Path pasta) throws IOException {
+        try (Stream<Path> ficheiros = Files.walk(pasta)) {
+            for (Path ficheiro : ficheiros.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(ficheiro);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Teste de carga do {@link RepositorioDados} com várias threads ao mesmo tempo: criação de faturas,
+ * edição de faturas (com o bloqueio de cada fatura), alteração da localização dos clientes e leituras
+ * das estatísticas e do índice de datas.
+ * Durante o teste, as leituras verificam que as estatísticas, o índice e o instantâneo das faturas são
+ * consistentes entre si; no fim, verifica-se que os números das faturas são únicos e que os totais mantidos
+ * pelos ouvintes são iguais aos recalculados.
+ * Uso: {@code java TesteConcorrencia [numFaturas] [segundos] [threadsPorTipo]}. Termina com código 1 se
+ * alguma verificação falhar.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class TesteConcorrencia {
+    private static final LocalDate INICIO = LocalDate.of(1900, 1, 1);
+    private static final LocalDate FIM = LocalDate.of(2100, 12, 31);
+
+    private final RepositorioDados repositorio;
+    private final EstatisticasFaturas estatisticas;
+    private final IndiceDatas indiceDatas;
+    private final List<Cliente> clientes;
+    private final ConcurrentHashMap<Integer, AtomicInteger> editoresPorFatura = new ConcurrentHashMap<>();
+    private final AtomicBoolean terminar = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<String> falhas = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger criadas = new AtomicInteger();
+    private final AtomicLong edicoes = new AtomicLong();
+    private final AtomicLong leituras = new AtomicLong();
+    private final AtomicLong edicoesRecusadas = new AtomicLong();
+
+    private TesteConcorrencia(List<Cliente> clientes, List<Fatura> faturas) {
+        this.clientes = clientes;
+        this.repositorio = new RepositorioDados(clientes, faturas);
+        this.estatisticas = EstatisticasFaturas.calcular(repositorio.getFaturas());
+        this.indiceDatas = new IndiceDatas(repositorio.getFaturas());
+        repositorio.adicionarOuvinte(estatisticas);
+        repositorio.adicionarOuvinte(indiceDatas);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int numFaturas = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int segundos = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threadsPorTipo = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        List<Cliente> clientes;
+        List<Fatura> faturas = new ArrayList<>();
+        Path ficheiro = Files.createTempFile("clientes-concorrencia", ".txt");
+        try {
+            new GeradorDados(42).escreverFicheiroClientes(ficheiro, 500, numFaturas, 4);
+            clientes = new ImportadorParalelo(new FicheiroHandler()).carregarClientesComFaturas(ficheiro.toFile(), faturas);
+        } finally {
+            Files.deleteIfExists(ficheiro);
+        }
+
+        TesteConcorrencia teste = new TesteConcorrencia(clientes, faturas);
+        System.out.printf("%d clientes, %d faturas, %d threads de cada tipo, %d s%n",
+                clientes.size(), faturas.size(), threadsPorTipo, segundos);
+        boolean correto = teste.executar(segundos, threadsPorTipo);
+        System.exit(correto ? 0 : 1);
+    }
+
+    private boolean executar(int segundos, int threadsPorTipo) throws InterruptedException {
+        int numFaturasInicial = repositorio.getFaturas().size();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch partida = new CountDownLatch(1);
+        for (int i = 0; i < threadsPorTipo; i++) {
+            threads.add(new Thread(() -> repetir(partida, this::criarFatura), "criador-" + i));
+            threads.add(new Thread(() -> repetir(partida, this::editarFatura), "editor-" + i));
+            threads.add(new Thread(() -> repetir(partida, this::alterarCliente), "clientes-" + i));
+            threads.add(new Thread(() -> repetir(partida, this::lerEstatisticas), "leitor-" + i));
+            threads.add(new Thread(() -> repetir(partida, this::percorrerInstantaneo), "instantaneo-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long inicio = System.nanoTime();
+        partida.countDown();
+        Thread.sleep(segundos * 1000L);
+        terminar.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double duracao = (System.nanoTime() - inicio) / 1e9;
+
+        verificarFinal(numFaturasInicial);
+        System.out.printf("%d faturas criadas, %d edições (%d recusadas por a fatura estar bloqueada), %d leituras em %.1f s%n",
+                criadas.get(), edicoes.get(), edicoesRecusadas.get(), leituras.get(), duracao);
+        if (falhas.isEmpty()) {
+            System.out.println("Todas as verificações passaram.");
+            return true;
+        }
+        System.out.println(falhas.size() + " verificações falharam, por exemplo:");
+        falhas.stream().limit(10).forEach(falha -> System.out.println("  " + falha));
+        return false;
+    }
+
+    private interface Operacao {
+        void executar(ThreadLocalRandom aleatorio);
+    }
+
+    private void repetir(CountDownLatch partida, Operacao operacao) {
+        try {
+            partida.await();
+            ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+            while (!terminar.get()) {
+                operacao.executar(aleatorio);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            falhas.add(Thread.currentThread().getName() + ": " + e);
+            terminar.set(true);
+        }
+    }
+
+    private void criarFatura(ThreadLocalRandom aleatorio) {
+        List<Fatura> faturas = repositorio.getFaturas();
+        Fatura modelo = faturas.get(aleatorio.nextInt(faturas.size()));
+        Cliente cliente = clientes.get(aleatorio.nextInt(clientes.size()));
+        Fatura fatura = new Fatura(0, cliente, LocalDate.of(2024, 1, 1).plusDays(aleatorio.nextInt(365)));
+        List<Produto> produtos = new ArrayList<>();
+        repositorio.consultar(() -> produtos.addAll(modelo.getProdutos()));
+        fatura.setProdutos(produtos);
+        repositorio.alterar(() -> {
+            fatura.setNumero(repositorio.reservarNumerosFatura(1));
+            repositorio.adicionarFatura(fatura);
+        });
+        criadas.incrementAndGet();
+    }
+
+    private void editarFatura(ThreadLocalRandom aleatorio) {
+        List<Fatura> faturas = repositorio.getFaturas();
+        Fatura fatura = faturas.get(aleatorio.nextInt(faturas.size()));
+        Lock bloqueio = repositorio.getBloqueioFatura(fatura.getNumero());
+        if (!bloqueio.tryLock()) {
+            edicoesRecusadas.incrementAndGet();
+            return;
+        }
+        try {
+            // Contador de editores da fatura; as faturas criadas durante o teste também podem ser editadas
+            AtomicInteger editores = editoresPorFatura.computeIfAbsent(fatura.getNumero(), numero -> new AtomicInteger());
+            if (editores.incrementAndGet() != 1) {
+                falhas.add("A fatura " + fatura.getNumero() + " foi editada por duas threads ao mesmo tempo.");
+            }
+            if (aleatorio.nextBoolean()) {
+                repositorio.alterarDataDaFatura(fatura, LocalDate.of(2023, 1, 1).plusDays(aleatorio.nextInt(730)));
+            } else {
+                Fatura modelo = faturas.get(aleatorio.nextInt(faturas.size()));
+                List<Produto> produtos = new ArrayList<>();
+                repositorio.consultar(() -> produtos.addAll(modelo.getProdutos()));
+                repositorio.alterarProdutosDaFatura(fatura, produtos);
+            }
+            editores.decrementAndGet();
+            edicoes.incrementAndGet();
+        } finally {
+            bloqueio.unlock();
+        }
+    }
+
+    private void alterarCliente(ThreadLocalRandom aleatorio) {
+        Cliente cliente = clientes.get(aleatorio.nextInt(clientes.size()));
+        String[] localizacoes = {"Continente", "Madeira", "Açores"};
+        repositorio.alterarLocalizacao(cliente, localizacoes[aleatorio.nextInt(localizacoes.length)]);
+        edicoes.incrementAndGet();
+    }
+
+    /**
+     * Com o bloqueio de leitura, as estatísticas, o índice de datas e o instantâneo das faturas têm de coincidir.
+     */
+    private void lerEstatisticas(ThreadLocalRandom aleatorio) {
+        repositorio.consultar(() -> {
+            List<Fatura> faturas = repositorio.getFaturas();
+            if (!estatisticas.corresponde(faturas)) {
+                falhas.add("As estatísticas não correspondem às faturas durante a leitura.");
+            }
+            long[] totais = indiceDatas.getTotais(INICIO, FIM);
+            if (totais[IndiceDatas.TOTAL_FATURAS] != estatisticas.getNumFaturas()
+                    || totais[IndiceDatas.TOTAL_SEM_IVA] != estatisticas.getTotalSemIVACentimos()
+                    || totais[IndiceDatas.TOTAL_IVA] != estatisticas.getTotalIvaCentimos()) {
+                falhas.add("O índice de datas não corresponde às estatísticas durante a leitura.");
+            }
+        });
+        leituras.incrementAndGet();
+    }
+
+    /**
+     * Sem bloqueio, um instantâneo nunca muda de tamanho nem tem posições vazias.
+     */
+    private void percorrerInstantaneo(ThreadLocalRandom aleatorio) {
+        List<Fatura> faturas = repositorio.getFaturas();
+        int tamanho = faturas.size();
+        int contadas = 0;
+        for (Fatura fatura : faturas) {
+            if (fatura == null) {
+                falhas.add("O instantâneo das faturas tem uma posição vazia.");
+                return;
+            }
+            contadas++;
+        }
+        if (contadas != tamanho || faturas.size() != tamanho) {
+            falhas.add("O instantâneo das faturas mudou de tamanho.");
+        }
+        leituras.incrementAndGet();
+    }
+
+    private void verificarFinal(int numFaturasInicial) {
+        List<Fatura> faturas = repositorio.getFaturas();
+        if (faturas.size() != numFaturasInicial + criadas.get()) {
+            falhas.add("Esperadas " + (numFaturasInicial + criadas.get()) + " faturas, existem " + faturas.size() + ".");
+        }
+
+        Set<Integer> numeros = new HashSet<>();
+        int maior = 0;
+        for (Fatura fatura : faturas) {
+            if (!numeros.add(fatura.getNumero())) {
+                falhas.add("Número de fatura repetido: " + fatura.getNumero());
+            }
+            maior = Math.max(maior, fatura.getNumero());
+            if (repositorio.procurarFatura(fatura.getNumero()) != fatura) {
+                falhas.add("A fatura " + fatura.getNumero() + " não está no índice por número.");
+            }
+        }
+        if (repositorio.getProximoNumeroFatura() != maior + 1) {
+            falhas.add("O próximo número (" + repositorio.getProximoNumeroFatura() + ") não segue o maior (" + maior + ").");
+        }
+
+        int porCliente = 0;
+        for (Cliente cliente : repositorio.getClientes()) {
+            porCliente += repositorio.getFaturasDoCliente(cliente.getNumeroContribuinte()).size();
+        }
+        if (porCliente != faturas.size()) {
+            falhas.add("O índice por cliente tem " + porCliente + " faturas, em vez de " + faturas.size() + ".");
+        }
+
+        // Os totais mantidos pelos ouvintes têm de ser iguais aos recalculados a partir dos produtos
+        for (Fatura fatura : faturas) {
+            fatura.recalcularValores();
+        }
+        EstatisticasFaturas recalculadas = EstatisticasFaturas.calcular(faturas);
+        if (recalculadas.getTotalSemIVACentimos() != estatisticas.getTotalSemIVACentimos()
+                || recalculadas.getTotalIvaCentimos() != estatisticas.getTotalIvaCentimos()
+                || recalculadas.getNumFaturas() != estatisticas.getNumFaturas()) {
+            falhas.add("As estatísticas finais não correspondem às recalculadas.");
+        }
+        for (Localizacao localizacao : Localizacao.values()) {
+            if (!java.util.Arrays.equals(recalculadas.getTotaisPorLocalizacao(localizacao),
+                    estatisticas.getTotaisPorLocalizacao(localizacao))) {
+                falhas.add("Os totais de " + localizacao.getNome() + " não correspondem aos recalculados.");
+            }
+        }
+    }
+}
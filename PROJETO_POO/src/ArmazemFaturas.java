@@ -0,0 +1,307 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Armazém de faturas em ficheiro, lido através de memória mapeada.
+ * <p>
+ * Ao abrir o armazém só são lidos o dicionário de Strings, os clientes e o índice das faturas
+ * (número, data, cliente, totais e posição dos produtos no ficheiro). Cada fatura é criada sem produtos,
+ * que só são descodificados quando a fatura precisa deles (por exemplo, ao visualizá-la ou exportá-la).
+ * Assim, o tempo de arranque e a memória usada dependem das faturas consultadas e não de todo o histórico.
+ * <p>
+ * Formato do ficheiro: cabeçalho, registos de produtos (um por fatura), blocos do dicionário, dos clientes
+ * e do índice (com o formato e o CRC32 de {@link FicheiroBinarioHandler}) e, no fim, a posição do dicionário
+ * seguida da assinatura.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ArmazemFaturas {
+    private static final int ASSINATURA = 0x504F4F4D; // "POOM"
+    private static final int VERSAO = 2; // A versão 1 guardava os totais em double
+    private static final int TAMANHO_CABECALHO = 8;
+    private static final int TAMANHO_RODAPE = 12;
+
+    private final MappedByteBuffer mapa;
+    private final String[] strings;
+    private final Cliente[] tabelaClientes;
+    private final int clientesListados;
+    private final FicheiroBinarioHandler.Leitor indice;
+    private final int numFaturas;
+    private final int versao;
+
+    /**
+     * Referência aos produtos de uma fatura guardados no armazém, ainda por descodificar.
+     */
+    public static class Referencia {
+        private final ArmazemFaturas armazem;
+        private final long posicao;
+        private final int tamanho;
+        private final int numProdutos;
+
+        private Referencia(ArmazemFaturas armazem, long posicao, int tamanho, int numProdutos) {
+            this.armazem = armazem;
+            this.posicao = posicao;
+            this.tamanho = tamanho;
+            this.numProdutos = numProdutos;
+        }
+
+        /**
+         * Obtém o número de produtos da fatura sem os descodificar.
+         *
+         * @return Número de produtos.
+         */
+        public int getNumProdutos() {
+            return numProdutos;
+        }
+
+        /**
+         * Descodifica os produtos da fatura a partir do ficheiro.
+         *
+         * @return Lista de produtos.
+         * @throws UncheckedIOException se os dados estiverem corrompidos.
+         */
+        public List<Produto> carregar() {
+            try {
+                FicheiroBinarioHandler.Leitor leitor = new FicheiroBinarioHandler.Leitor(armazem.lerBytes(posicao, tamanho));
+                List<Produto> produtos = new ArrayList<>(numProdutos);
+                for (int i = leitor.lerVarint(); i > 0; i--) {
+                    produtos.add(FicheiroBinarioHandler.lerProduto(leitor, armazem.strings));
+                }
+                return produtos;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao ler os produtos da fatura: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private ArmazemFaturas(MappedByteBuffer mapa, String[] strings, Cliente[] tabelaClientes, int clientesListados,
+                           FicheiroBinarioHandler.Leitor indice, int numFaturas, int versao) {
+        this.mapa = mapa;
+        this.strings = strings;
+        this.tabelaClientes = tabelaClientes;
+        this.clientesListados = clientesListados;
+        this.indice = indice;
+        this.numFaturas = numFaturas;
+        this.versao = versao;
+    }
+
+    /**
+     * Abre um armazém existente, lendo apenas o dicionário, os clientes e o índice das faturas.
+     *
+     * @param ficheiro Ficheiro do armazém.
+     * @return O armazém aberto.
+     * @throws IOException se ocorrer um erro de leitura ou o ficheiro estiver corrompido.
+     */
+    public static ArmazemFaturas abrir(File ficheiro) throws IOException {
+        MappedByteBuffer mapa;
+        try (FileChannel canal = FileChannel.open(ficheiro.toPath(), StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("O armazém de faturas não pode ter mais de 2 GB.");
+            }
+            mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+
+        if (mapa.limit() < TAMANHO_CABECALHO + TAMANHO_RODAPE || mapa.getInt(0) != ASSINATURA
+                || mapa.getInt(mapa.limit() - 4) != ASSINATURA) {
+            throw new IOException("O ficheiro não é um armazém de faturas do POOFS.");
+        }
+        int versao = mapa.getInt(4);
+        if (versao != VERSAO && versao != 1) {
+            throw new IOException("Versão do armazém de faturas não suportada: " + versao);
+        }
+
+        long posicaoDicionario = mapa.getLong(mapa.limit() - TAMANHO_RODAPE);
+        if (posicaoDicionario < TAMANHO_CABECALHO || posicaoDicionario > mapa.limit() - TAMANHO_RODAPE) {
+            throw new IOException("Armazém de faturas corrompido: posição do dicionário inválida.");
+        }
+        ByteBuffer metadados = mapa.duplicate();
+        metadados.position((int) posicaoDicionario).limit(mapa.limit() - TAMANHO_RODAPE);
+
+        FicheiroBinarioHandler.Leitor leitor = lerBloco(metadados);
+        String[] strings = new String[leitor.lerVarint()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = leitor.lerTexto();
+        }
+
+        leitor = lerBloco(metadados);
+        Cliente[] tabelaClientes = new Cliente[leitor.lerVarint()];
+        int clientesListados = leitor.lerVarint();
+        for (int i = 0; i < tabelaClientes.length; i++) {
+            tabelaClientes[i] = new Cliente(strings[leitor.lerVarint()], strings[leitor.lerVarint()], leitor.lerVarint());
+        }
+
+        FicheiroBinarioHandler.Leitor indice = lerBloco(metadados);
+        int numFaturas = indice.lerVarint();
+        return new ArmazemFaturas(mapa, strings, tabelaClientes, clientesListados, indice, numFaturas, versao);
+    }
+
+    /**
+     * Acrescenta às listas os clientes e as faturas do armazém. As faturas ficam sem os produtos carregados.
+     *
+     * @param clientes Lista que será preenchida com os clientes.
+     * @param faturas Lista que será preenchida com as faturas.
+     * @throws IOException se o índice estiver corrompido.
+     */
+    public synchronized void carregar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        for (int i = 0; i < clientesListados; i++) {
+            clientes.add(tabelaClientes[i]);
+        }
+
+        FicheiroBinarioHandler.Leitor leitor = indice;
+        leitor.reiniciar();
+        leitor.lerVarint();
+        for (int i = 0; i < numFaturas; i++) {
+            int numero = leitor.lerInt();
+            LocalDate data = LocalDate.ofEpochDay(leitor.lerInt());
+            Cliente cliente = tabelaClientes[leitor.lerInt()];
+            int numProdutos = leitor.lerInt();
+            long totalSemIVACentimos;
+            long totalIvaCentimos;
+            if (versao == 1) {
+                totalSemIVACentimos = Dinheiro.deDouble(leitor.lerDouble());
+                totalIvaCentimos = Dinheiro.deDouble(leitor.lerDouble());
+                leitor.lerDouble(); // Total com IVA
+            } else {
+                totalSemIVACentimos = leitor.lerLong();
+                totalIvaCentimos = leitor.lerLong();
+            }
+            long posicao = leitor.lerLong();
+            int tamanho = leitor.lerInt();
+            if (posicao < TAMANHO_CABECALHO || posicao + tamanho > mapa.limit()) {
+                throw new IOException("Armazém de faturas corrompido: posição inválida para a fatura " + numero + ".");
+            }
+
+            faturas.add(new Fatura(numero, cliente, data, totalSemIVACentimos, totalIvaCentimos,
+                    new Referencia(this, posicao, tamanho, numProdutos)));
+        }
+    }
+
+    /**
+     * Guarda os clientes e as faturas num armazém. Os produtos das faturas que ainda não foram carregados
+     * são copiados diretamente do armazém de origem, sem serem descodificados.
+     * O ficheiro é escrito num ficheiro temporário e só depois substitui o anterior.
+     *
+     * @param ficheiro Ficheiro do armazém.
+     * @param clientes Lista de clientes.
+     * @param faturas Lista de faturas.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public static void salvar(File ficheiro, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        GravacaoAtomica.gravar(ficheiro, out -> escrever(out, clientes, faturas));
+    }
+
+    /**
+     * Escreve os clientes e as faturas no formato do armazém.
+     *
+     * @param saida Stream de destino, que não é fechado.
+     * @param clientes Lista de clientes.
+     * @param faturas Lista de faturas.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    static void escrever(OutputStream saida, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        // O dicionário começa com o do armazém de origem, para que os produtos copiados continuem válidos
+        ArmazemFaturas origem = null;
+        for (Fatura fatura : faturas) {
+            if (fatura.getReferenciaArmazem() != null) {
+                origem = fatura.getReferenciaArmazem().armazem;
+                break;
+            }
+        }
+        FicheiroBinarioHandler.Dicionario dicionario = origem == null
+                ? new FicheiroBinarioHandler.Dicionario()
+                : new FicheiroBinarioHandler.Dicionario(origem.strings);
+
+        Map<Cliente, Integer> indiceClientes = new IdentityHashMap<>();
+        List<Cliente> tabelaClientes = new ArrayList<>(clientes);
+        for (Cliente cliente : clientes) {
+            indiceClientes.putIfAbsent(cliente, indiceClientes.size());
+        }
+        for (Fatura fatura : faturas) {
+            if (indiceClientes.putIfAbsent(fatura.getCliente(), tabelaClientes.size()) == null) {
+                tabelaClientes.add(fatura.getCliente());
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(saida);
+        out.writeInt(ASSINATURA);
+        out.writeInt(VERSAO);
+        long posicao = TAMANHO_CABECALHO;
+
+        FicheiroBinarioHandler.Bloco registo = new FicheiroBinarioHandler.Bloco();
+        FicheiroBinarioHandler.Bloco indice = new FicheiroBinarioHandler.Bloco();
+        indice.escreverVarint(faturas.size());
+        for (Fatura fatura : faturas) {
+            Referencia referencia = fatura.getReferenciaArmazem();
+            if (referencia != null && referencia.armazem == origem) {
+                registo.escreverBytes(origem.lerBytes(referencia.posicao, referencia.tamanho));
+            } else {
+                registo.escreverVarint(fatura.getProdutos().size());
+                for (Produto produto : fatura.getProdutos()) {
+                    FicheiroBinarioHandler.escreverProduto(registo, produto, dicionario);
+                }
+            }
+
+            indice.escreverInt(fatura.getNumero());
+            indice.escreverInt((int) fatura.getData().toEpochDay());
+            indice.escreverInt(indiceClientes.get(fatura.getCliente()));
+            indice.escreverInt(fatura.getNumProdutos());
+            indice.escreverLong(fatura.getTotalSemIVACentimos());
+            indice.escreverLong(fatura.getTotalIvaCentimos());
+            indice.escreverLong(posicao);
+            indice.escreverInt(registo.tamanho());
+
+            posicao += registo.tamanho();
+            registo.copiarPara(out);
+        }
+
+        long posicaoDicionario = posicao;
+        FicheiroBinarioHandler.Bloco bloco = new FicheiroBinarioHandler.Bloco();
+        for (Cliente cliente : tabelaClientes) {
+            dicionario.indice(cliente.getNome());
+            dicionario.indice(cliente.getTipoLocalizacao());
+        }
+        bloco.escreverVarint(dicionario.getStrings().size());
+        for (String texto : dicionario.getStrings()) {
+            bloco.escreverTexto(texto);
+        }
+        bloco.gravar(out, 1);
+
+        bloco.escreverVarint(tabelaClientes.size());
+        bloco.escreverVarint(clientes.size());
+        for (Cliente cliente : tabelaClientes) {
+            bloco.escreverVarint(dicionario.indice(cliente.getNome()));
+            bloco.escreverVarint(dicionario.indice(cliente.getTipoLocalizacao()));
+            bloco.escreverVarint(cliente.getNumeroContribuinte());
+        }
+        bloco.gravar(out, 2);
+        indice.gravar(out, 3);
+
+        out.writeLong(posicaoDicionario);
+        out.writeInt(ASSINATURA);
+        out.flush();
+    }
+
+    private byte[] lerBytes(long posicao, int tamanho) {
+        byte[] bytes = new byte[tamanho];
+        mapa.get((int) posicao, bytes);
+        return bytes;
+    }
+
+    private static FicheiroBinarioHandler.Leitor lerBloco(ByteBuffer metadados) throws IOException {
+        if (metadados.remaining() < 9) {
+            throw new IOException("Armazém de faturas corrompido: bloco em falta.");
+        }
+        metadados.get(); // Tipo do bloco
+        return FicheiroBinarioHandler.Leitor.lerBloco(metadados);
+    }
+}
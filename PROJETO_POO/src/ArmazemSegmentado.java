@@ -0,0 +1,339 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Armazém de dados dividido em segmentos, numa pasta, em que cada gravação só reescreve os segmentos alterados.
+ * <p>
+ * Os clientes ficam num segmento próprio ("clientes.seg") e as faturas ficam em segmentos de
+ * {@value #FATURAS_POR_SEGMENTO} números consecutivos ("faturas-N.seg", com as faturas de número
+ * N * {@value #FATURAS_POR_SEGMENTO} a (N + 1) * {@value #FATURAS_POR_SEGMENTO} - 1). As faturas referem o cliente
+ * pela sua posição no segmento de clientes, pelo que editar um cliente (incluindo o número de contribuinte)
+ * só reescreve esse segmento, e os totais não são guardados: são recalculados ao carregar, pelo que mudar
+ * a localização de um cliente também não reescreve as suas faturas.
+ * <p>
+ * O armazém lembra-se, para cada segmento, do valor de {@link ContadorVersoes} no início da última gravação
+ * e do número de faturas escritas. Um segmento é reescrito se alguma das suas faturas tiver uma versão maior,
+ * se o número de faturas mudou ou se a tabela de clientes deixou de começar pelos clientes já escritos.
+ * Assim, o custo de uma gravação é proporcional às alterações e não ao total de dados (só as versões
+ * em memória são percorridas).
+ * <p>
+ * Cada segmento tem o formato de blocos com CRC32 de {@link FicheiroBinarioHandler} e é gravado de forma atómica
+ * ({@link GravacaoAtomica}). O segmento de clientes é gravado antes dos de faturas e os clientes só são
+ * acrescentados no fim da tabela, pelo que uma gravação interrompida nunca deixa uma fatura a referir
+ * um cliente inexistente; as alterações dos segmentos que ficaram por gravar continuam no journal.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ArmazemSegmentado {
+    /**
+     * Número de números de fatura consecutivos em cada segmento.
+     */
+    static final int FATURAS_POR_SEGMENTO = 1024;
+
+    private static final int ASSINATURA = 0x504F4F53; // "POOS"
+    private static final int VERSAO = 1;
+    private static final int BLOCO_FIM = 0;
+    private static final int BLOCO_DICIONARIO = 1;
+    private static final int BLOCO_CLIENTES = 2;
+    private static final int BLOCO_FATURAS = 3;
+
+    private static final String FICHEIRO_CLIENTES = "clientes.seg";
+    private static final String PREFIXO_FATURAS = "faturas-";
+    private static final String EXTENSAO = ".seg";
+
+    private final File pasta;
+
+    // Estado da última gravação (ou do carregamento): null se ainda nada foi escrito nesta sessão
+    private List<Cliente> tabelaEscrita;
+    private long versaoClientes;
+    private final Map<Integer, Segmento> segmentos = new TreeMap<>();
+    private int segmentosEscritos;
+
+    /**
+     * Estado de um segmento de faturas tal como foi escrito.
+     */
+    private static final class Segmento {
+        private final long versao;
+        private final int numFaturas;
+
+        Segmento(long versao, int numFaturas) {
+            this.versao = versao;
+            this.numFaturas = numFaturas;
+        }
+    }
+
+    /**
+     * Construtor da classe.
+     *
+     * @param pasta Pasta dos segmentos, criada na primeira gravação.
+     */
+    public ArmazemSegmentado(File pasta) {
+        this.pasta = pasta;
+    }
+
+    /**
+     * Verifica se o armazém já foi gravado.
+     *
+     * @return true se existir o segmento de clientes, false caso contrário.
+     */
+    public boolean existe() {
+        return new File(pasta, FICHEIRO_CLIENTES).exists();
+    }
+
+    /**
+     * Obtém o número de segmentos (de clientes e de faturas) escritos na última gravação.
+     *
+     * @return Número de segmentos escritos.
+     */
+    public int getSegmentosEscritos() {
+        return segmentosEscritos;
+    }
+
+    /**
+     * Carrega os clientes e as faturas de todos os segmentos. As faturas ficam ordenadas por segmento
+     * e, dentro de cada segmento, pela ordem em que foram gravadas.
+     *
+     * @param clientes Lista que será preenchida com os clientes.
+     * @param faturas Lista que será preenchida com as faturas.
+     * @throws IOException se ocorrer um erro de leitura ou algum segmento estiver corrompido.
+     */
+    public synchronized void carregar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        List<Cliente> tabela = new ArrayList<>();
+        lerSegmento(new File(pasta, FICHEIRO_CLIENTES), (tipo, leitor, strings) -> {
+            if (tipo != BLOCO_CLIENTES) {
+                throw new IOException("Bloco inesperado no segmento de clientes: " + tipo);
+            }
+            int tamanho = leitor.lerVarint();
+            int listados = leitor.lerVarint();
+            for (int i = 0; i < tamanho; i++) {
+                Cliente cliente = new Cliente(strings[leitor.lerVarint()], strings[leitor.lerVarint()], leitor.lerVarint());
+                tabela.add(cliente);
+                if (i < listados) {
+                    clientes.add(cliente);
+                }
+            }
+        });
+
+        Cliente[] tabelaClientes = tabela.toArray(new Cliente[0]);
+        Map<Integer, Integer> lidos = new TreeMap<>();
+        for (Map.Entry<Integer, File> entrada : listarSegmentosFaturas().entrySet()) {
+            int antes = faturas.size();
+            lerSegmento(entrada.getValue(), (tipo, leitor, strings) -> {
+                if (tipo != BLOCO_FATURAS) {
+                    throw new IOException("Bloco inesperado no segmento " + entrada.getValue().getName() + ": " + tipo);
+                }
+                int quantidade = leitor.lerVarint();
+                for (int i = 0; i < quantidade; i++) {
+                    faturas.add(FicheiroBinarioHandler.lerFatura(leitor, tabelaClientes, strings));
+                }
+            });
+            lidos.put(entrada.getKey(), faturas.size() - antes);
+        }
+
+        // Os objetos acabados de criar têm versões anteriores a esta: só as alterações seguintes contam
+        long versao = ContadorVersoes.atual();
+        tabelaEscrita = tabela;
+        versaoClientes = versao;
+        segmentos.clear();
+        for (Map.Entry<Integer, Integer> lido : lidos.entrySet()) {
+            segmentos.put(lido.getKey(), new Segmento(versao, lido.getValue()));
+        }
+    }
+
+    /**
+     * Grava os segmentos alterados desde a última gravação (ou desde o carregamento) e apaga os segmentos
+     * que ficaram sem faturas. Na primeira gravação de uma sessão sem carregamento, todos os segmentos são escritos.
+     * Deve ser chamado com os dados bloqueados contra alterações (por exemplo, com o bloqueio de leitura do repositório).
+     *
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     * @return Número de segmentos escritos.
+     * @throws IOException se ocorrer um erro de escrita; os segmentos já escritos ficam gravados.
+     */
+    public synchronized int guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        long versao = ContadorVersoes.atual();
+        segmentosEscritos = 0;
+        Files.createDirectories(pasta.toPath());
+
+        // Tabela de clientes: os da lista e, no fim, os que só aparecem em faturas
+        Map<Cliente, Integer> indiceClientes = new IdentityHashMap<>();
+        List<Cliente> tabela = new ArrayList<>(clientes);
+        for (Cliente cliente : clientes) {
+            indiceClientes.putIfAbsent(cliente, indiceClientes.size());
+        }
+        for (Fatura fatura : faturas) {
+            if (indiceClientes.putIfAbsent(fatura.getCliente(), tabela.size()) == null) {
+                tabela.add(fatura.getCliente());
+            }
+        }
+
+        // Se as posições dos clientes já escritos mudaram, as faturas gravadas deixam de os referir corretamente
+        boolean reescreverTudo = tabelaEscrita == null || tabela.size() < tabelaEscrita.size();
+        for (int i = 0; !reescreverTudo && i < tabelaEscrita.size(); i++) {
+            reescreverTudo = tabela.get(i) != tabelaEscrita.get(i);
+        }
+        boolean clientesAlterados = reescreverTudo || tabela.size() != tabelaEscrita.size();
+        for (int i = 0; !clientesAlterados && i < tabela.size(); i++) {
+            clientesAlterados = tabela.get(i).getVersao() > versaoClientes;
+        }
+        if (clientesAlterados) {
+            escreverClientes(tabela, clientes.size());
+            tabelaEscrita = tabela;
+            versaoClientes = versao;
+            segmentosEscritos++;
+        }
+
+        Map<Integer, List<Fatura>> porSegmento = new TreeMap<>();
+        for (Fatura fatura : faturas) {
+            porSegmento.computeIfAbsent(fatura.getNumero() / FATURAS_POR_SEGMENTO, chave -> new ArrayList<>()).add(fatura);
+        }
+        for (Map.Entry<Integer, List<Fatura>> entrada : porSegmento.entrySet()) {
+            List<Fatura> doSegmento = entrada.getValue();
+            Segmento escrito = segmentos.get(entrada.getKey());
+            boolean alterado = reescreverTudo || escrito == null || escrito.numFaturas != doSegmento.size();
+            for (int i = 0; !alterado && i < doSegmento.size(); i++) {
+                alterado = doSegmento.get(i).getVersao() > escrito.versao;
+            }
+            if (alterado) {
+                escreverFaturas(ficheiroFaturas(entrada.getKey()), doSegmento, indiceClientes);
+                segmentos.put(entrada.getKey(), new Segmento(versao, doSegmento.size()));
+                segmentosEscritos++;
+            }
+        }
+
+        // Segmentos sem faturas (por exemplo, depois de substituir todos os dados)
+        for (Map.Entry<Integer, File> existente : listarSegmentosFaturas().entrySet()) {
+            if (!porSegmento.containsKey(existente.getKey())) {
+                Files.deleteIfExists(existente.getValue().toPath());
+                segmentos.remove(existente.getKey());
+            }
+        }
+        return segmentosEscritos;
+    }
+
+    private void escreverClientes(List<Cliente> tabela, int listados) throws IOException {
+        FicheiroBinarioHandler.Dicionario dicionario = new FicheiroBinarioHandler.Dicionario();
+        for (Cliente cliente : tabela) {
+            dicionario.indice(cliente.getNome());
+            dicionario.indice(cliente.getTipoLocalizacao());
+        }
+        FicheiroBinarioHandler.Bloco bloco = new FicheiroBinarioHandler.Bloco();
+        bloco.escreverVarint(tabela.size());
+        bloco.escreverVarint(listados);
+        for (Cliente cliente : tabela) {
+            bloco.escreverVarint(dicionario.indice(cliente.getNome()));
+            bloco.escreverVarint(dicionario.indice(cliente.getTipoLocalizacao()));
+            bloco.escreverVarint(cliente.getNumeroContribuinte());
+        }
+        escreverSegmento(new File(pasta, FICHEIRO_CLIENTES), dicionario, bloco, BLOCO_CLIENTES);
+    }
+
+    private void escreverFaturas(File ficheiro, List<Fatura> faturas, Map<Cliente, Integer> indiceClientes)
+            throws IOException {
+        FicheiroBinarioHandler.Dicionario dicionario = new FicheiroBinarioHandler.Dicionario();
+        for (Fatura fatura : faturas) {
+            for (Produto produto : fatura.getProdutos()) {
+                FicheiroBinarioHandler.registarStrings(dicionario, produto);
+            }
+        }
+        FicheiroBinarioHandler.Bloco bloco = new FicheiroBinarioHandler.Bloco();
+        bloco.escreverVarint(faturas.size());
+        for (Fatura fatura : faturas) {
+            FicheiroBinarioHandler.escreverFatura(bloco, fatura, indiceClientes, dicionario);
+        }
+        escreverSegmento(ficheiro, dicionario, bloco, BLOCO_FATURAS);
+    }
+
+    /**
+     * Grava um segmento: cabeçalho, dicionário, o bloco de dados já preenchido e o bloco de fim.
+     */
+    private static void escreverSegmento(File ficheiro, FicheiroBinarioHandler.Dicionario dicionario,
+                                         FicheiroBinarioHandler.Bloco dados, int tipo) throws IOException {
+        GravacaoAtomica.gravar(ficheiro, saida -> {
+            DataOutputStream out = new DataOutputStream(saida);
+            out.writeInt(ASSINATURA);
+            out.writeInt(VERSAO);
+            FicheiroBinarioHandler.Bloco bloco = new FicheiroBinarioHandler.Bloco();
+            bloco.escreverVarint(dicionario.getStrings().size());
+            for (String texto : dicionario.getStrings()) {
+                bloco.escreverTexto(texto);
+            }
+            bloco.gravar(out, BLOCO_DICIONARIO);
+            dados.gravar(out, tipo);
+            bloco.gravar(out, BLOCO_FIM);
+            out.flush();
+        });
+    }
+
+    /**
+     * Leitura do bloco de dados de um segmento, já com o dicionário lido.
+     */
+    private interface LeituraBloco {
+        void ler(int tipo, FicheiroBinarioHandler.Leitor leitor, String[] strings) throws IOException;
+    }
+
+    private static void lerSegmento(File ficheiro, LeituraBloco leitura) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ficheiro), 64 * 1024))) {
+            if (in.readInt() != ASSINATURA) {
+                throw new IOException("O ficheiro " + ficheiro.getName() + " não é um segmento do POOFS.");
+            }
+            int versao = in.readInt();
+            if (versao != VERSAO) {
+                throw new IOException("Versão do segmento " + ficheiro.getName() + " não suportada: " + versao);
+            }
+
+            String[] strings = new String[0];
+            while (true) {
+                int tipo = in.readUnsignedByte();
+                FicheiroBinarioHandler.Leitor leitor = FicheiroBinarioHandler.Leitor.lerBloco(in);
+                if (tipo == BLOCO_FIM) {
+                    return;
+                }
+                if (tipo == BLOCO_DICIONARIO) {
+                    strings = new String[leitor.lerVarint()];
+                    for (int i = 0; i < strings.length; i++) {
+                        strings[i] = leitor.lerTexto();
+                    }
+                } else {
+                    leitura.ler(tipo, leitor, strings);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("O segmento " + ficheiro.getName() + " está incompleto.", e);
+        }
+    }
+
+    private File ficheiroFaturas(int segmento) {
+        return new File(pasta, PREFIXO_FATURAS + segmento + EXTENSAO);
+    }
+
+    /**
+     * Lista os segmentos de faturas existentes na pasta, ordenados pelo número do segmento.
+     */
+    private Map<Integer, File> listarSegmentosFaturas() {
+        Map<Integer, File> existentes = new TreeMap<>();
+        File[] ficheiros = pasta.listFiles();
+        if (ficheiros == null) {
+            return existentes;
+        }
+        for (File ficheiro : ficheiros) {
+            String nome = ficheiro.getName();
+            if (nome.startsWith(PREFIXO_FATURAS) && nome.endsWith(EXTENSAO)) {
+                try {
+                    existentes.put(Integer.parseInt(nome.substring(PREFIXO_FATURAS.length(),
+                            nome.length() - EXTENSAO.length())), ficheiro);
+                } catch (NumberFormatException e) {
+                    // Não é um segmento (por exemplo, um ficheiro copiado à mão)
+                }
+            }
+        }
+        return existentes;
+    }
+}
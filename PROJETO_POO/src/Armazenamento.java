@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Motor de armazenamento dos clientes e das faturas.
+ * <p>
+ * O {@link POOFS} carrega os dados com {@link #carregar(LeitorClientesFaturas.Ouvinte)}, regista cada alteração
+ * no {@link FicheiroJournal} e, quando o journal é compactado, guarda todos os dados com
+ * {@link #guardar(List, List)}. Os dados carregados no arranque são sempre os do último {@code guardar}.
+ * O motor é escolhido no arranque com a propriedade de sistema {@code poofs.armazenamento}
+ * ({@link #criar(FicheiroHandler)}).
+ * <p>
+ * Os métodos {@link #acrescentar(List, List)} e {@link #percorrer(LocalDate, LocalDate, Consumer)} têm
+ * implementações genéricas, a partir de {@code carregar} e {@code guardar}, que um motor pode substituir
+ * por versões que não leiam nem reescrevam todos os dados.
+ * Todos os motores devem passar o teste de conformidade de {@code bench/TesteArmazenamento}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public interface Armazenamento {
+    /**
+     * Obtém o nome do motor, para mensagens e medições.
+     *
+     * @return Nome do motor.
+     */
+    String getNome();
+
+    /**
+     * Lê todos os dados guardados, entregando ao ouvinte cada cliente e depois cada fatura,
+     * pela ordem em que foram guardados (as faturas podem ser entregues por ordem de número).
+     * Se ainda não existirem dados, não entrega nada.
+     *
+     * @param ouvinte Destino dos clientes e faturas lidos.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    void carregar(LeitorClientesFaturas.Ouvinte ouvinte) throws IOException;
+
+    /**
+     * Substitui os dados guardados pelos indicados. Quando termina, os dados estão no disco e
+     * uma falha a meio nunca deixa os dados anteriores ilegíveis.
+     *
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    void guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException;
+
+    /**
+     * Acrescenta clientes e faturas novos aos dados guardados, a seguir aos existentes.
+     * As faturas podem referir clientes já guardados ou do próprio lote, identificados pelo número de contribuinte.
+     * Por omissão, lê todos os dados e guarda-os de novo com os novos.
+     *
+     * @param clientes Clientes novos.
+     * @param faturas Faturas novas.
+     * @throws IOException se ocorrer um erro de leitura ou de escrita.
+     * @throws IllegalArgumentException se um cliente novo já existir ou uma fatura referir um cliente desconhecido.
+     */
+    default void acrescentar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        List<Cliente> todosClientes = new ArrayList<>();
+        List<Fatura> todasFaturas = new ArrayList<>();
+        carregar(new LeitorClientesFaturas.Ouvinte() {
+            @Override
+            public void cliente(Cliente cliente) {
+                todosClientes.add(cliente);
+            }
+
+            @Override
+            public void fatura(Fatura fatura) {
+                todasFaturas.add(fatura);
+            }
+        });
+        juntar(todosClientes, todasFaturas, clientes, faturas);
+        guardar(todosClientes, todasFaturas);
+    }
+
+    /**
+     * Entrega ao consumidor as faturas com data entre as indicadas (inclusive), pela ordem em que foram guardadas.
+     * Por omissão, percorre todos os dados com {@link #carregar(LeitorClientesFaturas.Ouvinte)} sem os guardar em memória.
+     *
+     * @param inicio Primeira data do período.
+     * @param fim Última data do período.
+     * @param consumidor Destino das faturas do período.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    default void percorrer(LocalDate inicio, LocalDate fim, Consumer<Fatura> consumidor) throws IOException {
+        carregar(new LeitorClientesFaturas.Ouvinte() {
+            @Override
+            public void cliente(Cliente cliente) {
+            }
+
+            @Override
+            public void fatura(Fatura fatura) {
+                if (!fatura.getData().isBefore(inicio) && !fatura.getData().isAfter(fim)) {
+                    consumidor.accept(fatura);
+                }
+            }
+        });
+    }
+
+    /**
+     * Calcula as estatísticas das faturas guardadas, que acabaram de ser carregadas.
+     * Por omissão, calcula-as a partir das faturas carregadas; um motor pode calculá-las sem as percorrer.
+     *
+     * @param faturas Faturas carregadas com {@link #carregar(LeitorClientesFaturas.Ouvinte)}.
+     * @return Estatísticas das faturas guardadas.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    default EstatisticasFaturas calcularEstatisticas(List<Fatura> faturas) throws IOException {
+        return EstatisticasFaturas.calcular(faturas);
+    }
+
+    /**
+     * Liberta os recursos do motor. Depois de fechado, o motor não deve ser usado.
+     *
+     * @throws IOException se ocorrer um erro ao fechar.
+     */
+    default void fechar() throws IOException {
+    }
+
+    /**
+     * Cria o motor indicado pela propriedade {@code poofs.armazenamento}:
+     * "objetos" (por omissão) para {@link ArmazenamentoObjetos}, com o ficheiro de texto como reserva,
+     * "texto" para {@link ArmazenamentoTexto} ou "sql" para {@link ArmazenamentoSQL}, na base de dados da
+     * propriedade {@code poofs.sql.url} e também com o ficheiro de texto como reserva.
+     *
+     * @param ficheiroHandler Handler do ficheiro de texto.
+     * @return O motor escolhido.
+     * @throws IllegalArgumentException se a propriedade indicar um motor desconhecido.
+     */
+    static Armazenamento criar(FicheiroHandler ficheiroHandler) {
+        ArmazenamentoTexto texto = new ArmazenamentoTexto(ficheiroHandler, ficheiroHandler.getFicheiro());
+        String nome = System.getProperty("poofs.armazenamento", "objetos");
+        return switch (nome.toLowerCase()) {
+            case "objetos" -> new ArmazenamentoObjetos(new FicheiroObjetoHandler(null), texto);
+            case "texto" -> texto;
+            case "sql" -> new ArmazenamentoSQL(System.getProperty("poofs.sql.url", ArmazenamentoSQL.URL_POR_OMISSAO), texto);
+            default -> throw new IllegalArgumentException("Armazenamento desconhecido: " + nome
+                    + ". Use 'objetos', 'texto' ou 'sql'.");
+        };
+    }
+
+    /**
+     * Junta aos dados guardados os clientes e as faturas novos. As faturas novas que referem um cliente guardado
+     * através de outro objeto com o mesmo número de contribuinte são copiadas para referir o cliente guardado.
+     */
+    private static void juntar(List<Cliente> clientes, List<Fatura> faturas,
+                               List<Cliente> novosClientes, List<Fatura> novasFaturas) {
+        MapaInteiro<Cliente> porNif = new MapaInteiro<>();
+        for (Cliente cliente : clientes) {
+            porNif.put(cliente.getNumeroContribuinte(), cliente);
+        }
+        for (Cliente cliente : novosClientes) {
+            if (porNif.get(cliente.getNumeroContribuinte()) != null) {
+                throw new IllegalArgumentException("O cliente com número de contribuinte "
+                        + cliente.getNumeroContribuinte() + " já existe.");
+            }
+            porNif.put(cliente.getNumeroContribuinte(), cliente);
+            clientes.add(cliente);
+        }
+        for (Fatura fatura : novasFaturas) {
+            Cliente cliente = porNif.get(fatura.getCliente().getNumeroContribuinte());
+            if (cliente == null) {
+                throw new IllegalArgumentException("A fatura " + fatura.getNumero() + " refere um cliente desconhecido: "
+                        + fatura.getCliente().getNumeroContribuinte());
+            }
+            if (cliente != fatura.getCliente()) {
+                Fatura copia = new Fatura(fatura.getNumero(), cliente, fatura.getData());
+                copia.setProdutos(fatura.getProdutos());
+                fatura = copia;
+            }
+            faturas.add(fatura);
+        }
+    }
+}
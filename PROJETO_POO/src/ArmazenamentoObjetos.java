@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Motor de armazenamento no ficheiro de dados de {@link FicheiroObjetoHandler}, no formato escolhido
+ * pela propriedade {@code poofs.formato} (serialização Java, binário, mapeado, colunar ou segmentado).
+ * <p>
+ * Se o ficheiro de dados não tiver clientes (por exemplo, na primeira utilização), os dados são carregados
+ * do motor de reserva, normalmente o ficheiro de texto. Cada gravação atualiza também a reserva, exceto no
+ * formato segmentado, em que a gravação só deve escrever os dados alterados.
+ * <p>
+ * No formato colunar, as estatísticas e a leitura de um período usam o {@link ArquivoColunar} diretamente,
+ * lendo apenas as colunas necessárias em vez de reconstruir todas as faturas.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ArmazenamentoObjetos implements Armazenamento {
+    private final FicheiroObjetoHandler ficheiroObjetoHandler;
+    private final Armazenamento reserva;
+
+    /**
+     * Construtor da classe.
+     *
+     * @param ficheiroObjetoHandler Handler do ficheiro de dados, ainda sem os dados carregados.
+     * @param reserva Motor de onde os dados são carregados se o ficheiro de dados não tiver clientes, ou null.
+     */
+    public ArmazenamentoObjetos(FicheiroObjetoHandler ficheiroObjetoHandler, Armazenamento reserva) {
+        this.ficheiroObjetoHandler = ficheiroObjetoHandler;
+        this.reserva = reserva;
+    }
+
+    @Override
+    public String getNome() {
+        return FicheiroObjetoHandler.getFormato();
+    }
+
+    @Override
+    public void carregar(LeitorClientesFaturas.Ouvinte ouvinte) throws IOException {
+        ficheiroObjetoHandler.carregarDados();
+        List<Cliente> clientes = ficheiroObjetoHandler.getClientes();
+        if (clientes.isEmpty() && reserva != null) {
+            reserva.carregar(ouvinte);
+            return;
+        }
+        for (Cliente cliente : clientes) {
+            ouvinte.cliente(cliente);
+        }
+        for (Fatura fatura : ficheiroObjetoHandler.getFaturas()) {
+            ouvinte.fatura(fatura);
+        }
+    }
+
+    @Override
+    public void guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        ficheiroObjetoHandler.guardar(clientes, faturas);
+        if (reserva != null && !ficheiroObjetoHandler.guardaApenasAlteracoes()) {
+            reserva.guardar(clientes, faturas);
+        }
+    }
+
+    /**
+     * No formato colunar, só reconstrói as faturas do período e salta os grupos sem nenhuma delas.
+     */
+    @Override
+    public void percorrer(LocalDate inicio, LocalDate fim, Consumer<Fatura> consumidor) throws IOException {
+        ArquivoColunar arquivo = abrirArquivoColunar();
+        if (arquivo == null) {
+            Armazenamento.super.percorrer(inicio, fim, consumidor);
+            return;
+        }
+        arquivo.percorrer(inicio, fim, consumidor);
+    }
+
+    /**
+     * No formato colunar, calcula as estatísticas a partir das colunas numéricas do arquivo, sem criar produtos.
+     * Se os dados foram carregados da reserva, as estatísticas são calculadas a partir das faturas carregadas.
+     */
+    @Override
+    public EstatisticasFaturas calcularEstatisticas(List<Fatura> faturas) throws IOException {
+        ArquivoColunar arquivo = abrirArquivoColunar();
+        if (arquivo == null) {
+            return EstatisticasFaturas.calcular(faturas);
+        }
+        return arquivo.calcularEstatisticas();
+    }
+
+    /**
+     * Abre o arquivo colunar, se for o formato escolhido e tiver os dados; sem clientes, os dados estão na reserva.
+     */
+    private ArquivoColunar abrirArquivoColunar() throws IOException {
+        ArquivoColunar arquivo = ficheiroObjetoHandler.abrirArquivoColunar();
+        return arquivo != null && (arquivo.temClientes() || reserva == null) ? arquivo : null;
+    }
+
+    @Override
+    public void fechar() throws IOException {
+        if (reserva != null) {
+            reserva.fechar();
+        }
+    }
+}
@@ -0,0 +1,493 @@
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Motor de armazenamento numa base de dados SQL embebida (por exemplo H2 ou SQLite), acedida por JDBC.
+ * <p>
+ * Os dados ficam em três tabelas normalizadas: {@code clientes} (chave: número de contribuinte),
+ * {@code faturas} (chave: número da fatura, com índices no número de contribuinte e na data) e
+ * {@code linhas} (chave: número da fatura e posição do produto). Cada fatura e cada linha guardam também
+ * os valores já calculados (sem IVA e de IVA, em cêntimos), para que as estatísticas sejam calculadas pela
+ * base de dados com {@code GROUP BY} ({@link #calcularEstatisticas(List)}), sem ler os produtos.
+ * <p>
+ * As escritas usam instruções preparadas em lotes de {@link #TAMANHO_LOTE} linhas, numa única transação:
+ * uma gravação que falhe a meio é desfeita e deixa os dados anteriores intactos.
+ * {@link #acrescentar(List, List)} só insere os dados novos e {@link #percorrer(LocalDate, LocalDate, Consumer)}
+ * só lê as faturas do período, pelo índice das datas.
+ * <p>
+ * Se a base de dados ainda não tiver clientes (por exemplo, na primeira utilização), os dados são carregados do
+ * motor de reserva, normalmente o ficheiro de texto, e passam para a base de dados na primeira gravação.
+ * Ao contrário de {@link ArmazenamentoObjetos}, as gravações não atualizam a reserva.
+ * <p>
+ * A base de dados é indicada pelo URL JDBC da propriedade {@code poofs.sql.url}
+ * (por omissão {@value #URL_POR_OMISSAO}). O driver JDBC correspondente tem de estar no classpath.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ArmazenamentoSQL implements Armazenamento {
+    /**
+     * URL usado quando a propriedade {@code poofs.sql.url} não está definida.
+     */
+    static final String URL_POR_OMISSAO = "jdbc:h2:./dados";
+
+    /**
+     * Número de linhas inseridas em cada lote.
+     */
+    static final int TAMANHO_LOTE = 1000;
+
+    private static final String[] CRIAR_TABELAS = {
+            "CREATE TABLE IF NOT EXISTS clientes (nif INTEGER PRIMARY KEY, ordem INTEGER NOT NULL, "
+                    + "nome VARCHAR NOT NULL, localizacao VARCHAR NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS faturas (numero INTEGER PRIMARY KEY, nif INTEGER NOT NULL REFERENCES clientes (nif), "
+                    + "data INTEGER NOT NULL, quantidade BIGINT NOT NULL, sem_iva BIGINT NOT NULL, iva BIGINT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS linhas (numero INTEGER NOT NULL REFERENCES faturas (numero), posicao INTEGER NOT NULL, "
+                    + "alimentar SMALLINT NOT NULL, codigo VARCHAR NOT NULL, nome VARCHAR NOT NULL, descricao VARCHAR, "
+                    + "valor_unitario BIGINT NOT NULL, quantidade INTEGER NOT NULL, categoria VARCHAR, tipo_taxa VARCHAR, "
+                    + "classe SMALLINT NOT NULL, biologico_ou_prescricao SMALLINT NOT NULL, certificacoes VARCHAR, medico VARCHAR, "
+                    + "sem_iva BIGINT NOT NULL, iva BIGINT NOT NULL, PRIMARY KEY (numero, posicao))",
+            "CREATE INDEX IF NOT EXISTS faturas_nif ON faturas (nif)",
+            "CREATE INDEX IF NOT EXISTS faturas_data ON faturas (data)"
+    };
+
+    private static final String INSERIR_CLIENTE = "INSERT INTO clientes (nif, ordem, nome, localizacao) VALUES (?, ?, ?, ?)";
+    private static final String INSERIR_FATURA = "INSERT INTO faturas (numero, nif, data, quantidade, sem_iva, iva) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String INSERIR_LINHA = "INSERT INTO linhas (numero, posicao, alimentar, codigo, nome, descricao, "
+            + "valor_unitario, quantidade, categoria, tipo_taxa, classe, biologico_ou_prescricao, certificacoes, medico, "
+            + "sem_iva, iva) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Faturas com os seus clientes e linhas, uma linha do resultado por produto (ou uma só, sem produto, para
+     * as faturas vazias), pela ordem dos números das faturas e das posições dos produtos.
+     */
+    private static final String LER_FATURAS = "SELECT f.numero, f.data, c.nif, c.nome, c.localizacao, l.alimentar, "
+            + "l.codigo, l.nome, l.descricao, l.valor_unitario, l.quantidade, l.categoria, l.tipo_taxa, "
+            + "l.biologico_ou_prescricao, l.certificacoes, l.medico "
+            + "FROM faturas f JOIN clientes c ON c.nif = f.nif LEFT JOIN linhas l ON l.numero = f.numero ";
+    private static final String ORDENAR_FATURAS = " ORDER BY f.numero, l.posicao";
+
+    private final String url;
+    private final Armazenamento reserva;
+    private Connection ligacaoAberta;
+
+    /**
+     * Indica se os últimos dados carregados vieram da reserva, e não da base de dados.
+     */
+    private boolean carregadoDaReserva;
+
+    /**
+     * Construtor da classe. A ligação à base de dados só é aberta na primeira operação.
+     *
+     * @param url URL JDBC da base de dados.
+     * @param reserva Motor de onde os dados são carregados se a base de dados não tiver clientes, ou null.
+     */
+    public ArmazenamentoSQL(String url, Armazenamento reserva) {
+        this.url = url;
+        this.reserva = reserva;
+    }
+
+    @Override
+    public String getNome() {
+        return "sql";
+    }
+
+    /**
+     * Entrega os clientes pela ordem em que foram guardados e as faturas por ordem de número.
+     */
+    @Override
+    public synchronized void carregar(LeitorClientesFaturas.Ouvinte ouvinte) throws IOException {
+        try {
+            Connection ligacao = ligar();
+            carregadoDaReserva = false;
+            if (reserva != null && contarClientes(ligacao) == 0) {
+                ligacao.commit();
+                carregadoDaReserva = true;
+                reserva.carregar(ouvinte);
+                return;
+            }
+            MapaInteiro<Cliente> clientes = new MapaInteiro<>();
+            try (Statement consulta = ligacao.createStatement();
+                 ResultSet resultado = consulta.executeQuery("SELECT nif, nome, localizacao FROM clientes ORDER BY ordem")) {
+                while (resultado.next()) {
+                    Cliente cliente = new Cliente(resultado.getString(2), resultado.getString(3), resultado.getInt(1));
+                    clientes.put(cliente.getNumeroContribuinte(), cliente);
+                    ouvinte.cliente(cliente);
+                }
+            }
+            try (PreparedStatement consulta = ligacao.prepareStatement(LER_FATURAS + ORDENAR_FATURAS)) {
+                lerFaturas(consulta, clientes, ouvinte::fatura);
+            }
+            ligacao.commit();
+        } catch (SQLException e) {
+            throw erro(e);
+        }
+    }
+
+    @Override
+    public synchronized void guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        try {
+            Connection ligacao = ligar();
+            try {
+                try (Statement apagar = ligacao.createStatement()) {
+                    apagar.executeUpdate("DELETE FROM linhas");
+                    apagar.executeUpdate("DELETE FROM faturas");
+                    apagar.executeUpdate("DELETE FROM clientes");
+                }
+                inserir(ligacao, clientes, faturas, 0);
+                ligacao.commit();
+                carregadoDaReserva = false;
+            } catch (SQLException | RuntimeException e) {
+                ligacao.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw erro(e);
+        }
+    }
+
+    /**
+     * Insere apenas os clientes e as faturas novos, sem ler os dados guardados.
+     */
+    @Override
+    public synchronized void acrescentar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        try {
+            Connection ligacao = ligar();
+            try {
+                MapaInteiro<Cliente> porNif = new MapaInteiro<>();
+                for (Cliente cliente : clientes) {
+                    if (porNif.get(cliente.getNumeroContribuinte()) != null
+                            || lerCliente(ligacao, cliente.getNumeroContribuinte()) != null) {
+                        throw new IllegalArgumentException("O cliente com número de contribuinte "
+                                + cliente.getNumeroContribuinte() + " já existe.");
+                    }
+                    porNif.put(cliente.getNumeroContribuinte(), cliente);
+                }
+                List<Fatura> novas = new ArrayList<>(faturas.size());
+                for (Fatura fatura : faturas) {
+                    int nif = fatura.getCliente().getNumeroContribuinte();
+                    Cliente cliente = porNif.get(nif);
+                    if (cliente == null) {
+                        cliente = lerCliente(ligacao, nif);
+                        if (cliente == null) {
+                            throw new IllegalArgumentException("A fatura " + fatura.getNumero()
+                                    + " refere um cliente desconhecido: " + nif);
+                        }
+                        porNif.put(nif, cliente);
+                    }
+                    // O IVA guardado é o da localização do cliente guardado
+                    if (cliente != fatura.getCliente() && cliente.getLocalizacao() != fatura.getCliente().getLocalizacao()) {
+                        Fatura copia = new Fatura(fatura.getNumero(), cliente, fatura.getData());
+                        copia.setProdutos(fatura.getProdutos());
+                        fatura = copia;
+                    }
+                    novas.add(fatura);
+                }
+
+                int ordem;
+                try (Statement consulta = ligacao.createStatement();
+                     ResultSet resultado = consulta.executeQuery("SELECT COALESCE(MAX(ordem) + 1, 0) FROM clientes")) {
+                    resultado.next();
+                    ordem = resultado.getInt(1);
+                }
+                inserir(ligacao, clientes, novas, ordem);
+                ligacao.commit();
+            } catch (SQLException | RuntimeException e) {
+                ligacao.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw erro(e);
+        }
+    }
+
+    /**
+     * Lê apenas as faturas do período, pelo índice das datas, por ordem de número.
+     */
+    @Override
+    public synchronized void percorrer(LocalDate inicio, LocalDate fim, Consumer<Fatura> consumidor) throws IOException {
+        try {
+            Connection ligacao = ligar();
+            try (PreparedStatement consulta = ligacao.prepareStatement(LER_FATURAS
+                    + "WHERE f.data BETWEEN ? AND ?" + ORDENAR_FATURAS)) {
+                consulta.setInt(1, (int) inicio.toEpochDay());
+                consulta.setInt(2, (int) fim.toEpochDay());
+                lerFaturas(consulta, new MapaInteiro<>(), consumidor);
+            }
+            ligacao.commit();
+        } catch (SQLException e) {
+            throw erro(e);
+        }
+    }
+
+    /**
+     * Calcula as estatísticas das faturas guardadas com duas consultas agregadas: os totais das linhas por tipo de
+     * produto e classe de taxa, e os totais das faturas por localização, dia e número de contribuinte.
+     * Se os dados foram carregados da reserva, as estatísticas são calculadas a partir das faturas carregadas.
+     */
+    @Override
+    public synchronized EstatisticasFaturas calcularEstatisticas(List<Fatura> faturas) throws IOException {
+        if (carregadoDaReserva) {
+            return EstatisticasFaturas.calcular(faturas);
+        }
+        EstatisticasFaturas estatisticas = new EstatisticasFaturas();
+        try {
+            Connection ligacao = ligar();
+            try (Statement consulta = ligacao.createStatement()) {
+                try (ResultSet resultado = consulta.executeQuery("SELECT alimentar, classe, COUNT(*), SUM(quantidade), "
+                        + "SUM(sem_iva), SUM(iva) FROM linhas GROUP BY alimentar, classe")) {
+                    while (resultado.next()) {
+                        estatisticas.somarLinhas(resultado.getInt(1) != 0, resultado.getInt(2), resultado.getLong(3),
+                                resultado.getLong(4), resultado.getLong(5), resultado.getLong(6));
+                    }
+                }
+                try (ResultSet resultado = consulta.executeQuery("SELECT c.localizacao, f.data, f.nif, COUNT(*), "
+                        + "SUM(f.quantidade), SUM(f.sem_iva), SUM(f.iva) FROM faturas f JOIN clientes c ON c.nif = f.nif "
+                        + "GROUP BY c.localizacao, f.data, f.nif")) {
+                    while (resultado.next()) {
+                        estatisticas.somarFaturas(Localizacao.deTexto(resultado.getString(1)), resultado.getInt(2),
+                                resultado.getInt(3), resultado.getLong(4), resultado.getLong(5), resultado.getLong(6),
+                                resultado.getLong(7));
+                    }
+                }
+            }
+            ligacao.commit();
+        } catch (SQLException e) {
+            throw erro(e);
+        }
+        return estatisticas;
+    }
+
+    @Override
+    public synchronized void fechar() throws IOException {
+        if (reserva != null) {
+            reserva.fechar();
+        }
+        if (ligacaoAberta == null) {
+            return;
+        }
+        try {
+            ligacaoAberta.close();
+        } catch (SQLException e) {
+            throw erro(e);
+        } finally {
+            ligacaoAberta = null;
+        }
+    }
+
+    /**
+     * Abre a ligação na primeira utilização e cria as tabelas e os índices que ainda não existirem.
+     * A ligação não confirma automaticamente: cada operação termina com commit ou rollback.
+     */
+    private Connection ligar() throws SQLException {
+        if (ligacaoAberta == null) {
+            Connection nova = DriverManager.getConnection(url);
+            try {
+                nova.setAutoCommit(false);
+                try (Statement criar = nova.createStatement()) {
+                    for (String instrucao : CRIAR_TABELAS) {
+                        criar.executeUpdate(instrucao);
+                    }
+                }
+                nova.commit();
+            } catch (SQLException e) {
+                nova.close();
+                throw e;
+            }
+            ligacaoAberta = nova;
+        }
+        return ligacaoAberta;
+    }
+
+    /**
+     * Insere os clientes, as faturas e as linhas com instruções preparadas, em lotes.
+     * Não confirma a transação.
+     *
+     * @param primeiraOrdem Posição do primeiro cliente na ordem dos clientes guardados.
+     */
+    private static void inserir(Connection ligacao, List<Cliente> clientes, List<Fatura> faturas, int primeiraOrdem)
+            throws SQLException {
+        try (PreparedStatement inserirCliente = ligacao.prepareStatement(INSERIR_CLIENTE)) {
+            int ordem = primeiraOrdem;
+            for (Cliente cliente : clientes) {
+                inserirCliente.setInt(1, cliente.getNumeroContribuinte());
+                inserirCliente.setInt(2, ordem++);
+                inserirCliente.setString(3, cliente.getNome());
+                inserirCliente.setString(4, cliente.getTipoLocalizacao());
+                inserirCliente.addBatch();
+                if ((ordem - primeiraOrdem) % TAMANHO_LOTE == 0) {
+                    inserirCliente.executeBatch();
+                }
+            }
+            inserirCliente.executeBatch();
+        }
+
+        try (PreparedStatement inserirFatura = ligacao.prepareStatement(INSERIR_FATURA);
+             PreparedStatement inserirLinha = ligacao.prepareStatement(INSERIR_LINHA)) {
+            int faturasNoLote = 0;
+            int linhasNoLote = 0;
+            for (Fatura fatura : faturas) {
+                LinhasFatura linhas = fatura.getLinhas();
+                Localizacao localizacao = fatura.getCliente().getLocalizacao();
+                long quantidade = 0;
+                for (int i = 0; i < linhas.tamanho(); i++) {
+                    quantidade += linhas.getQuantidade(i);
+                }
+                inserirFatura.setInt(1, fatura.getNumero());
+                inserirFatura.setInt(2, fatura.getCliente().getNumeroContribuinte());
+                inserirFatura.setInt(3, (int) fatura.getData().toEpochDay());
+                inserirFatura.setLong(4, quantidade);
+                inserirFatura.setLong(5, fatura.getTotalSemIVACentimos());
+                inserirFatura.setLong(6, fatura.getTotalIvaCentimos());
+                inserirFatura.addBatch();
+                if (++faturasNoLote == TAMANHO_LOTE) {
+                    // As linhas referem as faturas, que têm de ser inseridas primeiro
+                    inserirFatura.executeBatch();
+                    inserirLinha.executeBatch();
+                    faturasNoLote = 0;
+                    linhasNoLote = 0;
+                }
+
+                for (int i = 0; i < linhas.tamanho(); i++) {
+                    definirLinha(inserirLinha, fatura.getNumero(), i, linhas, localizacao);
+                    inserirLinha.addBatch();
+                    if (++linhasNoLote == TAMANHO_LOTE) {
+                        inserirFatura.executeBatch();
+                        inserirLinha.executeBatch();
+                        faturasNoLote = 0;
+                        linhasNoLote = 0;
+                    }
+                }
+            }
+            inserirFatura.executeBatch();
+            inserirLinha.executeBatch();
+        }
+    }
+
+    /**
+     * Define os parâmetros de {@link #INSERIR_LINHA} para uma linha de uma fatura.
+     */
+    private static void definirLinha(PreparedStatement inserirLinha, int numero, int indice, LinhasFatura linhas,
+                                     Localizacao localizacao) throws SQLException {
+        Produto produto = linhas.getProduto(indice);
+        boolean alimentar = linhas.isAlimentar(indice);
+        ClasseTaxa classe = linhas.getClasseTaxa(indice);
+        inserirLinha.setInt(1, numero);
+        inserirLinha.setInt(2, indice);
+        inserirLinha.setInt(3, alimentar ? 1 : 0);
+        inserirLinha.setString(4, produto.getCodigo());
+        inserirLinha.setString(5, produto.getNome());
+        inserirLinha.setString(6, produto.getDescricao());
+        inserirLinha.setLong(7, linhas.getValorUnitarioCentimos(indice));
+        inserirLinha.setInt(8, linhas.getQuantidade(indice));
+        inserirLinha.setString(9, produto.getCategoria());
+        inserirLinha.setInt(11, classe != null ? classe.ordinal() : EstatisticasFaturas.SEM_CLASSE_TAXA);
+        if (alimentar) {
+            ProdutoAlimentar produtoAlimentar = (ProdutoAlimentar) produto;
+            inserirLinha.setString(10, produtoAlimentar.getTipoTaxa());
+            inserirLinha.setInt(12, produtoAlimentar.isBiologico() ? 1 : 0);
+            inserirLinha.setString(13, String.join(",", produtoAlimentar.getCertificacoes()));
+            inserirLinha.setString(14, null);
+        } else {
+            ProdutoFarmacia produtoFarmacia = (ProdutoFarmacia) produto;
+            inserirLinha.setString(10, null);
+            inserirLinha.setInt(12, produtoFarmacia.isComPrescricao() ? 1 : 0);
+            inserirLinha.setString(13, null);
+            inserirLinha.setString(14, produtoFarmacia.getMedico());
+        }
+        inserirLinha.setLong(15, linhas.getValorSemIVACentimos(indice));
+        inserirLinha.setLong(16, linhas.getImpostoCentimos(indice, localizacao));
+    }
+
+    /**
+     * Lê o resultado de uma consulta {@link #LER_FATURAS} e entrega cada fatura, já com os produtos, ao consumidor.
+     * Os clientes que ainda não estiverem no mapa são criados a partir do resultado e acrescentados.
+     */
+    private static void lerFaturas(PreparedStatement consulta, MapaInteiro<Cliente> clientes, Consumer<Fatura> consumidor)
+            throws SQLException {
+        consulta.setFetchSize(TAMANHO_LOTE);
+        try (ResultSet resultado = consulta.executeQuery()) {
+            Fatura fatura = null;
+            List<Produto> produtos = new ArrayList<>();
+            while (resultado.next()) {
+                int numero = resultado.getInt(1);
+                if (fatura == null || fatura.getNumero() != numero) {
+                    if (fatura != null) {
+                        fatura.setProdutos(produtos);
+                        consumidor.accept(fatura);
+                        produtos = new ArrayList<>();
+                    }
+                    int nif = resultado.getInt(3);
+                    Cliente cliente = clientes.get(nif);
+                    if (cliente == null) {
+                        cliente = new Cliente(resultado.getString(4), resultado.getString(5), nif);
+                        clientes.put(nif, cliente);
+                    }
+                    fatura = new Fatura(numero, cliente, LocalDate.ofEpochDay(resultado.getInt(2)));
+                }
+                // Uma fatura sem produtos tem uma única linha no resultado, com as colunas das linhas a null
+                if (resultado.getString(7) != null) {
+                    produtos.add(lerProduto(resultado));
+                }
+            }
+            if (fatura != null) {
+                fatura.setProdutos(produtos);
+                consumidor.accept(fatura);
+            }
+        }
+    }
+
+    /**
+     * Cria o produto da linha atual de um resultado de {@link #LER_FATURAS}.
+     */
+    private static Produto lerProduto(ResultSet resultado) throws SQLException {
+        String codigo = resultado.getString(7);
+        String nome = resultado.getString(8);
+        String descricao = resultado.getString(9);
+        double valorUnitario = Dinheiro.paraDouble(resultado.getLong(10));
+        int quantidade = resultado.getInt(11);
+        String categoria = resultado.getString(12);
+        boolean biologicoOuPrescricao = resultado.getInt(14) != 0;
+        if (resultado.getInt(6) != 0) {
+            String certificacoes = resultado.getString(15);
+            List<String> lista = certificacoes == null || certificacoes.isEmpty()
+                    ? List.of() : Arrays.asList(certificacoes.split(","));
+            return new ProdutoAlimentar(codigo, nome, descricao, valorUnitario, resultado.getString(13),
+                    biologicoOuPrescricao, lista, categoria, quantidade);
+        }
+        return new ProdutoFarmacia(codigo, nome, descricao, valorUnitario, biologicoOuPrescricao, categoria,
+                resultado.getString(16), quantidade, "Taxa normal");
+    }
+
+    private static int contarClientes(Connection ligacao) throws SQLException {
+        try (Statement consulta = ligacao.createStatement();
+             ResultSet resultado = consulta.executeQuery("SELECT COUNT(*) FROM clientes")) {
+            resultado.next();
+            return resultado.getInt(1);
+        }
+    }
+
+    /**
+     * Obtém um cliente guardado.
+     *
+     * @return O cliente, ou null se não existir.
+     */
+    private static Cliente lerCliente(Connection ligacao, int nif) throws SQLException {
+        try (PreparedStatement consulta = ligacao.prepareStatement("SELECT nome, localizacao FROM clientes WHERE nif = ?")) {
+            consulta.setInt(1, nif);
+            try (ResultSet resultado = consulta.executeQuery()) {
+                return resultado.next() ? new Cliente(resultado.getString(1), resultado.getString(2), nif) : null;
+            }
+        }
+    }
+
+    private IOException erro(SQLException e) {
+        return new IOException("Erro na base de dados " + url + ": " + e.getMessage(), e);
+    }
+}
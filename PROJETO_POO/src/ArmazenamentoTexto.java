@@ -0,0 +1,49 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Motor de armazenamento no ficheiro de texto de clientes e faturas ({@link FicheiroHandler}).
+ * O ficheiro é lido em streaming e gravado de forma atómica, mantendo as versões anteriores.
+ * O formato tem uma única secção de clientes antes das faturas, pelo que acrescentar dados reescreve o ficheiro.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ArmazenamentoTexto implements Armazenamento {
+    private final FicheiroHandler ficheiroHandler;
+    private final File ficheiro;
+
+    /**
+     * Construtor da classe.
+     *
+     * @param ficheiroHandler Handler usado para ler e escrever o formato de texto.
+     * @param ficheiro Ficheiro de texto.
+     */
+    public ArmazenamentoTexto(FicheiroHandler ficheiroHandler, File ficheiro) {
+        this.ficheiroHandler = ficheiroHandler;
+        this.ficheiro = ficheiro;
+    }
+
+    @Override
+    public String getNome() {
+        return "texto";
+    }
+
+    @Override
+    public void carregar(LeitorClientesFaturas.Ouvinte ouvinte) throws IOException {
+        // O próprio ficheiro ou, se a última gravação não terminou, a versão anterior
+        File origem = GravacaoAtomica.escolherParaLeitura(ficheiro);
+        if (origem == null) {
+            System.out.println("Ficheiro não encontrado. Criando um novo.");
+            return;
+        }
+        ficheiroHandler.lerEmStreaming(origem, ouvinte);
+    }
+
+    @Override
+    public void guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        ficheiroHandler.salvarSnapshot(ficheiro, clientes, faturas);
+    }
+}
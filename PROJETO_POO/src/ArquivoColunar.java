@@ -0,0 +1,696 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Arquivo colunar e comprimido de faturas, pensado para o histórico que raramente é alterado.
+ * <p>
+ * As faturas são agrupadas em grupos de {@link #FATURAS_POR_GRUPO}. Em cada grupo, cada campo das faturas e das
+ * linhas é guardado numa coluna separada, comprimida com {@link Deflater}:
+ * <ul>
+ *     <li>números, datas e números de contribuinte são guardados como diferenças em relação à fatura anterior;</li>
+ *     <li>valores unitários e totais são guardados em cêntimos (vírgula fixa);</li>
+ *     <li>códigos, nomes, descrições, categorias, tipos de taxa, certificações e médicos são índices
+ *     num dicionário de Strings partilhado por todo o arquivo;</li>
+ *     <li>o IVA de cada linha é guardado já calculado.</li>
+ * </ul>
+ * A leitura com {@link #percorrer(Set, Consumer)} só descomprime as colunas pedidas e salta as restantes,
+ * pelo que as estatísticas ({@link #calcularEstatisticas()}) e outras consultas não precisam de criar
+ * objetos {@link Produto}. Com {@link #carregar(List, List)} as faturas são reconstruídas por completo e, com
+ * {@link #percorrer(LocalDate, LocalDate, Consumer)}, só as de um período.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ArquivoColunar {
+    /**
+     * Número de faturas em cada grupo de colunas.
+     */
+    static final int FATURAS_POR_GRUPO = 8192;
+
+    private static final int ASSINATURA = 0x504F4F43; // "POOC"
+    private static final int VERSAO = 1;
+    private static final int PRODUTO_ALIMENTAR = 0;
+    private static final int PRODUTO_FARMACIA = 1;
+
+    /**
+     * Colunas do arquivo. As primeiras têm um valor por fatura, as restantes um valor por linha.
+     */
+    public enum Coluna {
+        NUMERO, DATA, NIF, LOCALIZACAO, NUM_LINHAS, SEM_IVA, IVA,
+        TIPO_PRODUTO, CODIGO, NOME, DESCRICAO, VALOR_UNITARIO, QUANTIDADE, CATEGORIA, TIPO_TAXA,
+        BIOLOGICO_OU_PRESCRICAO, CERTIFICACOES, MEDICO, IVA_LINHA
+    }
+
+    private final File ficheiro;
+    private final String[] strings;
+    private final Cliente[] clientes;
+    private final int listados;
+
+    private ArquivoColunar(File ficheiro, String[] strings, Cliente[] clientes, int listados) {
+        this.ficheiro = ficheiro;
+        this.strings = strings;
+        this.clientes = clientes;
+        this.listados = listados;
+    }
+
+    /**
+     * Escreve um arquivo com os clientes e as faturas indicados, substituindo o anterior.
+     * O ficheiro é escrito ao lado e só no fim substitui o original ({@link GravacaoAtomica}).
+     *
+     * @param ficheiro Ficheiro de destino.
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public static void salvar(File ficheiro, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        GravacaoAtomica.gravar(ficheiro, out -> escrever(out, clientes, faturas));
+    }
+
+    /**
+     * Escreve os clientes e as faturas no formato do arquivo.
+     *
+     * @param saida Stream de destino, que não é fechado.
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    static void escrever(OutputStream saida, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        // Tabela de clientes: os listados e, a seguir, os que só aparecem em faturas
+        Map<Cliente, Integer> indiceClientes = new IdentityHashMap<>();
+        List<Cliente> tabelaClientes = new ArrayList<>(clientes.size());
+        for (Cliente cliente : clientes) {
+            if (indiceClientes.putIfAbsent(cliente, tabelaClientes.size()) == null) {
+                tabelaClientes.add(cliente);
+            }
+        }
+        int listados = tabelaClientes.size();
+        for (Fatura fatura : faturas) {
+            if (indiceClientes.putIfAbsent(fatura.getCliente(), tabelaClientes.size()) == null) {
+                tabelaClientes.add(fatura.getCliente());
+            }
+        }
+
+        FicheiroBinarioHandler.Dicionario dicionario = new FicheiroBinarioHandler.Dicionario();
+        FicheiroBinarioHandler.Bloco blocoClientes = new FicheiroBinarioHandler.Bloco();
+        blocoClientes.escreverVarint(tabelaClientes.size());
+        blocoClientes.escreverVarint(listados);
+        for (Cliente cliente : tabelaClientes) {
+            blocoClientes.escreverVarint(dicionario.indice(cliente.getNome()));
+            blocoClientes.escreverVarint(dicionario.indice(cliente.getTipoLocalizacao()));
+            blocoClientes.escreverVarint(cliente.getNumeroContribuinte());
+        }
+
+        // As colunas de todos os grupos são codificadas primeiro, porque o dicionário tem de ser escrito antes delas
+        Compressor compressor = new Compressor();
+        List<byte[][]> grupos = new ArrayList<>();
+        List<int[]> tamanhos = new ArrayList<>();
+        for (int inicio = 0; inicio < faturas.size(); inicio += FATURAS_POR_GRUPO) {
+            List<Fatura> grupo = faturas.subList(inicio, Math.min(inicio + FATURAS_POR_GRUPO, faturas.size()));
+            FicheiroBinarioHandler.Bloco[] colunas = codificarGrupo(grupo, dicionario);
+            byte[][] comprimidas = new byte[colunas.length][];
+            for (int i = 0; i < colunas.length; i++) {
+                comprimidas[i] = compressor.comprimir(colunas[i]);
+            }
+            grupos.add(comprimidas);
+            tamanhos.add(new int[]{grupo.size(), contarLinhas(grupo)});
+        }
+
+        FicheiroBinarioHandler.Bloco blocoDicionario = new FicheiroBinarioHandler.Bloco();
+        blocoDicionario.escreverVarint(dicionario.getStrings().size());
+        for (String texto : dicionario.getStrings()) {
+            blocoDicionario.escreverTexto(texto);
+        }
+
+        try {
+            DataOutputStream out = new DataOutputStream(saida);
+            out.writeInt(ASSINATURA);
+            out.writeInt(VERSAO);
+            out.write(compressor.comprimir(blocoDicionario));
+            out.write(compressor.comprimir(blocoClientes));
+            out.writeInt(grupos.size());
+            for (int g = 0; g < grupos.size(); g++) {
+                out.writeInt(tamanhos.get(g)[0]);
+                out.writeInt(tamanhos.get(g)[1]);
+                for (byte[] coluna : grupos.get(g)) {
+                    out.write(coluna);
+                }
+            }
+            out.flush();
+        } finally {
+            compressor.terminar();
+        }
+    }
+
+    /**
+     * Abre um arquivo, lendo apenas o dicionário e os clientes.
+     *
+     * @param ficheiro Ficheiro do arquivo.
+     * @return Arquivo aberto.
+     * @throws IOException se ocorrer um erro de leitura ou o ficheiro não for um arquivo válido.
+     */
+    public static ArquivoColunar abrir(File ficheiro) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ficheiro), 64 * 1024))) {
+            if (in.readInt() != ASSINATURA) {
+                throw new IOException("O ficheiro não é um arquivo colunar do POOFS.");
+            }
+            int versao = in.readInt();
+            if (versao != VERSAO) {
+                throw new IOException("Versão do arquivo colunar não suportada: " + versao);
+            }
+            Inflater inflater = new Inflater();
+            try {
+                FicheiroBinarioHandler.Leitor leitor = descomprimir(in, inflater);
+                String[] strings = new String[leitor.lerVarint()];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = leitor.lerTexto();
+                }
+
+                leitor = descomprimir(in, inflater);
+                Cliente[] clientes = new Cliente[leitor.lerVarint()];
+                int listados = leitor.lerVarint();
+                for (int i = 0; i < clientes.length; i++) {
+                    clientes[i] = new Cliente(strings[leitor.lerVarint()], strings[leitor.lerVarint()], leitor.lerVarint());
+                }
+                return new ArquivoColunar(ficheiro, strings, clientes, listados);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Obtém o dicionário de Strings do arquivo, para interpretar as colunas de índices.
+     * Os índices das colunas {@link Coluna#CATEGORIA}, {@link Coluna#TIPO_TAXA} e {@link Coluna#MEDICO} estão
+     * desfasados de uma unidade, com 0 a representar null.
+     *
+     * @return Dicionário de Strings (não deve ser alterado).
+     */
+    public String[] getStrings() {
+        return strings;
+    }
+
+    /**
+     * Percorre o arquivo grupo a grupo, descomprimindo apenas as colunas pedidas.
+     *
+     * @param colunas Colunas a ler.
+     * @param acao Ação a executar para cada grupo.
+     * @throws IOException se ocorrer um erro de leitura ou o arquivo estiver corrompido.
+     */
+    public void percorrer(Set<Coluna> colunas, Consumer<Grupo> acao) throws IOException {
+        percorrer(colunas, grupo -> true, acao);
+    }
+
+    /**
+     * Percorre o arquivo grupo a grupo, como {@link #percorrer(Set, Consumer)}, mas decide primeiro, com as colunas
+     * das faturas ({@link Coluna#NUMERO} a {@link Coluna#IVA}), se o grupo interessa; se não interessar,
+     * as colunas das linhas são saltadas sem serem descomprimidas e a ação não é executada.
+     */
+    private void percorrer(Set<Coluna> colunas, Predicate<Grupo> filtro, Consumer<Grupo> acao) throws IOException {
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ficheiro), 64 * 1024))) {
+            // Assinatura, versão, dicionário e clientes, já lidos em abrir()
+            in.skipNBytes(8);
+            saltar(in);
+            saltar(in);
+            int numGrupos = in.readInt();
+            for (int g = 0; g < numGrupos; g++) {
+                Grupo grupo = new Grupo(in.readInt(), in.readInt());
+                boolean interessa = true;
+                for (Coluna coluna : Coluna.values()) {
+                    if (interessa && colunas.contains(coluna)) {
+                        grupo.descodificar(coluna, descomprimir(in, inflater));
+                    } else {
+                        saltar(in);
+                    }
+                    if (coluna == Coluna.IVA) {
+                        interessa = filtro.test(grupo);
+                    }
+                }
+                if (interessa) {
+                    acao.accept(grupo);
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Calcula as estatísticas de todas as faturas do arquivo, lendo apenas as colunas numéricas necessárias.
+     *
+     * @return Estatísticas das faturas arquivadas.
+     * @throws IOException se ocorrer um erro de leitura ou o arquivo estiver corrompido.
+     */
+    public EstatisticasFaturas calcularEstatisticas() throws IOException {
+        // Classe de taxa de cada String do dicionário usada como tipo de taxa
+        int[] classes = new int[strings.length + 1];
+        Arrays.fill(classes, -1);
+
+        EstatisticasFaturas estatisticas = new EstatisticasFaturas();
+        percorrer(EnumSet.of(Coluna.DATA, Coluna.NIF, Coluna.LOCALIZACAO, Coluna.NUM_LINHAS, Coluna.SEM_IVA, Coluna.IVA,
+                Coluna.TIPO_PRODUTO, Coluna.VALOR_UNITARIO, Coluna.QUANTIDADE, Coluna.TIPO_TAXA, Coluna.IVA_LINHA), grupo -> {
+            Localizacao[] localizacoes = Localizacao.values();
+            int linha = 0;
+            for (int f = 0; f < grupo.numFaturas; f++) {
+                long quantidadeFatura = 0;
+                for (int fim = linha + grupo.numLinhas[f]; linha < fim; linha++) {
+                    boolean alimentar = grupo.tipoProduto[linha] == PRODUTO_ALIMENTAR;
+                    int classe = EstatisticasFaturas.SEM_CLASSE_TAXA;
+                    if (alimentar) {
+                        int tipoTaxa = grupo.tipoTaxa[linha];
+                        if (classes[tipoTaxa] < 0) {
+                            classes[tipoTaxa] = ClasseTaxa.deTexto(strings[tipoTaxa - 1]).ordinal();
+                        }
+                        classe = classes[tipoTaxa];
+                    }
+                    long semIVA = Dinheiro.multiplicar(grupo.valorUnitario[linha], grupo.quantidade[linha]);
+                    estatisticas.somarLinha(alimentar, classe, grupo.quantidade[linha], semIVA, grupo.ivaLinha[linha], 1);
+                    quantidadeFatura += grupo.quantidade[linha];
+                }
+                estatisticas.somarFatura(localizacoes[grupo.localizacao[f]], grupo.data[f], grupo.nif[f],
+                        quantidadeFatura, grupo.semIVA[f], grupo.iva[f], 1);
+            }
+        });
+        return estatisticas;
+    }
+
+    /**
+     * Reconstrói todos os clientes e faturas do arquivo.
+     *
+     * @param clientesLidos Lista que será preenchida com os clientes.
+     * @param faturasLidas Lista que será preenchida com as faturas.
+     * @throws IOException se ocorrer um erro de leitura ou o arquivo estiver corrompido.
+     */
+    public void carregar(List<Cliente> clientesLidos, List<Fatura> faturasLidas) throws IOException {
+        clientesLidos.addAll(Arrays.asList(clientes).subList(0, listados));
+        MapaInteiro<Cliente> porNif = getClientesPorNif();
+        percorrer(EnumSet.allOf(Coluna.class), grupo -> {
+            int linha = 0;
+            for (int f = 0; f < grupo.numFaturas; f++) {
+                faturasLidas.add(criarFatura(grupo, f, linha, porNif));
+                linha += grupo.numLinhas[f];
+            }
+        });
+    }
+
+    /**
+     * Reconstrói apenas as faturas com data entre as indicadas (inclusive), pela ordem do arquivo.
+     * Os grupos sem nenhuma fatura do período são saltados depois de lidas as colunas das faturas,
+     * sem descomprimir as colunas das linhas.
+     *
+     * @param inicio Primeira data do período.
+     * @param fim Última data do período.
+     * @param consumidor Destino das faturas do período.
+     * @throws IOException se ocorrer um erro de leitura ou o arquivo estiver corrompido.
+     */
+    public void percorrer(LocalDate inicio, LocalDate fim, Consumer<Fatura> consumidor) throws IOException {
+        long de = inicio.toEpochDay();
+        long ate = fim.toEpochDay();
+        MapaInteiro<Cliente> porNif = getClientesPorNif();
+        percorrer(EnumSet.allOf(Coluna.class), grupo -> {
+            for (int f = 0; f < grupo.numFaturas; f++) {
+                if (grupo.data[f] >= de && grupo.data[f] <= ate) {
+                    return true;
+                }
+            }
+            return false;
+        }, grupo -> {
+            int linha = 0;
+            for (int f = 0; f < grupo.numFaturas; f++) {
+                if (grupo.data[f] >= de && grupo.data[f] <= ate) {
+                    consumidor.accept(criarFatura(grupo, f, linha, porNif));
+                }
+                linha += grupo.numLinhas[f];
+            }
+        });
+    }
+
+    /**
+     * Indica se o arquivo tem clientes; um arquivo sem clientes também não tem faturas.
+     *
+     * @return true se o arquivo tiver pelo menos um cliente.
+     */
+    public boolean temClientes() {
+        return listados > 0;
+    }
+
+    private MapaInteiro<Cliente> getClientesPorNif() {
+        MapaInteiro<Cliente> porNif = new MapaInteiro<>(clientes.length);
+        for (Cliente cliente : clientes) {
+            if (!porNif.contem(cliente.getNumeroContribuinte())) {
+                porNif.put(cliente.getNumeroContribuinte(), cliente);
+            }
+        }
+        return porNif;
+    }
+
+    /**
+     * Cria a fatura {@code f} do grupo, cujas linhas começam em {@code primeiraLinha}.
+     */
+    private Fatura criarFatura(Grupo grupo, int f, int primeiraLinha, MapaInteiro<Cliente> porNif) {
+        List<Produto> produtos = new ArrayList<>(grupo.numLinhas[f]);
+        for (int linha = primeiraLinha; linha < primeiraLinha + grupo.numLinhas[f]; linha++) {
+            produtos.add(grupo.criarProduto(linha, strings));
+        }
+        Fatura fatura = new Fatura(grupo.numero[f], porNif.get(grupo.nif[f]), LocalDate.ofEpochDay(grupo.data[f]));
+        fatura.setProdutos(produtos);
+        return fatura;
+    }
+
+    private static FicheiroBinarioHandler.Bloco[] codificarGrupo(List<Fatura> faturas,
+                                                                 FicheiroBinarioHandler.Dicionario dicionario) {
+        FicheiroBinarioHandler.Bloco[] colunas = new FicheiroBinarioHandler.Bloco[Coluna.values().length];
+        for (int i = 0; i < colunas.length; i++) {
+            colunas[i] = new FicheiroBinarioHandler.Bloco();
+        }
+
+        int numeroAnterior = 0;
+        long diaAnterior = 0;
+        int nifAnterior = 0;
+        for (Fatura fatura : faturas) {
+            Localizacao localizacao = fatura.getCliente().getLocalizacao();
+            int nif = fatura.getCliente().getNumeroContribuinte();
+            long dia = fatura.getData().toEpochDay();
+            List<Produto> produtos = fatura.lerProdutos();
+
+            colunas[Coluna.NUMERO.ordinal()].escreverVarintComSinal((long) fatura.getNumero() - numeroAnterior);
+            colunas[Coluna.DATA.ordinal()].escreverVarintComSinal(dia - diaAnterior);
+            colunas[Coluna.NIF.ordinal()].escreverVarintComSinal((long) nif - nifAnterior);
+            colunas[Coluna.LOCALIZACAO.ordinal()].escreverByte(localizacao.ordinal());
+            colunas[Coluna.NUM_LINHAS.ordinal()].escreverVarint(produtos.size());
+            colunas[Coluna.SEM_IVA.ordinal()].escreverVarintComSinal(fatura.getTotalSemIVACentimos());
+            colunas[Coluna.IVA.ordinal()].escreverVarintComSinal(fatura.getTotalIvaCentimos());
+            numeroAnterior = fatura.getNumero();
+            diaAnterior = dia;
+            nifAnterior = nif;
+
+            for (Produto produto : produtos) {
+                boolean alimentar = produto instanceof ProdutoAlimentar;
+                colunas[Coluna.TIPO_PRODUTO.ordinal()].escreverByte(alimentar ? PRODUTO_ALIMENTAR : PRODUTO_FARMACIA);
+                colunas[Coluna.CODIGO.ordinal()].escreverVarint(dicionario.indice(produto.getCodigo()));
+                colunas[Coluna.NOME.ordinal()].escreverVarint(dicionario.indice(produto.getNome()));
+                colunas[Coluna.DESCRICAO.ordinal()].escreverVarint(dicionario.indice(produto.getDescricao()));
+                colunas[Coluna.VALOR_UNITARIO.ordinal()].escreverVarintComSinal(produto.getValorUnitarioCentimos());
+                colunas[Coluna.QUANTIDADE.ordinal()].escreverVarint(produto.getQuantidade());
+                colunas[Coluna.CATEGORIA.ordinal()].escreverVarint(dicionario.indiceOuNulo(produto.getCategoria()));
+                colunas[Coluna.TIPO_TAXA.ordinal()].escreverVarint(dicionario.indiceOuNulo(produto.getTipoTaxa()));
+                colunas[Coluna.IVA_LINHA.ordinal()].escreverVarintComSinal(produto.calcularImpostoCentimos(localizacao));
+
+                FicheiroBinarioHandler.Bloco certificacoes = colunas[Coluna.CERTIFICACOES.ordinal()];
+                if (produto instanceof ProdutoAlimentar produtoAlimentar) {
+                    colunas[Coluna.BIOLOGICO_OU_PRESCRICAO.ordinal()].escreverByte(produtoAlimentar.isBiologico() ? 1 : 0);
+                    certificacoes.escreverVarint(produtoAlimentar.getCertificacoes().size());
+                    for (String certificacao : produtoAlimentar.getCertificacoes()) {
+                        certificacoes.escreverVarint(dicionario.indice(certificacao));
+                    }
+                    colunas[Coluna.MEDICO.ordinal()].escreverVarint(0);
+                } else {
+                    ProdutoFarmacia farmacia = (ProdutoFarmacia) produto;
+                    colunas[Coluna.BIOLOGICO_OU_PRESCRICAO.ordinal()].escreverByte(farmacia.isComPrescricao() ? 1 : 0);
+                    certificacoes.escreverVarint(0);
+                    colunas[Coluna.MEDICO.ordinal()].escreverVarint(dicionario.indiceOuNulo(farmacia.getMedico()));
+                }
+            }
+        }
+        return colunas;
+    }
+
+    private static int contarLinhas(List<Fatura> faturas) {
+        int linhas = 0;
+        for (Fatura fatura : faturas) {
+            linhas += fatura.getNumProdutos();
+        }
+        return linhas;
+    }
+
+    /**
+     * Lê uma coluna comprimida (tamanho original, tamanho comprimido, CRC32 e dados) e verifica o CRC.
+     */
+    private static FicheiroBinarioHandler.Leitor descomprimir(DataInputStream in, Inflater inflater) throws IOException {
+        int tamanho = in.readInt();
+        int comprimido = in.readInt();
+        int crcEsperado = in.readInt();
+        if (tamanho < 0 || comprimido < 0) {
+            throw new IOException("Arquivo corrompido: tamanho de coluna inválido.");
+        }
+        byte[] dados = new byte[comprimido];
+        in.readFully(dados);
+
+        byte[] conteudo = new byte[tamanho];
+        inflater.reset();
+        inflater.setInput(dados);
+        try {
+            int lidos = 0;
+            while (lidos < tamanho && !inflater.finished()) {
+                int n = inflater.inflate(conteudo, lidos, tamanho - lidos);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                lidos += n;
+            }
+            if (lidos != tamanho) {
+                throw new IOException("Arquivo corrompido: coluna incompleta.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Arquivo corrompido: " + e.getMessage(), e);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(conteudo, 0, tamanho);
+        if ((int) crc.getValue() != crcEsperado) {
+            throw new IOException("Arquivo corrompido: CRC inválido.");
+        }
+        return new FicheiroBinarioHandler.Leitor(conteudo);
+    }
+
+    private static void saltar(DataInputStream in) throws IOException {
+        in.readInt();
+        int comprimido = in.readInt();
+        in.readInt();
+        in.skipNBytes(comprimido);
+    }
+
+    /**
+     * Comprime colunas com um {@link Deflater} reutilizado.
+     */
+    private static class Compressor {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[64 * 1024];
+
+        /**
+         * Comprime o conteúdo do bloco e devolve-o com o cabeçalho da coluna
+         * (tamanho original, tamanho comprimido e CRC32 do conteúdo original).
+         */
+        byte[] comprimir(FicheiroBinarioHandler.Bloco bloco) throws IOException {
+            ByteArrayOutputStream original = new ByteArrayOutputStream(bloco.tamanho());
+            bloco.copiarPara(original);
+            byte[] conteudo = original.toByteArray();
+            crc.reset();
+            crc.update(conteudo, 0, conteudo.length);
+
+            deflater.reset();
+            deflater.setInput(conteudo);
+            deflater.finish();
+            ByteArrayOutputStream saida = new ByteArrayOutputStream(12 + conteudo.length / 2);
+            DataOutputStream cabecalho = new DataOutputStream(saida);
+            cabecalho.writeInt(conteudo.length);
+            cabecalho.writeInt(0); // Tamanho comprimido, preenchido no fim
+            cabecalho.writeInt((int) crc.getValue());
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                saida.write(buffer, 0, n);
+            }
+            byte[] resultado = saida.toByteArray();
+            int comprimido = resultado.length - 12;
+            for (int i = 0; i < 4; i++) {
+                resultado[4 + i] = (byte) (comprimido >>> (24 - 8 * i));
+            }
+            return resultado;
+        }
+
+        void terminar() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Colunas descomprimidas de um grupo de faturas. As colunas que não foram pedidas ficam a null.
+     * As linhas das faturas estão seguidas: as primeiras {@code numLinhas[0]} são da primeira fatura, e assim por diante.
+     * Os arrays são partilhados e não devem ser alterados.
+     */
+    public static class Grupo {
+        final int numFaturas;
+        final int totalLinhas;
+        int[] numero;
+        int[] data;
+        int[] nif;
+        byte[] localizacao;
+        int[] numLinhas;
+        long[] semIVA;
+        long[] iva;
+        byte[] tipoProduto;
+        int[] codigo;
+        int[] nome;
+        int[] descricao;
+        long[] valorUnitario;
+        int[] quantidade;
+        int[] categoria;
+        int[] tipoTaxa;
+        byte[] biologicoOuPrescricao;
+        int[][] certificacoes;
+        int[] medico;
+        long[] ivaLinha;
+
+        Grupo(int numFaturas, int totalLinhas) {
+            this.numFaturas = numFaturas;
+            this.totalLinhas = totalLinhas;
+        }
+
+        public int getNumFaturas() {
+            return numFaturas;
+        }
+
+        public int getTotalLinhas() {
+            return totalLinhas;
+        }
+
+        public int[] getNumeros() {
+            return numero;
+        }
+
+        /**
+         * @return Datas das faturas, em dias desde 1970-01-01.
+         */
+        public int[] getDatas() {
+            return data;
+        }
+
+        public int[] getNifs() {
+            return nif;
+        }
+
+        /**
+         * @return Localização de cada fatura, como {@link Localizacao#ordinal()}.
+         */
+        public byte[] getLocalizacoes() {
+            return localizacao;
+        }
+
+        public int[] getNumLinhas() {
+            return numLinhas;
+        }
+
+        public long[] getTotaisSemIVA() {
+            return semIVA;
+        }
+
+        public long[] getTotaisIva() {
+            return iva;
+        }
+
+        public long[] getValoresUnitarios() {
+            return valorUnitario;
+        }
+
+        public int[] getQuantidades() {
+            return quantidade;
+        }
+
+        public long[] getIvaLinhas() {
+            return ivaLinha;
+        }
+
+        private void descodificar(Coluna coluna, FicheiroBinarioHandler.Leitor leitor) throws IOException {
+            switch (coluna) {
+                case NUMERO -> numero = lerDeltas(leitor, numFaturas);
+                case DATA -> data = lerDeltas(leitor, numFaturas);
+                case NIF -> nif = lerDeltas(leitor, numFaturas);
+                case LOCALIZACAO -> localizacao = lerBytes(leitor, numFaturas);
+                case NUM_LINHAS -> numLinhas = lerVarints(leitor, numFaturas);
+                case SEM_IVA -> semIVA = lerLongs(leitor, numFaturas);
+                case IVA -> iva = lerLongs(leitor, numFaturas);
+                case TIPO_PRODUTO -> tipoProduto = lerBytes(leitor, totalLinhas);
+                case CODIGO -> codigo = lerVarints(leitor, totalLinhas);
+                case NOME -> nome = lerVarints(leitor, totalLinhas);
+                case DESCRICAO -> descricao = lerVarints(leitor, totalLinhas);
+                case VALOR_UNITARIO -> valorUnitario = lerLongs(leitor, totalLinhas);
+                case QUANTIDADE -> quantidade = lerVarints(leitor, totalLinhas);
+                case CATEGORIA -> categoria = lerVarints(leitor, totalLinhas);
+                case TIPO_TAXA -> tipoTaxa = lerVarints(leitor, totalLinhas);
+                case BIOLOGICO_OU_PRESCRICAO -> biologicoOuPrescricao = lerBytes(leitor, totalLinhas);
+                case CERTIFICACOES -> {
+                    certificacoes = new int[totalLinhas][];
+                    for (int i = 0; i < totalLinhas; i++) {
+                        certificacoes[i] = lerVarints(leitor, leitor.lerVarint());
+                    }
+                }
+                case MEDICO -> medico = lerVarints(leitor, totalLinhas);
+                case IVA_LINHA -> ivaLinha = lerLongs(leitor, totalLinhas);
+            }
+        }
+
+        private Produto criarProduto(int linha, String[] strings) {
+            String codigoProduto = strings[codigo[linha]];
+            String nomeProduto = strings[nome[linha]];
+            String descricaoProduto = strings[descricao[linha]];
+            double valor = Dinheiro.paraDouble(valorUnitario[linha]);
+            String categoriaProduto = FicheiroBinarioHandler.textoOuNulo(strings, categoria[linha]);
+            String tipoTaxaProduto = FicheiroBinarioHandler.textoOuNulo(strings, tipoTaxa[linha]);
+            boolean indicador = biologicoOuPrescricao[linha] == 1;
+
+            if (tipoProduto[linha] == PRODUTO_ALIMENTAR) {
+                List<String> certificacoesProduto = new ArrayList<>(certificacoes[linha].length);
+                for (int indice : certificacoes[linha]) {
+                    certificacoesProduto.add(strings[indice]);
+                }
+                return new ProdutoAlimentar(codigoProduto, nomeProduto, descricaoProduto, valor, tipoTaxaProduto,
+                        indicador, certificacoesProduto, categoriaProduto, quantidade[linha]);
+            }
+            return new ProdutoFarmacia(codigoProduto, nomeProduto, descricaoProduto, valor, indicador, categoriaProduto,
+                    FicheiroBinarioHandler.textoOuNulo(strings, medico[linha]), quantidade[linha], tipoTaxaProduto);
+        }
+
+        private static int[] lerDeltas(FicheiroBinarioHandler.Leitor leitor, int tamanho) throws IOException {
+            int[] valores = new int[tamanho];
+            long anterior = 0;
+            for (int i = 0; i < tamanho; i++) {
+                anterior += leitor.lerVarintComSinal();
+                valores[i] = (int) anterior;
+            }
+            return valores;
+        }
+
+        private static int[] lerVarints(FicheiroBinarioHandler.Leitor leitor, int tamanho) throws IOException {
+            int[] valores = new int[tamanho];
+            for (int i = 0; i < tamanho; i++) {
+                valores[i] = leitor.lerVarint();
+            }
+            return valores;
+        }
+
+        private static long[] lerLongs(FicheiroBinarioHandler.Leitor leitor, int tamanho) throws IOException {
+            long[] valores = new long[tamanho];
+            for (int i = 0; i < tamanho; i++) {
+                valores[i] = leitor.lerVarintComSinal();
+            }
+            return valores;
+        }
+
+        private static byte[] lerBytes(FicheiroBinarioHandler.Leitor leitor, int tamanho) throws IOException {
+            byte[] valores = new byte[tamanho];
+            for (int i = 0; i < tamanho; i++) {
+                valores[i] = (byte) leitor.lerByte();
+            }
+            return valores;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Catálogo de definições de produtos, indexado pelo código do produto.
+ * Todas as linhas de faturas com a mesma definição (código, nome, descrição, taxa, categoria, etc.)
+ * partilham uma única instância imutável de {@link DefinicaoProduto}, e os textos e listas de certificações
+ * das definições também são partilhados entre definições diferentes.
+ * Um código pode ter várias definições (por exemplo, o mesmo produto com e sem certificações).
+ * Cada definição registada recebe um identificador inteiro, usado pelas {@link LinhasFatura} para referenciar
+ * a definição de cada linha sem guardar um objeto por linha.
+ * O catálogo pode ser usado por várias threads ao mesmo tempo (ver {@link ImportadorParalelo}).
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class CatalogoProdutos {
+    private static final ConcurrentHashMap<String, DefinicaoProduto[]> DEFINICOES = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> TEXTOS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<List<String>, List<String>> CERTIFICACOES = new ConcurrentHashMap<>();
+    private static final Object BLOQUEIO_IDS = new Object();
+    private static volatile DefinicaoProduto[] porId = new DefinicaoProduto[1024]; // Definições por identificador
+    private static int numDefinicoes;
+
+    private CatalogoProdutos() {
+    }
+
+    /**
+     * Obtém a definição partilhada igual à indicada, registando-a no catálogo se ainda não existir.
+     *
+     * @param definicao Definição pretendida.
+     * @return Definição partilhada, igual à indicada.
+     */
+    public static DefinicaoProduto partilhar(DefinicaoProduto definicao) {
+        DefinicaoProduto existente = procurar(DEFINICOES.get(definicao.getCodigo()), definicao);
+        if (existente != null) {
+            return existente;
+        }
+
+        DefinicaoProduto[] resultado = new DefinicaoProduto[1];
+        DEFINICOES.compute(definicao.getCodigo(), (codigo, variantes) -> {
+            DefinicaoProduto igual = procurar(variantes, definicao);
+            if (igual != null) {
+                resultado[0] = igual;
+                return variantes;
+            }
+            resultado[0] = comTextosPartilhados(codigo, definicao);
+            registar(resultado[0]);
+            if (variantes == null) {
+                return new DefinicaoProduto[]{resultado[0]};
+            }
+            DefinicaoProduto[] novas = Arrays.copyOf(variantes, variantes.length + 1);
+            novas[variantes.length] = resultado[0];
+            return novas;
+        });
+        return resultado[0];
+    }
+
+    /**
+     * Obtém a definição com o identificador indicado.
+     *
+     * @param id Identificador atribuído pelo catálogo.
+     * @return A definição.
+     * @throws ArrayIndexOutOfBoundsException se o identificador não existir.
+     */
+    static DefinicaoProduto getDefinicao(int id) {
+        return porId[id];
+    }
+
+    /**
+     * Obtém as definições registadas para um código.
+     *
+     * @param codigo Código do produto.
+     * @return Lista de definições, vazia se o código não existir no catálogo.
+     */
+    public static List<DefinicaoProduto> getDefinicoes(String codigo) {
+        DefinicaoProduto[] variantes = DEFINICOES.get(codigo);
+        return variantes == null ? List.of() : List.of(variantes);
+    }
+
+    /**
+     * Obtém o número de definições registadas no catálogo.
+     *
+     * @return Número de definições.
+     */
+    public static int getNumDefinicoes() {
+        synchronized (BLOQUEIO_IDS) {
+            return numDefinicoes;
+        }
+    }
+
+    /**
+     * Obtém todas as definições registadas no catálogo.
+     *
+     * @return Lista das definições.
+     */
+    public static List<DefinicaoProduto> getTodasDefinicoes() {
+        List<DefinicaoProduto> todas = new ArrayList<>();
+        for (DefinicaoProduto[] variantes : DEFINICOES.values()) {
+            todas.addAll(Arrays.asList(variantes));
+        }
+        return todas;
+    }
+
+    private static void registar(DefinicaoProduto definicao) {
+        synchronized (BLOQUEIO_IDS) {
+            DefinicaoProduto[] tabela = porId;
+            if (numDefinicoes == tabela.length) {
+                tabela = Arrays.copyOf(tabela, tabela.length * 2);
+            }
+            definicao.setId(numDefinicoes);
+            tabela[numDefinicoes++] = definicao;
+            porId = tabela;
+        }
+    }
+
+    private static DefinicaoProduto procurar(DefinicaoProduto[] variantes, DefinicaoProduto definicao) {
+        if (variantes != null) {
+            for (DefinicaoProduto variante : variantes) {
+                if (variante.equals(definicao)) {
+                    return variante;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cria uma cópia da definição cujos textos e certificações são as instâncias partilhadas do catálogo.
+     */
+    private static DefinicaoProduto comTextosPartilhados(String codigo, DefinicaoProduto definicao) {
+        List<String> certificacoes = definicao.getCertificacoes();
+        if (!certificacoes.isEmpty()) {
+            List<String> partilhadas = new ArrayList<>(certificacoes.size());
+            for (String certificacao : certificacoes) {
+                partilhadas.add(texto(certificacao));
+            }
+            certificacoes = CERTIFICACOES.computeIfAbsent(List.copyOf(partilhadas), lista -> lista);
+        }
+        return new DefinicaoProduto(texto(definicao.getTipo()), codigo, texto(definicao.getNome()),
+                texto(definicao.getDescricao()), texto(definicao.getTipoTaxa()), texto(definicao.getCategoria()),
+                definicao.isBiologico(), definicao.isComPrescricao(), certificacoes, texto(definicao.getMedico()));
+    }
+
+    private static String texto(String texto) {
+        return texto == null ? null : TEXTOS.computeIfAbsent(texto, t -> t);
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Classes de taxa de IVA dos produtos alimentares.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public enum ClasseTaxa {
+    REDUZIDA("Taxa reduzida"),
+    INTERMEDIA("Taxa intermédia"),
+    NORMAL("Taxa normal");
+
+    private final String nome;
+
+    ClasseTaxa(String nome) {
+        this.nome = nome;
+    }
+
+    /**
+     * Obtém o nome da classe de taxa, tal como aparece no menu.
+     *
+     * @return Nome da classe de taxa.
+     */
+    public String getNome() {
+        return nome;
+    }
+
+    /**
+     * Obtém a classe de taxa com o nome indicado, ignorando maiúsculas e minúsculas.
+     *
+     * @param texto Nome da classe ("Taxa reduzida", "Taxa intermédia" ou "Taxa normal").
+     * @return A classe de taxa correspondente.
+     * @throws IllegalArgumentException se o nome não corresponder a nenhuma classe.
+     */
+    public static ClasseTaxa deTexto(String texto) {
+        for (ClasseTaxa classe : values()) {
+            if (classe.nome.equalsIgnoreCase(texto)) {
+                return classe;
+            }
+        }
+        throw new IllegalArgumentException("Tipo de taxa inválido. Use 'Taxa reduzida', 'Taxa intermédia' ou 'Taxa normal'.");
+    }
+}
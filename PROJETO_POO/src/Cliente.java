@@ -15,6 +15,8 @@ public class Cliente implements Serializable {
     private String nome;
     private String tipoLocalizacao;
     private int numeroContribuinte;
+    private transient Localizacao localizacao; // Localização já convertida, para o cálculo do IVA
+    private transient long versao; // Versão da última alteração (ContadorVersoes)
 
     /**
      * Construtor para inicializar os atributos de um cliente.
@@ -52,6 +54,7 @@ public class Cliente implements Serializable {
             throw new IllegalArgumentException("O nome do cliente não pode ser vazio ou nulo.");
         }
         this.nome = nome.trim();
+        this.versao = ContadorVersoes.proxima();
     }
 
     /**
@@ -83,6 +86,20 @@ public class Cliente implements Serializable {
         }
 
         this.tipoLocalizacao = localizacaoLimpa;
+        this.localizacao = Localizacao.deTexto(localizacaoLimpa);
+        this.versao = ContadorVersoes.proxima();
+    }
+
+    /**
+     * Obtém a localização do cliente, usada no cálculo do IVA.
+     *
+     * @return Localização do cliente.
+     */
+    public Localizacao getLocalizacao() {
+        if (localizacao == null) {
+            localizacao = Localizacao.deTexto(tipoLocalizacao);
+        }
+        return localizacao;
     }
 
     /**
@@ -105,6 +122,16 @@ public class Cliente implements Serializable {
             throw new IllegalArgumentException("Número de contribuinte deve conter exatamente 4 dígitos.");
         }
         this.numeroContribuinte = numeroContribuinte;
+        this.versao = ContadorVersoes.proxima();
+    }
+
+    /**
+     * Obtém a versão da última alteração do cliente, para saber se mudou desde a última gravação.
+     *
+     * @return Versão da última alteração (0 se o cliente foi lido de um ficheiro de objetos e não mudou).
+     */
+    long getVersao() {
+        return versao;
     }
 
     /**
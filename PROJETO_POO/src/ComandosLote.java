@@ -0,0 +1,274 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Modo de comandos em lote, para executar as operações do sistema sem o menu interativo
+ * (por exemplo, em tarefas agendadas). Os comandos usam a mesma lógica de {@link POOFS}
+ * e os mesmos ficheiros de dados que o menu.
+ * <p>
+ * Uso: {@code java Main <comando> [argumentos]}, com os comandos:
+ * <ul>
+ *     <li>{@code import [ficheiro]}: importa clientes e faturas de um ficheiro de texto
+ *     (por omissão, clientes.txt) e guarda os dados;</li>
+ *     <li>{@code export <ficheiro> [inicio fim]}: exporta as faturas para um ficheiro de texto ou,
+ *     se a extensão for .xml, no formato SAF-T (por omissão, de todo o período com faturas);</li>
+ *     <li>{@code stats [inicio fim]}: mostra as estatísticas ou, com um período, o relatório de IVA;</li>
+ *     <li>{@code compact}: guarda os dados e as estatísticas e compacta o journal;</li>
+ *     <li>{@code bench [repeticoes]}: mede o tempo das operações em lote sobre os dados atuais, sem os alterar.</li>
+ * </ul>
+ * As datas usam o formato yyyy-MM-dd. O código de saída é {@link #SUCESSO}, {@link #ERRO} ou {@link #USO_INVALIDO}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class ComandosLote {
+    /** Código de saída quando o comando termina com sucesso. */
+    public static final int SUCESSO = 0;
+    /** Código de saída quando a operação falha (por exemplo, um erro de leitura ou escrita). */
+    public static final int ERRO = 1;
+    /** Código de saída quando o comando ou os argumentos são inválidos. */
+    public static final int USO_INVALIDO = 2;
+
+    private static final int REPETICOES_BENCH = 3;
+
+    private ComandosLote() {
+    }
+
+    /**
+     * Executa o comando indicado nos argumentos da linha de comandos.
+     *
+     * @param args Nome do comando seguido dos seus argumentos.
+     * @return Código de saída.
+     */
+    public static int executar(String[] args) {
+        if (args.length == 0) {
+            mostrarUso();
+            return USO_INVALIDO;
+        }
+        try {
+            return switch (args[0].toLowerCase()) {
+                case "import" -> importar(args);
+                case "export" -> exportar(args);
+                case "stats" -> estatisticas(args);
+                case "compact" -> compactar(args);
+                case "bench" -> medir(args);
+                default -> {
+                    System.err.println("Comando desconhecido: " + args[0]);
+                    mostrarUso();
+                    yield USO_INVALIDO;
+                }
+            };
+        } catch (IllegalArgumentException e) {
+            System.err.println("Argumentos inválidos: " + e.getMessage());
+            mostrarUso();
+            return USO_INVALIDO;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Erro: " + e.getMessage());
+            return ERRO;
+        }
+    }
+
+    private static int importar(String[] args) throws IOException {
+        verificarNumArgumentos(args, 0, 1);
+        POOFS sistema = new POOFS();
+        File ficheiro = args.length > 1 ? new File(args[1]) : new FicheiroHandler().getFicheiro();
+        long inicio = System.nanoTime();
+        int importadas = sistema.importarFaturas(ficheiro);
+        System.out.printf("%d faturas importadas de %s em %.1f ms.%n", importadas, ficheiro, milissegundos(inicio));
+        if (importadas == 0) {
+            System.err.println("O ficheiro não tem faturas válidas; os dados não foram alterados.");
+            return ERRO;
+        }
+        // A importação já guardou todos os dados; se não tivesse conseguido, teria lançado uma IOException (ERRO)
+        sistema.fechar();
+        return SUCESSO;
+    }
+
+    private static int exportar(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 4) {
+            throw new IllegalArgumentException("Indique o ficheiro e, opcionalmente, as duas datas do período.");
+        }
+        boolean saft = args[1].toLowerCase().endsWith(".xml");
+        if (args.length == 4 && !saft) {
+            throw new IllegalArgumentException("O período só se aplica à exportação SAF-T (.xml).");
+        }
+        File ficheiro = new File(args[1]);
+        LocalDate[] periodo = args.length == 4 ? lerPeriodo(args[2], args[3]) : null;
+        POOFS sistema = new POOFS();
+
+        long inicio = System.nanoTime();
+        if (saft) {
+            if (periodo == null) {
+                periodo = periodoCompleto(sistema.getRepositorio().getFaturas());
+            }
+            long exportadas = sistema.exportarSAFT(ficheiro, periodo[0], periodo[1]);
+            System.out.printf("%d faturas de %s a %s exportadas no formato SAF-T para %s em %.1f ms.%n",
+                    exportadas, periodo[0], periodo[1], ficheiro, milissegundos(inicio));
+        } else {
+            sistema.exportarTexto(ficheiro);
+            System.out.printf("%d faturas exportadas para %s em %.1f ms.%n",
+                    sistema.getRepositorio().getFaturas().size(), ficheiro, milissegundos(inicio));
+        }
+        return SUCESSO;
+    }
+
+    private static int estatisticas(String[] args) {
+        if (args.length != 1 && args.length != 3) {
+            throw new IllegalArgumentException("Indique as duas datas do período ou nenhuma.");
+        }
+        LocalDate[] periodo = args.length == 3 ? lerPeriodo(args[1], args[2]) : null;
+        POOFS sistema = new POOFS();
+        if (periodo == null) {
+            sistema.exibirEstatisticas();
+        } else {
+            sistema.exibirRelatorioIVA(periodo[0], periodo[1]);
+        }
+        return SUCESSO;
+    }
+
+    private static int compactar(String[] args) {
+        verificarNumArgumentos(args, 0, 0);
+        POOFS sistema = new POOFS();
+        long inicio = System.nanoTime();
+        boolean guardados = sistema.salvarDados();
+        sistema.fechar();
+        if (!guardados) {
+            System.err.println("Não foi possível guardar os dados; o journal foi mantido.");
+            return ERRO;
+        }
+        System.out.printf("Dados guardados em %.1f ms.%n", milissegundos(inicio));
+        return SUCESSO;
+    }
+
+    /**
+     * Mede as operações em lote sobre os dados atuais, usando ficheiros temporários.
+     */
+    private static int medir(String[] args) throws IOException {
+        verificarNumArgumentos(args, 0, 1);
+        int repeticoes = args.length > 1 ? lerInteiroPositivo(args[1]) : REPETICOES_BENCH;
+
+        long inicioCarga = System.nanoTime();
+        POOFS sistema = new POOFS();
+        double carga = milissegundos(inicioCarga);
+        List<Cliente> clientes = sistema.getRepositorio().getClientes();
+        List<Fatura> faturas = sistema.getRepositorio().getFaturas();
+        LocalDate[] periodo = periodoCompleto(faturas);
+        System.out.printf("%d clientes, %d faturas%n", clientes.size(), faturas.size());
+        System.out.printf("%-16s %10.1f ms%n", "carregar", carga);
+
+        File texto = File.createTempFile("poofs-bench", ".txt");
+        File relatorio = File.createTempFile("poofs-bench", ".out");
+        File saft = File.createTempFile("poofs-bench", ".xml");
+        try {
+            FicheiroHandler ficheiroHandler = new FicheiroHandler();
+            medir("gravar texto", repeticoes, faturas.size(),
+                    () -> ficheiroHandler.salvarClientesComFaturas(texto, clientes, faturas));
+            medir("importar", repeticoes, faturas.size(), () -> {
+                List<Fatura> lidas = new ArrayList<>();
+                new ImportadorParalelo(ficheiroHandler).carregarClientesComFaturas(texto, lidas);
+            });
+            medir("estatísticas", repeticoes, faturas.size(), () -> EstatisticasFaturas.calcular(faturas));
+            medir("exportar texto", repeticoes, faturas.size(), () -> sistema.exportarTexto(relatorio));
+            medir("exportar SAF-T", repeticoes, faturas.size(),
+                    () -> sistema.exportarSAFT(saft, periodo[0], periodo[1]));
+        } finally {
+            Files.deleteIfExists(texto.toPath());
+            Files.deleteIfExists(relatorio.toPath());
+            Files.deleteIfExists(saft.toPath());
+        }
+        return SUCESSO;
+    }
+
+    private interface Operacao {
+        void executar() throws IOException;
+    }
+
+    private static void medir(String nome, int repeticoes, int numFaturas, Operacao operacao) throws IOException {
+        double melhor = Double.MAX_VALUE;
+        for (int i = 0; i < repeticoes; i++) {
+            long inicio = System.nanoTime();
+            operacao.executar();
+            melhor = Math.min(melhor, milissegundos(inicio));
+        }
+        System.out.printf("%-16s %10.1f ms %12.0f faturas/s%n", nome, melhor,
+                melhor > 0 ? numFaturas / (melhor / 1000) : 0);
+    }
+
+    /**
+     * Obtém o período entre a fatura mais antiga e a mais recente, ou o dia de hoje se não houver faturas.
+     */
+    private static LocalDate[] periodoCompleto(List<Fatura> faturas) {
+        LocalDate primeira = null;
+        LocalDate ultima = null;
+        for (Fatura fatura : faturas) {
+            LocalDate data = fatura.getData();
+            if (primeira == null || data.isBefore(primeira)) {
+                primeira = data;
+            }
+            if (ultima == null || data.isAfter(ultima)) {
+                ultima = data;
+            }
+        }
+        if (primeira == null) {
+            primeira = ultima = LocalDate.now();
+        }
+        return new LocalDate[]{primeira, ultima};
+    }
+
+    private static LocalDate[] lerPeriodo(String inicio, String fim) {
+        LocalDate de = lerData(inicio);
+        LocalDate ate = lerData(fim);
+        if (ate.isBefore(de)) {
+            throw new IllegalArgumentException("A data de fim não pode ser anterior à data de início.");
+        }
+        return new LocalDate[]{de, ate};
+    }
+
+    private static LocalDate lerData(String texto) {
+        try {
+            return LocalDate.parse(texto);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Data inválida: " + texto + ". Use o formato yyyy-MM-dd.");
+        }
+    }
+
+    private static int lerInteiroPositivo(String texto) {
+        try {
+            int valor = Integer.parseInt(texto);
+            if (valor > 0) {
+                return valor;
+            }
+        } catch (NumberFormatException e) {
+            // Tratado abaixo
+        }
+        throw new IllegalArgumentException("Número inválido: " + texto + ".");
+    }
+
+    private static void verificarNumArgumentos(String[] args, int minimo, int maximo) {
+        int numArgumentos = args.length - 1;
+        if (numArgumentos < minimo || numArgumentos > maximo) {
+            throw new IllegalArgumentException("O comando " + args[0] + " recebe entre " + minimo + " e " + maximo
+                    + " argumentos.");
+        }
+    }
+
+    private static double milissegundos(long inicio) {
+        return (System.nanoTime() - inicio) / 1e6;
+    }
+
+    private static void mostrarUso() {
+        System.err.println("Uso: java Main <comando> [argumentos]");
+        System.err.println("  import [ficheiro]             Importa clientes e faturas de um ficheiro de texto e guarda os dados");
+        System.err.println("  export <ficheiro> [inicio fim] Exporta as faturas (.xml para SAF-T, de um período)");
+        System.err.println("  stats [inicio fim]            Mostra as estatísticas, ou o relatório de IVA de um período");
+        System.err.println("  compact                       Guarda os dados e compacta o journal");
+        System.err.println("  bench [repeticoes]            Mede as operações em lote sobre os dados atuais");
+        System.err.println("As datas usam o formato yyyy-MM-dd.");
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contador global das versões de clientes e faturas.
+ * Cada alteração de um cliente ou de uma fatura recebe uma versão maior do que todas as anteriores, pelo que
+ * basta comparar a versão de um objeto com o valor do contador no início de uma gravação para saber se o objeto
+ * foi alterado depois dela (usado por {@link ArmazemSegmentado}).
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+final class ContadorVersoes {
+    private static final AtomicLong ULTIMA = new AtomicLong();
+
+    private ContadorVersoes() {
+    }
+
+    /**
+     * Obtém a versão de uma nova alteração.
+     *
+     * @return Versão maior do que todas as já atribuídas.
+     */
+    static long proxima() {
+        return ULTIMA.incrementAndGet();
+    }
+
+    /**
+     * Obtém a última versão atribuída. Os objetos alterados a partir deste momento terão versões maiores.
+     *
+     * @return Última versão atribuída.
+     */
+    static long atual() {
+        return ULTIMA.get();
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Definição imutável de um produto: tudo o que não depende da linha da fatura (código, nome, descrição,
+ * tipo de taxa, categoria, certificações, etc.). As linhas das faturas ({@link Produto}) referenciam uma
+ * definição partilhada através do {@link CatalogoProdutos} e guardam apenas o valor unitário e a quantidade.
+ * A validação dos atributos é feita pelas subclasses de {@link Produto}, antes de criarem a definição.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class DefinicaoProduto implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String tipo; // "Alimentar" ou "Farmacia"
+    private final String codigo;
+    private final String nome;
+    private final String descricao;
+    private final String tipoTaxa;
+    private final String categoria;
+    private final boolean biologico;
+    private final boolean comPrescricao;
+    private final List<String> certificacoes;
+    private final String medico;
+    private transient int perfilIVA; // Perfil da TabelaIVA, calculado no construtor
+    private transient int id = -1; // Identificador atribuído pelo CatalogoProdutos
+    private transient int hash;
+
+    /**
+     * Construtor da definição. Os valores devem já ter sido validados.
+     *
+     * @param tipo          Tipo do produto ("Alimentar" ou "Farmacia").
+     * @param codigo        Código do produto.
+     * @param nome          Nome do produto.
+     * @param descricao     Descrição do produto.
+     * @param tipoTaxa      Tipo de taxa (null nos produtos de farmácia).
+     * @param categoria     Categoria do produto ou null.
+     * @param biologico     Indica se o produto alimentar é biológico.
+     * @param comPrescricao Indica se o produto de farmácia necessita de prescrição.
+     * @param certificacoes Certificações do produto alimentar.
+     * @param medico        Médico que prescreveu o produto de farmácia ou null.
+     */
+    DefinicaoProduto(String tipo, String codigo, String nome, String descricao, String tipoTaxa, String categoria,
+                     boolean biologico, boolean comPrescricao, List<String> certificacoes, String medico) {
+        this.tipo = tipo;
+        this.codigo = codigo;
+        this.nome = nome;
+        this.descricao = descricao;
+        this.tipoTaxa = tipoTaxa;
+        this.categoria = categoria;
+        this.biologico = biologico;
+        this.comPrescricao = comPrescricao;
+        this.certificacoes = List.copyOf(certificacoes);
+        this.medico = medico;
+        if (tipo.equals("Alimentar")) {
+            this.perfilIVA = TabelaIVA.perfilAlimentar(ClasseTaxa.deTexto(tipoTaxa), biologico,
+                    this.certificacoes.size() == 4, "vinho".equalsIgnoreCase(categoria));
+        } else {
+            this.perfilIVA = TabelaIVA.perfilFarmacia(comPrescricao, !comPrescricao && "Animais".equalsIgnoreCase(categoria));
+        }
+    }
+
+    public String getTipo() {
+        return tipo;
+    }
+
+    /**
+     * Verifica se a definição é de um produto alimentar.
+     *
+     * @return true se for alimentar, false se for de farmácia.
+     */
+    public boolean isAlimentar() {
+        return TabelaIVA.isPerfilAlimentar(perfilIVA);
+    }
+
+    public String getCodigo() {
+        return codigo;
+    }
+
+    public String getNome() {
+        return nome;
+    }
+
+    public String getDescricao() {
+        return descricao;
+    }
+
+    public String getTipoTaxa() {
+        return tipoTaxa;
+    }
+
+    public String getCategoria() {
+        return categoria;
+    }
+
+    public boolean isBiologico() {
+        return biologico;
+    }
+
+    public boolean isComPrescricao() {
+        return comPrescricao;
+    }
+
+    /**
+     * Obtém as certificações do produto.
+     *
+     * @return Lista imutável de certificações.
+     */
+    public List<String> getCertificacoes() {
+        return certificacoes;
+    }
+
+    public String getMedico() {
+        return medico;
+    }
+
+    /**
+     * Obtém a taxa de IVA aplicável ao produto, em pontos base (600 corresponde a 6%).
+     *
+     * @param localizacao Localização do cliente.
+     * @return Taxa de IVA em pontos base.
+     */
+    public long getTaxaIVAPontosBase(Localizacao localizacao) {
+        return TabelaIVA.taxasDoPerfil(perfilIVA)[localizacao.ordinal()];
+    }
+
+    /**
+     * Obtém o perfil de IVA do produto na {@link TabelaIVA}.
+     *
+     * @return Número do perfil.
+     */
+    int getPerfilIVA() {
+        return perfilIVA;
+    }
+
+    /**
+     * Obtém o identificador da definição no {@link CatalogoProdutos}.
+     *
+     * @return Identificador, ou -1 se a definição não for a partilhada pelo catálogo.
+     */
+    int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    // Cópias com um atributo alterado, usadas pelos setters de Produto
+
+    DefinicaoProduto comCodigo(String codigo) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comNome(String nome) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comDescricao(String descricao) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comTipoTaxa(String tipoTaxa) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comCategoria(String categoria) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comBiologico(boolean biologico) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comPrescricao(boolean comPrescricao) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comCertificacoes(List<String> certificacoes) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    DefinicaoProduto comMedico(String medico) {
+        return new DefinicaoProduto(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DefinicaoProduto outra)) {
+            return false;
+        }
+        return biologico == outra.biologico && comPrescricao == outra.comPrescricao
+                && tipo.equals(outra.tipo) && codigo.equals(outra.codigo) && nome.equals(outra.nome)
+                && descricao.equals(outra.descricao) && Objects.equals(tipoTaxa, outra.tipoTaxa)
+                && Objects.equals(categoria, outra.categoria) && certificacoes.equals(outra.certificacoes)
+                && Objects.equals(medico, outra.medico);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Objects.hash(tipo, codigo, nome, descricao, tipoTaxa, categoria, biologico, comPrescricao, certificacoes, medico);
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Substitui a definição lida de um ficheiro de objetos pela definição partilhada do catálogo.
+     *
+     * @return Definição partilhada.
+     * @throws ObjectStreamException nunca, declarada pelo mecanismo de serialização.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return CatalogoProdutos.partilhar(this);
+    }
+
+    @Override
+    public String toString() {
+        return "DefinicaoProduto{" +
+                "tipo='" + tipo + '\'' +
+                ", codigo='" + codigo + '\'' +
+                ", nome='" + nome + '\'' +
+                ", descricao='" + descricao + '\'' +
+                ", tipoTaxa='" + tipoTaxa + '\'' +
+                ", categoria='" + categoria + '\'' +
+                '}';
+    }
+}
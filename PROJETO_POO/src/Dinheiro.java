@@ -0,0 +1,113 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Operações sobre valores monetários representados como número inteiro de cêntimos ({@code long}).
+ * <p>
+ * Regras de arredondamento:
+ * <ul>
+ *     <li>Valores introduzidos como decimais (por exemplo, o valor unitário de um produto) são arredondados
+ *     ao cêntimo, metade para cima, de acordo com o valor decimal escrito.</li>
+ *     <li>Por linha: o valor sem IVA de uma linha é o valor unitário vezes a quantidade (exato) e o imposto
+ *     da linha é arredondado ao cêntimo, metade para cima.</li>
+ *     <li>Por fatura: os totais são a soma exata dos valores das linhas, sem novo arredondamento,
+ *     e o total com IVA é sempre a soma do total sem IVA com o total de IVA.</li>
+ * </ul>
+ * As taxas são representadas em pontos base (centésimas de ponto percentual), para que taxas como
+ * 5,4% (6% com desconto de biológico) sejam exatas.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class Dinheiro {
+    private static final long PONTOS_BASE_POR_UNIDADE = 10_000;
+
+    private Dinheiro() {
+    }
+
+    /**
+     * Converte um valor decimal em cêntimos, arredondando metade para cima.
+     *
+     * @param valor Valor decimal (por exemplo, 10.5).
+     * @return Valor em cêntimos (por exemplo, 1050).
+     * @throws ArithmeticException se o valor for demasiado grande.
+     */
+    public static long deDouble(double valor) {
+        double escalado = valor * 100;
+        double parteDecimal = Math.abs(escalado - Math.floor(escalado));
+        // Só os valores próximos de meio cêntimo precisam da conversão decimal exata
+        if (Math.abs(escalado) < 1e15 && Math.abs(parteDecimal - 0.5) > 1e-6) {
+            return Math.round(escalado);
+        }
+        return BigDecimal.valueOf(valor).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Converte cêntimos no valor decimal correspondente.
+     *
+     * @param centimos Valor em cêntimos.
+     * @return Valor decimal.
+     */
+    public static double paraDouble(long centimos) {
+        return centimos / 100.0;
+    }
+
+    /**
+     * Converte uma taxa em percentagem para pontos base.
+     *
+     * @param percentagem Taxa em percentagem (por exemplo, 5.4).
+     * @return Taxa em pontos base (por exemplo, 540).
+     */
+    public static long pontosBase(double percentagem) {
+        return Math.round(percentagem * 100);
+    }
+
+    /**
+     * Multiplica um valor pela quantidade.
+     *
+     * @param centimos Valor unitário em cêntimos.
+     * @param quantidade Quantidade.
+     * @return Valor total em cêntimos.
+     * @throws ArithmeticException se o resultado for demasiado grande.
+     */
+    public static long multiplicar(long centimos, int quantidade) {
+        return Math.multiplyExact(centimos, quantidade);
+    }
+
+    /**
+     * Calcula o imposto sobre um valor, arredondado ao cêntimo (metade para cima, simétrico para valores negativos).
+     *
+     * @param centimos Valor em cêntimos.
+     * @param pontosBase Taxa em pontos base.
+     * @return Imposto em cêntimos.
+     * @throws ArithmeticException se o resultado for demasiado grande.
+     */
+    public static long aplicarTaxa(long centimos, long pontosBase) {
+        long produto = Math.multiplyExact(centimos, pontosBase);
+        long metade = PONTOS_BASE_POR_UNIDADE / 2;
+        return produto >= 0
+                ? (produto + metade) / PONTOS_BASE_POR_UNIDADE
+                : -((-produto + metade) / PONTOS_BASE_POR_UNIDADE);
+    }
+
+    /**
+     * Escreve um valor em cêntimos com duas casas decimais e ponto decimal (por exemplo, "106.69").
+     *
+     * @param centimos Valor em cêntimos.
+     * @return Texto do valor.
+     */
+    public static String formatar(long centimos) {
+        StringBuilder texto = new StringBuilder(24);
+        if (centimos < 0) {
+            texto.append('-');
+        }
+        long absoluto = Math.abs(centimos);
+        long resto = absoluto % 100;
+        texto.append(absoluto / 100).append('.');
+        if (resto < 10) {
+            texto.append('0');
+        }
+        return texto.append(resto).toString();
+    }
+}
@@ -0,0 +1,122 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Especificação de uma fatura a criar por {@link IngestaoFaturas}: o cliente, a data e os dados dos produtos.
+ * Os produtos só são criados (e validados) durante a ingestão, com as mesmas regras de {@link ProdutoAlimentar},
+ * {@link ProdutoFarmacia} e do ficheiro de clientes, e a fatura só recebe número quando é aceite.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class EspecificacaoFatura {
+    private static final FicheiroHandler FORMATO_TEXTO = new FicheiroHandler();
+
+    private final int numeroContribuinte;
+    private final LocalDate data;
+    private final List<Supplier<Produto>> produtos = new ArrayList<>();
+
+    /**
+     * Construtor da especificação.
+     *
+     * @param numeroContribuinte Número de contribuinte do cliente, que deve existir no sistema.
+     * @param data Data da fatura.
+     */
+    public EspecificacaoFatura(int numeroContribuinte, LocalDate data) {
+        this.numeroContribuinte = numeroContribuinte;
+        this.data = data;
+    }
+
+    /**
+     * Acrescenta um produto alimentar, com os mesmos argumentos do construtor de {@link ProdutoAlimentar}.
+     *
+     * @param codigo Código do produto.
+     * @param nome Nome do produto.
+     * @param descricao Descrição do produto.
+     * @param valorUnitario Valor unitário (sem IVA).
+     * @param tipoTaxa Tipo de taxa ("Taxa reduzida", "Taxa intermédia", "Taxa normal").
+     * @param biologico Indica se o produto é biológico.
+     * @param certificacoes Certificações (apenas para Taxa Reduzida).
+     * @param categoria Categoria (apenas para Taxa Intermédia).
+     * @param quantidade Quantidade.
+     * @return Esta especificação.
+     */
+    public EspecificacaoFatura adicionarAlimentar(String codigo, String nome, String descricao, double valorUnitario,
+                                                  String tipoTaxa, boolean biologico, List<String> certificacoes,
+                                                  String categoria, int quantidade) {
+        List<String> copiaCertificacoes = certificacoes == null ? null : new ArrayList<>(certificacoes);
+        produtos.add(() -> new ProdutoAlimentar(codigo, nome, descricao, valorUnitario, tipoTaxa, biologico,
+                copiaCertificacoes, categoria, quantidade));
+        return this;
+    }
+
+    /**
+     * Acrescenta um produto de farmácia, com os mesmos argumentos do construtor de {@link ProdutoFarmacia}.
+     *
+     * @param codigo Código do produto.
+     * @param nome Nome do produto.
+     * @param descricao Descrição do produto.
+     * @param valorUnitario Valor unitário (sem IVA).
+     * @param comPrescricao Indica se o produto necessita de prescrição médica.
+     * @param categoria Categoria (para produtos sem prescrição).
+     * @param medico Nome do médico (para produtos com prescrição).
+     * @param quantidade Quantidade.
+     * @return Esta especificação.
+     */
+    public EspecificacaoFatura adicionarFarmacia(String codigo, String nome, String descricao, double valorUnitario,
+                                                 boolean comPrescricao, String categoria, String medico, int quantidade) {
+        produtos.add(() -> new ProdutoFarmacia(codigo, nome, descricao, valorUnitario, comPrescricao, categoria,
+                medico, quantidade, null));
+        return this;
+    }
+
+    /**
+     * Acrescenta um produto descrito por uma linha no formato do ficheiro de clientes
+     * ({@code codigo;nome;descricao;tipo;valor;quantidade;categoria;...}).
+     *
+     * @param linha Linha com os campos do produto.
+     * @return Esta especificação.
+     */
+    public EspecificacaoFatura adicionarLinha(String linha) {
+        produtos.add(() -> FORMATO_TEXTO.interpretarProduto(linha));
+        return this;
+    }
+
+    public int getNumeroContribuinte() {
+        return numeroContribuinte;
+    }
+
+    public LocalDate getData() {
+        return data;
+    }
+
+    /**
+     * Obtém o número de produtos especificados.
+     *
+     * @return Número de produtos.
+     */
+    public int getNumProdutos() {
+        return produtos.size();
+    }
+
+    /**
+     * Cria e valida os produtos especificados.
+     *
+     * @return Lista de produtos, pela ordem em que foram acrescentados.
+     * @throws IllegalArgumentException se algum produto for inválido.
+     */
+    List<Produto> criarProdutos() {
+        List<Produto> criados = new ArrayList<>(produtos.size());
+        for (int i = 0; i < produtos.size(); i++) {
+            try {
+                criados.add(produtos.get(i).get());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Produto " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return criados;
+    }
+}
@@ -0,0 +1,538 @@
+import java.io.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Acumulador das estatísticas das faturas.
+ * <p>
+ * Numa única passagem pelas faturas calcula o número de faturas, a quantidade de produtos e os totais
+ * (sem IVA e de IVA, em cêntimos), e separa esses totais por localização, tipo de produto, classe de taxa,
+ * número de contribuinte, dia e mês.
+ * Dois acumuladores podem ser juntos com {@link #juntar(EstatisticasFaturas)}, o que permite dividir
+ * históricos grandes em partes calculadas em paralelo ({@link #calcular(List)}).
+ * <p>
+ * Registado como ouvinte do {@link RepositorioDados}, o acumulador é atualizado a cada fatura criada,
+ * editada ou importada, e as estatísticas ficam disponíveis sem percorrer as faturas. É guardado em
+ * ficheiro juntamente com os dados ({@link #salvar(File)}), para não ter de ser recalculado no arranque.
+ * <p>
+ * Todos os totais detalhados são arrays com a contagem (faturas, ou linhas para os tipos de produto e
+ * classes de taxa), a quantidade de produtos, o total sem IVA e o total de IVA, nas posições
+ * {@link #CONTAGEM}, {@link #QUANTIDADE}, {@link #SEM_IVA} e {@link #IVA}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class EstatisticasFaturas implements RepositorioDados.Ouvinte {
+    /**
+     * Número de faturas a partir do qual o cálculo é dividido em partes paralelas.
+     */
+    static final int LIMITE_SEQUENCIAL = 8192;
+
+    /**
+     * Índice, nos totais por classe de taxa, dos produtos sem classe de taxa (farmácia).
+     */
+    public static final int SEM_CLASSE_TAXA = ClasseTaxa.values().length;
+
+    public static final int CONTAGEM = 0;
+    public static final int QUANTIDADE = 1;
+    public static final int SEM_IVA = 2;
+    public static final int IVA = 3;
+
+    private static final int TAMANHO_TOTAIS = 4;
+    private static final int PRODUTO_ALIMENTAR = 0;
+    private static final int PRODUTO_FARMACIA = 1;
+
+    private static final int ASSINATURA = 0x504F4F45; // "POOE"
+    private static final int VERSAO = 1;
+    private static final int BLOCO_ESTATISTICAS = 1;
+
+    private long numFaturas;
+    private long quantidadeProdutos;
+    private long totalSemIVACentimos;
+    private long totalIvaCentimos;
+    private final long[][] porLocalizacao = new long[Localizacao.values().length][TAMANHO_TOTAIS];
+    private final long[][] porTipoProduto = new long[2][TAMANHO_TOTAIS];
+    private final long[][] porClasseTaxa = new long[SEM_CLASSE_TAXA + 1][TAMANHO_TOTAIS];
+    private final MapaInteiro<long[]> porMes = new MapaInteiro<>();
+    private final MapaInteiro<long[]> porDia = new MapaInteiro<>();
+    private final MapaInteiro<long[]> porNif = new MapaInteiro<>();
+
+    /**
+     * Calcula as estatísticas de uma lista de faturas, em paralelo se a lista for grande.
+     *
+     * @param faturas Faturas a considerar.
+     * @return Estatísticas das faturas.
+     */
+    public static EstatisticasFaturas calcular(List<Fatura> faturas) {
+        if (faturas.size() < LIMITE_SEQUENCIAL) {
+            EstatisticasFaturas estatisticas = new EstatisticasFaturas();
+            for (Fatura fatura : faturas) {
+                estatisticas.acumular(fatura);
+            }
+            return estatisticas;
+        }
+        return ForkJoinPool.commonPool().invoke(new Tarefa(faturas, 0, faturas.size()));
+    }
+
+    /**
+     * Acrescenta uma fatura às estatísticas.
+     *
+     * @param fatura Fatura a acrescentar.
+     */
+    public void acumular(Fatura fatura) {
+        somar(fatura, 1);
+    }
+
+    /**
+     * Retira uma fatura das estatísticas. A fatura tem de estar no mesmo estado em que foi acrescentada.
+     *
+     * @param fatura Fatura a retirar.
+     */
+    public void retirar(Fatura fatura) {
+        somar(fatura, -1);
+    }
+
+    @Override
+    public void faturaAdicionada(Fatura fatura) {
+        acumular(fatura);
+    }
+
+    @Override
+    public void faturaRetirada(Fatura fatura) {
+        retirar(fatura);
+    }
+
+    @Override
+    public void faturasSubstituidas(List<Fatura> faturas) {
+        limpar();
+        juntar(calcular(faturas));
+    }
+
+    private void somar(Fatura fatura, int sinal) {
+        LinhasFatura linhas = fatura.getLinhas();
+        Localizacao localizacao = fatura.getCliente().getLocalizacao();
+        long quantidadeFatura = 0;
+        for (int i = 0; i < linhas.tamanho(); i++) {
+            ClasseTaxa classe = linhas.getClasseTaxa(i);
+            somarLinha(classe != null, classe != null ? classe.ordinal() : SEM_CLASSE_TAXA, linhas.getQuantidade(i),
+                    linhas.getValorSemIVACentimos(i), linhas.getImpostoCentimos(i, localizacao), sinal);
+            quantidadeFatura += linhas.getQuantidade(i);
+        }
+        somarFatura(localizacao, (int) fatura.getData().toEpochDay(),
+                fatura.getCliente().getNumeroContribuinte(), quantidadeFatura, fatura.getTotalSemIVACentimos(),
+                fatura.getTotalIvaCentimos(), sinal);
+    }
+
+    /**
+     * Soma (ou subtrai) uma linha de fatura aos totais por tipo de produto e classe de taxa.
+     * Permite acumular linhas que não estão em objetos {@link Produto}, como as de um {@link ArquivoColunar}.
+     *
+     * @param alimentar true se o produto for alimentar.
+     * @param classe Índice da classe de taxa ({@link ClasseTaxa#ordinal()} ou {@link #SEM_CLASSE_TAXA}).
+     * @param quantidade Quantidade do produto.
+     * @param semIVA Valor sem IVA da linha, em cêntimos.
+     * @param iva IVA da linha, em cêntimos.
+     * @param sinal 1 para somar, -1 para subtrair.
+     */
+    void somarLinha(boolean alimentar, int classe, long quantidade, long semIVA, long iva, int sinal) {
+        somarLinhas(alimentar, classe, sinal, sinal * quantidade, sinal * semIVA, sinal * iva);
+    }
+
+    /**
+     * Soma os totais de um grupo de linhas com o mesmo tipo de produto e classe de taxa,
+     * como os devolvidos por uma consulta agregada ({@link ArmazenamentoSQL}).
+     *
+     * @param alimentar true se os produtos forem alimentares.
+     * @param classe Índice da classe de taxa ({@link ClasseTaxa#ordinal()} ou {@link #SEM_CLASSE_TAXA}).
+     * @param linhas Número de linhas do grupo.
+     * @param quantidade Quantidade total de produtos.
+     * @param semIVA Total sem IVA das linhas, em cêntimos.
+     * @param iva Total de IVA das linhas, em cêntimos.
+     */
+    void somarLinhas(boolean alimentar, int classe, long linhas, long quantidade, long semIVA, long iva) {
+        somar(porTipoProduto[alimentar ? PRODUTO_ALIMENTAR : PRODUTO_FARMACIA], linhas, quantidade, semIVA, iva);
+        somar(porClasseTaxa[classe], linhas, quantidade, semIVA, iva);
+    }
+
+    /**
+     * Soma (ou subtrai) os totais de uma fatura, cujas linhas já foram somadas com
+     * {@link #somarLinha(boolean, int, long, long, long, int)}.
+     *
+     * @param localizacao Localização do cliente.
+     * @param dia Data da fatura, em dias desde 1970-01-01.
+     * @param numeroContribuinte Número de contribuinte do cliente.
+     * @param quantidade Quantidade total de produtos da fatura.
+     * @param semIVA Total sem IVA da fatura, em cêntimos.
+     * @param iva Total de IVA da fatura, em cêntimos.
+     * @param sinal 1 para somar, -1 para subtrair.
+     */
+    void somarFatura(Localizacao localizacao, int dia, int numeroContribuinte, long quantidade, long semIVA, long iva,
+                     int sinal) {
+        somarFaturas(localizacao, dia, numeroContribuinte, sinal, sinal * quantidade, sinal * semIVA, sinal * iva);
+    }
+
+    /**
+     * Soma os totais de um grupo de faturas com a mesma localização, dia e número de contribuinte,
+     * como os devolvidos por uma consulta agregada ({@link ArmazenamentoSQL}).
+     *
+     * @param localizacao Localização do cliente.
+     * @param dia Data das faturas, em dias desde 1970-01-01.
+     * @param numeroContribuinte Número de contribuinte do cliente.
+     * @param faturas Número de faturas do grupo.
+     * @param quantidade Quantidade total de produtos das faturas.
+     * @param semIVA Total sem IVA das faturas, em cêntimos.
+     * @param iva Total de IVA das faturas, em cêntimos.
+     */
+    void somarFaturas(Localizacao localizacao, int dia, int numeroContribuinte, long faturas, long quantidade,
+                      long semIVA, long iva) {
+        numFaturas += faturas;
+        quantidadeProdutos += quantidade;
+        totalSemIVACentimos += semIVA;
+        totalIvaCentimos += iva;
+
+        LocalDate data = LocalDate.ofEpochDay(dia);
+        somar(porLocalizacao[localizacao.ordinal()], faturas, quantidade, semIVA, iva);
+        somar(porMes, chaveMes(data.getYear(), data.getMonthValue()), faturas, quantidade, semIVA, iva);
+        somar(porDia, dia, faturas, quantidade, semIVA, iva);
+        somar(porNif, numeroContribuinte, faturas, quantidade, semIVA, iva);
+    }
+
+    /**
+     * Junta às estatísticas atuais as de outro acumulador.
+     *
+     * @param outra Estatísticas a juntar.
+     * @return Este acumulador.
+     */
+    public EstatisticasFaturas juntar(EstatisticasFaturas outra) {
+        numFaturas += outra.numFaturas;
+        quantidadeProdutos += outra.quantidadeProdutos;
+        totalSemIVACentimos += outra.totalSemIVACentimos;
+        totalIvaCentimos += outra.totalIvaCentimos;
+        juntar(porLocalizacao, outra.porLocalizacao);
+        juntar(porTipoProduto, outra.porTipoProduto);
+        juntar(porClasseTaxa, outra.porClasseTaxa);
+        juntar(porMes, outra.porMes);
+        juntar(porDia, outra.porDia);
+        juntar(porNif, outra.porNif);
+        return this;
+    }
+
+    /**
+     * Verifica se as estatísticas correspondem a uma lista de faturas, comparando o número de faturas e os totais.
+     * Só usa os totais guardados em cada fatura, sem ler os produtos.
+     *
+     * @param faturas Faturas carregadas.
+     * @return true se corresponderem, false caso contrário.
+     */
+    public boolean corresponde(List<Fatura> faturas) {
+        long semIVA = 0;
+        long iva = 0;
+        for (Fatura fatura : faturas) {
+            semIVA += fatura.getTotalSemIVACentimos();
+            iva += fatura.getTotalIvaCentimos();
+        }
+        return faturas.size() == numFaturas && semIVA == totalSemIVACentimos && iva == totalIvaCentimos;
+    }
+
+    /**
+     * Guarda as estatísticas num ficheiro. O ficheiro é escrito ao lado e só depois substitui o anterior.
+     *
+     * @param ficheiro Ficheiro de destino.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public void salvar(File ficheiro) throws IOException {
+        FicheiroBinarioHandler.Bloco bloco = new FicheiroBinarioHandler.Bloco();
+        bloco.escreverVarintComSinal(numFaturas);
+        bloco.escreverVarintComSinal(quantidadeProdutos);
+        bloco.escreverVarintComSinal(totalSemIVACentimos);
+        bloco.escreverVarintComSinal(totalIvaCentimos);
+        escrever(bloco, porLocalizacao);
+        escrever(bloco, porTipoProduto);
+        escrever(bloco, porClasseTaxa);
+        escrever(bloco, porMes);
+        escrever(bloco, porDia);
+        escrever(bloco, porNif);
+
+        GravacaoAtomica.gravar(ficheiro, saida -> {
+            DataOutputStream out = new DataOutputStream(saida);
+            out.writeInt(ASSINATURA);
+            out.writeInt(VERSAO);
+            bloco.gravar(out, BLOCO_ESTATISTICAS);
+            out.flush();
+        });
+    }
+
+    /**
+     * Lê as estatísticas guardadas com {@link #salvar(File)}.
+     *
+     * @param ficheiro Ficheiro a ler.
+     * @return Estatísticas lidas.
+     * @throws IOException se ocorrer um erro de leitura ou o ficheiro estiver corrompido.
+     */
+    public static EstatisticasFaturas carregar(File ficheiro) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ficheiro)))) {
+            if (in.readInt() != ASSINATURA) {
+                throw new IOException("O ficheiro não contém estatísticas do POOFS.");
+            }
+            int versao = in.readInt();
+            if (versao != VERSAO) {
+                throw new IOException("Versão do ficheiro de estatísticas não suportada: " + versao);
+            }
+            if (in.readUnsignedByte() != BLOCO_ESTATISTICAS) {
+                throw new IOException("Ficheiro de estatísticas corrompido.");
+            }
+            FicheiroBinarioHandler.Leitor leitor = FicheiroBinarioHandler.Leitor.lerBloco(in);
+
+            EstatisticasFaturas estatisticas = new EstatisticasFaturas();
+            estatisticas.numFaturas = leitor.lerVarintComSinal();
+            estatisticas.quantidadeProdutos = leitor.lerVarintComSinal();
+            estatisticas.totalSemIVACentimos = leitor.lerVarintComSinal();
+            estatisticas.totalIvaCentimos = leitor.lerVarintComSinal();
+            ler(leitor, estatisticas.porLocalizacao);
+            ler(leitor, estatisticas.porTipoProduto);
+            ler(leitor, estatisticas.porClasseTaxa);
+            ler(leitor, estatisticas.porMes);
+            ler(leitor, estatisticas.porDia);
+            ler(leitor, estatisticas.porNif);
+            return estatisticas;
+        }
+    }
+
+    public long getNumFaturas() {
+        return numFaturas;
+    }
+
+    public long getQuantidadeProdutos() {
+        return quantidadeProdutos;
+    }
+
+    public long getTotalSemIVACentimos() {
+        return totalSemIVACentimos;
+    }
+
+    public long getTotalIvaCentimos() {
+        return totalIvaCentimos;
+    }
+
+    public long getTotalComIVACentimos() {
+        return totalSemIVACentimos + totalIvaCentimos;
+    }
+
+    /**
+     * Obtém os totais das faturas de clientes de uma localização.
+     *
+     * @param localizacao Localização do cliente.
+     * @return Totais das faturas.
+     */
+    public long[] getTotaisPorLocalizacao(Localizacao localizacao) {
+        return porLocalizacao[localizacao.ordinal()].clone();
+    }
+
+    /**
+     * Obtém os totais dos produtos de um tipo.
+     *
+     * @param alimentar true para os produtos alimentares, false para os de farmácia.
+     * @return Totais das linhas com produtos deste tipo.
+     */
+    public long[] getTotaisPorTipoProduto(boolean alimentar) {
+        return porTipoProduto[alimentar ? PRODUTO_ALIMENTAR : PRODUTO_FARMACIA].clone();
+    }
+
+    /**
+     * Obtém os totais dos produtos alimentares de uma classe de taxa.
+     *
+     * @param classe Classe de taxa.
+     * @return Totais das linhas com produtos desta classe.
+     */
+    public long[] getTotaisPorClasseTaxa(ClasseTaxa classe) {
+        return porClasseTaxa[classe.ordinal()].clone();
+    }
+
+    /**
+     * Obtém os totais dos produtos sem classe de taxa (produtos de farmácia).
+     *
+     * @return Totais das linhas com produtos sem classe de taxa.
+     */
+    public long[] getTotaisSemClasseTaxa() {
+        return porClasseTaxa[SEM_CLASSE_TAXA].clone();
+    }
+
+    /**
+     * Obtém os totais das faturas de um cliente.
+     *
+     * @param numeroContribuinte Número de contribuinte do cliente.
+     * @return Totais das faturas, ou zeros se o cliente não tiver faturas.
+     */
+    public long[] getTotaisPorNif(int numeroContribuinte) {
+        return copiar(porNif.get(numeroContribuinte));
+    }
+
+    /**
+     * Obtém os totais das faturas de um dia.
+     *
+     * @param dia Data das faturas.
+     * @return Totais das faturas, ou zeros se não houver faturas nesse dia.
+     */
+    public long[] getTotaisPorDia(LocalDate dia) {
+        return copiar(porDia.get((int) dia.toEpochDay()));
+    }
+
+    /**
+     * Obtém os meses com faturas, por ordem cronológica, no formato devolvido por {@link #chaveMes(int, int)}.
+     *
+     * @return Chaves dos meses.
+     */
+    public int[] getMeses() {
+        int[] meses = porMes.chaves();
+        Arrays.sort(meses);
+        return meses;
+    }
+
+    /**
+     * Obtém os totais das faturas de um mês.
+     *
+     * @param chaveMes Mês, no formato devolvido por {@link #chaveMes(int, int)}.
+     * @return Totais das faturas, ou zeros se não houver faturas.
+     */
+    public long[] getTotaisPorMes(int chaveMes) {
+        return copiar(porMes.get(chaveMes));
+    }
+
+    /**
+     * Obtém a chave de um mês (ano * 100 + mês, por exemplo 202401 para janeiro de 2024).
+     *
+     * @param ano Ano.
+     * @param mes Mês (1 a 12).
+     * @return Chave do mês.
+     */
+    public static int chaveMes(int ano, int mes) {
+        return ano * 100 + mes;
+    }
+
+    private void limpar() {
+        numFaturas = 0;
+        quantidadeProdutos = 0;
+        totalSemIVACentimos = 0;
+        totalIvaCentimos = 0;
+        for (long[][] totais : new long[][][]{porLocalizacao, porTipoProduto, porClasseTaxa}) {
+            for (long[] linha : totais) {
+                Arrays.fill(linha, 0);
+            }
+        }
+        porMes.limpar();
+        porDia.limpar();
+        porNif.limpar();
+    }
+
+    private static long[] copiar(long[] totais) {
+        return totais == null ? new long[TAMANHO_TOTAIS] : totais.clone();
+    }
+
+    private static void somar(long[] totais, long contagem, long quantidade, long semIVA, long iva) {
+        totais[CONTAGEM] += contagem;
+        totais[QUANTIDADE] += quantidade;
+        totais[SEM_IVA] += semIVA;
+        totais[IVA] += iva;
+    }
+
+    /**
+     * Soma os valores à entrada do mapa, criando-a se não existir e removendo-a quando deixar de ter faturas.
+     */
+    private static void somar(MapaInteiro<long[]> mapa, int chave, long contagem, long quantidade, long semIVA, long iva) {
+        long[] totais = mapa.get(chave);
+        if (totais == null) {
+            totais = new long[TAMANHO_TOTAIS];
+            mapa.put(chave, totais);
+        }
+        somar(totais, contagem, quantidade, semIVA, iva);
+        if (totais[CONTAGEM] == 0) {
+            mapa.remove(chave);
+        }
+    }
+
+    private static void juntar(long[][] destino, long[][] origem) {
+        for (int i = 0; i < destino.length; i++) {
+            somar(destino[i], origem[i][CONTAGEM], origem[i][QUANTIDADE], origem[i][SEM_IVA], origem[i][IVA]);
+        }
+    }
+
+    private static void juntar(MapaInteiro<long[]> destino, MapaInteiro<long[]> origem) {
+        origem.paraCada((chave, totais) ->
+                somar(destino, chave, totais[CONTAGEM], totais[QUANTIDADE], totais[SEM_IVA], totais[IVA]));
+    }
+
+    private static void escrever(FicheiroBinarioHandler.Bloco bloco, long[][] totais) {
+        for (long[] linha : totais) {
+            for (long valor : linha) {
+                bloco.escreverVarintComSinal(valor);
+            }
+        }
+    }
+
+    private static void escrever(FicheiroBinarioHandler.Bloco bloco, MapaInteiro<long[]> mapa) {
+        bloco.escreverVarint(mapa.tamanho());
+        mapa.paraCada((chave, totais) -> {
+            bloco.escreverVarintComSinal(chave);
+            for (long valor : totais) {
+                bloco.escreverVarintComSinal(valor);
+            }
+        });
+    }
+
+    private static void ler(FicheiroBinarioHandler.Leitor leitor, long[][] totais) throws IOException {
+        for (long[] linha : totais) {
+            for (int i = 0; i < linha.length; i++) {
+                linha[i] = leitor.lerVarintComSinal();
+            }
+        }
+    }
+
+    private static void ler(FicheiroBinarioHandler.Leitor leitor, MapaInteiro<long[]> mapa) throws IOException {
+        int tamanho = leitor.lerVarint();
+        for (int i = 0; i < tamanho; i++) {
+            int chave = (int) leitor.lerVarintComSinal();
+            long[] totais = new long[TAMANHO_TOTAIS];
+            for (int j = 0; j < totais.length; j++) {
+                totais[j] = leitor.lerVarintComSinal();
+            }
+            mapa.put(chave, totais);
+        }
+    }
+
+    /**
+     * Tarefa que divide a lista de faturas ao meio até as partes serem pequenas o suficiente.
+     */
+    private static class Tarefa extends RecursiveTask<EstatisticasFaturas> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Fatura> faturas;
+        private final int inicio;
+        private final int fim;
+
+        Tarefa(List<Fatura> faturas, int inicio, int fim) {
+            this.faturas = faturas;
+            this.inicio = inicio;
+            this.fim = fim;
+        }
+
+        @Override
+        protected EstatisticasFaturas compute() {
+            if (fim - inicio <= LIMITE_SEQUENCIAL) {
+                EstatisticasFaturas estatisticas = new EstatisticasFaturas();
+                for (int i = inicio; i < fim; i++) {
+                    estatisticas.acumular(faturas.get(i));
+                }
+                return estatisticas;
+            }
+            int meio = (inicio + fim) >>> 1;
+            Tarefa esquerda = new Tarefa(faturas, inicio, meio);
+            esquerda.fork();
+            EstatisticasFaturas direita = new Tarefa(faturas, meio, fim).compute();
+            return esquerda.join().juntar(direita);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Exportador das faturas de um período num ficheiro XML inspirado no SAF-T (PT), para submissão no portal das Finanças.
+ * <p>
+ * O ficheiro é escrito em streaming com StAX: cada fatura é escrita assim que é lida do {@link IndiceDatas},
+ * e os produtos das faturas ainda guardadas no armazém são lidos sem ficarem em memória. Os totais do
+ * cabeçalho vêm do índice, por isso o ficheiro é escrito numa única passagem e a memória usada não depende
+ * do número de faturas exportadas. Cada linha inclui a taxa de IVA e o imposto calculados pelo produto.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ExportadorSAFT {
+    private static final String NAMESPACE = "urn:OECD:StandardAuditFile-Tax:PT_1.04_01";
+    private static final String VERSAO_SAFT = "1.04_01";
+    private static final String NOME_EMPRESA = "POO Financial Services";
+    private static final int TAMANHO_BUFFER = 1 << 20;
+
+    private final IndiceDatas indiceDatas;
+    private final List<Cliente> clientes;
+
+    /**
+     * Construtor do exportador.
+     *
+     * @param indiceDatas Índice das faturas por data.
+     * @param clientes Clientes do sistema.
+     */
+    public ExportadorSAFT(IndiceDatas indiceDatas, List<Cliente> clientes) {
+        this.indiceDatas = indiceDatas;
+        this.clientes = clientes;
+    }
+
+    /**
+     * Exporta as faturas de um período.
+     *
+     * @param destino Ficheiro a criar (substituído se já existir).
+     * @param inicio Primeiro dia do período (inclusive).
+     * @param fim Último dia do período (inclusive).
+     * @return Número de faturas exportadas.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public long exportar(File destino, LocalDate inicio, LocalDate fim) throws IOException {
+        long[] totais = indiceDatas.getTotais(inicio, fim);
+        try (FileChannel canal = FileChannel.open(destino.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(canal), TAMANHO_BUFFER)) {
+            XMLStreamWriter xml = XMLOutputFactory.newFactory().createXMLStreamWriter(out, "UTF-8");
+            try {
+                xml.writeStartDocument("UTF-8", "1.0");
+                xml.writeStartElement("AuditFile");
+                xml.writeDefaultNamespace(NAMESPACE);
+                escreverCabecalho(xml, inicio, fim);
+                escreverClientes(xml);
+
+                xml.writeStartElement("SourceDocuments");
+                xml.writeStartElement("SalesInvoices");
+                elemento(xml, "NumberOfEntries", Long.toString(totais[IndiceDatas.TOTAL_FATURAS]));
+                elemento(xml, "TotalDebit", Dinheiro.formatar(0));
+                elemento(xml, "TotalCredit", Dinheiro.formatar(totais[IndiceDatas.TOTAL_SEM_IVA]));
+                try {
+                    indiceDatas.paraCadaFatura(inicio, fim, fatura -> {
+                        try {
+                            escreverFatura(xml, fatura);
+                        } catch (XMLStreamException e) {
+                            throw new UncheckedIOException(new IOException(e.getMessage(), e));
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                xml.writeEndElement(); // SalesInvoices
+                xml.writeEndElement(); // SourceDocuments
+                xml.writeEndElement(); // AuditFile
+                xml.writeEndDocument();
+                xml.flush();
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Erro ao escrever o XML: " + e.getMessage(), e);
+        }
+        return totais[IndiceDatas.TOTAL_FATURAS];
+    }
+
+    private void escreverCabecalho(XMLStreamWriter xml, LocalDate inicio, LocalDate fim) throws XMLStreamException {
+        xml.writeStartElement("Header");
+        elemento(xml, "AuditFileVersion", VERSAO_SAFT);
+        elemento(xml, "CompanyName", NOME_EMPRESA);
+        elemento(xml, "FiscalYear", Integer.toString(inicio.getYear()));
+        elemento(xml, "StartDate", inicio.toString());
+        elemento(xml, "EndDate", fim.toString());
+        elemento(xml, "CurrencyCode", "EUR");
+        elemento(xml, "DateCreated", LocalDate.now().toString());
+        elemento(xml, "TaxEntity", "Global");
+        xml.writeEndElement();
+    }
+
+    private void escreverClientes(XMLStreamWriter xml) throws XMLStreamException {
+        xml.writeStartElement("MasterFiles");
+        for (Cliente cliente : clientes) {
+            xml.writeStartElement("Customer");
+            elemento(xml, "CustomerID", Integer.toString(cliente.getNumeroContribuinte()));
+            elemento(xml, "CustomerTaxID", Integer.toString(cliente.getNumeroContribuinte()));
+            elemento(xml, "CompanyName", cliente.getNome());
+            xml.writeStartElement("BillingAddress");
+            elemento(xml, "Region", cliente.getLocalizacao().getNome());
+            elemento(xml, "Country", "PT");
+            xml.writeEndElement();
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+    }
+
+    private void escreverFatura(XMLStreamWriter xml, Fatura fatura) throws XMLStreamException {
+        Localizacao localizacao = fatura.getCliente().getLocalizacao();
+        String regiao = regiaoFiscal(localizacao);
+
+        xml.writeStartElement("Invoice");
+        elemento(xml, "InvoiceNo", "FT POOFS/" + fatura.getNumero());
+        elemento(xml, "InvoiceDate", fatura.getData().toString());
+        elemento(xml, "InvoiceType", "FT");
+        elemento(xml, "CustomerID", Integer.toString(fatura.getCliente().getNumeroContribuinte()));
+
+        List<Produto> produtos = fatura.lerProdutos();
+        long totalSemIVA = 0;
+        long totalIva = 0;
+        for (int i = 0; i < produtos.size(); i++) {
+            Produto produto = produtos.get(i);
+            long semIVA = produto.getValorSemIVACentimos();
+            long iva = produto.calcularImpostoCentimos(localizacao);
+            totalSemIVA += semIVA;
+            totalIva += iva;
+
+            xml.writeStartElement("Line");
+            elemento(xml, "LineNumber", Integer.toString(i + 1));
+            elemento(xml, "ProductCode", produto.getCodigo());
+            elemento(xml, "ProductDescription", produto.getNome());
+            elemento(xml, "Quantity", Integer.toString(produto.getQuantidade()));
+            elemento(xml, "UnitPrice", Dinheiro.formatar(produto.getValorUnitarioCentimos()));
+            elemento(xml, "TaxPointDate", fatura.getData().toString());
+            elemento(xml, "Description", produto.getDescricao());
+            elemento(xml, "CreditAmount", Dinheiro.formatar(semIVA));
+            xml.writeStartElement("Tax");
+            elemento(xml, "TaxType", "IVA");
+            elemento(xml, "TaxCountryRegion", regiao);
+            elemento(xml, "TaxCode", codigoTaxa(produto));
+            // Os pontos base são centésimas de ponto percentual, com o mesmo formato dos cêntimos
+            elemento(xml, "TaxPercentage", Dinheiro.formatar(produto.getTaxaIVAPontosBase(localizacao)));
+            xml.writeEndElement();
+            elemento(xml, "TaxAmount", Dinheiro.formatar(iva));
+            xml.writeEndElement();
+        }
+
+        xml.writeStartElement("DocumentTotals");
+        elemento(xml, "TaxPayable", Dinheiro.formatar(totalIva));
+        elemento(xml, "NetTotal", Dinheiro.formatar(totalSemIVA));
+        elemento(xml, "GrossTotal", Dinheiro.formatar(totalSemIVA + totalIva));
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    /**
+     * Obtém o código de região fiscal do SAF-T para a localização do cliente.
+     */
+    private static String regiaoFiscal(Localizacao localizacao) {
+        return switch (localizacao) {
+            case CONTINENTE -> "PT";
+            case MADEIRA -> "PT-MA";
+            case ACORES -> "PT-AC";
+        };
+    }
+
+    /**
+     * Obtém o código da taxa de IVA do SAF-T (RED, INT ou NOR) para o produto.
+     * Os produtos de farmácia com prescrição têm taxa reduzida e os restantes taxa normal.
+     */
+    private static String codigoTaxa(Produto produto) {
+        if (produto instanceof ProdutoFarmacia farmacia) {
+            return farmacia.isComPrescricao() ? "RED" : "NOR";
+        }
+        return switch (ClasseTaxa.deTexto(produto.getTipoTaxa())) {
+            case REDUZIDA -> "RED";
+            case INTERMEDIA -> "INT";
+            case NORMAL -> "NOR";
+        };
+    }
+
+    private static void elemento(XMLStreamWriter xml, String nome, String valor) throws XMLStreamException {
+        xml.writeStartElement(nome);
+        xml.writeCharacters(valor != null ? valor : "");
+        xml.writeEndElement();
+    }
+}
@@ -9,23 +9,26 @@ import java.util.*;
  * Classe que representa uma fatura.
  * A fatura associa um cliente a uma lista de produtos adquiridos,
  * além de calcular os valores totais com e sem IVA.
+ * Os produtos são guardados em {@link LinhasFatura} (arrays de tipos primitivos), e {@link #getProdutos()}
+ * devolve vistas criadas a pedido.
  *
  * @author Cíntia Cumbane (2020244607)
  * Cristiana Gonçalves (2019239753)
  * @version 3.0
  */
 public class Fatura implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     // Atributos privados
     private int numero; // Número identificador único da fatura
     private Cliente cliente; // Cliente associado à fatura
-    private List<Produto> produtos; // Lista de produtos da fatura
-    private double valorTotalSemIVA; // Valor total sem IVA
-    private double valorTotalIva; // Valor total de IVA
-    private double valorTotalComIVA; // Valor total com IVA
+    private LinhasFatura linhas; // Produtos da fatura
+    private long totalSemIVACentimos; // Valor total sem IVA, em cêntimos
+    private long totalIvaCentimos; // Valor total de IVA, em cêntimos
     private LocalDate data; // Data de emissão da fatura
-    private transient Scanner scanner; // Scanner para entrada de dados (não serializado)
+    private transient ArmazemFaturas.Referencia produtosPorCarregar; // Produtos ainda no armazém de faturas
+    private transient Localizacao localizacaoCalculada; // Localização usada no último cálculo dos totais
+    private transient long versao; // Versão da última alteração (ContadorVersoes)
 
     /**
      * Construtor para inicializar os atributos de uma fatura.
@@ -38,42 +41,136 @@ public class Fatura implements Serializable {
         this.numero = numero;
         this.cliente = cliente;
         this.data = data;
-        this.produtos = new ArrayList<>();
-        this.valorTotalSemIVA = 0;
-        this.valorTotalIva = 0;
-        this.valorTotalComIVA = 0;
-        this.scanner = new Scanner(System.in); // Scanner inicializado para entradas futuras
+        this.linhas = new LinhasFatura();
+        this.totalSemIVACentimos = 0;
+        this.totalIvaCentimos = 0;
+        this.localizacaoCalculada = cliente.getLocalizacao();
+        this.versao = ContadorVersoes.proxima();
+    }
+
+    /**
+     * Construtor para uma fatura guardada num {@link ArmazemFaturas}. Os totais são os que foram guardados
+     * e os produtos só são lidos do armazém quando forem necessários.
+     *
+     * @param numero Número identificador único da fatura.
+     * @param cliente Cliente associado à fatura.
+     * @param data Data de emissão da fatura.
+     * @param totalSemIVACentimos Valor total sem IVA, em cêntimos.
+     * @param totalIvaCentimos Valor total de IVA, em cêntimos.
+     * @param produtosPorCarregar Referência aos produtos no armazém.
+     */
+    Fatura(int numero, Cliente cliente, LocalDate data, long totalSemIVACentimos, long totalIvaCentimos,
+           ArmazemFaturas.Referencia produtosPorCarregar) {
+        this.numero = numero;
+        this.cliente = cliente;
+        this.data = data;
+        this.totalSemIVACentimos = totalSemIVACentimos;
+        this.totalIvaCentimos = totalIvaCentimos;
+        this.produtosPorCarregar = produtosPorCarregar;
+        this.versao = ContadorVersoes.proxima();
+    }
+
+    /**
+     * Obtém as linhas da fatura, lendo-as do armazém de faturas na primeira utilização.
+     *
+     * @return Linhas da fatura.
+     */
+    private LinhasFatura linhas() {
+        if (produtosPorCarregar != null) {
+            linhas = new LinhasFatura(produtosPorCarregar.carregar());
+            produtosPorCarregar = null;
+        }
+        return linhas;
+    }
+
+    /**
+     * Obtém os produtos da fatura sem os guardar em memória, se ainda estiverem por ler do armazém.
+     * Usado para percorrer muitas faturas (por exemplo, numa exportação) sem as manter todas carregadas.
+     *
+     * @return Lista de produtos, apenas para leitura.
+     */
+    List<Produto> lerProdutos() {
+        ArmazemFaturas.Referencia referencia = produtosPorCarregar;
+        return referencia != null ? Collections.unmodifiableList(referencia.carregar()) : linhas.comoLista();
     }
 
     /**
      * Adiciona um produto à lista de produtos da fatura.
-     * Após adicionar, recalcula os valores totais da fatura.
+     * Os totais são atualizados apenas com o valor e o imposto do novo produto.
      *
      * @param produto Produto a ser adicionado à fatura.
      */
     public void adicionarProduto(Produto produto) {
-        produtos.add(produto);
-        recalcularValores();
+        LinhasFatura atuais = linhas();
+        atuais.adicionar(produto);
+        somarLinha(atuais, atuais.tamanho() - 1, 1);
+        versao = ContadorVersoes.proxima();
+    }
+
+    /**
+     * Remove um produto da fatura. Os totais são atualizados apenas com o valor e o imposto do produto removido.
+     *
+     * @param indice Posição do produto na lista.
+     * @return O produto removido.
+     * @throws IndexOutOfBoundsException se a posição for inválida.
+     */
+    public Produto removerProduto(int indice) {
+        LinhasFatura atuais = linhas();
+        Produto removido = atuais.getProduto(indice);
+        somarLinha(atuais, indice, -1);
+        atuais.remover(indice);
+        versao = ContadorVersoes.proxima();
+        return removido;
     }
 
     /**
-     * Recalcula os valores totais da fatura com base nos produtos incluídos.
+     * Substitui um produto da fatura. Os totais são atualizados apenas com os valores do produto anterior e do novo.
+     *
+     * @param indice Posição do produto na lista.
+     * @param produto Novo produto.
+     * @return O produto substituído.
+     * @throws IndexOutOfBoundsException se a posição for inválida.
      */
-    private void recalcularValores() {
-        valorTotalSemIVA = 0;
-        valorTotalIva = 0;
-        valorTotalComIVA = 0;
+    public Produto substituirProduto(int indice, Produto produto) {
+        LinhasFatura atuais = linhas();
+        Produto anterior = atuais.getProduto(indice);
+        somarLinha(atuais, indice, -1);
+        atuais.substituir(indice, produto);
+        somarLinha(atuais, indice, 1);
+        versao = ContadorVersoes.proxima();
+        return anterior;
+    }
 
-        for (Produto produto : produtos) {
-            double precoSemIVA = produto.getValorUnitario() * produto.getQuantidade();
-            double imposto = produto.calcularImposto(cliente.getTipoLocalizacao());
+    /**
+     * Recalcula os valores de todos os produtos e os totais da fatura.
+     * Só é necessário quando muda a lista completa de produtos ou a localização do cliente.
+     */
+    void recalcularValores() {
+        totalSemIVACentimos = 0;
+        totalIvaCentimos = 0;
+        localizacaoCalculada = cliente.getLocalizacao();
 
-            valorTotalSemIVA += precoSemIVA;
-            valorTotalIva += imposto;
-            valorTotalComIVA += precoSemIVA + imposto;
+        LinhasFatura atuais = linhas();
+        for (int i = 0; i < atuais.tamanho(); i++) {
+            somarLinha(atuais, i, 1);
         }
     }
 
+    /**
+     * Recalcula os totais se a localização do cliente mudou desde o último cálculo.
+     * Usado pelo repositório ao adicionar faturas que foram preparadas sem o bloqueio de escrita.
+     */
+    void atualizarValores() {
+        if (localizacaoCalculada != cliente.getLocalizacao()) {
+            recalcularValores();
+        }
+    }
+
+    private void somarLinha(LinhasFatura atuais, int indice, int sinal) {
+        totalSemIVACentimos += sinal * atuais.getValorSemIVACentimos(indice);
+        totalIvaCentimos += sinal * atuais.getImpostoCentimos(indice, cliente.getLocalizacao());
+    }
+
     // Getters e Setters
 
     /**
@@ -92,6 +189,7 @@ public class Fatura implements Serializable {
      */
     public void setNumero(int numero) {
         this.numero = numero;
+        this.versao = ContadorVersoes.proxima();
     }
 
     /**
@@ -105,22 +203,87 @@ public class Fatura implements Serializable {
 
     /**
      * Define o cliente associado à fatura.
-     * Recalcula os valores totais da fatura após alterar o cliente.
+     * Se a localização do novo cliente for diferente, recalcula os valores de todos os produtos.
      *
      * @param cliente Novo cliente associado.
      */
     public void setCliente(Cliente cliente) {
+        Localizacao anterior = this.cliente != null ? this.cliente.getLocalizacao() : null;
         this.cliente = cliente;
-        recalcularValores();
+        if (cliente.getLocalizacao() != anterior) {
+            recalcularValores();
+        }
+        this.versao = ContadorVersoes.proxima();
     }
 
     /**
-     * Obtém uma cópia imutável da lista de produtos da fatura.
+     * Obtém a lista de produtos da fatura, apenas para leitura.
+     * Os produtos são criados a pedido a partir das linhas da fatura; alterá-los não altera a fatura.
      *
      * @return Lista de produtos da fatura.
      */
     public List<Produto> getProdutos() {
-        return Collections.unmodifiableList(produtos);
+        return linhas().comoLista();
+    }
+
+    /**
+     * Obtém as linhas da fatura, para as percorrer sem criar um objeto {@link Produto} por linha.
+     * As linhas só devem ser alteradas através dos métodos da fatura.
+     *
+     * @return Linhas da fatura.
+     */
+    public LinhasFatura getLinhas() {
+        return linhas();
+    }
+
+    /**
+     * Obtém o número de produtos da fatura, sem ler os produtos do armazém de faturas.
+     *
+     * @return Número de produtos.
+     */
+    public int getNumProdutos() {
+        return produtosPorCarregar != null ? produtosPorCarregar.getNumProdutos() : linhas.tamanho();
+    }
+
+    /**
+     * Obtém a versão da última alteração da fatura, para saber se mudou desde a última gravação.
+     * Os totais não contam como alteração: são recalculados a partir dos produtos e da localização do cliente.
+     *
+     * @return Versão da última alteração (0 se a fatura foi lida de um ficheiro de objetos e não mudou).
+     */
+    long getVersao() {
+        return versao;
+    }
+
+    /**
+     * Obtém o valor sem IVA de um produto da fatura, em cêntimos, a partir dos valores já calculados.
+     *
+     * @param indice Posição do produto na lista.
+     * @return Valor sem IVA do produto em cêntimos.
+     * @throws IndexOutOfBoundsException se a posição for inválida.
+     */
+    public long getValorSemIVAProdutoCentimos(int indice) {
+        return linhas().getValorSemIVACentimos(indice);
+    }
+
+    /**
+     * Obtém o imposto de um produto da fatura, em cêntimos, a partir dos valores já calculados.
+     *
+     * @param indice Posição do produto na lista.
+     * @return Imposto do produto em cêntimos.
+     * @throws IndexOutOfBoundsException se a posição for inválida.
+     */
+    public long getImpostoProdutoCentimos(int indice) {
+        return linhas().getImpostoCentimos(indice, cliente.getLocalizacao());
+    }
+
+    /**
+     * Obtém a referência aos produtos no armazém de faturas, se ainda não tiverem sido lidos.
+     *
+     * @return A referência ou null se os produtos já estiverem em memória.
+     */
+    ArmazemFaturas.Referencia getReferenciaArmazem() {
+        return produtosPorCarregar;
     }
 
     /**
@@ -129,8 +292,10 @@ public class Fatura implements Serializable {
      * @param produtos Nova lista de produtos.
      */
     public void setProdutos(List<Produto> produtos) {
-        this.produtos = new ArrayList<>(produtos);
+        this.linhas = new LinhasFatura(produtos);
+        this.produtosPorCarregar = null;
         recalcularValores();
+        this.versao = ContadorVersoes.proxima();
     }
 
     /**
@@ -139,7 +304,16 @@ public class Fatura implements Serializable {
      * @return Valor total sem IVA.
      */
     public double getValorTotalSemIVA() {
-        return valorTotalSemIVA;
+        return Dinheiro.paraDouble(totalSemIVACentimos);
+    }
+
+    /**
+     * Obtém o valor total da fatura sem IVA, em cêntimos.
+     *
+     * @return Valor total sem IVA em cêntimos.
+     */
+    public long getTotalSemIVACentimos() {
+        return totalSemIVACentimos;
     }
 
     /**
@@ -148,7 +322,16 @@ public class Fatura implements Serializable {
      * @return Valor total de IVA.
      */
     public double getValorTotalIva() {
-        return valorTotalIva;
+        return Dinheiro.paraDouble(totalIvaCentimos);
+    }
+
+    /**
+     * Obtém o valor total de IVA da fatura, em cêntimos.
+     *
+     * @return Valor total de IVA em cêntimos.
+     */
+    public long getTotalIvaCentimos() {
+        return totalIvaCentimos;
     }
 
     /**
@@ -157,7 +340,16 @@ public class Fatura implements Serializable {
      * @return Valor total com IVA.
      */
     public double getValorTotalComIVA() {
-        return valorTotalComIVA;
+        return Dinheiro.paraDouble(getTotalComIVACentimos());
+    }
+
+    /**
+     * Obtém o valor total da fatura com IVA, em cêntimos.
+     *
+     * @return Valor total com IVA em cêntimos.
+     */
+    public long getTotalComIVACentimos() {
+        return totalSemIVACentimos + totalIvaCentimos;
     }
 
     /**
@@ -176,6 +368,7 @@ public class Fatura implements Serializable {
      */
     public void setData(LocalDate data) {
         this.data = data;
+        this.versao = ContadorVersoes.proxima();
     }
 
     /**
@@ -185,25 +378,12 @@ public class Fatura implements Serializable {
      */
     public List<String> listarProdutos() {
         List<String> detalhesProdutos = new ArrayList<>();
-        for (Produto produto : produtos) {
+        for (Produto produto : getProdutos()) {
             detalhesProdutos.add(produto.toString());
         }
         return detalhesProdutos;
     }
 
-    /**
-     * Metodo auxiliar para desserializar o objeto.
-     * Restaura o scanner após a desserialização.
-     *
-     * @param ois InputStream para leitura do objeto serializado.
-     * @throws IOException            Erro de entrada/saída.
-     * @throws ClassNotFoundException Classe não encontrada.
-     */
-    private void readObject(ObjectInputStream ois) throws IOException, ClassNotFoundException {
-        ois.defaultReadObject();
-        this.scanner = new Scanner(System.in);
-    }
-
     /**
      * Representação textual da fatura.
      *
@@ -214,11 +394,29 @@ public class Fatura implements Serializable {
         return "Fatura{" +
                 "numero=" + numero +
                 ", cliente=" + cliente +
-                ", produtos=" + produtos +
-                ", valorTotalSemIVA=" + valorTotalSemIVA +
-                ", valorTotalIva=" + valorTotalIva +
-                ", valorTotalComIVA=" + valorTotalComIVA +
+                ", produtos=" + getProdutos() +
+                ", valorTotalSemIVA=" + Dinheiro.formatar(totalSemIVACentimos) +
+                ", valorTotalIva=" + Dinheiro.formatar(totalIvaCentimos) +
+                ", valorTotalComIVA=" + Dinheiro.formatar(getTotalComIVACentimos()) +
                 ", data=" + data +
                 '}';
     }
+
+    /**
+     * Lê os produtos do armazém de faturas antes de serializar a fatura.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        linhas();
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Recalcula os totais em cêntimos ao ler a fatura, a partir das linhas lidas.
+     * Os ficheiros de objetos gravados antes das linhas em {@link LinhasFatura} (serialVersionUID 1) não são
+     * compatíveis e a leitura falha com {@link InvalidClassException}.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        recalcularValores();
+    }
 }
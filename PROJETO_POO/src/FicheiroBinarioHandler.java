@@ -0,0 +1,559 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Classe responsável por guardar e carregar clientes e faturas num formato binário compacto e versionado,
+ * em alternativa à serialização Java de {@link FicheiroObjetoHandler}.
+ * <p>
+ * O ficheiro começa com um cabeçalho (assinatura "POOF" e versão do formato), seguido de blocos.
+ * Cada bloco tem um tipo, o tamanho do conteúdo, o conteúdo e o CRC32 do conteúdo.
+ * Os números inteiros são escritos como varints e todas as Strings (nomes, categorias, certificações, ...)
+ * são escritas uma única vez num bloco de dicionário e referidas depois pelo seu índice.
+ * As faturas são escritas em blocos de {@value #FATURAS_POR_BLOCO}, cada um com o seu CRC.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class FicheiroBinarioHandler {
+    private static final int ASSINATURA = 0x504F4F46; // "POOF"
+    private static final int VERSAO = 1;
+    private static final int FATURAS_POR_BLOCO = 4096;
+
+    private static final int BLOCO_FIM = 0;
+    private static final int BLOCO_DICIONARIO = 1;
+    private static final int BLOCO_CLIENTES = 2;
+    private static final int BLOCO_FATURAS = 3;
+
+    private static final int PRODUTO_ALIMENTAR = 0;
+    private static final int PRODUTO_FARMACIA = 1;
+
+    /**
+     * Guarda os clientes e as faturas no ficheiro indicado.
+     *
+     * @param ficheiro Ficheiro de destino.
+     * @param clientes Lista de clientes.
+     * @param faturas Lista de faturas.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public void salvar(File ficheiro, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        GravacaoAtomica.gravar(ficheiro, out -> escrever(out, clientes, faturas));
+    }
+
+    /**
+     * Escreve os clientes e as faturas no formato binário.
+     *
+     * @param saida Stream de destino, que não é fechado.
+     * @param clientes Lista de clientes.
+     * @param faturas Lista de faturas.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    void escrever(OutputStream saida, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        // Tabela de clientes: os da lista e, no fim, os que só aparecem em faturas
+        Map<Cliente, Integer> indiceClientes = new IdentityHashMap<>();
+        List<Cliente> tabelaClientes = new ArrayList<>(clientes);
+        for (Cliente cliente : clientes) {
+            indiceClientes.putIfAbsent(cliente, indiceClientes.size());
+        }
+        for (Fatura fatura : faturas) {
+            if (indiceClientes.putIfAbsent(fatura.getCliente(), tabelaClientes.size()) == null) {
+                tabelaClientes.add(fatura.getCliente());
+            }
+        }
+
+        Dicionario dicionario = new Dicionario();
+        for (Cliente cliente : tabelaClientes) {
+            dicionario.indice(cliente.getNome());
+            dicionario.indice(cliente.getTipoLocalizacao());
+        }
+        for (Fatura fatura : faturas) {
+            for (Produto produto : fatura.getProdutos()) {
+                registarStrings(dicionario, produto);
+            }
+        }
+
+        DataOutputStream out = new DataOutputStream(saida);
+        out.writeInt(ASSINATURA);
+        out.writeInt(VERSAO);
+
+        Bloco bloco = new Bloco();
+        bloco.escreverVarint(dicionario.strings.size());
+        for (String texto : dicionario.strings) {
+            bloco.escreverTexto(texto);
+        }
+        bloco.gravar(out, BLOCO_DICIONARIO);
+
+        bloco.escreverVarint(tabelaClientes.size());
+        bloco.escreverVarint(clientes.size());
+        for (Cliente cliente : tabelaClientes) {
+            bloco.escreverVarint(dicionario.indice(cliente.getNome()));
+            bloco.escreverVarint(dicionario.indice(cliente.getTipoLocalizacao()));
+            bloco.escreverVarint(cliente.getNumeroContribuinte());
+        }
+        bloco.gravar(out, BLOCO_CLIENTES);
+
+        for (int inicio = 0; inicio < faturas.size(); inicio += FATURAS_POR_BLOCO) {
+            int fim = Math.min(faturas.size(), inicio + FATURAS_POR_BLOCO);
+            bloco.escreverVarint(fim - inicio);
+            for (int i = inicio; i < fim; i++) {
+                escreverFatura(bloco, faturas.get(i), indiceClientes, dicionario);
+            }
+            bloco.gravar(out, BLOCO_FATURAS);
+        }
+
+        bloco.gravar(out, BLOCO_FIM);
+        out.flush();
+    }
+
+    /**
+     * Carrega os clientes e as faturas do ficheiro indicado.
+     *
+     * @param ficheiro Ficheiro de origem.
+     * @param clientes Lista que será preenchida com os clientes.
+     * @param faturas Lista que será preenchida com as faturas.
+     * @throws IOException se ocorrer um erro de leitura, o formato for desconhecido ou algum bloco estiver corrompido.
+     */
+    public void carregar(File ficheiro, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(ficheiro), 64 * 1024))) {
+            if (in.readInt() != ASSINATURA) {
+                throw new IOException("O ficheiro não está no formato binário do POOFS.");
+            }
+            int versao = in.readInt();
+            if (versao != VERSAO) {
+                throw new IOException("Versão do formato binário não suportada: " + versao);
+            }
+
+            String[] strings = new String[0];
+            Cliente[] tabelaClientes = new Cliente[0];
+
+            while (true) {
+                int tipo = in.readUnsignedByte();
+                Leitor leitor = Leitor.lerBloco(in);
+                switch (tipo) {
+                    case BLOCO_FIM -> {
+                        return;
+                    }
+                    case BLOCO_DICIONARIO -> {
+                        strings = new String[leitor.lerVarint()];
+                        for (int i = 0; i < strings.length; i++) {
+                            strings[i] = leitor.lerTexto();
+                        }
+                    }
+                    case BLOCO_CLIENTES -> {
+                        tabelaClientes = new Cliente[leitor.lerVarint()];
+                        int listados = leitor.lerVarint();
+                        for (int i = 0; i < tabelaClientes.length; i++) {
+                            tabelaClientes[i] = new Cliente(strings[leitor.lerVarint()], strings[leitor.lerVarint()], leitor.lerVarint());
+                            if (i < listados) {
+                                clientes.add(tabelaClientes[i]);
+                            }
+                        }
+                    }
+                    case BLOCO_FATURAS -> {
+                        int quantidade = leitor.lerVarint();
+                        for (int i = 0; i < quantidade; i++) {
+                            faturas.add(lerFatura(leitor, tabelaClientes, strings));
+                        }
+                    }
+                    default -> throw new IOException("Tipo de bloco desconhecido: " + tipo);
+                }
+            }
+        }
+    }
+
+    /**
+     * Acrescenta ao dicionário as Strings de um produto, antes de o escrever.
+     */
+    static void registarStrings(Dicionario dicionario, Produto produto) {
+        dicionario.indice(produto.getCodigo());
+        dicionario.indice(produto.getNome());
+        dicionario.indice(produto.getDescricao());
+        dicionario.indiceOuNulo(produto.getCategoria());
+        if (produto instanceof ProdutoAlimentar alimentar) {
+            dicionario.indice(alimentar.getTipoTaxa());
+            for (String certificacao : alimentar.getCertificacoes()) {
+                dicionario.indice(certificacao);
+            }
+        } else if (produto instanceof ProdutoFarmacia farmacia) {
+            dicionario.indiceOuNulo(farmacia.getMedico());
+        }
+    }
+
+    /**
+     * Escreve uma fatura em formato binário, com o cliente indicado pela sua posição na tabela de clientes.
+     *
+     * @param bloco Bloco de destino.
+     * @param fatura Fatura a escrever.
+     * @param indiceClientes Posição de cada cliente na tabela de clientes.
+     * @param dicionario Dicionário de Strings do ficheiro.
+     */
+    static void escreverFatura(Bloco bloco, Fatura fatura, Map<Cliente, Integer> indiceClientes, Dicionario dicionario) {
+        bloco.escreverVarint(fatura.getNumero());
+        bloco.escreverVarintComSinal(fatura.getData().toEpochDay());
+        bloco.escreverVarint(indiceClientes.get(fatura.getCliente()));
+        bloco.escreverVarint(fatura.getProdutos().size());
+
+        for (Produto produto : fatura.getProdutos()) {
+            escreverProduto(bloco, produto, dicionario);
+        }
+    }
+
+    /**
+     * Escreve um produto em formato binário. As Strings do produto são acrescentadas ao dicionário se ainda lá não estiverem.
+     *
+     * @param bloco Bloco de destino.
+     * @param produto Produto a escrever.
+     * @param dicionario Dicionário de Strings do ficheiro.
+     */
+    static void escreverProduto(Bloco bloco, Produto produto, Dicionario dicionario) {
+        bloco.escreverByte(produto instanceof ProdutoAlimentar ? PRODUTO_ALIMENTAR : PRODUTO_FARMACIA);
+        bloco.escreverVarint(dicionario.indice(produto.getCodigo()));
+        bloco.escreverVarint(dicionario.indice(produto.getNome()));
+        bloco.escreverVarint(dicionario.indice(produto.getDescricao()));
+        bloco.escreverDouble(produto.getValorUnitario());
+        bloco.escreverVarint(produto.getQuantidade());
+        bloco.escreverVarint(dicionario.indiceOuNulo(produto.getCategoria()));
+
+        if (produto instanceof ProdutoAlimentar alimentar) {
+            bloco.escreverVarint(dicionario.indice(alimentar.getTipoTaxa()));
+            bloco.escreverByte(alimentar.isBiologico() ? 1 : 0);
+            bloco.escreverVarint(alimentar.getCertificacoes().size());
+            for (String certificacao : alimentar.getCertificacoes()) {
+                bloco.escreverVarint(dicionario.indice(certificacao));
+            }
+        } else {
+            ProdutoFarmacia farmacia = (ProdutoFarmacia) produto;
+            bloco.escreverByte(farmacia.isComPrescricao() ? 1 : 0);
+            bloco.escreverVarint(dicionario.indiceOuNulo(farmacia.getMedico()));
+        }
+    }
+
+    /**
+     * Lê uma fatura escrita por {@link #escreverFatura(Bloco, Fatura, Map, Dicionario)}.
+     *
+     * @param leitor Leitor posicionado no início da fatura.
+     * @param tabelaClientes Tabela de clientes do ficheiro.
+     * @param strings Dicionário de Strings do ficheiro.
+     * @return A fatura lida.
+     * @throws IOException se os dados estiverem corrompidos.
+     */
+    static Fatura lerFatura(Leitor leitor, Cliente[] tabelaClientes, String[] strings) throws IOException {
+        int numero = leitor.lerVarint();
+        LocalDate data = LocalDate.ofEpochDay(leitor.lerVarintComSinal());
+        Cliente cliente = tabelaClientes[leitor.lerVarint()];
+        int numProdutos = leitor.lerVarint();
+
+        List<Produto> produtos = new ArrayList<>(numProdutos);
+        for (int i = 0; i < numProdutos; i++) {
+            produtos.add(lerProduto(leitor, strings));
+        }
+
+        Fatura fatura = new Fatura(numero, cliente, data);
+        fatura.setProdutos(produtos);
+        return fatura;
+    }
+
+    /**
+     * Lê um produto escrito por {@link #escreverProduto(Bloco, Produto, Dicionario)}.
+     *
+     * @param leitor Leitor posicionado no início do produto.
+     * @param strings Dicionário de Strings do ficheiro.
+     * @return O produto lido.
+     * @throws IOException se os dados estiverem corrompidos.
+     */
+    static Produto lerProduto(Leitor leitor, String[] strings) throws IOException {
+        int tipo = leitor.lerByte();
+        String codigo = strings[leitor.lerVarint()];
+        String nome = strings[leitor.lerVarint()];
+        String descricao = strings[leitor.lerVarint()];
+        double valorUnitario = leitor.lerDouble();
+        int quantidade = leitor.lerVarint();
+        String categoria = textoOuNulo(strings, leitor.lerVarint());
+
+        if (tipo == PRODUTO_ALIMENTAR) {
+            String tipoTaxa = strings[leitor.lerVarint()];
+            boolean biologico = leitor.lerByte() == 1;
+            List<String> certificacoes = new ArrayList<>();
+            int numCertificacoes = leitor.lerVarint();
+            for (int j = 0; j < numCertificacoes; j++) {
+                certificacoes.add(strings[leitor.lerVarint()]);
+            }
+            return new ProdutoAlimentar(codigo, nome, descricao, valorUnitario, tipoTaxa, biologico,
+                    certificacoes, categoria, quantidade);
+        }
+        if (tipo == PRODUTO_FARMACIA) {
+            boolean comPrescricao = leitor.lerByte() == 1;
+            String medico = textoOuNulo(strings, leitor.lerVarint());
+            return new ProdutoFarmacia(codigo, nome, descricao, valorUnitario, comPrescricao, categoria,
+                    medico, quantidade, null);
+        }
+        throw new IOException("Tipo de produto desconhecido: " + tipo);
+    }
+
+    /**
+     * Obtém a String de um índice escrito com {@link Dicionario#indiceOuNulo(String)}.
+     */
+    static String textoOuNulo(String[] strings, int indice) {
+        return indice == 0 ? null : strings[indice - 1];
+    }
+
+    /**
+     * Dicionário de Strings: cada String distinta recebe um índice pela ordem em que aparece.
+     */
+    static class Dicionario {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        Dicionario() {
+        }
+
+        /**
+         * Cria um dicionário que começa com as Strings indicadas, pela mesma ordem.
+         */
+        Dicionario(String[] iniciais) {
+            for (String texto : iniciais) {
+                indice(texto);
+            }
+        }
+
+        List<String> getStrings() {
+            return strings;
+        }
+
+        int indice(String texto) {
+            Integer indice = indices.get(texto);
+            if (indice == null) {
+                indice = strings.size();
+                indices.put(texto, indice);
+                strings.add(texto);
+            }
+            return indice;
+        }
+
+        /**
+         * Índice desfasado de uma unidade, em que 0 representa null.
+         */
+        int indiceOuNulo(String texto) {
+            return texto == null ? 0 : indice(texto) + 1;
+        }
+    }
+
+    /**
+     * Conteúdo de um bloco em construção.
+     */
+    static class Bloco {
+        private final CRC32 crc = new CRC32();
+        private byte[] buf = new byte[64 * 1024];
+        private int count;
+
+        private void write(int valor) {
+            if (count == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[count++] = (byte) valor;
+        }
+
+        private void write(byte[] bytes, int inicio, int tamanho) {
+            if (count + tamanho > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + tamanho));
+            }
+            System.arraycopy(bytes, inicio, buf, count, tamanho);
+            count += tamanho;
+        }
+
+        void escreverByte(int valor) {
+            write(valor);
+        }
+
+        void escreverVarint(int valor) {
+            while ((valor & ~0x7F) != 0) {
+                write((valor & 0x7F) | 0x80);
+                valor >>>= 7;
+            }
+            write(valor);
+        }
+
+        void escreverVarintComSinal(long valor) {
+            long zigzag = (valor << 1) ^ (valor >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                write((int) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            write((int) zigzag);
+        }
+
+        void escreverInt(int valor) {
+            for (int i = 24; i >= 0; i -= 8) {
+                write(valor >>> i);
+            }
+        }
+
+        void escreverLong(long valor) {
+            for (int i = 56; i >= 0; i -= 8) {
+                write((int) (valor >>> i));
+            }
+        }
+
+        void escreverDouble(double valor) {
+            escreverLong(Double.doubleToLongBits(valor));
+        }
+
+        void escreverBytes(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+
+        int tamanho() {
+            return count;
+        }
+
+        /**
+         * Escreve o conteúdo sem tipo, tamanho nem CRC e esvazia o bloco para ser reutilizado.
+         */
+        void copiarPara(OutputStream out) throws IOException {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+
+        void escreverTexto(String texto) {
+            byte[] bytes = texto.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            escreverVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Escreve o bloco no ficheiro (tipo, tamanho, conteúdo e CRC32) e esvazia-o para ser reutilizado.
+         */
+        void gravar(DataOutputStream out, int tipo) throws IOException {
+            crc.reset();
+            crc.update(buf, 0, count);
+            out.writeByte(tipo);
+            out.writeInt(count);
+            out.write(buf, 0, count);
+            out.writeInt((int) crc.getValue());
+            count = 0;
+        }
+    }
+
+    /**
+     * Leitor do conteúdo de um bloco já verificado.
+     */
+    static class Leitor {
+        private final byte[] dados;
+        private int posicao;
+
+        Leitor(byte[] dados) {
+            this.dados = dados;
+        }
+
+        /**
+         * Lê um bloco do ficheiro e verifica o seu CRC32.
+         */
+        static Leitor lerBloco(DataInputStream in) throws IOException {
+            int tamanho = in.readInt();
+            if (tamanho < 0) {
+                throw new IOException("Bloco corrompido: tamanho inválido.");
+            }
+            byte[] dados = new byte[tamanho];
+            in.readFully(dados);
+            return verificar(dados, in.readInt());
+        }
+
+        /**
+         * Lê um bloco a partir da posição atual do buffer (a seguir ao tipo) e verifica o seu CRC32.
+         */
+        static Leitor lerBloco(ByteBuffer buffer) throws IOException {
+            int tamanho = buffer.getInt();
+            if (tamanho < 0 || tamanho > buffer.remaining() - 4) {
+                throw new IOException("Bloco corrompido: tamanho inválido.");
+            }
+            byte[] dados = new byte[tamanho];
+            buffer.get(dados);
+            return verificar(dados, buffer.getInt());
+        }
+
+        private static Leitor verificar(byte[] dados, int crcEsperado) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(dados, 0, dados.length);
+            if ((int) crc.getValue() != crcEsperado) {
+                throw new IOException("Bloco corrompido: CRC inválido.");
+            }
+            return new Leitor(dados);
+        }
+
+        /**
+         * Volta ao início do bloco.
+         */
+        void reiniciar() {
+            posicao = 0;
+        }
+
+        int lerByte() throws IOException {
+            if (posicao >= dados.length) {
+                throw new IOException("Bloco corrompido: fim inesperado.");
+            }
+            return dados[posicao++] & 0xFF;
+        }
+
+        int lerVarint() throws IOException {
+            int valor = 0;
+            for (int deslocamento = 0; deslocamento < 35; deslocamento += 7) {
+                int b = lerByte();
+                valor |= (b & 0x7F) << deslocamento;
+                if ((b & 0x80) == 0) {
+                    return valor;
+                }
+            }
+            throw new IOException("Bloco corrompido: varint inválido.");
+        }
+
+        long lerVarintComSinal() throws IOException {
+            long zigzag = 0;
+            for (int deslocamento = 0; deslocamento < 70; deslocamento += 7) {
+                int b = lerByte();
+                zigzag |= (long) (b & 0x7F) << deslocamento;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new IOException("Bloco corrompido: varint inválido.");
+        }
+
+        int lerInt() throws IOException {
+            int valor = 0;
+            for (int i = 0; i < 4; i++) {
+                valor = (valor << 8) | lerByte();
+            }
+            return valor;
+        }
+
+        long lerLong() throws IOException {
+            long valor = 0;
+            for (int i = 0; i < 8; i++) {
+                valor = (valor << 8) | lerByte();
+            }
+            return valor;
+        }
+
+        double lerDouble() throws IOException {
+            return Double.longBitsToDouble(lerLong());
+        }
+
+        String lerTexto() throws IOException {
+            int tamanho = lerVarint();
+            if (tamanho < 0 || posicao + tamanho > dados.length) {
+                throw new IOException("Bloco corrompido: texto inválido.");
+            }
+            String texto = new String(dados, posicao, tamanho, java.nio.charset.StandardCharsets.UTF_8);
+            posicao += tamanho;
+            return texto;
+        }
+    }
+}
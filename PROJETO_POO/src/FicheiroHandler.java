@@ -1,10 +1,12 @@
 import java.io.*;
-import java.time.LocalDate;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Classe responsável por carregar e salvar dados de clientes e faturas em ficheiros de texto.
+ * Os ficheiros são lidos e gravados em UTF-8, qualquer que seja a codificação por omissão do sistema.
  *
  * @author Cíntia Cumbane (2020244607)
  * Cristiana Gonçalves (2019239753)
@@ -14,6 +16,15 @@ import java.util.List;
 public class FicheiroHandler {
     private static final String FICHEIRO_CLIENTES = "clientes.txt";
 
+    /**
+     * Obtém o ficheiro de texto com os clientes e as faturas.
+     *
+     * @return Ficheiro de clientes.
+     */
+    public File getFicheiro() {
+        return new File(FICHEIRO_CLIENTES);
+    }
+
     /**
      * Carrega os clientes e as faturas a partir de um ficheiro de texto.
      *
@@ -23,95 +34,46 @@ public class FicheiroHandler {
 
     public List<Cliente> carregarClientesComFaturas(List<Fatura> faturas) {
         List<Cliente> clientes = new ArrayList<>();
-        File ficheiro = new File(FICHEIRO_CLIENTES);
 
-        if (!ficheiro.exists()) {
-            System.out.println("Ficheiro não encontrado. Criando um novo.");
-            return clientes;
-        }
-
-        try (BufferedReader br = new BufferedReader(new FileReader(ficheiro))) {
-            String linha;
-            boolean lendoClientes = true;
-
-            Cliente clienteAtual = null;
-            Fatura faturaAtual = null;
-            while ((linha = br.readLine()) != null) {
-                linha = linha.trim();
-
-                // Ignorar comentários e linhas vazias
-                if (linha.startsWith("#") || linha.isEmpty()) {
-                    if (linha.startsWith("# Faturas")) {
-                        lendoClientes = false;
-                    }
-                    continue;
+        try {
+            // O próprio ficheiro ou, se a última gravação não terminou, a versão anterior
+            File ficheiro = GravacaoAtomica.escolherParaLeitura(getFicheiro());
+            if (ficheiro == null) {
+                System.out.println("Ficheiro não encontrado. Criando um novo.");
+                return clientes;
+            }
+            lerEmStreaming(ficheiro, new LeitorClientesFaturas.Ouvinte() {
+                @Override
+                public void cliente(Cliente cliente) {
+                    clientes.add(cliente);
                 }
 
-                if (lendoClientes) {
-                    // Processar clientes
-                    String[] partes = linha.split(";");
-                    if (partes.length == 3) {
-                        String nome = partes[0].trim();
-                        String tipoLocalizacao = partes[1].trim();
-                        int numeroContribuinte = Integer.parseInt(partes[2].trim());
-
-                        Cliente cliente = new Cliente(nome, tipoLocalizacao, numeroContribuinte);
-                        clientes.add(cliente);
-                    } else {
-                        System.out.println("Linha inválida para cliente: " + linha);
-                    }
-                } else {
-                    // Processar faturas e produtos
-                    String[] partes = linha.split(";");
-                    if (partes.length == 3) {
-                        // Ler dados da fatura
-                        int numeroFatura = Integer.parseInt(partes[0].trim());
-                        LocalDate data = LocalDate.parse(partes[1].trim());
-                        int numeroContribuinte = Integer.parseInt(partes[2].trim());
-
-                        // Buscar cliente correspondente
-                        Cliente cliente = clientes.stream()
-                                .filter(c -> c.getNumeroContribuinte() == numeroContribuinte)
-                                .findFirst()
-                                .orElse(null);
-
-                        if (cliente == null) {
-                            System.out.println("Cliente com número de contribuinte " + numeroContribuinte + " não encontrado. Fatura ignorada.");
-                            continue;
-                        }
-
-                        Fatura fatura = new Fatura(numeroFatura, cliente, data);
-                        faturas.add(fatura);
-                        clienteAtual = cliente;
-                        faturaAtual = fatura;
-                    } else if (partes.length >= 6 && clienteAtual != null && faturaAtual != null) {
-                        // Ler produtos da fatura
-                        String codigo = partes[0].trim();
-                        String nome = partes[1].trim();
-                        String descricao = partes[2].trim();
-                        String tipo = partes[3].trim();
-                        double valorUnitario = Double.parseDouble(partes[4].trim());
-                        int quantidade = Integer.parseInt(partes[5].trim());
-                        String categoria = partes[6].equalsIgnoreCase("null") ? null : partes[6].trim();
-
-                        Produto produto = criarProduto(tipo, codigo, nome, descricao, valorUnitario, quantidade, categoria, partes);
-
-                        if (produto != null) {
-                            faturaAtual.adicionarProduto(produto);
-                        }
-                    } else {
-                        System.out.println("Linha inválida para produto: " + linha);
-                    }
+                @Override
+                public void fatura(Fatura fatura) {
+                    faturas.add(fatura);
                 }
-            }
+            });
         } catch (IOException e) {
             System.out.println("Erro ao carregar dados do ficheiro: " + e.getMessage());
-        } catch (Exception e) {
-            System.out.println("Erro inesperado: " + e.getMessage());
         }
 
         return clientes;
     }
+
+    /**
+     * Lê um ficheiro de clientes em streaming, entregando cada cliente e cada fatura ao ouvinte
+     * sem os guardar em memória.
+     *
+     * @param ficheiro Ficheiro a ler.
+     * @param ouvinte Destino dos clientes, faturas e erros lidos.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    public void lerEmStreaming(File ficheiro, LeitorClientesFaturas.Ouvinte ouvinte) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(ficheiro), StandardCharsets.UTF_8)) {
+            new LeitorClientesFaturas(this).ler(reader, ouvinte);
+        }
+    }
+
     /**
      * Cria um produto baseado nos dados fornecidos.
      *
@@ -122,32 +84,37 @@ public class FicheiroHandler {
      * @param valorUnitario Valor unitário do produto.
      * @param quantidade Quantidade do produto.
      * @param categoria Categoria do produto (ou null).
-     * @param partes Dados adicionais sobre o produto.
-     * @return O produto criado ou null se os dados forem inválidos.
+     * @param campo7 Oitavo campo da linha: biológico ou com prescrição (ou null se não existir).
+     * @param campo8 Nono campo da linha: certificações ou médico (ou null se não existir).
+     * @return O produto criado.
+     * @throws IllegalArgumentException se os dados forem inválidos.
      */
 
-    private Produto criarProduto(String tipo, String codigo, String nome, String descricao, double valorUnitario, int quantidade, String categoria, String[] partes) {
+    Produto criarProduto(String tipo, String codigo, String nome, String descricao, double valorUnitario, int quantidade,
+                         String categoria, String campo7, String campo8) {
         // Verificar se tipo é nulo e tratar isso
         if (tipo == null || tipo.trim().isEmpty()) {
-            System.out.println("Tipo do produto não pode ser nulo ou vazio. Produto ignorado.");
-            return null;
+            throw new IllegalArgumentException("Tipo do produto não pode ser nulo ou vazio. Produto ignorado.");
         }
 
         // Normaliza o tipo do produto para comparação consistente
         tipo = tipo.trim().toLowerCase();
 
         if (tipo.equals("alimentar")) {
-            boolean biologico = partes.length > 7 && partes[7].equalsIgnoreCase("true");
+            boolean biologico = campo7 != null && campo7.equalsIgnoreCase("true");
             List<String> certificacoes = new ArrayList<>();
 
-            if (partes.length > 8 && partes[8] != null && !partes[8].isEmpty()) {
-                certificacoes = List.of(partes[8].split(","));
+            if (campo8 != null && !campo8.isEmpty()) {
+                certificacoes = List.of(campo8.split(","));
             }
 
             String tipoTaxa = "Taxa reduzida";
 
 
-            if (certificacoes.isEmpty() && !biologico) {
+            // Os produtos com Taxa intermédia são gravados com a categoria e sem certificações (formatarProduto)
+            if (certificacoes.isEmpty() && categoria != null) {
+                tipoTaxa = "Taxa intermédia";
+            } else if (certificacoes.isEmpty() && !biologico) {
                 tipoTaxa = "Taxa normal";
             } else if (!certificacoes.isEmpty() && categoria != null && categoria.equalsIgnoreCase("congelados")) {
                 tipoTaxa = "Taxa intermédia";
@@ -160,14 +127,13 @@ public class FicheiroHandler {
 
             // Validação específica para produtos com "Taxa Reduzida"
             if (tipoTaxa.equals("Taxa reduzida") && (certificacoes.size() < 1 || certificacoes.size() > 4)) {
-                System.out.println("Erro ao criar Produto Alimentar: Produtos com Taxa Reduzida devem ter entre 1 e 4 certificações.");
-                return null;
+                throw new IllegalArgumentException("Erro ao criar Produto Alimentar: Produtos com Taxa Reduzida devem ter entre 1 e 4 certificações.");
             }
 
             return new ProdutoAlimentar(codigo, nome, descricao, valorUnitario, tipoTaxa, biologico, certificacoes, categoria, quantidade);
         } else if (tipo.equals("farmácia") || tipo.equals("farmacia")) {
-            boolean comPrescricao = partes.length > 7 && partes[7] != null && partes[7].equalsIgnoreCase("true");
-            String medico = partes.length > 8 && partes[8] != null && !partes[8].equalsIgnoreCase("null") ? partes[8].trim() : null;
+            boolean comPrescricao = campo7 != null && campo7.equalsIgnoreCase("true");
+            String medico = campo8 != null && !campo8.equalsIgnoreCase("null") ? campo8.trim() : null;
 
             // Se for um produto de farmácia sem prescrição, pode ter uma categoria
             if (!comPrescricao) {
@@ -177,8 +143,7 @@ public class FicheiroHandler {
                             !categoria.equalsIgnoreCase("Bebês") &&
                             !categoria.equalsIgnoreCase("Animais") &&
                             !categoria.equalsIgnoreCase("Outro")) {
-                        System.out.println("Categoria inválida para produto de farmácia sem prescrição: " + categoria);
-                        return null;
+                        throw new IllegalArgumentException("Categoria inválida para produto de farmácia sem prescrição: " + categoria);
                     }
                 }
             } else {
@@ -189,18 +154,62 @@ public class FicheiroHandler {
             return new ProdutoFarmacia(codigo, nome, descricao, valorUnitario, comPrescricao, categoria, medico, quantidade, "Taxa normal");
         }
 
-        System.out.println("Tipo de produto inválido: " + tipo + ". Produto ignorado.");
-        return null;
+        throw new IllegalArgumentException("Tipo de produto inválido: " + tipo + ". Produto ignorado.");
     }
 
+    /**
+     * Guarda todos os clientes e faturas no ficheiro de texto, substituindo o conteúdo anterior.
+     *
+     * @param clientes Lista de clientes a guardar.
+     * @param faturas Lista de faturas a guardar.
+     */
+    public void salvarClientesComFaturas(List<Cliente> clientes, List<Fatura> faturas) {
+        try {
+            salvarSnapshot(clientes, faturas);
+        } catch (IOException e) {
+            System.out.println("Erro ao salvar clientes e faturas: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Guarda todos os clientes e faturas no ficheiro de texto de forma atómica, mantendo as versões anteriores
+     * ({@link GravacaoAtomica#gravarComGeracoes(File, GravacaoAtomica.Conteudo)}).
+     *
+     * @param clientes Lista de clientes a guardar.
+     * @param faturas Lista de faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita; nesse caso o ficheiro anterior fica intacto.
+     */
+    public void salvarSnapshot(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        salvarSnapshot(getFicheiro(), clientes, faturas);
+    }
 
+    /**
+     * Guarda todos os clientes e faturas no ficheiro de texto indicado de forma atómica, mantendo as versões anteriores.
+     *
+     * @param ficheiro Ficheiro de destino.
+     * @param clientes Lista de clientes a guardar.
+     * @param faturas Lista de faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita; nesse caso o ficheiro anterior fica intacto.
+     */
+    public void salvarSnapshot(File ficheiro, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        GravacaoAtomica.gravarComGeracoes(ficheiro, out -> escrever(out, clientes, faturas));
+    }
 
+    /**
+     * Guarda todos os clientes e faturas no ficheiro de texto indicado, substituindo o conteúdo anterior.
+     * O ficheiro é escrito ao lado e só no fim substitui o original ({@link GravacaoAtomica}).
+     *
+     * @param ficheiro Ficheiro de destino.
+     * @param clientes Lista de clientes a guardar.
+     * @param faturas Lista de faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public void salvarClientesComFaturas(File ficheiro, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        GravacaoAtomica.gravar(ficheiro, out -> escrever(out, clientes, faturas));
+    }
 
-
-
-    public void salvarClientesComFaturas(List<Cliente> clientes, List<Fatura> faturas) {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(FICHEIRO_CLIENTES))) {
+    private void escrever(OutputStream out, List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
             // Salvar clientes
             bw.write("# Clientes\n");
             for (Cliente cliente : clientes) {
@@ -216,25 +225,104 @@ public class FicheiroHandler {
 
                 // Salvar produtos da fatura
                 for (Produto produto : fatura.getProdutos()) {
-                    String produtoDetalhes = produto.getCodigo() + ";" + produto.getNome() + ";" + produto.getDescricao() + ";" +
-                            produto.getTipo() + ";" + produto.getValorUnitario() + ";" + produto.getQuantidade() + ";" +
-                            (produto.getCategoria() != null ? produto.getCategoria() : "null");
-
-                    if (produto.getTipo().equalsIgnoreCase("Alimentar")) {
-                        ProdutoAlimentar alimentar = (ProdutoAlimentar) produto;
-                        produtoDetalhes += ";" + (alimentar.isBiologico() ? "true" : "false") + ";";
-                        produtoDetalhes += String.join(",", alimentar.getCertificacoes());
-                    } else if (produto.getTipo().equalsIgnoreCase("Farmácia")) {
-                        ProdutoFarmacia farmacia = (ProdutoFarmacia) produto;
-                        produtoDetalhes += ";" + (farmacia.isComPrescricao() ? "true" : "false") + ";";
-                        produtoDetalhes += (farmacia.getMedico() != null ? farmacia.getMedico() : "null");
-                    }
-                    bw.write(produtoDetalhes);
+                    bw.write(formatarProduto(produto));
                     bw.newLine();
                 }
             }
-        } catch (IOException e) {
-            System.out.println("Erro ao salvar clientes e faturas: " + e.getMessage());
         }
     }
+
+    /**
+     * Converte um produto para a linha de texto usada no ficheiro de clientes.
+     *
+     * @param produto Produto a converter.
+     * @return Linha com os campos do produto separados por ";".
+     */
+    String formatarProduto(Produto produto) {
+        return String.join(";", camposProduto(produto));
+    }
+
+    /**
+     * Obtém os campos de um produto, pela ordem da linha usada no ficheiro de clientes.
+     *
+     * @param produto Produto a converter.
+     * @return Campos do produto, sem separadores.
+     */
+    List<String> camposProduto(Produto produto) {
+        List<String> campos = new ArrayList<>(Arrays.asList(produto.getCodigo(), produto.getNome(), produto.getDescricao(),
+                produto.getTipo(), String.valueOf(produto.getValorUnitario()), String.valueOf(produto.getQuantidade()),
+                produto.getCategoria() != null ? produto.getCategoria() : "null"));
+
+        if (produto.getTipo().equalsIgnoreCase("Alimentar")) {
+            ProdutoAlimentar alimentar = (ProdutoAlimentar) produto;
+            campos.add(alimentar.isBiologico() ? "true" : "false");
+            campos.add(String.join(",", alimentar.getCertificacoes()));
+        } else if (produto.getTipo().equalsIgnoreCase("Farmacia")) {
+            ProdutoFarmacia farmacia = (ProdutoFarmacia) produto;
+            campos.add(farmacia.isComPrescricao() ? "true" : "false");
+            campos.add(farmacia.getMedico() != null ? farmacia.getMedico() : "null");
+        }
+        return campos;
+    }
+
+    /**
+     * Lê um produto a partir de uma linha no formato do ficheiro de clientes.
+     *
+     * @param linha Linha com os campos do produto.
+     * @return O produto lido ou null se a linha for inválida.
+     */
+    Produto lerProduto(String linha) {
+        return lerProduto(linha.split(";"));
+    }
+
+    /**
+     * Lê um produto a partir dos campos de uma linha no formato do ficheiro de clientes.
+     *
+     * @param partes Campos do produto, pela ordem de {@link #camposProduto(Produto)}.
+     * @return O produto lido ou null se os campos forem inválidos.
+     */
+    Produto lerProduto(String[] partes) {
+        try {
+            return interpretarProduto(partes);
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Interpreta uma linha no formato do ficheiro de clientes e cria o produto correspondente,
+     * com as mesmas validações de {@link #lerProduto(String)}.
+     *
+     * @param linha Linha com os campos do produto.
+     * @return O produto lido.
+     * @throws IllegalArgumentException se a linha ou algum dos campos for inválido.
+     */
+    Produto interpretarProduto(String linha) {
+        return interpretarProduto(linha.split(";"));
+    }
+
+    /**
+     * Interpreta os campos de uma linha no formato do ficheiro de clientes e cria o produto correspondente.
+     *
+     * @param partes Campos do produto, pela ordem de {@link #camposProduto(Produto)}.
+     * @return O produto lido.
+     * @throws IllegalArgumentException se faltar algum campo ou algum dos campos for inválido.
+     */
+    Produto interpretarProduto(String[] partes) {
+        if (partes.length < 7) {
+            throw new IllegalArgumentException("Linha inválida para produto: " + String.join(";", partes));
+        }
+        String codigo = partes[0].trim();
+        String nome = partes[1].trim();
+        String descricao = partes[2].trim();
+        String tipo = partes[3].trim();
+        double valorUnitario = Double.parseDouble(partes[4].trim());
+        int quantidade = Integer.parseInt(partes[5].trim());
+        String categoria = partes[6].equalsIgnoreCase("null") ? null : partes[6].trim();
+        String campo7 = partes.length > 7 ? partes[7] : null;
+        String campo8 = partes.length > 8 ? partes[8] : null;
+
+        return criarProduto(tipo, codigo, nome, descricao, valorUnitario, quantidade, categoria, campo7, campo8);
+    }
 }
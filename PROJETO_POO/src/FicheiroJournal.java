@@ -0,0 +1,646 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Classe responsável pelo journal de alterações aos dados.
+ * Cada alteração (cliente criado ou editado, fatura criada ou substituída) é acrescentada
+ * no fim do journal, em vez de se reescrever todos os dados.
+ * <p>
+ * Os registos são escritos por uma única thread, pela ordem em que foram pedidos. Quem regista uma alteração
+ * não espera pela escrita: recebe um {@link CompletableFuture} que termina quando o registo estiver sincronizado
+ * com o disco. Os registos pedidos enquanto decorre uma escrita são escritos em conjunto, com uma única
+ * sincronização (group commit), pelo que o custo por alteração não depende do tamanho dos dados.
+ * Um lote de faturas ({@link #registarLote(List)}) é escrito como um único registo e só é reaplicado se estiver completo.
+ * Os campos são separados por ";". Nos nomes e nos produtos, os ";" e as barras invertidas são precedidos de "\"
+ * e as quebras de linha são escritas como "\n" ({@link #escapar(String)}), para que cada registo ocupe as suas linhas.
+ * O journal é escrito e lido em UTF-8, como o ficheiro de clientes.
+ * <p>
+ * Periodicamente o journal é compactado numa thread de fundo: os dados atuais são guardados com o {@link Snapshot}
+ * indicado e os registos já incluídos nele são retirados do journal.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class FicheiroJournal {
+    private static final String FICHEIRO_JOURNAL = "clientes.journal";
+
+    /**
+     * Número de registos acumulados no journal a partir do qual é feita uma compactação.
+     */
+    private static final int LIMITE_COMPACTACAO = 1000;
+
+    /**
+     * Número máximo de pedidos escritos em conjunto.
+     */
+    private static final int TAMANHO_MAXIMO_GRUPO = 4096;
+
+    /**
+     * Escrita de um snapshot completo dos dados, a partir do qual o journal recomeça.
+     */
+    @FunctionalInterface
+    public interface Snapshot {
+        /**
+         * Guarda os clientes e as faturas indicados.
+         *
+         * @param clientes Clientes a guardar.
+         * @param faturas Faturas a guardar.
+         * @throws IOException se o snapshot não ficar completo no disco; nesse caso o journal é mantido.
+         */
+        void guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException;
+    }
+
+    private final FicheiroHandler ficheiroHandler;
+    private final Snapshot snapshot;
+    private final File ficheiro;
+    private final LinkedBlockingQueue<Pedido> pedidos = new LinkedBlockingQueue<>();
+    private final Thread escritor;
+    private final ExecutorService compactador;
+    private final Object compactacao = new Object(); // Uma compactação de cada vez
+    private FileOutputStream saida;
+    private int registosPendentes;
+    private boolean compactacaoEmCurso;
+    private boolean fechado;
+
+    /**
+     * Pedido à thread de escrita: um registo ou, sem registo, uma marca que termina quando todos os registos
+     * pedidos antes dela estiverem escritos.
+     */
+    private static final class Pedido {
+        private final String registo;
+        private final int numRegistos;
+        private final boolean ultimo;
+        private final CompletableFuture<Void> escrito = new CompletableFuture<>();
+        private long posicao; // Fim do journal a seguir a este pedido
+        private int registosAteAqui; // Registos no journal até este pedido, inclusive
+
+        Pedido(String registo, int numRegistos, boolean ultimo) {
+            this.registo = registo;
+            this.numRegistos = numRegistos;
+            this.ultimo = ultimo;
+        }
+    }
+
+    /**
+     * Construtor da classe. Na compactação, os dados são guardados no ficheiro de clientes.
+     *
+     * @param ficheiroHandler Handler usado para formatar os produtos e escrever o ficheiro de clientes.
+     */
+    public FicheiroJournal(FicheiroHandler ficheiroHandler) {
+        this(ficheiroHandler, ficheiroHandler::salvarSnapshot);
+    }
+
+    /**
+     * Construtor com a escrita do snapshot indicada, que deve guardar os dados no ficheiro a partir do qual
+     * são carregados antes de o journal ser reaplicado.
+     *
+     * @param ficheiroHandler Handler usado para formatar e ler os produtos.
+     * @param snapshot Escrita do snapshot usada na compactação.
+     */
+    public FicheiroJournal(FicheiroHandler ficheiroHandler, Snapshot snapshot) {
+        this(new File(FICHEIRO_JOURNAL), ficheiroHandler, snapshot);
+    }
+
+    /**
+     * Construtor com o ficheiro do journal indicado (por exemplo, para medições com ficheiros temporários).
+     */
+    FicheiroJournal(File ficheiro, FicheiroHandler ficheiroHandler, Snapshot snapshot) {
+        this.ficheiroHandler = ficheiroHandler;
+        this.snapshot = snapshot;
+        this.ficheiro = ficheiro;
+        this.compactador = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "compactacao-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.escritor = new Thread(this::escreverPedidos, "escrita-journal");
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    /**
+     * Regista a criação de um cliente.
+     *
+     * @param cliente Cliente criado.
+     * @return Future que termina quando o registo estiver sincronizado com o disco.
+     */
+    public CompletableFuture<Void> registarCliente(Cliente cliente) {
+        return enviar("C;" + formatarCliente(cliente), 1).escrito.copy();
+    }
+
+    /**
+     * Regista a edição de um cliente.
+     *
+     * @param nifAnterior Número de contribuinte do cliente antes da edição.
+     * @param cliente Cliente já editado.
+     * @return Future que termina quando o registo estiver sincronizado com o disco.
+     */
+    public CompletableFuture<Void> registarEdicaoCliente(int nifAnterior, Cliente cliente) {
+        return enviar("E;" + nifAnterior + ";" + formatarCliente(cliente), 1).escrito.copy();
+    }
+
+    /**
+     * Regista a criação ou substituição de uma fatura, incluindo todos os seus produtos.
+     * O registo é formatado imediatamente, pelo que alterações posteriores à fatura não o afetam.
+     *
+     * @param fatura Fatura criada ou editada.
+     * @return Future que termina quando o registo estiver sincronizado com o disco.
+     */
+    public CompletableFuture<Void> registarFatura(Fatura fatura) {
+        return enviar(formatarFatura(fatura), 1).escrito.copy();
+    }
+
+    /**
+     * Regista a criação de um lote de faturas numa única escrita e espera que esteja sincronizada com o disco.
+     * Na reprodução, o lote é aplicado por inteiro ou, se a escrita tiver sido interrompida, ignorado.
+     *
+     * @param faturas Faturas criadas.
+     * @throws IOException se não for possível escrever ou sincronizar o journal.
+     */
+    public void registarLote(List<Fatura> faturas) throws IOException {
+        StringBuilder registo = new StringBuilder();
+        registo.append("L;").append(faturas.size());
+        for (Fatura fatura : faturas) {
+            registo.append(System.lineSeparator()).append(formatarFatura(fatura));
+        }
+        Pedido pedido = enviar(registo.toString(), faturas.size());
+        try {
+            pedido.escrito.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException erro) {
+                throw erro;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Obtém um future que termina quando todos os registos pedidos até agora estiverem sincronizados com o disco
+     * (ou tiverem falhado).
+     *
+     * @return Future da sincronização.
+     */
+    public CompletableFuture<Void> sincronizar() {
+        return enviar(null, 0).escrito.copy();
+    }
+
+    private String formatarFatura(Fatura fatura) {
+        StringBuilder registo = new StringBuilder();
+        registo.append("F;").append(fatura.getNumero()).append(';').append(fatura.getData()).append(';')
+                .append(fatura.getCliente().getNumeroContribuinte()).append(';').append(fatura.getProdutos().size());
+        for (Produto produto : fatura.getProdutos()) {
+            registo.append(System.lineSeparator());
+            List<String> campos = ficheiroHandler.camposProduto(produto);
+            for (int i = 0; i < campos.size(); i++) {
+                registo.append(i > 0 ? ";" : "").append(escapar(campos.get(i)));
+            }
+        }
+        return registo.toString();
+    }
+
+    /**
+     * Prepara um campo para ser escrito no journal: precede de "\" os ";" e as barras invertidas, e substitui
+     * as quebras de linha por "\n" e "\r". O campo é recuperado com {@link #dividir(String)}.
+     *
+     * @param campo Campo a escrever (null é escrito como "null").
+     * @return Campo sem separadores nem quebras de linha.
+     */
+    static String escapar(String campo) {
+        if (campo == null) {
+            return "null";
+        }
+        StringBuilder escapado = new StringBuilder(campo.length());
+        for (int i = 0; i < campo.length(); i++) {
+            char c = campo.charAt(i);
+            switch (c) {
+                case '\\', ';' -> escapado.append('\\').append(c);
+                case '\n' -> escapado.append("\\n");
+                case '\r' -> escapado.append("\\r");
+                default -> escapado.append(c);
+            }
+        }
+        return escapado.toString();
+    }
+
+    /**
+     * Divide uma linha do journal nos seus campos, pelos ";" que não estão escapados, e desfaz
+     * o {@link #escapar(String)} de cada campo.
+     *
+     * @param linha Linha do journal.
+     * @return Campos da linha.
+     */
+    static String[] dividir(String linha) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder campo = new StringBuilder();
+        for (int i = 0; i < linha.length(); i++) {
+            char c = linha.charAt(i);
+            if (c == '\\' && i + 1 < linha.length()) {
+                char seguinte = linha.charAt(++i);
+                campo.append(seguinte == 'n' ? '\n' : seguinte == 'r' ? '\r' : seguinte);
+            } else if (c == ';') {
+                campos.add(campo.toString());
+                campo.setLength(0);
+            } else {
+                campo.append(c);
+            }
+        }
+        campos.add(campo.toString());
+        return campos.toArray(new String[0]);
+    }
+
+    /**
+     * Aplica os registos do journal aos clientes e faturas carregados do último snapshot.
+     * Os registos são idempotentes: reaplicá-los sobre dados que já os contêm não altera nada.
+     * Um registo incompleto no fim do ficheiro (escrita interrompida) é ignorado. Um registo inválido
+     * é indicado e ignorado, e a reprodução continua no seguinte.
+     *
+     * @param repositorio Repositório com os dados a atualizar.
+     */
+    public synchronized void reproduzir(RepositorioDados repositorio) {
+        if (!ficheiro.exists()) {
+            return;
+        }
+
+        int aplicados = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(ficheiro), StandardCharsets.UTF_8))) {
+            String linha;
+            leitura:
+            while ((linha = br.readLine()) != null) {
+                if (linha.isEmpty()) {
+                    continue;
+                }
+                String[] partes = dividir(linha);
+                try {
+                    switch (partes[0]) {
+                        case "C" -> aplicarCliente(repositorio, -1, partes, 1);
+                        case "E" -> aplicarCliente(repositorio, Integer.parseInt(partes[1]), partes, 2);
+                        case "F" -> {
+                            RegistoFatura registo = lerFatura(br, partes);
+                            if (registo == null) {
+                                System.out.println("Registo incompleto no fim do journal ignorado.");
+                                break leitura;
+                            }
+                            aplicarFatura(repositorio, registo);
+                        }
+                        case "L" -> {
+                            List<RegistoFatura> lote = lerLote(br, Integer.parseInt(partes[1]));
+                            if (lote == null) {
+                                System.out.println("Lote incompleto no fim do journal ignorado.");
+                                break leitura;
+                            }
+                            // Uma fatura inválida não impede as restantes do lote
+                            for (RegistoFatura registo : lote) {
+                                try {
+                                    aplicarFatura(repositorio, registo);
+                                    aplicados++;
+                                } catch (RuntimeException e) {
+                                    System.out.println("Fatura " + registo.numero + " inválida no journal ignorada: "
+                                            + e.getMessage());
+                                }
+                            }
+                            continue;
+                        }
+                        default -> {
+                            System.out.println("Registo inválido no journal: " + linha);
+                            continue;
+                        }
+                    }
+                    aplicados++;
+                } catch (RuntimeException e) {
+                    System.out.println("Registo inválido no journal ignorado: " + linha + " (" + e.getMessage() + ")");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao ler o journal: " + e.getMessage());
+        }
+        registosPendentes = aplicados;
+    }
+
+    /**
+     * Compacta o journal se o número de registos pendentes tiver atingido o limite.
+     * O snapshot é escrito numa thread de fundo, com o bloqueio de leitura do repositório.
+     *
+     * @param repositorio Repositório com os dados atuais.
+     */
+    public synchronized void compactarSeNecessario(RepositorioDados repositorio) {
+        if (registosPendentes >= LIMITE_COMPACTACAO && !compactacaoEmCurso && !compactador.isShutdown()) {
+            compactacaoEmCurso = true;
+            compactador.execute(() -> compactar(repositorio));
+        }
+    }
+
+    private void compactar(RepositorioDados repositorio) {
+        // O bloqueio dos dados é obtido antes do da compactação, pela mesma ordem que em compactarAgora
+        Lock leitura = repositorio.getBloqueio().readLock();
+        leitura.lock();
+        try {
+            compactarAgora(repositorio.getClientes(), repositorio.getFaturas());
+        } finally {
+            leitura.unlock();
+            synchronized (this) {
+                compactacaoEmCurso = false;
+            }
+        }
+    }
+
+    /**
+     * Guarda imediatamente um snapshot com os dados indicados e retira do journal os registos incluídos nele.
+     * Deve ser chamado com o bloqueio dos dados (de leitura ou de escrita), para que nenhuma alteração seja
+     * registada enquanto o snapshot é escrito; as alterações registadas depois ficam no journal.
+     *
+     * @param clientes Lista atual de clientes.
+     * @param faturas Lista atual de faturas.
+     * @return true se o snapshot foi guardado, false caso contrário (nesse caso o journal é mantido).
+     */
+    public boolean compactarAgora(List<Cliente> clientes, List<Fatura> faturas) {
+        synchronized (compactacao) {
+            Pedido marca = enviar(null, 0);
+            try {
+                snapshot.guardar(clientes, faturas);
+            } catch (IOException e) {
+                System.out.println("Erro ao guardar os dados, o journal foi mantido: " + e.getMessage());
+                return false;
+            }
+            retirarAte(marca);
+            return true;
+        }
+    }
+
+    /**
+     * Retira do journal os registos escritos antes da marca, que já estão incluídos no snapshot.
+     * Os registos escritos depois da marca são preservados.
+     */
+    private void retirarAte(Pedido marca) {
+        marca.escrito.join();
+        synchronized (this) {
+            try {
+                fecharSaida();
+                if (marca.posicao >= ficheiro.length()) {
+                    Files.deleteIfExists(ficheiro.toPath());
+                } else {
+                    Path journal = ficheiro.toPath();
+                    GravacaoAtomica.gravar(ficheiro, out -> {
+                        try (InputStream in = Files.newInputStream(journal)) {
+                            in.skipNBytes(marca.posicao);
+                            in.transferTo(out);
+                        }
+                    });
+                }
+                registosPendentes -= marca.registosAteAqui;
+            } catch (IOException e) {
+                System.out.println("Erro ao compactar o journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Espera que os registos pedidos e a compactação em curso terminem e para a thread de escrita.
+     * Depois de fechado, o journal não aceita novos registos.
+     * Não deve ser chamado com o bloqueio dos dados, que a compactação de fundo pode precisar.
+     */
+    public void fechar() {
+        compactador.shutdown();
+        try {
+            compactador.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Pedido fim;
+        synchronized (pedidos) {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            fim = new Pedido(null, 0, true);
+            pedidos.add(fim);
+        }
+        fim.escrito.join();
+        try {
+            escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Pedido enviar(String registo, int numRegistos) {
+        Pedido pedido = new Pedido(registo, numRegistos, false);
+        synchronized (pedidos) {
+            if (fechado) {
+                throw new IllegalStateException("O journal já foi fechado.");
+            }
+            pedidos.add(pedido);
+        }
+        return pedido;
+    }
+
+    /**
+     * Ciclo da thread de escrita: junta os pedidos acumulados e escreve-os em conjunto.
+     */
+    private void escreverPedidos() {
+        List<Pedido> grupo = new ArrayList<>();
+        while (true) {
+            try {
+                grupo.add(pedidos.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pedidos.drainTo(grupo, TAMANHO_MAXIMO_GRUPO - 1);
+            escreverGrupo(grupo);
+            if (grupo.get(grupo.size() - 1).ultimo) {
+                synchronized (this) {
+                    fecharSaida();
+                }
+                return;
+            }
+            grupo.clear();
+        }
+    }
+
+    /**
+     * Escreve os registos de um grupo de pedidos numa única escrita, com uma única sincronização com o disco.
+     * Se a escrita falhar, os registos do grupo são retirados do journal, para não ficarem a meio dos seguintes.
+     */
+    private synchronized void escreverGrupo(List<Pedido> grupo) {
+        long inicio = -1;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int registos = registosPendentes;
+            for (Pedido pedido : grupo) {
+                if (pedido.registo != null) {
+                    // Em UTF-8, como na leitura do journal
+                    bytes.write((pedido.registo + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                    registos += pedido.numRegistos;
+                }
+                pedido.posicao = bytes.size(); // Relativa ao início do grupo, até se saber onde é escrito
+                pedido.registosAteAqui = registos;
+            }
+            // Um grupo só com marcas não cria o ficheiro
+            if (bytes.size() > 0) {
+                abrirSaida();
+                inicio = saida.getChannel().position();
+                bytes.writeTo(saida);
+                saida.getFD().sync();
+            }
+            long base = inicio >= 0 ? inicio : ficheiro.length();
+            for (Pedido pedido : grupo) {
+                pedido.posicao += base;
+            }
+            registosPendentes = registos;
+        } catch (IOException e) {
+            System.out.println("Erro ao escrever no journal: " + e.getMessage());
+            if (inicio >= 0) {
+                try {
+                    saida.getChannel().truncate(inicio);
+                } catch (IOException erroTruncar) {
+                    e.addSuppressed(erroTruncar);
+                }
+            }
+            fecharSaida();
+            for (Pedido pedido : grupo) {
+                pedido.posicao = inicio >= 0 ? inicio : ficheiro.length();
+                pedido.registosAteAqui = registosPendentes;
+                if (pedido.registo != null) {
+                    pedido.escrito.completeExceptionally(e);
+                }
+            }
+        }
+        for (Pedido pedido : grupo) {
+            pedido.escrito.complete(null);
+        }
+    }
+
+    private void abrirSaida() throws IOException {
+        if (saida == null) {
+            saida = new FileOutputStream(ficheiro, true);
+        }
+    }
+
+    private void fecharSaida() {
+        if (saida != null) {
+            try {
+                saida.close();
+            } catch (IOException e) {
+                System.out.println("Erro ao fechar o journal: " + e.getMessage());
+            }
+            saida = null;
+        }
+    }
+
+    private String formatarCliente(Cliente cliente) {
+        return escapar(cliente.getNome()) + ";" + escapar(cliente.getTipoLocalizacao()) + ";" + cliente.getNumeroContribuinte();
+    }
+
+    private void aplicarCliente(RepositorioDados repositorio, int nifAnterior, String[] partes, int inicio) {
+        String nome = partes[inicio];
+        String tipoLocalizacao = partes[inicio + 1];
+        int nif = Integer.parseInt(partes[inicio + 2]);
+        int procurado = nifAnterior > 0 ? nifAnterior : nif;
+
+        Cliente cliente = repositorio.procurarCliente(procurado);
+        if (nifAnterior > 0 && (cliente == null || repositorio.existeCliente(nif))) {
+            cliente = repositorio.procurarCliente(nif);
+        }
+        if (cliente == null) {
+            repositorio.adicionarCliente(new Cliente(nome, tipoLocalizacao, nif));
+        } else {
+            cliente.setNome(nome);
+            repositorio.alterarLocalizacao(cliente, tipoLocalizacao);
+            repositorio.alterarNumeroContribuinte(cliente, nif);
+        }
+    }
+
+    /**
+     * Fatura lida do journal, ainda por aplicar.
+     */
+    private static class RegistoFatura {
+        private final int numero;
+        private final LocalDate data;
+        private final int nif;
+        private final List<Produto> produtos;
+
+        RegistoFatura(int numero, LocalDate data, int nif, List<Produto> produtos) {
+            this.numero = numero;
+            this.data = data;
+            this.nif = nif;
+            this.produtos = produtos;
+        }
+    }
+
+    /**
+     * Lê as faturas de um lote.
+     *
+     * @return Faturas do lote, ou null se o lote estiver incompleto.
+     */
+    private List<RegistoFatura> lerLote(BufferedReader br, int numFaturas) throws IOException {
+        List<RegistoFatura> lote = new ArrayList<>(numFaturas);
+        for (int i = 0; i < numFaturas; i++) {
+            String linha = br.readLine();
+            if (linha == null || !linha.startsWith("F;")) {
+                return null;
+            }
+            RegistoFatura registo = lerFatura(br, dividir(linha));
+            if (registo == null) {
+                return null;
+            }
+            lote.add(registo);
+        }
+        return lote;
+    }
+
+    /**
+     * Lê uma fatura e os seus produtos.
+     *
+     * @return A fatura lida, ou null se o registo estiver incompleto.
+     */
+    private RegistoFatura lerFatura(BufferedReader br, String[] partes) throws IOException {
+        int numero = Integer.parseInt(partes[1]);
+        LocalDate data = LocalDate.parse(partes[2]);
+        int nif = Integer.parseInt(partes[3]);
+        int numProdutos = Integer.parseInt(partes[4]);
+
+        List<Produto> produtos = new ArrayList<>();
+        for (int i = 0; i < numProdutos; i++) {
+            String linhaProduto = br.readLine();
+            if (linhaProduto == null) {
+                return null;
+            }
+            Produto produto = ficheiroHandler.lerProduto(dividir(linhaProduto));
+            if (produto != null) {
+                produtos.add(produto);
+            }
+        }
+        return new RegistoFatura(numero, data, nif, produtos);
+    }
+
+    private void aplicarFatura(RepositorioDados repositorio, RegistoFatura registo) {
+        Cliente cliente = repositorio.procurarCliente(registo.nif);
+        if (cliente == null) {
+            System.out.println("Cliente com número de contribuinte " + registo.nif + " não encontrado. Fatura ignorada.");
+            return;
+        }
+
+        Fatura fatura = repositorio.procurarFatura(registo.numero);
+        if (fatura == null) {
+            fatura = new Fatura(registo.numero, cliente, registo.data);
+            fatura.setProdutos(registo.produtos);
+            repositorio.adicionarFatura(fatura);
+        } else {
+            repositorio.alterarClienteDaFatura(fatura, cliente);
+            repositorio.alterarDataDaFatura(fatura, registo.data);
+            repositorio.alterarProdutosDaFatura(fatura, registo.produtos);
+        }
+    }
+}
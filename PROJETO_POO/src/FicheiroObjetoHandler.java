@@ -5,6 +5,15 @@ import java.util.List;
 /**
  * Classe responsável por salvar e carregar objetos de clientes e faturas
  * em um ficheiro binário usando serialização.
+ * Se a propriedade de sistema {@code poofs.formato} for "binario", os dados são guardados em "dados.bin"
+ * com o formato compacto de {@link FicheiroBinarioHandler}, em vez de "dados.obj".
+ * Se for "mapeado", são guardados em "dados.map" com {@link ArmazemFaturas}, e os produtos de cada fatura
+ * só são lidos quando forem necessários.
+ * Se for "colunar", são guardados em "dados.col" com {@link ArquivoColunar}, comprimidos coluna a coluna.
+ * Se for "segmentado", são guardados na pasta "dados.seg" com {@link ArmazemSegmentado}, e cada gravação
+ * só reescreve os segmentos com clientes ou faturas alterados.
+ * Nos restantes formatos o ficheiro é gravado de forma atómica e as versões anteriores são mantidas
+ * ({@link GravacaoAtomica}); ao carregar, é usada a versão mais recente que esteja completa.
  *
  * @author Cíntia Cumbane (2020244607)
  * Cristiana Gonçalves (2019239753)
@@ -12,18 +21,39 @@ import java.util.List;
  */
 class FicheiroObjetoHandler {
     private static final String FICHEIRO_OBJETOS = "dados.obj";
+    private static final String FICHEIRO_BINARIO = "dados.bin";
+    private static final String FICHEIRO_MAPEADO = "dados.map";
+    private static final String FICHEIRO_COLUNAR = "dados.col";
+    private static final String PASTA_SEGMENTOS = "dados.seg";
+
+    private final File pasta; // Pasta dos ficheiros de dados (null para a pasta atual)
 
     // Listas para armazenar os dados de clientes e faturas
     private List<Cliente> clientes;
     private List<Fatura> faturas;
 
+    // Armazém do formato segmentado, que se lembra do que já foi gravado
+    private final ArmazemSegmentado armazemSegmentado;
+
     /**
      * Construtor da classe. Inicializa as listas de clientes e faturas e tenta carregar dados do ficheiro.
      */
     public FicheiroObjetoHandler() {
+        this(null);
+        carregarDados();
+    }
+
+    /**
+     * Construtor com os ficheiros de dados na pasta indicada, que ainda não carrega os dados
+     * (ver {@link #carregarDados()}).
+     *
+     * @param pasta Pasta dos ficheiros de dados, ou null para a pasta atual.
+     */
+    FicheiroObjetoHandler(File pasta) {
+        this.pasta = pasta;
         this.clientes = new ArrayList<>();
         this.faturas = new ArrayList<>();
-        carregarDados();
+        this.armazemSegmentado = new ArmazemSegmentado(new File(pasta, PASTA_SEGMENTOS));
     }
 
     // Getters para acessar as listas de clientes e faturas
@@ -50,38 +80,212 @@ class FicheiroObjetoHandler {
      * Salva os dados de clientes e faturas no ficheiro binário.
      */
     public void salvarDados() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(FICHEIRO_OBJETOS))) {
-            oos.writeObject(clientes);
-            oos.writeObject(faturas);
-            System.out.println("Dados salvos com sucesso no ficheiro de objetos.");
+        salvarDados(clientes, faturas);
+    }
+
+    /**
+     * Salva os clientes e as faturas indicados (por exemplo, um instantâneo do {@link RepositorioDados})
+     * no ficheiro do formato escolhido.
+     *
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     */
+    public void salvarDados(List<Cliente> clientes, List<Fatura> faturas) {
+        try {
+            guardar(clientes, faturas);
+            System.out.println("Dados salvos com sucesso " + (usaFormato("segmentado")
+                    ? "no armazém segmentado (" + armazemSegmentado.getSegmentosEscritos() + " segmentos escritos)."
+                    : usaFormato("colunar") ? "no arquivo colunar."
+                    : usaFormato("mapeado") ? "no armazém de faturas."
+                    : usaFormato("binario") ? "no ficheiro binário." : "no ficheiro de objetos."));
         } catch (IOException e) {
             System.out.println("Erro ao salvar os dados: " + e.getMessage());
         }
     }
 
+    /**
+     * Guarda os clientes e as faturas indicados no ficheiro do formato escolhido, sem mensagens.
+     *
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     * @throws IOException se ocorrer um erro de escrita; nesse caso a versão anterior do ficheiro continua disponível.
+     */
+    public void guardar(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        if (usaFormato("segmentado")) {
+            armazemSegmentado.guardar(clientes, faturas);
+        } else if (usaFormato("colunar")) {
+            GravacaoAtomica.gravarComGeracoes(new File(pasta, FICHEIRO_COLUNAR),
+                    out -> ArquivoColunar.escrever(out, clientes, faturas));
+        } else if (usaFormato("mapeado")) {
+            GravacaoAtomica.gravarComGeracoes(new File(pasta, FICHEIRO_MAPEADO),
+                    out -> ArmazemFaturas.escrever(out, clientes, faturas));
+        } else if (usaFormato("binario")) {
+            GravacaoAtomica.gravarComGeracoes(new File(pasta, FICHEIRO_BINARIO),
+                    out -> new FicheiroBinarioHandler().escrever(out, clientes, faturas));
+        } else {
+            GravacaoAtomica.gravarComGeracoes(new File(pasta, FICHEIRO_OBJETOS), out -> {
+                // Cópias em ArrayList: as listas recebidas podem ser instantâneos do repositório, que não são serializáveis
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(new ArrayList<>(clientes));
+                oos.writeObject(new ArrayList<>(faturas));
+                oos.flush();
+            });
+        }
+    }
+
+    /**
+     * Verifica se as gravações só escrevem os dados alterados (formato segmentado).
+     *
+     * @return true se o formato escolhido for o segmentado, false caso contrário.
+     */
+    public boolean guardaApenasAlteracoes() {
+        return usaFormato("segmentado");
+    }
+
+    /**
+     * Abre o arquivo colunar guardado, para as consultas que só precisam de algumas colunas
+     * (ver {@link ArquivoColunar#percorrer(java.util.Set, java.util.function.Consumer)}).
+     *
+     * @return O arquivo, ou null se o formato escolhido não for o colunar ou o arquivo ainda não existir.
+     * @throws IOException se ocorrer um erro de leitura ou nenhuma versão do arquivo estiver completa.
+     */
+    public ArquivoColunar abrirArquivoColunar() throws IOException {
+        if (!usaFormato("colunar")) {
+            return null;
+        }
+        File ficheiro = GravacaoAtomica.escolherParaLeitura(new File(pasta, FICHEIRO_COLUNAR));
+        return ficheiro == null ? null : ArquivoColunar.abrir(ficheiro);
+    }
+
     /**
      * Carrega os dados de clientes e faturas do ficheiro binário.
      * Se o ficheiro não existir, cria um ficheiro vazio.
      */
     public void carregarDados() {
-        File ficheiro = new File(FICHEIRO_OBJETOS);
+        if (usaFormato("segmentado")) {
+            carregarSegmentos();
+            return;
+        }
+
+        File ficheiro;
+        try {
+            // O próprio ficheiro ou, se a última gravação não terminou, a versão anterior.
+            // O armazém de faturas verifica os seus blocos ao abrir: não é lido todo no arranque
+            ficheiro = GravacaoAtomica.escolherParaLeitura(new File(pasta, usaFormato("colunar") ? FICHEIRO_COLUNAR
+                    : usaFormato("mapeado") ? FICHEIRO_MAPEADO
+                    : usaFormato("binario") ? FICHEIRO_BINARIO : FICHEIRO_OBJETOS), !usaFormato("mapeado"));
+        } catch (IOException e) {
+            System.out.println("Erro ao carregar os dados: " + e.getMessage());
+            return;
+        }
 
         // Verifica se o ficheiro existe
-        if (!ficheiro.exists()) {
+        if (ficheiro == null) {
             System.out.println("Ficheiro de objetos não encontrado. Criando um novo ficheiro.");
             salvarDados();
             return;
         }
 
-        // Tenta carregar os dados do ficheiro
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(FICHEIRO_OBJETOS))) {
-            clientes = (List<Cliente>) ois.readObject();
-            faturas = (List<Fatura>) ois.readObject();
+        if (usaFormato("colunar")) {
+            List<Cliente> clientesLidos = new ArrayList<>();
+            List<Fatura> faturasLidas = new ArrayList<>();
+            try {
+                ArquivoColunar.abrir(ficheiro).carregar(clientesLidos, faturasLidas);
+                clientes = clientesLidos;
+                faturas = faturasLidas;
+                System.out.println("Dados carregados com sucesso do arquivo colunar.");
+            } catch (IOException e) {
+                System.out.println("Erro ao carregar os dados: " + e.getMessage());
+            }
+            return;
+        }
+        if (usaFormato("mapeado")) {
+            List<Cliente> clientesLidos = new ArrayList<>();
+            List<Fatura> faturasLidas = new ArrayList<>();
+            try {
+                ArmazemFaturas.abrir(ficheiro).carregar(clientesLidos, faturasLidas);
+                clientes = clientesLidos;
+                faturas = faturasLidas;
+                System.out.println("Dados carregados com sucesso do armazém de faturas.");
+            } catch (IOException e) {
+                System.out.println("Erro ao carregar os dados: " + e.getMessage());
+            }
+            return;
+        }
+        if (usaFormato("binario")) {
+            List<Cliente> clientesLidos = new ArrayList<>();
+            List<Fatura> faturasLidas = new ArrayList<>();
+            try {
+                new FicheiroBinarioHandler().carregar(ficheiro, clientesLidos, faturasLidas);
+                clientes = clientesLidos;
+                faturas = faturasLidas;
+                System.out.println("Dados carregados com sucesso do ficheiro binário.");
+            } catch (IOException e) {
+                System.out.println("Erro ao carregar os dados: " + e.getMessage());
+            }
+            return;
+        }
+
+        // Tenta carregar os dados do ficheiro. As listas só são usadas se ambas forem lidas: com os clientes
+        // e sem as faturas, os dados não seriam carregados do ficheiro de texto e as faturas perdiam-se
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(ficheiro)))) {
+            List<Cliente> clientesLidos = (List<Cliente>) ois.readObject();
+            List<Fatura> faturasLidas = (List<Fatura>) ois.readObject();
+            clientes = clientesLidos;
+            faturas = faturasLidas;
             System.out.println("Dados carregados com sucesso do ficheiro de objetos.");
+        } catch (InvalidClassException e) {
+            // As faturas e os produtos mudaram de formato (serialVersionUID 2); os dados vêm do ficheiro de texto
+            System.out.println("O ficheiro de objetos foi gravado por uma versão anterior do programa e não pode ser lido.");
         } catch (IOException e) {
             System.out.println("Erro ao carregar os dados: " + e.getMessage());
         } catch (ClassNotFoundException e) {
             System.out.println("Erro ao carregar os dados: Classe não encontrada - " + e.getMessage());
         }
     }
+
+    /**
+     * Carrega os dados do armazém segmentado. Se ainda não existir, cria-o vazio.
+     */
+    private void carregarSegmentos() {
+        if (!armazemSegmentado.existe()) {
+            System.out.println("Armazém segmentado não encontrado. Criando um novo armazém.");
+            salvarDados();
+            return;
+        }
+        List<Cliente> clientesLidos = new ArrayList<>();
+        List<Fatura> faturasLidas = new ArrayList<>();
+        try {
+            armazemSegmentado.carregar(clientesLidos, faturasLidas);
+            clientes = clientesLidos;
+            faturas = faturasLidas;
+            System.out.println("Dados carregados com sucesso do armazém segmentado.");
+        } catch (IOException e) {
+            System.out.println("Erro ao carregar os dados: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Obtém o nome do formato escolhido através da propriedade {@code poofs.formato}.
+     *
+     * @return "binario", "mapeado", "colunar", "segmentado" ou, por omissão, "objetos".
+     */
+    static String getFormato() {
+        for (String formato : new String[]{"binario", "mapeado", "colunar", "segmentado"}) {
+            if (usaFormato(formato)) {
+                return formato;
+            }
+        }
+        return "objetos";
+    }
+
+    /**
+     * Verifica se o formato indicado foi escolhido através da propriedade {@code poofs.formato}.
+     *
+     * @param formato Nome do formato ("binario", "mapeado", "colunar" ou "segmentado").
+     * @return true se for o formato escolhido, false caso contrário.
+     */
+    private static boolean usaFormato(String formato) {
+        return formato.equalsIgnoreCase(System.getProperty("poofs.formato"));
+    }
 }
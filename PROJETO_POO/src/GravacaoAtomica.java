@@ -0,0 +1,300 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Classe que grava ficheiros de forma atómica, para que uma falha a meio da escrita nunca destrua o conteúdo anterior.
+ * <p>
+ * O conteúdo é escrito num ficheiro temporário na mesma pasta, forçado para o disco e só depois colocado no lugar
+ * do ficheiro de destino com uma mudança de nome atómica.
+ * Os ficheiros de dados do programa são gravados com {@link #gravarComGeracoes(File, Conteudo)}, que guarda também
+ * um ficheiro "nome.crc" com o tamanho e o CRC32 do conteúdo (calculado durante a escrita) e mantém as versões
+ * anteriores como "nome.1", "nome.2", ... Estas versões não são copiadas: apenas mudam de nome. O número de versões
+ * anteriores é indicado pela propriedade de sistema {@code poofs.geracoes} (por omissão {@value #GERACOES_POR_OMISSAO}).
+ * Na leitura, {@link #escolherParaLeitura(File)} devolve a versão mais recente que está completa.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+final class GravacaoAtomica {
+    static final int GERACOES_POR_OMISSAO = 2;
+
+    private static final String EXTENSAO_CRC = ".crc";
+    private static final String EXTENSAO_TEMPORARIO = ".tmp";
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    /**
+     * Um objeto por ficheiro de destino, para que duas gravações do mesmo ficheiro não usem o mesmo temporário.
+     */
+    private static final ConcurrentHashMap<Path, Object> BLOQUEIOS = new ConcurrentHashMap<>();
+
+    private GravacaoAtomica() {
+    }
+
+    /**
+     * Escreve o conteúdo de um ficheiro. O stream recebido não precisa de ser fechado.
+     */
+    @FunctionalInterface
+    interface Conteudo {
+        void escrever(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Grava o ficheiro de forma atómica, sem manter versões anteriores.
+     *
+     * @param destino Ficheiro de destino.
+     * @param conteudo Escritor do conteúdo.
+     * @throws IOException se ocorrer um erro de escrita; nesse caso o ficheiro de destino fica como estava.
+     */
+    static void gravar(File destino, Conteudo conteudo) throws IOException {
+        gravar(destino, conteudo, false, 0);
+    }
+
+    /**
+     * Grava o ficheiro de forma atómica, com o ficheiro de verificação e mantendo as versões anteriores.
+     *
+     * @param destino Ficheiro de destino.
+     * @param conteudo Escritor do conteúdo.
+     * @throws IOException se ocorrer um erro de escrita; nesse caso a versão anterior continua disponível.
+     */
+    static void gravarComGeracoes(File destino, Conteudo conteudo) throws IOException {
+        gravar(destino, conteudo, true, getGeracoes());
+    }
+
+    private static void gravar(File destino, Conteudo conteudo, boolean comVerificacao, int geracoes) throws IOException {
+        Path ficheiro = destino.toPath().toAbsolutePath().normalize();
+        synchronized (BLOQUEIOS.computeIfAbsent(ficheiro, chave -> new Object())) {
+            Path temporario = comSufixo(ficheiro, EXTENSAO_TEMPORARIO);
+            Path verificacaoTemporaria = comSufixo(ficheiro, EXTENSAO_CRC + EXTENSAO_TEMPORARIO);
+            try {
+                String resumo = escreverTemporario(temporario, conteudo);
+                if (comVerificacao) {
+                    escreverTemporario(verificacaoTemporaria,
+                            out -> out.write((resumo + "\n").getBytes(StandardCharsets.US_ASCII)));
+                    rodarGeracoes(ficheiro, geracoes);
+                }
+                // Sem ".crc", o ficheiro novo é aceite mesmo que a gravação pare antes do passo seguinte
+                Files.deleteIfExists(verificacao(ficheiro));
+                mover(temporario, ficheiro);
+                if (comVerificacao) {
+                    mover(verificacaoTemporaria, verificacao(ficheiro));
+                }
+            } catch (IOException | RuntimeException e) {
+                apagar(temporario, e);
+                apagar(verificacaoTemporaria, e);
+                throw e;
+            }
+            forcarPasta(ficheiro.getParent());
+        }
+    }
+
+    /**
+     * Escreve o conteúdo no ficheiro temporário e força-o para o disco.
+     *
+     * @return Tamanho e CRC32 do conteúdo, no formato do ficheiro de verificação.
+     */
+    private static String escreverTemporario(Path temporario, Conteudo conteudo) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(canal), TAMANHO_BUFFER), crc) {
+                @Override
+                public void close() throws IOException {
+                    // O canal só pode ser fechado depois de forçado para o disco
+                    flush();
+                }
+            };
+            conteudo.escrever(out);
+            out.flush();
+            canal.force(true);
+            return canal.size() + ";" + Long.toHexString(crc.getValue());
+        }
+    }
+
+    /**
+     * Muda o nome de cada versão para a seguinte ("nome" para "nome.1", "nome.1" para "nome.2", ...),
+     * descartando a mais antiga.
+     */
+    private static void rodarGeracoes(Path ficheiro, int geracoes) throws IOException {
+        for (int g = geracoes - 1; g >= 0; g--) {
+            Path origem = geracao(ficheiro, g);
+            if (!Files.exists(origem)) {
+                continue;
+            }
+            Path destino = geracao(ficheiro, g + 1);
+            Files.deleteIfExists(verificacao(destino));
+            mover(origem, destino);
+            if (Files.exists(verificacao(origem))) {
+                mover(verificacao(origem), verificacao(destino));
+            }
+        }
+    }
+
+    /**
+     * Escolhe o ficheiro a ler: o próprio ficheiro ou, se estiver incompleto ou em falta, a versão anterior
+     * mais recente que esteja completa. Ficheiros sem ".crc" (por exemplo, escritos à mão ou por versões
+     * anteriores do programa) são aceites sem verificação.
+     *
+     * @param destino Ficheiro gravado com {@link #gravarComGeracoes(File, Conteudo)}.
+     * @return Ficheiro a ler, ou null se não existir nenhuma versão.
+     * @throws IOException se existirem versões mas nenhuma estiver completa.
+     */
+    static File escolherParaLeitura(File destino) throws IOException {
+        return escolherParaLeitura(destino, true);
+    }
+
+    /**
+     * Escolhe o ficheiro a ler, como {@link #escolherParaLeitura(File)}. Sem a verificação do conteúdo,
+     * a versão mais recente só é comparada com o tamanho guardado, sem ler o ficheiro; serve para os formatos
+     * que verificam os seus próprios blocos ao abrir (o armazém de faturas), para que o arranque não leia
+     * todo o ficheiro. As versões anteriores, só usadas quando a mais recente falha, são sempre verificadas.
+     *
+     * @param destino Ficheiro gravado com {@link #gravarComGeracoes(File, Conteudo)}.
+     * @param verificarConteudo true para verificar também o CRC32 da versão mais recente.
+     * @return Ficheiro a ler, ou null se não existir nenhuma versão.
+     * @throws IOException se existirem versões mas nenhuma estiver completa.
+     */
+    static File escolherParaLeitura(File destino, boolean verificarConteudo) throws IOException {
+        boolean existe = false;
+        for (int g = 0; g <= getGeracoes(); g++) {
+            Path candidato = geracao(destino.toPath(), g);
+            if (!Files.exists(candidato)) {
+                continue;
+            }
+            existe = true;
+            if (verificar(candidato, verificarConteudo || g > 0)) {
+                if (g > 0) {
+                    System.out.println("A usar a versão anterior " + candidato.getFileName() + ".");
+                }
+                return candidato.toFile();
+            }
+            System.out.println("O ficheiro " + candidato.getFileName() + " está incompleto ou corrompido"
+                    + (g == 0 ? " (se foi editado à mão, apague " + verificacao(candidato).getFileName() + ")." : "."));
+        }
+        if (existe) {
+            throw new IOException("Nenhuma versão de " + destino.getName() + " está completa.");
+        }
+        return null;
+    }
+
+    /**
+     * Verifica o tamanho e o CRC32 do ficheiro com os guardados no seu ficheiro ".crc".
+     *
+     * @param ficheiro Ficheiro a verificar.
+     * @return true se o ficheiro estiver completo ou não tiver ".crc", false caso contrário.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    static boolean verificar(Path ficheiro) throws IOException {
+        return verificar(ficheiro, true);
+    }
+
+    /**
+     * Verifica o tamanho do ficheiro e, se indicado, o CRC32 com os guardados no seu ficheiro ".crc".
+     *
+     * @param ficheiro Ficheiro a verificar.
+     * @param verificarConteudo true para ler o ficheiro e verificar também o CRC32.
+     * @return true se o ficheiro estiver completo ou não tiver ".crc", false caso contrário.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    static boolean verificar(Path ficheiro, boolean verificarConteudo) throws IOException {
+        Path resumo = verificacao(ficheiro);
+        if (!Files.exists(resumo)) {
+            return true;
+        }
+        String[] partes = Files.readString(resumo, StandardCharsets.US_ASCII).trim().split(";");
+        long tamanho;
+        long esperado;
+        try {
+            tamanho = Long.parseLong(partes[0]);
+            esperado = Long.parseLong(partes[1], 16);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+
+        try (FileChannel canal = FileChannel.open(ficheiro, StandardOpenOption.READ)) {
+            // O tamanho é verificado primeiro, sem ler o ficheiro
+            if (canal.size() != tamanho) {
+                return false;
+            }
+            if (!verificarConteudo) {
+                return true;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(16 * TAMANHO_BUFFER);
+            while (canal.read(buffer) != -1) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            return crc.getValue() == esperado;
+        }
+    }
+
+    /**
+     * Obtém o número de versões anteriores a manter, indicado pela propriedade {@code poofs.geracoes}.
+     *
+     * @return Número de versões anteriores.
+     */
+    static int getGeracoes() {
+        int geracoes = Integer.getInteger("poofs.geracoes", GERACOES_POR_OMISSAO);
+        if (geracoes < 0) {
+            throw new IllegalArgumentException("A propriedade poofs.geracoes não pode ser negativa.");
+        }
+        return geracoes;
+    }
+
+    private static Path geracao(Path ficheiro, int geracao) {
+        return geracao == 0 ? ficheiro : comSufixo(ficheiro, "." + geracao);
+    }
+
+    private static Path verificacao(Path ficheiro) {
+        return comSufixo(ficheiro, EXTENSAO_CRC);
+    }
+
+    private static Path comSufixo(Path ficheiro, String sufixo) {
+        return ficheiro.resolveSibling(ficheiro.getFileName() + sufixo);
+    }
+
+    private static void mover(Path origem, Path destino) throws IOException {
+        try {
+            Files.move(origem, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(origem, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void apagar(Path temporario, Exception erro) {
+        try {
+            Files.deleteIfExists(temporario);
+        } catch (IOException e) {
+            erro.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Força para o disco as mudanças de nome feitas na pasta. Nem todos os sistemas permitem abrir uma pasta
+     * (por exemplo, o Windows), e aí as mudanças de nome já são duráveis.
+     */
+    private static void forcarPasta(Path pasta) {
+        try (FileChannel canal = FileChannel.open(pasta, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            // Sem suporte para forçar a pasta
+        }
+    }
+}
@@ -0,0 +1,360 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Classe que importa ficheiros de clientes grandes em paralelo.
+ * O ficheiro é mapeado em memória e a secção de faturas é dividida em blocos que começam sempre
+ * numa linha de cabeçalho de fatura ({@code numero;data;nif}). Cada bloco é lido numa thread
+ * de um {@link ForkJoinPool} e os resultados são juntos pela ordem do ficheiro, pelo que as faturas
+ * e os erros reportados são os mesmos que na leitura sequencial.
+ * O ficheiro é descodificado em UTF-8, como em {@link FicheiroHandler}; ficheiros pequenos são lidos sequencialmente.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class ImportadorParalelo {
+    /**
+     * Tamanho a partir do qual compensa dividir o ficheiro em blocos.
+     */
+    private static final long TAMANHO_MINIMO_PARALELO = 4L * 1024 * 1024;
+
+    /**
+     * Tamanho máximo de cada bloco, para limitar a memória usada na descodificação.
+     */
+    private static final long TAMANHO_MAXIMO_BLOCO = 32L * 1024 * 1024;
+
+    private final FicheiroHandler ficheiroHandler;
+    private final int paralelismo;
+
+    /**
+     * Construtor que usa todos os processadores disponíveis.
+     *
+     * @param ficheiroHandler Handler usado para criar os produtos e para a leitura sequencial.
+     */
+    public ImportadorParalelo(FicheiroHandler ficheiroHandler) {
+        this(ficheiroHandler, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construtor com o número de threads indicado.
+     *
+     * @param ficheiroHandler Handler usado para criar os produtos e para a leitura sequencial.
+     * @param paralelismo Número de threads a usar.
+     */
+    public ImportadorParalelo(FicheiroHandler ficheiroHandler, int paralelismo) {
+        if (paralelismo < 1) {
+            throw new IllegalArgumentException("O paralelismo deve ser pelo menos 1.");
+        }
+        this.ficheiroHandler = ficheiroHandler;
+        this.paralelismo = paralelismo;
+    }
+
+    /**
+     * Carrega os clientes e as faturas do ficheiro, com o mesmo resultado que
+     * {@link FicheiroHandler#carregarClientesComFaturas(List)}.
+     *
+     * @param ficheiro Ficheiro a importar.
+     * @param faturas Lista de faturas que será preenchida com os dados do ficheiro.
+     * @return Lista de clientes carregados do ficheiro.
+     */
+    public List<Cliente> carregarClientesComFaturas(File ficheiro, List<Fatura> faturas) {
+        List<Cliente> clientes = new ArrayList<>();
+
+        if (!ficheiro.exists()) {
+            System.out.println("Ficheiro não encontrado. Criando um novo.");
+            return clientes;
+        }
+
+        try {
+            importar(ficheiro, new LeitorClientesFaturas.Ouvinte() {
+                @Override
+                public void cliente(Cliente cliente) {
+                    clientes.add(cliente);
+                }
+
+                @Override
+                public void fatura(Fatura fatura) {
+                    faturas.add(fatura);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Erro ao carregar dados do ficheiro: " + e.getMessage());
+        }
+        return clientes;
+    }
+
+    /**
+     * Lê o ficheiro e entrega ao ouvinte os clientes, as faturas e os erros, pela ordem do ficheiro.
+     * O ouvinte é sempre chamado na thread que invoca este método.
+     *
+     * @param ficheiro Ficheiro a importar.
+     * @param ouvinte Destino dos dados lidos.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    public void importar(File ficheiro, LeitorClientesFaturas.Ouvinte ouvinte) throws IOException {
+        if (paralelismo == 1 || ficheiro.length() < TAMANHO_MINIMO_PARALELO) {
+            ficheiroHandler.lerEmStreaming(ficheiro, ouvinte);
+            return;
+        }
+
+        try (FileChannel canal = FileChannel.open(ficheiro.toPath(), StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+
+            // Secção de clientes: lida sequencialmente até à linha "# Faturas"
+            long inicioFaturas = procurarSecaoFaturas(canal, tamanho);
+            MapaInteiro<Cliente> clientesPorNif = new MapaInteiro<>();
+            LeitorClientesFaturas leitorClientes = new LeitorClientesFaturas(ficheiroHandler, clientesPorNif, true, 0);
+            char[] cabecalho = descodificar(canal, 0, inicioFaturas);
+            leitorClientes.lerBloco(cabecalho, 0, cabecalho.length, ouvinte);
+            leitorClientes.terminar(ouvinte);
+
+            // Secção de faturas: dividida em blocos que começam em cabeçalhos de fatura
+            List<Long> limites = dividirEmBlocos(canal, inicioFaturas, tamanho);
+            int numBlocos = limites.size() - 1;
+
+            ForkJoinPool pool = new ForkJoinPool(paralelismo);
+            try {
+                // Primeira passagem: contar as linhas de cada bloco, para numerar os erros como na leitura sequencial
+                List<Callable<Integer>> contagens = new ArrayList<>();
+                for (int i = 0; i < numBlocos; i++) {
+                    long inicio = limites.get(i);
+                    long fim = limites.get(i + 1);
+                    contagens.add(() -> contarLinhas(canal, inicio, fim));
+                }
+                List<Future<Integer>> linhasPorBloco = pool.invokeAll(contagens);
+
+                // Segunda passagem: ler cada bloco
+                List<Callable<ResultadoBloco>> leituras = new ArrayList<>();
+                int linhasAnteriores = leitorClientes.getNumeroLinha();
+                for (int i = 0; i < numBlocos; i++) {
+                    long inicio = limites.get(i);
+                    long fim = limites.get(i + 1);
+                    int linhasAntes = linhasAnteriores;
+                    leituras.add(() -> lerBloco(canal, inicio, fim, clientesPorNif, linhasAntes));
+                    linhasAnteriores += linhasPorBloco.get(i).get();
+                }
+
+                // Juntar os resultados pela ordem do ficheiro
+                for (Future<ResultadoBloco> futuro : pool.invokeAll(leituras)) {
+                    futuro.get().entregar(ouvinte);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Importação interrompida.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Erro ao importar o ficheiro: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Resultado da leitura de um bloco: faturas e erros, pela ordem em que foram encontrados.
+     */
+    private static class ResultadoBloco implements LeitorClientesFaturas.Ouvinte {
+        private final List<Fatura> faturas = new ArrayList<>();
+        private final List<Integer> linhasErro = new ArrayList<>();
+        private final List<String> mensagensErro = new ArrayList<>();
+
+        @Override
+        public void cliente(Cliente cliente) {
+            // A secção de clientes é lida antes dos blocos
+        }
+
+        @Override
+        public void fatura(Fatura fatura) {
+            faturas.add(fatura);
+        }
+
+        @Override
+        public void erro(int numeroLinha, String mensagem) {
+            linhasErro.add(numeroLinha);
+            mensagensErro.add(mensagem);
+        }
+
+        /**
+         * Entrega os erros e as faturas ao ouvinte final.
+         */
+        void entregar(LeitorClientesFaturas.Ouvinte ouvinte) {
+            for (int i = 0; i < mensagensErro.size(); i++) {
+                ouvinte.erro(linhasErro.get(i), mensagensErro.get(i));
+            }
+            for (Fatura fatura : faturas) {
+                ouvinte.fatura(fatura);
+            }
+        }
+    }
+
+    private ResultadoBloco lerBloco(FileChannel canal, long inicio, long fim, MapaInteiro<Cliente> clientesPorNif,
+                                    int linhasAnteriores) throws IOException {
+        ResultadoBloco resultado = new ResultadoBloco();
+        LeitorClientesFaturas leitor = new LeitorClientesFaturas(ficheiroHandler, clientesPorNif, false, linhasAnteriores);
+        char[] caracteres = descodificar(canal, inicio, fim);
+        leitor.lerBloco(caracteres, 0, caracteres.length, resultado);
+        leitor.terminar(resultado);
+        return resultado;
+    }
+
+    private int contarLinhas(FileChannel canal, long inicio, long fim) throws IOException {
+        MappedByteBuffer bytes = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fim - inicio);
+        int linhas = 0;
+        int limite = bytes.limit();
+        for (int i = 0; i < limite; i++) {
+            if (bytes.get(i) == '\n') {
+                linhas++;
+            }
+        }
+        // Uma última linha sem quebra de linha também conta
+        if (limite > 0 && bytes.get(limite - 1) != '\n') {
+            linhas++;
+        }
+        return linhas;
+    }
+
+    private char[] descodificar(FileChannel canal, long inicio, long fim) throws IOException {
+        if (fim <= inicio) {
+            return new char[0];
+        }
+        MappedByteBuffer bytes = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fim - inicio);
+        try {
+            CharBuffer caracteres = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(bytes);
+            char[] resultado = new char[caracteres.remaining()];
+            caracteres.get(resultado);
+            return resultado;
+        } catch (CharacterCodingException e) {
+            throw new IOException("Erro ao descodificar o ficheiro: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Procura a linha "# Faturas" e devolve a posição a seguir a ela (ou o fim do ficheiro).
+     */
+    private long procurarSecaoFaturas(FileChannel canal, long tamanho) throws IOException {
+        LeitorBytes leitor = new LeitorBytes(canal, 0, tamanho);
+        byte[] linha;
+        while ((linha = leitor.proximaLinha()) != null) {
+            String texto = new String(linha, StandardCharsets.UTF_8).trim();
+            if (texto.startsWith("# Faturas")) {
+                return leitor.getPosicao();
+            }
+        }
+        return tamanho;
+    }
+
+    /**
+     * Divide a secção de faturas em blocos. Cada limite é o início de uma linha de cabeçalho de fatura,
+     * exceto o primeiro (início da secção) e o último (fim do ficheiro).
+     */
+    private List<Long> dividirEmBlocos(FileChannel canal, long inicio, long tamanho) throws IOException {
+        long tamanhoBloco = Math.min(TAMANHO_MAXIMO_BLOCO, Math.max(1, (tamanho - inicio) / (paralelismo * 4L)));
+        List<Long> limites = new ArrayList<>();
+        limites.add(inicio);
+
+        long alvo = inicio + tamanhoBloco;
+        while (alvo < tamanho) {
+            long limite = procurarCabecalhoFatura(canal, alvo, tamanho);
+            if (limite >= tamanho) {
+                break;
+            }
+            limites.add(limite);
+            alvo = limite + tamanhoBloco;
+        }
+        limites.add(tamanho);
+        return limites;
+    }
+
+    /**
+     * Procura o início da primeira linha de cabeçalho de fatura que comece depois da posição indicada.
+     */
+    private long procurarCabecalhoFatura(FileChannel canal, long desde, long tamanho) throws IOException {
+        LeitorBytes leitor = new LeitorBytes(canal, desde, tamanho);
+        leitor.proximaLinha(); // Descartar o resto da linha onde a posição calhou
+        TokenizadorLinha tokenizador = new TokenizadorLinha();
+
+        long inicioLinha = leitor.getPosicao();
+        byte[] linha;
+        while ((linha = leitor.proximaLinha()) != null) {
+            char[] caracteres = new String(linha, StandardCharsets.UTF_8).trim().toCharArray();
+            if (caracteres.length > 0 && caracteres[0] != '#') {
+                tokenizador.dividir(caracteres, 0, caracteres.length);
+                if (tokenizador.getNumCampos() == 3) {
+                    return inicioLinha;
+                }
+            }
+            inicioLinha = leitor.getPosicao();
+        }
+        return tamanho;
+    }
+
+    /**
+     * Lê linhas de bytes de um canal a partir de uma posição, através de um buffer pequeno.
+     */
+    private static class LeitorBytes {
+        private final FileChannel canal;
+        private final long fim;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        private long posicaoBuffer;
+        private long posicao;
+
+        LeitorBytes(FileChannel canal, long inicio, long fim) {
+            this.canal = canal;
+            this.fim = fim;
+            this.posicao = inicio;
+            this.posicaoBuffer = inicio;
+            buffer.limit(0);
+        }
+
+        long getPosicao() {
+            return posicao;
+        }
+
+        byte[] proximaLinha() throws IOException {
+            if (posicao >= fim) {
+                return null;
+            }
+            ByteArrayOutputStream linha = new ByteArrayOutputStream();
+            while (posicao < fim) {
+                if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    posicaoBuffer = posicao;
+                    int lidos = canal.read(buffer, posicaoBuffer);
+                    buffer.flip();
+                    if (lidos <= 0) {
+                        posicao = fim;
+                        break;
+                    }
+                }
+                byte b = buffer.get();
+                posicao++;
+                if (b == '\n') {
+                    break;
+                }
+                linha.write(b);
+            }
+            return linha.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Índice das faturas por data.
+ * <p>
+ * Guarda as faturas de cada dia e, para cada dia, o número de faturas e os totais sem IVA e de IVA em
+ * árvores de Fenwick (somas prefixas), de modo que os totais de qualquer período são obtidos em tempo
+ * logarítmico e a lista de faturas de um período só percorre os dias desse período, independentemente
+ * do tamanho do histórico. Só usa os totais guardados em cada fatura, sem ler os produtos.
+ * <p>
+ * É mantido atualizado como ouvinte do {@link RepositorioDados}.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class IndiceDatas implements RepositorioDados.Ouvinte {
+    public static final int TOTAL_FATURAS = 0;
+    public static final int TOTAL_SEM_IVA = 1;
+    public static final int TOTAL_IVA = 2;
+
+    private static final int CAPACIDADE_INICIAL = 1024;
+
+    private final MapaInteiro<List<Fatura>> faturasPorDia = new MapaInteiro<>();
+    private int primeiroDia;
+    private int diaMinimo = Integer.MAX_VALUE;
+    private int diaMaximo = Integer.MIN_VALUE;
+    // Árvores de Fenwick indexadas pelo dia - primeiroDia + 1
+    private long[] arvoreFaturas = new long[0];
+    private long[] arvoreSemIVA = new long[0];
+    private long[] arvoreIva = new long[0];
+
+    /**
+     * Construtor do índice.
+     *
+     * @param faturas Faturas a indexar.
+     */
+    public IndiceDatas(List<Fatura> faturas) {
+        indexar(faturas);
+    }
+
+    @Override
+    public void faturaAdicionada(Fatura fatura) {
+        int dia = (int) fatura.getData().toEpochDay();
+        List<Fatura> doDia = faturasPorDia.get(dia);
+        if (doDia == null) {
+            doDia = new ArrayList<>(2);
+            faturasPorDia.put(dia, doDia);
+        }
+        doDia.add(fatura);
+        diaMinimo = Math.min(diaMinimo, dia);
+        diaMaximo = Math.max(diaMaximo, dia);
+        if (dia < primeiroDia || dia - primeiroDia >= arvoreFaturas.length - 1) {
+            reconstruirArvores();
+        } else {
+            somar(dia, fatura, 1);
+        }
+    }
+
+    @Override
+    public void faturaRetirada(Fatura fatura) {
+        int dia = (int) fatura.getData().toEpochDay();
+        List<Fatura> doDia = faturasPorDia.get(dia);
+        if (doDia == null || !doDia.remove(fatura)) {
+            return;
+        }
+        if (doDia.isEmpty()) {
+            faturasPorDia.remove(dia);
+        }
+        somar(dia, fatura, -1);
+    }
+
+    @Override
+    public void faturasSubstituidas(List<Fatura> faturas) {
+        faturasPorDia.limpar();
+        diaMinimo = Integer.MAX_VALUE;
+        diaMaximo = Integer.MIN_VALUE;
+        indexar(faturas);
+    }
+
+    /**
+     * Obtém as faturas de um período, por ordem de data.
+     *
+     * @param inicio Primeiro dia do período (inclusive).
+     * @param fim Último dia do período (inclusive).
+     * @return Faturas do período, apenas para leitura.
+     */
+    public List<Fatura> getFaturas(LocalDate inicio, LocalDate fim) {
+        List<Fatura> resultado = new ArrayList<>();
+        paraCadaFatura(inicio, fim, resultado::add);
+        return Collections.unmodifiableList(resultado);
+    }
+
+    /**
+     * Percorre as faturas de um período, por ordem de data, sem as copiar para uma lista.
+     *
+     * @param inicio Primeiro dia do período (inclusive).
+     * @param fim Último dia do período (inclusive).
+     * @param acao Ação a executar para cada fatura.
+     */
+    public void paraCadaFatura(LocalDate inicio, LocalDate fim, Consumer<Fatura> acao) {
+        int de = (int) Math.max(inicio.toEpochDay(), diaMinimo);
+        int ate = (int) Math.min(fim.toEpochDay(), diaMaximo);
+        for (int dia = de; dia <= ate; dia++) {
+            List<Fatura> doDia = faturasPorDia.get(dia);
+            if (doDia != null) {
+                for (Fatura fatura : doDia) {
+                    acao.accept(fatura);
+                }
+            }
+        }
+    }
+
+    /**
+     * Obtém o número de faturas e os totais de um período.
+     *
+     * @param inicio Primeiro dia do período (inclusive).
+     * @param fim Último dia do período (inclusive).
+     * @return Número de faturas, total sem IVA e total de IVA (em cêntimos), nas posições
+     * {@link #TOTAL_FATURAS}, {@link #TOTAL_SEM_IVA} e {@link #TOTAL_IVA}.
+     */
+    public long[] getTotais(LocalDate inicio, LocalDate fim) {
+        long[] totais = new long[3];
+        long de = Math.max(inicio.toEpochDay(), primeiroDia);
+        long ate = Math.min(fim.toEpochDay(), (long) primeiroDia + arvoreFaturas.length - 2);
+        if (de > ate) {
+            return totais;
+        }
+        int posicaoFim = (int) (ate - primeiroDia + 1);
+        int posicaoInicio = (int) (de - primeiroDia);
+        totais[TOTAL_FATURAS] = prefixo(arvoreFaturas, posicaoFim) - prefixo(arvoreFaturas, posicaoInicio);
+        totais[TOTAL_SEM_IVA] = prefixo(arvoreSemIVA, posicaoFim) - prefixo(arvoreSemIVA, posicaoInicio);
+        totais[TOTAL_IVA] = prefixo(arvoreIva, posicaoFim) - prefixo(arvoreIva, posicaoInicio);
+        return totais;
+    }
+
+    /**
+     * Obtém o número de faturas e os totais de um mês.
+     *
+     * @param ano Ano.
+     * @param mes Mês (1 a 12).
+     * @return Totais no formato de {@link #getTotais(LocalDate, LocalDate)}.
+     */
+    public long[] getTotaisDoMes(int ano, int mes) {
+        LocalDate inicio = LocalDate.of(ano, mes, 1);
+        return getTotais(inicio, inicio.plusMonths(1).minusDays(1));
+    }
+
+    private void indexar(List<Fatura> faturas) {
+        for (Fatura fatura : faturas) {
+            int dia = (int) fatura.getData().toEpochDay();
+            List<Fatura> doDia = faturasPorDia.get(dia);
+            if (doDia == null) {
+                doDia = new ArrayList<>(2);
+                faturasPorDia.put(dia, doDia);
+            }
+            doDia.add(fatura);
+            diaMinimo = Math.min(diaMinimo, dia);
+            diaMaximo = Math.max(diaMaximo, dia);
+        }
+        reconstruirArvores();
+    }
+
+    /**
+     * Cria as árvores com espaço para todos os dias entre o mínimo e o máximo (com folga para
+     * as datas seguintes) e volta a somar todas as faturas.
+     */
+    private void reconstruirArvores() {
+        if (faturasPorDia.tamanho() == 0) {
+            primeiroDia = 0;
+            arvoreFaturas = new long[0];
+            arvoreSemIVA = new long[0];
+            arvoreIva = new long[0];
+            return;
+        }
+        int dias = diaMaximo - diaMinimo + 1;
+        int capacidade = Math.max(CAPACIDADE_INICIAL, Integer.highestOneBit(dias) << 1);
+        primeiroDia = diaMinimo - (capacidade - dias) / 4;
+        arvoreFaturas = new long[capacidade + 1];
+        arvoreSemIVA = new long[capacidade + 1];
+        arvoreIva = new long[capacidade + 1];
+        faturasPorDia.paraCada((dia, doDia) -> {
+            for (Fatura fatura : doDia) {
+                somar(dia, fatura, 1);
+            }
+        });
+    }
+
+    private void somar(int dia, Fatura fatura, int sinal) {
+        long semIVA = sinal * fatura.getTotalSemIVACentimos();
+        long iva = sinal * fatura.getTotalIvaCentimos();
+        for (int i = dia - primeiroDia + 1; i < arvoreFaturas.length; i += i & -i) {
+            arvoreFaturas[i] += sinal;
+            arvoreSemIVA[i] += semIVA;
+            arvoreIva[i] += iva;
+        }
+    }
+
+    private static long prefixo(long[] arvore, int posicao) {
+        long soma = 0;
+        for (int i = posicao; i > 0; i -= i & -i) {
+            soma += arvore[i];
+        }
+        return soma;
+    }
+}
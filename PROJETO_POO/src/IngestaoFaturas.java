@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Classe que cria faturas em lote a partir de {@link EspecificacaoFatura}s, sem interação com o utilizador.
+ * <p>
+ * A ingestão tem duas fases. Na primeira, as especificações são validadas em paralelo (o cliente tem de existir
+ * e os produtos são criados com as validações de {@link ProdutoAlimentar}, {@link ProdutoFarmacia} e do ficheiro
+ * de clientes) e as faturas válidas são criadas, ainda sem número. Na segunda, com o bloqueio de escrita
+ * do repositório, as faturas aceites recebem números consecutivos ({@link RepositorioDados#reservarNumerosFatura(int)})
+ * e são registadas no journal numa única escrita sincronizada com o disco ({@link FicheiroJournal#registarLote(List)})
+ * antes de serem adicionadas ao repositório.
+ * As especificações inválidas são rejeitadas sem impedir as restantes.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class IngestaoFaturas {
+    /**
+     * Número de especificações a partir do qual compensa validar em paralelo.
+     */
+    private static final int TAMANHO_MINIMO_PARALELO = 256;
+
+    private final RepositorioDados repositorio;
+    private final FicheiroJournal journal;
+    private final int paralelismo;
+
+    /**
+     * Construtor que usa todos os processadores disponíveis na validação.
+     *
+     * @param repositorio Repositório onde as faturas são adicionadas.
+     * @param journal Journal onde o lote é registado.
+     */
+    public IngestaoFaturas(RepositorioDados repositorio, FicheiroJournal journal) {
+        this(repositorio, journal, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construtor com o número de threads indicado para a validação.
+     *
+     * @param repositorio Repositório onde as faturas são adicionadas.
+     * @param journal Journal onde o lote é registado.
+     * @param paralelismo Número de threads a usar.
+     */
+    public IngestaoFaturas(RepositorioDados repositorio, FicheiroJournal journal, int paralelismo) {
+        if (paralelismo < 1) {
+            throw new IllegalArgumentException("O paralelismo deve ser pelo menos 1.");
+        }
+        this.repositorio = repositorio;
+        this.journal = journal;
+        this.paralelismo = paralelismo;
+    }
+
+    /**
+     * Resultado de uma ingestão: as faturas criadas e as mensagens das especificações rejeitadas.
+     */
+    public static final class Resultado {
+        private final List<Fatura> faturas;
+        private final List<String> erros;
+
+        private Resultado(List<Fatura> faturas, List<String> erros) {
+            this.faturas = Collections.unmodifiableList(faturas);
+            this.erros = Collections.unmodifiableList(erros);
+        }
+
+        /**
+         * Obtém as faturas criadas, já numeradas, pela ordem das especificações.
+         *
+         * @return Lista de faturas criadas.
+         */
+        public List<Fatura> getFaturas() {
+            return faturas;
+        }
+
+        /**
+         * Obtém as mensagens de erro das especificações rejeitadas, indicando a posição de cada uma no lote
+         * (a começar em 1).
+         *
+         * @return Lista de mensagens.
+         */
+        public List<String> getErros() {
+            return erros;
+        }
+
+        public int getNumRejeitadas() {
+            return erros.size();
+        }
+    }
+
+    /**
+     * Valida as especificações e cria as faturas válidas, guardando-as de forma durável numa única escrita.
+     *
+     * @param especificacoes Especificações das faturas, pela ordem em que devem ser numeradas.
+     * @return Faturas criadas e erros das especificações rejeitadas.
+     * @throws IOException se não for possível registar o lote no journal; nesse caso nenhuma fatura é adicionada.
+     */
+    public Resultado ingerir(List<EspecificacaoFatura> especificacoes) throws IOException {
+        int total = especificacoes.size();
+        Fatura[] validadas = new Fatura[total];
+        String[] erros = new String[total];
+        validar(especificacoes, validadas, erros);
+
+        List<Fatura> aceites = new ArrayList<>(total);
+        List<String> mensagens = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            if (validadas[i] != null) {
+                aceites.add(validadas[i]);
+            } else {
+                mensagens.add("Fatura " + (i + 1) + ": " + erros[i]);
+            }
+        }
+
+        if (!aceites.isEmpty()) {
+            confirmar(aceites);
+            journal.compactarSeNecessario(repositorio);
+        }
+        return new Resultado(aceites, mensagens);
+    }
+
+    /**
+     * Numera as faturas, regista-as no journal e adiciona-as ao repositório, como uma única operação.
+     */
+    private void confirmar(List<Fatura> aceites) throws IOException {
+        Lock escrita = repositorio.getBloqueio().writeLock();
+        escrita.lock();
+        try {
+            int primeiro = repositorio.reservarNumerosFatura(aceites.size());
+            int numero = primeiro;
+            for (Fatura fatura : aceites) {
+                fatura.setNumero(numero++);
+            }
+            try {
+                journal.registarLote(aceites);
+            } catch (IOException | RuntimeException e) {
+                // O lote é rejeitado: os números voltam a estar livres, para a numeração não ficar com um intervalo.
+                // Com o bloqueio de escrita, nenhuma outra reserva foi feita entretanto
+                repositorio.libertarNumerosFatura(primeiro, aceites.size());
+                throw e;
+            }
+            repositorio.adicionarFaturas(aceites);
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    /**
+     * Valida as especificações, em paralelo se forem muitas. Cada posição recebe a fatura criada ou o erro.
+     */
+    private void validar(List<EspecificacaoFatura> especificacoes, Fatura[] validadas, String[] erros)
+            throws IOException {
+        int total = especificacoes.size();
+        if (paralelismo == 1 || total < TAMANHO_MINIMO_PARALELO) {
+            validar(especificacoes, 0, total, validadas, erros);
+            return;
+        }
+
+        int numBlocos = Math.min(paralelismo * 4, total);
+        List<Callable<Void>> tarefas = new ArrayList<>(numBlocos);
+        for (int b = 0; b < numBlocos; b++) {
+            int inicio = (int) ((long) total * b / numBlocos);
+            int fim = (int) ((long) total * (b + 1) / numBlocos);
+            tarefas.add(() -> {
+                validar(especificacoes, inicio, fim, validadas, erros);
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(paralelismo);
+        try {
+            for (Future<Void> futuro : pool.invokeAll(tarefas)) {
+                futuro.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ingestão interrompida.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Erro ao validar as faturas: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void validar(List<EspecificacaoFatura> especificacoes, int inicio, int fim,
+                         Fatura[] validadas, String[] erros) {
+        for (int i = inicio; i < fim; i++) {
+            try {
+                validadas[i] = criarFatura(especificacoes.get(i));
+            } catch (IllegalArgumentException e) {
+                erros[i] = e.getMessage();
+            }
+        }
+    }
+
+    /**
+     * Cria a fatura de uma especificação, ainda sem número.
+     *
+     * @throws IllegalArgumentException se a especificação for inválida.
+     */
+    private Fatura criarFatura(EspecificacaoFatura especificacao) {
+        if (especificacao.getData() == null) {
+            throw new IllegalArgumentException("A data da fatura é obrigatória.");
+        }
+        Cliente cliente = repositorio.procurarCliente(especificacao.getNumeroContribuinte());
+        if (cliente == null) {
+            throw new IllegalArgumentException("Cliente com número de contribuinte "
+                    + especificacao.getNumeroContribuinte() + " não encontrado.");
+        }
+        Fatura fatura = new Fatura(0, cliente, especificacao.getData());
+        fatura.setProdutos(especificacao.criarProdutos());
+        return fatura;
+    }
+}
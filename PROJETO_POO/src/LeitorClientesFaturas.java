@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Classe que lê o ficheiro de clientes em streaming, linha a linha.
+ * Em vez de guardar tudo em listas, entrega cada cliente e cada fatura completa (com os seus produtos)
+ * a um {@link Ouvinte}, assim que são lidos. A memória usada não depende do tamanho do ficheiro:
+ * apenas a fatura em leitura e o índice de clientes ficam em memória.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class LeitorClientesFaturas {
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    /**
+     * Recebe os dados lidos do ficheiro de clientes.
+     */
+    public interface Ouvinte {
+        /**
+         * Chamado para cada cliente lido.
+         *
+         * @param cliente Cliente lido.
+         */
+        void cliente(Cliente cliente);
+
+        /**
+         * Chamado para cada fatura lida, já com todos os seus produtos.
+         *
+         * @param fatura Fatura lida.
+         */
+        void fatura(Fatura fatura);
+
+        /**
+         * Chamado para cada linha inválida. Por omissão, escreve a mensagem na consola.
+         *
+         * @param numeroLinha Número da linha no ficheiro (a começar em 1).
+         * @param mensagem Descrição do erro.
+         */
+        default void erro(int numeroLinha, String mensagem) {
+            System.out.println(mensagem);
+        }
+    }
+
+    private final FicheiroHandler ficheiroHandler;
+    private final TokenizadorLinha tokenizador = new TokenizadorLinha();
+    private final MapaInteiro<Cliente> clientesPorNif;
+    private final List<Produto> produtosAtuais = new ArrayList<>();
+    private boolean lendoClientes;
+    private Fatura faturaAtual;
+    private int numeroLinha;
+
+    /**
+     * Construtor para ler um ficheiro completo, a começar pela secção de clientes.
+     *
+     * @param ficheiroHandler Handler usado para criar os produtos.
+     */
+    public LeitorClientesFaturas(FicheiroHandler ficheiroHandler) {
+        this(ficheiroHandler, new MapaInteiro<>(), true, 0);
+    }
+
+    /**
+     * Construtor para ler uma parte de um ficheiro, por exemplo a partir do meio da secção de faturas.
+     *
+     * @param ficheiroHandler Handler usado para criar os produtos.
+     * @param clientesPorNif Clientes já conhecidos, indexados pelo número de contribuinte.
+     * @param lendoClientes true se a leitura começa na secção de clientes.
+     * @param linhasAnteriores Número de linhas do ficheiro antes da parte a ler.
+     */
+    LeitorClientesFaturas(FicheiroHandler ficheiroHandler, MapaInteiro<Cliente> clientesPorNif,
+                          boolean lendoClientes, int linhasAnteriores) {
+        this.ficheiroHandler = ficheiroHandler;
+        this.clientesPorNif = clientesPorNif;
+        this.lendoClientes = lendoClientes;
+        this.numeroLinha = linhasAnteriores;
+    }
+
+    /**
+     * Lê todo o conteúdo do reader, entregando os clientes e faturas ao ouvinte.
+     *
+     * @param reader Origem dos caracteres.
+     * @param ouvinte Destino dos dados lidos.
+     * @throws IOException se ocorrer um erro de leitura.
+     */
+    public void ler(Reader reader, Ouvinte ouvinte) throws IOException {
+        char[] buffer = new char[TAMANHO_BUFFER];
+        int inicio = 0;
+        int fim = 0;
+        int lidos;
+
+        while ((lidos = reader.read(buffer, fim, buffer.length - fim)) != -1) {
+            fim += lidos;
+            int inicioLinha = 0;
+            for (int i = inicio; i < fim; i++) {
+                if (buffer[i] == '\n') {
+                    processarLinha(buffer, inicioLinha, i, ouvinte);
+                    inicioLinha = i + 1;
+                }
+            }
+
+            // Mover a linha incompleta para o início do buffer (ou aumentá-lo se a linha não couber)
+            int restante = fim - inicioLinha;
+            if (restante == buffer.length) {
+                char[] maior = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, maior, 0, restante);
+                buffer = maior;
+            } else {
+                System.arraycopy(buffer, inicioLinha, buffer, 0, restante);
+            }
+            inicio = restante;
+            fim = restante;
+        }
+
+        if (fim > 0) {
+            processarLinha(buffer, 0, fim, ouvinte);
+        }
+        terminar(ouvinte);
+    }
+
+    /**
+     * Processa todas as linhas de um bloco de caracteres já em memória.
+     * A última linha não precisa de terminar com uma quebra de linha.
+     * A fatura em leitura no fim do bloco só é entregue ao chamar {@link #terminar(Ouvinte)}.
+     *
+     * @param caracteres Caracteres do bloco.
+     * @param inicio Posição do início do bloco.
+     * @param fim Posição a seguir ao fim do bloco.
+     * @param ouvinte Destino dos dados lidos.
+     */
+    void lerBloco(char[] caracteres, int inicio, int fim, Ouvinte ouvinte) {
+        int inicioLinha = inicio;
+        for (int i = inicio; i < fim; i++) {
+            if (caracteres[i] == '\n') {
+                processarLinha(caracteres, inicioLinha, i, ouvinte);
+                inicioLinha = i + 1;
+            }
+        }
+        if (inicioLinha < fim) {
+            processarLinha(caracteres, inicioLinha, fim, ouvinte);
+        }
+    }
+
+    /**
+     * Processa uma linha do ficheiro.
+     *
+     * @param caracteres Caracteres onde está a linha.
+     * @param inicio Posição do início da linha.
+     * @param fim Posição a seguir ao fim da linha (sem a quebra de linha).
+     * @param ouvinte Destino dos dados lidos.
+     */
+    void processarLinha(char[] caracteres, int inicio, int fim, Ouvinte ouvinte) {
+        numeroLinha++;
+
+        // Ignorar espaços nas pontas (incluindo o '\r' das quebras de linha do Windows)
+        while (inicio < fim && Character.isWhitespace(caracteres[inicio])) {
+            inicio++;
+        }
+        while (fim > inicio && Character.isWhitespace(caracteres[fim - 1])) {
+            fim--;
+        }
+
+        // Ignorar comentários e linhas vazias
+        if (inicio == fim) {
+            return;
+        }
+        if (caracteres[inicio] == '#') {
+            if (new String(caracteres, inicio, fim - inicio).startsWith("# Faturas")) {
+                terminar(ouvinte);
+                lendoClientes = false;
+            }
+            return;
+        }
+
+        tokenizador.dividir(caracteres, inicio, fim);
+        try {
+            if (lendoClientes) {
+                lerCliente(ouvinte);
+            } else if (tokenizador.getNumCampos() == 3) {
+                lerCabecalhoFatura(ouvinte);
+            } else if (tokenizador.getNumCampos() >= 7 && faturaAtual != null) {
+                lerProduto();
+            } else {
+                ouvinte.erro(numeroLinha, "Linha inválida para produto: " + new String(caracteres, inicio, fim - inicio));
+            }
+        } catch (RuntimeException e) {
+            ouvinte.erro(numeroLinha, "Linha " + numeroLinha + " ignorada: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Entrega ao ouvinte a fatura que está a ser lida, se existir.
+     *
+     * @param ouvinte Destino dos dados lidos.
+     */
+    void terminar(Ouvinte ouvinte) {
+        if (faturaAtual != null) {
+            faturaAtual.setProdutos(produtosAtuais);
+            ouvinte.fatura(faturaAtual);
+            faturaAtual = null;
+            produtosAtuais.clear();
+        }
+    }
+
+    /**
+     * Obtém o número de linhas processadas até agora (incluindo as linhas anteriores indicadas no construtor).
+     *
+     * @return Número de linhas.
+     */
+    int getNumeroLinha() {
+        return numeroLinha;
+    }
+
+    private void lerCliente(Ouvinte ouvinte) {
+        if (tokenizador.getNumCampos() != 3) {
+            ouvinte.erro(numeroLinha, "Linha inválida para cliente: " + linhaAtual());
+            return;
+        }
+        int numeroContribuinte = tokenizador.inteiro(2);
+        Cliente cliente = new Cliente(tokenizador.texto(0), tokenizador.texto(1), numeroContribuinte);
+        if (!clientesPorNif.contem(numeroContribuinte)) {
+            clientesPorNif.put(numeroContribuinte, cliente);
+        }
+        ouvinte.cliente(cliente);
+    }
+
+    private void lerCabecalhoFatura(Ouvinte ouvinte) {
+        terminar(ouvinte);
+
+        int numeroFatura = tokenizador.inteiro(0);
+        LocalDate data = tokenizador.data(1);
+        int numeroContribuinte = tokenizador.inteiro(2);
+
+        Cliente cliente = clientesPorNif.get(numeroContribuinte);
+        if (cliente == null) {
+            ouvinte.erro(numeroLinha, "Cliente com número de contribuinte " + numeroContribuinte + " não encontrado. Fatura ignorada.");
+            return;
+        }
+        faturaAtual = new Fatura(numeroFatura, cliente, data);
+    }
+
+    private void lerProduto() {
+        String categoria = tokenizador.textoOuNulo(6);
+        String campo7 = tokenizador.getNumCampos() > 7 ? tokenizador.texto(7) : null;
+        String campo8 = tokenizador.getNumCampos() > 8 ? tokenizador.texto(8) : null;
+
+        produtosAtuais.add(ficheiroHandler.criarProduto(tokenizador.texto(3), tokenizador.texto(0),
+                tokenizador.texto(1), tokenizador.texto(2), tokenizador.decimal(4), tokenizador.inteiro(5),
+                categoria, campo7, campo8));
+    }
+
+    private String linhaAtual() {
+        StringBuilder linha = new StringBuilder();
+        for (int i = 0; i < tokenizador.getNumCampos(); i++) {
+            if (i > 0) {
+                linha.append(';');
+            }
+            linha.append(tokenizador.texto(i));
+        }
+        return linha.toString();
+    }
+}
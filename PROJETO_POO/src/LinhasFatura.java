@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Linhas (produtos) de uma fatura, guardadas em arrays de tipos primitivos em vez de um objeto por linha.
+ * <p>
+ * Cada linha ocupa 17 bytes: o identificador da {@link DefinicaoProduto} no {@link CatalogoProdutos}, a quantidade,
+ * o valor unitário em cêntimos e o perfil de IVA da {@link TabelaIVA} (que indica também se o produto é alimentar
+ * e a sua classe de taxa). Os valores e o imposto de cada linha são calculados diretamente a partir dos arrays,
+ * sem criar objetos, e {@link #comoLista()} apresenta as linhas como objetos {@link Produto} criados a pedido
+ * (vistas que partilham a definição e que não alteram a fatura se forem modificadas).
+ * <p>
+ * Na serialização, os identificadores são substituídos pelas definições, que são novamente registadas
+ * no catálogo ao ler.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public final class LinhasFatura implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int[] SEM_INTS = new int[0];
+    private static final long[] SEM_LONGS = new long[0];
+    private static final byte[] SEM_BYTES = new byte[0];
+
+    private transient int tamanho;
+    private transient int[] definicoes; // Identificador da definição de cada linha no CatalogoProdutos
+    private transient int[] quantidades;
+    private transient long[] valoresUnitarios; // Valor unitário de cada linha, em cêntimos
+    private transient byte[] perfis; // Perfil de IVA de cada linha na TabelaIVA
+
+    /**
+     * Cria as linhas de uma fatura sem produtos.
+     */
+    public LinhasFatura() {
+        definicoes = SEM_INTS;
+        quantidades = SEM_INTS;
+        valoresUnitarios = SEM_LONGS;
+        perfis = SEM_BYTES;
+    }
+
+    /**
+     * Cria as linhas de uma fatura com os produtos indicados, com a capacidade exata.
+     *
+     * @param produtos Produtos da fatura.
+     */
+    public LinhasFatura(List<Produto> produtos) {
+        reservar(produtos.size());
+        for (Produto produto : produtos) {
+            definir(tamanho++, produto);
+        }
+    }
+
+    /**
+     * Obtém o número de linhas.
+     *
+     * @return Número de linhas.
+     */
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Obtém a definição do produto de uma linha.
+     *
+     * @param indice Posição da linha.
+     * @return Definição partilhada do produto.
+     */
+    public DefinicaoProduto getDefinicao(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        return CatalogoProdutos.getDefinicao(definicoes[indice]);
+    }
+
+    public int getQuantidade(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        return quantidades[indice];
+    }
+
+    /**
+     * Obtém o valor unitário de uma linha, em cêntimos.
+     *
+     * @param indice Posição da linha.
+     * @return Valor unitário em cêntimos.
+     */
+    public long getValorUnitarioCentimos(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        return valoresUnitarios[indice];
+    }
+
+    /**
+     * Obtém o valor sem IVA de uma linha (valor unitário vezes a quantidade), em cêntimos.
+     *
+     * @param indice Posição da linha.
+     * @return Valor sem IVA em cêntimos.
+     */
+    public long getValorSemIVACentimos(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        return Dinheiro.multiplicar(valoresUnitarios[indice], quantidades[indice]);
+    }
+
+    /**
+     * Obtém o imposto de uma linha, em cêntimos, arredondado ao cêntimo (ver {@link Dinheiro}).
+     *
+     * @param indice Posição da linha.
+     * @param localizacao Localização do cliente.
+     * @return Imposto em cêntimos.
+     */
+    public long getImpostoCentimos(int indice, Localizacao localizacao) {
+        return Dinheiro.aplicarTaxa(getValorSemIVACentimos(indice),
+                TabelaIVA.taxasDoPerfil(perfis[indice])[localizacao.ordinal()]);
+    }
+
+    /**
+     * Verifica se o produto de uma linha é alimentar.
+     *
+     * @param indice Posição da linha.
+     * @return true se for alimentar, false se for de farmácia.
+     */
+    public boolean isAlimentar(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        return TabelaIVA.isPerfilAlimentar(perfis[indice]);
+    }
+
+    /**
+     * Obtém a classe de taxa do produto de uma linha.
+     *
+     * @param indice Posição da linha.
+     * @return Classe de taxa, ou null se o produto for de farmácia.
+     */
+    public ClasseTaxa getClasseTaxa(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        return TabelaIVA.classeDoPerfil(perfis[indice]);
+    }
+
+    /**
+     * Cria o objeto {@link Produto} correspondente a uma linha.
+     *
+     * @param indice Posição da linha.
+     * @return Novo produto com a definição, o valor e a quantidade da linha.
+     */
+    public Produto getProduto(int indice) {
+        return Produto.criar(getDefinicao(indice), valoresUnitarios[indice], quantidades[indice]);
+    }
+
+    /**
+     * Obtém uma vista das linhas como lista de produtos, apenas para leitura.
+     * Cada acesso cria um novo objeto {@link Produto}; alterá-lo não altera a fatura.
+     *
+     * @return Lista de produtos.
+     */
+    public List<Produto> comoLista() {
+        return new Vista();
+    }
+
+    /**
+     * Adiciona uma linha no fim.
+     *
+     * @param produto Produto da nova linha.
+     */
+    void adicionar(Produto produto) {
+        if (tamanho == definicoes.length) {
+            reservar(Math.max(4, tamanho + (tamanho >> 1)));
+        }
+        definir(tamanho++, produto);
+    }
+
+    /**
+     * Substitui uma linha.
+     *
+     * @param indice Posição da linha.
+     * @param produto Novo produto.
+     */
+    void substituir(int indice, Produto produto) {
+        Objects.checkIndex(indice, tamanho);
+        definir(indice, produto);
+    }
+
+    /**
+     * Remove uma linha, deslocando as seguintes.
+     *
+     * @param indice Posição da linha.
+     */
+    void remover(int indice) {
+        Objects.checkIndex(indice, tamanho);
+        int seguintes = tamanho - indice - 1;
+        System.arraycopy(definicoes, indice + 1, definicoes, indice, seguintes);
+        System.arraycopy(quantidades, indice + 1, quantidades, indice, seguintes);
+        System.arraycopy(valoresUnitarios, indice + 1, valoresUnitarios, indice, seguintes);
+        System.arraycopy(perfis, indice + 1, perfis, indice, seguintes);
+        tamanho--;
+    }
+
+    private void definir(int indice, Produto produto) {
+        DefinicaoProduto definicao = produto.getDefinicao();
+        definicoes[indice] = definicao.getId();
+        quantidades[indice] = produto.getQuantidade();
+        valoresUnitarios[indice] = produto.getValorUnitarioCentimos();
+        perfis[indice] = (byte) definicao.getPerfilIVA();
+    }
+
+    private void reservar(int capacidade) {
+        definicoes = Arrays.copyOf(definicoes == null ? SEM_INTS : definicoes, capacidade);
+        quantidades = Arrays.copyOf(quantidades == null ? SEM_INTS : quantidades, capacidade);
+        valoresUnitarios = Arrays.copyOf(valoresUnitarios == null ? SEM_LONGS : valoresUnitarios, capacidade);
+        perfis = Arrays.copyOf(perfis == null ? SEM_BYTES : perfis, capacidade);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            out.writeObject(CatalogoProdutos.getDefinicao(definicoes[i]));
+            out.writeInt(quantidades[i]);
+            out.writeLong(valoresUnitarios[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int numLinhas = in.readInt();
+        if (numLinhas < 0) {
+            throw new IOException("Número de linhas inválido: " + numLinhas);
+        }
+        reservar(numLinhas);
+        for (int i = 0; i < numLinhas; i++) {
+            // A definição lida já é a partilhada pelo catálogo (ver DefinicaoProduto.readResolve)
+            DefinicaoProduto definicao = (DefinicaoProduto) in.readObject();
+            definicoes[i] = definicao.getId();
+            quantidades[i] = in.readInt();
+            valoresUnitarios[i] = in.readLong();
+            perfis[i] = (byte) definicao.getPerfilIVA();
+        }
+        tamanho = numLinhas;
+    }
+
+    /**
+     * Vista das linhas como lista de produtos.
+     */
+    private final class Vista extends AbstractList<Produto> implements RandomAccess {
+        @Override
+        public Produto get(int indice) {
+            return getProduto(indice);
+        }
+
+        @Override
+        public int size() {
+            return tamanho;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Localizações fiscais possíveis para um cliente.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public enum Localizacao {
+    CONTINENTE("Continente"),
+    MADEIRA("Madeira"),
+    ACORES("Açores");
+
+    private final String nome;
+
+    Localizacao(String nome) {
+        this.nome = nome;
+    }
+
+    /**
+     * Obtém o nome da localização, tal como aparece nos ficheiros e no menu.
+     *
+     * @return Nome da localização.
+     */
+    public String getNome() {
+        return nome;
+    }
+
+    /**
+     * Obtém a localização com o nome indicado, ignorando maiúsculas e minúsculas.
+     *
+     * @param texto Nome da localização ("Continente", "Madeira" ou "Açores").
+     * @return A localização correspondente.
+     * @throws IllegalArgumentException se o nome não corresponder a nenhuma localização.
+     */
+    public static Localizacao deTexto(String texto) {
+        for (Localizacao localizacao : values()) {
+            if (localizacao.nome.equalsIgnoreCase(texto)) {
+                return localizacao;
+            }
+        }
+        throw new IllegalArgumentException("Tipo de localização inválido.");
+    }
+}
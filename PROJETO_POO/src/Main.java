@@ -4,6 +4,7 @@ import java.io.*;
 /**
  * Classe principal que inicializa o sistema de faturação.
  * Permite ao utilizador interagir com o sistema através de um menu.
+ * Se receber argumentos, executa o comando em lote indicado sem mostrar o menu (ver {@link ComandosLote}).
  *
  * @author Cíntia Cumbane (2020244607)
  * Cristiana Gonçalves (2019239753)
@@ -11,6 +12,10 @@ import java.io.*;
  */
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0) {
+            System.exit(ComandosLote.executar(args));
+        }
+
         POOFS sistema = new POOFS();
         Scanner scanner = new Scanner(System.in);
         boolean continuar = true;
@@ -28,6 +33,7 @@ public class Main {
             System.out.println("9. Exportar Faturas");
             System.out.println("10. Exibir Estatísticas");
             System.out.println("11. Sair");
+            System.out.println("12. Relatório de IVA por Período");
             System.out.print("Escolha uma opção: ");
 
             try {
@@ -54,14 +60,20 @@ public class Main {
                     case 10 -> sistema.exibirEstatisticas();
                     case 11 -> {
                         System.out.println("Saindo...");
-                        sistema.getFicheiroObjetoHandler().salvarDados();
                         continuar = false;
                     }
+                    case 12 -> {
+                        try {
+                            sistema.exibirRelatorioIVA();
+                        } catch (RuntimeException e) {
+                            System.out.println(e.getMessage());
+                        }
+                    }
                     default -> System.out.println("Opção inválida. Tente novamente.");
                 }
             } catch (InputMismatchException e) {
                 // Tratamento de erro caso a entrada não seja um número válido
-                System.out.println("Entrada inválida! Por favor, insira um número entre 1 e 11.");
+                System.out.println("Entrada inválida! Por favor, insira um número entre 1 e 12.");
                 scanner.nextLine();
             }
 
@@ -76,6 +88,8 @@ public class Main {
             }
         }
 
+        // As alterações já estão no journal: basta esperar que as últimas fiquem no disco
+        sistema.fechar();
         scanner.close();
     }
 }
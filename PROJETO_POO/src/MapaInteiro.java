@@ -0,0 +1,221 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Mapa de chaves inteiras primitivas para valores, com endereçamento aberto.
+ * Evita a criação de objetos Integer em cada procura, ao contrário de um HashMap.
+ *
+ * @param <V> Tipo dos valores guardados.
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class MapaInteiro<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int[] chaves;
+    private Object[] valores;
+    private int tamanho;
+
+    /**
+     * Construtor de um mapa vazio.
+     */
+    public MapaInteiro() {
+        this(16);
+    }
+
+    /**
+     * Construtor de um mapa com capacidade inicial para o número de elementos indicado.
+     *
+     * @param capacidadeEsperada Número de elementos esperado.
+     */
+    public MapaInteiro(int capacidadeEsperada) {
+        int capacidade = Integer.highestOneBit(Math.max(4, capacidadeEsperada * 2 - 1)) << 1;
+        this.chaves = new int[capacidade];
+        this.valores = new Object[capacidade];
+    }
+
+    /**
+     * Obtém o valor associado a uma chave.
+     *
+     * @param chave Chave a procurar.
+     * @return O valor associado ou null se a chave não existir.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int chave) {
+        int mascara = chaves.length - 1;
+        int i = espalhar(chave) & mascara;
+        while (valores[i] != null) {
+            if (chaves[i] == chave) {
+                return (V) valores[i];
+            }
+            i = (i + 1) & mascara;
+        }
+        return null;
+    }
+
+    /**
+     * Verifica se a chave existe no mapa.
+     *
+     * @param chave Chave a procurar.
+     * @return true se a chave existir, false caso contrário.
+     */
+    public boolean contem(int chave) {
+        return get(chave) != null;
+    }
+
+    /**
+     * Associa um valor a uma chave, substituindo o valor anterior.
+     *
+     * @param chave Chave.
+     * @param valor Valor (não pode ser nulo).
+     * @return O valor anterior ou null se a chave não existia.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int chave, V valor) {
+        if (valor == null) {
+            throw new IllegalArgumentException("O valor não pode ser nulo.");
+        }
+        int mascara = chaves.length - 1;
+        int i = espalhar(chave) & mascara;
+        while (valores[i] != null) {
+            if (chaves[i] == chave) {
+                V anterior = (V) valores[i];
+                valores[i] = valor;
+                return anterior;
+            }
+            i = (i + 1) & mascara;
+        }
+        chaves[i] = chave;
+        valores[i] = valor;
+        if (++tamanho * 2 > chaves.length) {
+            redimensionar();
+        }
+        return null;
+    }
+
+    /**
+     * Remove a chave do mapa.
+     *
+     * @param chave Chave a remover.
+     * @return O valor removido ou null se a chave não existia.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int chave) {
+        int mascara = chaves.length - 1;
+        int i = espalhar(chave) & mascara;
+        while (valores[i] != null) {
+            if (chaves[i] == chave) {
+                V anterior = (V) valores[i];
+                valores[i] = null;
+                tamanho--;
+                reposicionarSeguintes(i);
+                return anterior;
+            }
+            i = (i + 1) & mascara;
+        }
+        return null;
+    }
+
+    /**
+     * Obtém o número de chaves no mapa.
+     *
+     * @return Número de chaves.
+     */
+    public int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Remove todas as chaves do mapa.
+     */
+    public void limpar() {
+        Arrays.fill(valores, null);
+        tamanho = 0;
+    }
+
+    /**
+     * Percorre todas as entradas do mapa, sem ordem definida.
+     *
+     * @param acao Ação a executar para cada chave e valor.
+     */
+    @SuppressWarnings("unchecked")
+    public void paraCada(AcaoEntrada<V> acao) {
+        for (int i = 0; i < chaves.length; i++) {
+            if (valores[i] != null) {
+                acao.aceitar(chaves[i], (V) valores[i]);
+            }
+        }
+    }
+
+    /**
+     * Obtém as chaves do mapa, sem ordem definida.
+     *
+     * @return Array com as chaves.
+     */
+    public int[] chaves() {
+        int[] resultado = new int[tamanho];
+        int j = 0;
+        for (int i = 0; i < chaves.length; i++) {
+            if (valores[i] != null) {
+                resultado[j++] = chaves[i];
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Ação executada sobre uma entrada do mapa, sem converter a chave para Integer.
+     *
+     * @param <V> Tipo dos valores.
+     */
+    public interface AcaoEntrada<V> {
+        /**
+         * Executa a ação sobre uma entrada.
+         *
+         * @param chave Chave da entrada.
+         * @param valor Valor da entrada.
+         */
+        void aceitar(int chave, V valor);
+    }
+
+    private void reposicionarSeguintes(int removido) {
+        int mascara = chaves.length - 1;
+        int i = (removido + 1) & mascara;
+        while (valores[i] != null) {
+            int chave = chaves[i];
+            Object valor = valores[i];
+            valores[i] = null;
+            int j = espalhar(chave) & mascara;
+            while (valores[j] != null) {
+                j = (j + 1) & mascara;
+            }
+            chaves[j] = chave;
+            valores[j] = valor;
+            i = (i + 1) & mascara;
+        }
+    }
+
+    private void redimensionar() {
+        int[] chavesAntigas = chaves;
+        Object[] valoresAntigos = valores;
+        chaves = new int[chavesAntigas.length * 2];
+        valores = new Object[chavesAntigas.length * 2];
+        int mascara = chaves.length - 1;
+        for (int i = 0; i < chavesAntigas.length; i++) {
+            if (valoresAntigos[i] != null) {
+                int j = espalhar(chavesAntigas[i]) & mascara;
+                while (valores[j] != null) {
+                    j = (j + 1) & mascara;
+                }
+                chaves[j] = chavesAntigas[i];
+                valores[j] = valoresAntigos[i];
+            }
+        }
+    }
+
+    private static int espalhar(int chave) {
+        int h = chave * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
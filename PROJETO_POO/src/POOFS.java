@@ -2,6 +2,8 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
 import java.io.BufferedReader;
 import java.io.*;
 import java.io.FileReader;
@@ -23,22 +25,38 @@ public class POOFS {
     // Atributos principais do sistema
 
     /**
-     * Lista de clientes registrados.
+     * Repositório com os clientes e faturas registrados e respetivos índices.
      */
-    private List<Cliente> clientes;
-    /**
-     * Lista de faturas registradas.
-     */
-    private List<Fatura> faturas;
+    private RepositorioDados repositorio;
     /**
      * Handler para manipulação de ficheiros de texto.
      */
     private FicheiroHandler ficheiroHandler;
 
     /**
-     * Handler para manipulação de ficheiros de objetos serializados.
+     * Journal onde são acrescentadas as alterações, em vez de reescrever o ficheiro de texto.
+     */
+    private FicheiroJournal ficheiroJournal;
+
+    /**
+     * Motor de armazenamento de onde os dados são carregados e onde são guardados na compactação do journal.
+     */
+    private Armazenamento armazenamento;
+
+    /**
+     * Ficheiro onde são guardadas as estatísticas, juntamente com os dados.
+     */
+    private static final String FICHEIRO_ESTATISTICAS = "estatisticas.bin";
+
+    /**
+     * Estatísticas das faturas, atualizadas a cada alteração do repositório.
      */
-    private FicheiroObjetoHandler ficheiroObjetoHandler;
+    private EstatisticasFaturas estatisticas;
+
+    /**
+     * Índice das faturas por data, para relatórios de períodos.
+     */
+    private IndiceDatas indiceDatas;
     /**
      * Scanner para captura de entrada do utilizador.
      * Transiente para não ser serializado.
@@ -53,21 +71,64 @@ public class POOFS {
 
     public POOFS() {
         this.ficheiroHandler = new FicheiroHandler();
-        this.ficheiroObjetoHandler = new FicheiroObjetoHandler();
-        this.faturas = new ArrayList<>();
-
-        // Carregar dados de ficheiro de objetos
-        ficheiroObjetoHandler.carregarDados();
-        this.clientes = ficheiroObjetoHandler.getClientes();
-        this.faturas = ficheiroObjetoHandler.getFaturas();
-
+        this.armazenamento = Armazenamento.criar(ficheiroHandler);
+
+        List<Cliente> clientes = new ArrayList<>();
+        List<Fatura> faturas = new ArrayList<>();
+        try {
+            armazenamento.carregar(new LeitorClientesFaturas.Ouvinte() {
+                @Override
+                public void cliente(Cliente cliente) {
+                    clientes.add(cliente);
+                }
 
-        if (this.clientes.isEmpty()) {
-            this.clientes = ficheiroHandler.carregarClientesComFaturas(faturas);
+                @Override
+                public void fatura(Fatura fatura) {
+                    faturas.add(fatura);
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Erro ao carregar os dados: " + e.getMessage());
         }
+        this.repositorio = new RepositorioDados(clientes, faturas);
+        this.ficheiroJournal = new FicheiroJournal(ficheiroHandler, this::guardarSnapshot);
+        this.estatisticas = carregarEstatisticas();
+        repositorio.adicionarOuvinte(estatisticas);
+        this.indiceDatas = new IndiceDatas(repositorio.getFaturas());
+        repositorio.adicionarOuvinte(indiceDatas);
+
+        // Aplicar as alterações registadas no journal depois do último snapshot
+        ficheiroJournal.reproduzir(repositorio);
         this.scanner = new Scanner(System.in);
     }
 
+    /**
+     * Carrega as estatísticas guardadas com os dados, ou pede-as ao motor de armazenamento se não existirem
+     * ou estiverem desatualizadas.
+     *
+     * @return Estatísticas das faturas do repositório.
+     */
+    private EstatisticasFaturas carregarEstatisticas() {
+        File ficheiro = new File(FICHEIRO_ESTATISTICAS);
+        if (ficheiro.exists()) {
+            try {
+                EstatisticasFaturas guardadas = EstatisticasFaturas.carregar(ficheiro);
+                if (guardadas.corresponde(repositorio.getFaturas())) {
+                    return guardadas;
+                }
+                System.out.println("As estatísticas guardadas estão desatualizadas. A recalcular.");
+            } catch (IOException e) {
+                System.out.println("Erro ao carregar as estatísticas: " + e.getMessage());
+            }
+        }
+        try {
+            return armazenamento.calcularEstatisticas(repositorio.getFaturas());
+        } catch (IOException e) {
+            System.out.println("Erro ao calcular as estatísticas: " + e.getMessage());
+            return EstatisticasFaturas.calcular(repositorio.getFaturas());
+        }
+    }
+
     /**
      * Cria um novo cliente no sistema.
      * Solicita informações do utilizador e valida os dados.
@@ -108,15 +169,24 @@ public class POOFS {
         String numeroContribuinte = InputUtils.lerNifValido("Número de contribuinte do cliente (4 dígitos): ");
 
         // Verificar se o NIF já existe
-        if (clientes.stream().anyMatch(c -> String.valueOf(c.getNumeroContribuinte()).equals(numeroContribuinte))) {
+        if (repositorio.existeCliente(Integer.parseInt(numeroContribuinte))) {
             System.out.println("Já existe um cliente com este número de contribuinte.");
             return;
         }
 
         // Criar cliente e adicionar à lista
         Cliente cliente = new Cliente(nome, tipoLocalizacao, Integer.parseInt(numeroContribuinte));
-        clientes.add(cliente);
-        ficheiroHandler.salvarClientesComFaturas(clientes, faturas);
+        try {
+            repositorio.alterar(() -> {
+                repositorio.adicionarCliente(cliente);
+                ficheiroJournal.registarCliente(cliente);
+            });
+        } catch (IllegalArgumentException e) {
+            // Outro utilizador criou um cliente com o mesmo número entretanto
+            System.out.println(e.getMessage());
+            return;
+        }
+        ficheiroJournal.compactarSeNecessario(repositorio);
         System.out.println("Cliente criado com sucesso!");
     }
     /**
@@ -128,10 +198,7 @@ public class POOFS {
         int numeroContribuinte = scanner.nextInt();
         scanner.nextLine();
 
-        Cliente cliente = clientes.stream()
-                .filter(c -> c.getNumeroContribuinte() == numeroContribuinte)
-                .findFirst()
-                .orElse(null);
+        Cliente cliente = repositorio.procurarCliente(numeroContribuinte);
 
         if (cliente == null) {
             System.out.println("Cliente não encontrado.");
@@ -142,27 +209,36 @@ public class POOFS {
 
         System.out.println("Informe o novo nome do cliente (Enter para manter o atual):");
         String novoNome = scanner.nextLine();
-        if (!novoNome.trim().isEmpty()) {
-            cliente.setNome(novoNome);
-        }
 
         System.out.println("Nova localização (Continente, Madeira ou Açores) (Enter para manter a atual):");
         String novaLocalizacao = scanner.nextLine();
-        if (!novaLocalizacao.trim().isEmpty() &&
-                (novaLocalizacao.equalsIgnoreCase("Continente") ||
-                        novaLocalizacao.equalsIgnoreCase("Madeira") ||
-                        novaLocalizacao.equalsIgnoreCase("Açores"))) {
-            cliente.setTipoLocalizacao(novaLocalizacao);
-        }
 
         System.out.println("Novo número de contribuinte (ou 0 para manter o atual):");
         int novoNumeroContribuinte = scanner.nextInt();
         scanner.nextLine();
-        if (novoNumeroContribuinte > 0) {
-            cliente.setNumeroContribuinte(novoNumeroContribuinte);
-        }
 
-        ficheiroHandler.salvarClientesComFaturas(clientes, faturas);
+        // As alterações e o seu registo no journal são aplicados de uma só vez
+        repositorio.alterar(() -> {
+            int nifAnterior = cliente.getNumeroContribuinte();
+            if (!novoNome.trim().isEmpty()) {
+                cliente.setNome(novoNome);
+            }
+            if (!novaLocalizacao.trim().isEmpty() &&
+                    (novaLocalizacao.equalsIgnoreCase("Continente") ||
+                            novaLocalizacao.equalsIgnoreCase("Madeira") ||
+                            novaLocalizacao.equalsIgnoreCase("Açores"))) {
+                repositorio.alterarLocalizacao(cliente, novaLocalizacao);
+            }
+            if (novoNumeroContribuinte > 0) {
+                try {
+                    repositorio.alterarNumeroContribuinte(cliente, novoNumeroContribuinte);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage() + " Mantendo o número atual.");
+                }
+            }
+            ficheiroJournal.registarEdicaoCliente(nifAnterior, cliente);
+        });
+        ficheiroJournal.compactarSeNecessario(repositorio);
         System.out.println("Cliente editado com sucesso: " + cliente);
     }
 
@@ -172,13 +248,16 @@ public class POOFS {
      */
 
     public void listarClientes() {
-        if (clientes.isEmpty()) {
-            System.out.println("Nenhum cliente cadastrado.");
-        } else {
-            for (Cliente cliente : clientes) {
-                System.out.println(cliente);
+        repositorio.consultar(() -> {
+            List<Cliente> clientes = repositorio.getClientes();
+            if (clientes.isEmpty()) {
+                System.out.println("Nenhum cliente cadastrado.");
+            } else {
+                for (Cliente cliente : clientes) {
+                    System.out.println(cliente);
+                }
             }
-        }
+        });
     }
 
     /**
@@ -192,10 +271,7 @@ public class POOFS {
         scanner.nextLine();
 
         // Buscar o cliente correspondente
-        Cliente cliente = clientes.stream()
-                .filter(c -> String.valueOf(c.getNumeroContribuinte()).equals(numeroContribuinte))
-                .findFirst()
-                .orElse(null);
+        Cliente cliente = repositorio.procurarCliente(Integer.parseInt(numeroContribuinte));
 
         if (cliente == null) {
             System.out.println("Cliente não encontrado.");
@@ -205,7 +281,8 @@ public class POOFS {
         LocalDate dataFatura = InputUtils.lerData("Informe a data da fatura (yyyy-MM-dd): ");
 
 
-        Fatura fatura = new Fatura(faturas.size() + 1, cliente, dataFatura);
+        // O número só é atribuído quando a fatura é registada (ver abaixo)
+        Fatura fatura = new Fatura(0, cliente, dataFatura);
 
         System.out.println("Informe o número de produtos a adicionar:");
         int numProdutos = scanner.nextInt();
@@ -329,9 +406,13 @@ public class POOFS {
             System.out.println("Produto adicionado com sucesso!");
         }
 
-        faturas.add(fatura);
-        ficheiroHandler.salvarClientesComFaturas(clientes, faturas);
-        System.out.println("Fatura criada com sucesso!");
+        repositorio.alterar(() -> {
+            fatura.setNumero(repositorio.reservarNumerosFatura(1));
+            repositorio.adicionarFatura(fatura);
+            ficheiroJournal.registarFatura(fatura);
+        });
+        ficheiroJournal.compactarSeNecessario(repositorio);
+        System.out.println("Fatura criada com sucesso! Número: " + fatura.getNumero());
     }
 
     /**
@@ -348,10 +429,7 @@ public class POOFS {
             System.out.println("Informe o número da fatura a ser editada:");
             int numeroFatura = InputUtils.lerInt("Número da fatura: ");
 
-            fatura = faturas.stream()
-                    .filter(f -> f.getNumero() == numeroFatura)
-                    .findFirst()
-                    .orElse(null);
+            fatura = repositorio.procurarFatura(numeroFatura);
 
             if (fatura == null) {
                 System.out.println("Fatura não encontrada.");
@@ -364,32 +442,56 @@ public class POOFS {
             }
         }
 
+        // Impedir que a mesma fatura seja editada noutra sessão ao mesmo tempo
+        Lock bloqueioFatura = repositorio.getBloqueioFatura(fatura.getNumero());
+        if (!bloqueioFatura.tryLock()) {
+            System.out.println("A fatura está a ser editada noutra sessão. Tente novamente mais tarde.");
+            return;
+        }
+        try {
+            editarFatura(fatura, scanner);
+        } finally {
+            bloqueioFatura.unlock();
+        }
+    }
+
+    /**
+     * Edita a data e os produtos de uma fatura, com o bloqueio da fatura já obtido.
+     * Toda a entrada é validada antes de alterar a fatura; a nova data, os novos produtos
+     * e o registo no journal são aplicados juntos, de uma só vez.
+     *
+     * @param fatura Fatura a editar.
+     * @param scanner Scanner para a entrada do utilizador.
+     */
+    private void editarFatura(Fatura fatura, Scanner scanner) {
         System.out.println("Editando fatura: " + fatura.getNumero());
 
         // Permitir que o utilizador insira uma nova data ou mantenha a atual
         System.out.println("Informe a nova data da fatura (yyyy-MM-dd) (ou pressione Enter para manter a atual):");
-        String novaData = scanner.nextLine().trim();
-        if (!novaData.isEmpty()) {
+        String entradaData = scanner.nextLine().trim();
+        LocalDate novaData = null;
+        if (!entradaData.isEmpty()) {
             try {
-                fatura.setData(LocalDate.parse(novaData));
+                novaData = LocalDate.parse(entradaData);
             } catch (DateTimeParseException e) {
                 System.out.println("Data inválida! Mantendo a data atual.");
             }
         }
 
-        // Editar produtos
-        List<Produto> novosProdutos = new ArrayList<>();
+        // Editar produtos (null mantém os atuais)
+        List<Produto> novosProdutos = null;
         System.out.println("Informe o número de produtos a adicionar/editados (ou pressione Enter para manter os atuais):");
         String entradaProdutos = scanner.nextLine().trim();
+        int numProdutos = 0;
         if (!entradaProdutos.isEmpty()) {
-            int numProdutos;
             try {
                 numProdutos = Integer.parseInt(entradaProdutos);
+                novosProdutos = new ArrayList<>();
             } catch (NumberFormatException e) {
                 System.out.println("Entrada inválida! Mantendo os produtos atuais.");
-                return;
             }
-
+        }
+        if (novosProdutos != null) {
             for (int i = 0; i < numProdutos; i++) {
                 System.out.println("Produto a ser editado/adicionado nr: " + (i + 1));
                 System.out.println("O produto é de qual tipo? (1 - Alimentar, 2 - Farmácia):");
@@ -430,6 +532,7 @@ public class POOFS {
 
                         if (numCertificacoes < 1 || numCertificacoes > 4) {
                             System.out.println("Número de certificações inválido. Deve estar entre 1 e 4.");
+                            System.out.println("A fatura não foi alterada.");
                             return;
                         }
 
@@ -454,10 +557,12 @@ public class POOFS {
                                 !categoria.equalsIgnoreCase("enlatados") &&
                                 !categoria.equalsIgnoreCase("vinho")) {
                             System.out.println("Categoria inválida para produtos com Taxa Intermédia.");
+                            System.out.println("A fatura não foi alterada.");
                             return;
                         }
                     } else if (!tipoTaxa.equalsIgnoreCase("Taxa normal")) {
                         System.out.println("Tipo de taxa inválido.");
+                        System.out.println("A fatura não foi alterada.");
                         return;
                     }
 
@@ -485,6 +590,7 @@ public class POOFS {
                                 !categoria.equalsIgnoreCase("Animais") &&
                                 !categoria.equalsIgnoreCase("Outro")) {
                             System.out.println("Categoria inválida para produtos de Farmácia.");
+                            System.out.println("A fatura não foi alterada.");
                             return;
                         }
                     }
@@ -498,11 +604,20 @@ public class POOFS {
 
                 novosProdutos.add(produto);
             }
-
-            fatura.setProdutos(novosProdutos);
         }
 
-        ficheiroHandler.salvarClientesComFaturas(clientes, faturas);
+        LocalDate dataAplicada = novaData;
+        List<Produto> produtosAplicados = novosProdutos;
+        repositorio.alterar(() -> {
+            if (dataAplicada != null) {
+                repositorio.alterarDataDaFatura(fatura, dataAplicada);
+            }
+            if (produtosAplicados != null) {
+                repositorio.alterarProdutosDaFatura(fatura, produtosAplicados);
+            }
+            ficheiroJournal.registarFatura(fatura);
+        });
+        ficheiroJournal.compactarSeNecessario(repositorio);
         System.out.println("Fatura editada com sucesso.");
     }
 
@@ -513,6 +628,11 @@ public class POOFS {
      */
 
     public void listarFaturas() {
+        repositorio.consultar(this::listarFaturasConsultadas);
+    }
+
+    private void listarFaturasConsultadas() {
+        List<Fatura> faturas = repositorio.getFaturas();
         if (faturas.isEmpty()) {
             System.out.println("Nenhuma fatura registrada.");
         } else {
@@ -520,7 +640,7 @@ public class POOFS {
                 System.out.println("Fatura Nº: " + fatura.getNumero());
                 System.out.println("Cliente: " + fatura.getCliente().getNome());
                 System.out.println("Localização: " + fatura.getCliente().getTipoLocalizacao());
-                System.out.println("Número de Produtos: " + fatura.getProdutos().size());
+                System.out.println("Número de Produtos: " + fatura.getNumProdutos());
                 System.out.println("Valor Total Sem IVA: " + fatura.getValorTotalSemIVA());
                 System.out.println("Valor Total Com IVA: " + fatura.getValorTotalComIVA());
                 System.out.println("--------------------------------------------------");
@@ -540,16 +660,16 @@ public class POOFS {
         scanner.nextLine(); // Consumir quebra de linha
 
         // Buscar a fatura pelo número
-        Fatura fatura = faturas.stream()
-                .filter(f -> f.getNumero() == numeroFatura)
-                .findFirst()
-                .orElse(null);
+        Fatura fatura = repositorio.procurarFatura(numeroFatura);
 
         if (fatura == null) {
             System.out.println("Fatura não encontrada.");
             return;
         }
+        repositorio.consultar(() -> mostrarFatura(fatura));
+    }
 
+    private void mostrarFatura(Fatura fatura) {
         // Exibir dados da fatura
         System.out.println("Fatura Nº: " + fatura.getNumero());
         System.out.println("Data: " + fatura.getData());
@@ -564,14 +684,15 @@ public class POOFS {
                 "Código", "Nome", "Descrição", "Tipo", "Qtd", "Categoria", "Valor Unit.", "Taxa IVA", "Valor IVA",
                 "Total c/ IVA", "Biológico", "Prescrição", "Certif.");
 
+        Localizacao localizacao = fatura.getCliente().getLocalizacao();
         for (Produto produto : fatura.getProdutos()) {
             // Detalhes específicos por tipo de produto
             String detalhesEspecificos = produto.getDetalhesFatura(fatura.getCliente().getTipoLocalizacao());
 
             // Calculando os valores para IVA
-            double valorSemIVA = produto.getValorUnitario() * produto.getQuantidade();
-            double taxaIVA = produto.calcularImposto(fatura.getCliente().getTipoLocalizacao()) / valorSemIVA * 100;
-            double valorIVA = produto.calcularImposto(fatura.getCliente().getTipoLocalizacao());
+            double valorSemIVA = Dinheiro.paraDouble(produto.getValorSemIVACentimos());
+            double valorIVA = produto.calcularImposto(localizacao);
+            double taxaIVA = valorIVA / valorSemIVA * 100;
             double valorTotalComIVA = valorSemIVA + valorIVA;
 
             // Exibir os detalhes
@@ -595,34 +716,111 @@ public class POOFS {
      */
 
     public void importarFaturas() {
+        try {
+            int faturasImportadasComSucesso = importarFaturas(ficheiroHandler.getFicheiro());
+            System.out.println(faturasImportadasComSucesso + " faturas foram importadas com sucesso.");
+        } catch (IOException e) {
+            System.out.println("Erro ao carregar dados do ficheiro: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Importa faturas e clientes do ficheiro de texto indicado, substituindo os dados do sistema
+     * se o ficheiro tiver pelo menos uma fatura válida.
+     *
+     * @param ficheiro Ficheiro a importar, no formato de {@link FicheiroHandler}.
+     * @return Número de faturas importadas.
+     * @throws IOException se o ficheiro não existir, ocorrer um erro de leitura ou não for possível guardar
+     *                     os dados importados; neste último caso os dados anteriores são repostos.
+     */
+    public int importarFaturas(File ficheiro) throws IOException {
+        if (!ficheiro.exists()) {
+            throw new FileNotFoundException("Ficheiro não encontrado: " + ficheiro);
+        }
         List<Fatura> faturasImportadas = new ArrayList<>();
-        List<Cliente> clientesImportados = ficheiroHandler.carregarClientesComFaturas(faturasImportadas);
+        List<Cliente> clientesImportados = new ArrayList<>();
+        new ImportadorParalelo(ficheiroHandler).importar(ficheiro, new LeitorClientesFaturas.Ouvinte() {
+            @Override
+            public void cliente(Cliente cliente) {
+                clientesImportados.add(cliente);
+            }
 
-        int faturasImportadasComSucesso = faturasImportadas.size();
+            @Override
+            public void fatura(Fatura fatura) {
+                faturasImportadas.add(fatura);
+            }
+        });
+
+        if (!faturasImportadas.isEmpty()) {
+            Lock escrita = repositorio.getBloqueio().writeLock();
+            escrita.lock();
+            try {
+                List<Cliente> clientesAnteriores = repositorio.getClientes();
+                List<Fatura> faturasAnteriores = repositorio.getFaturas();
 
-        if (faturasImportadasComSucesso > 0) {
-            // Atualizar listas de clientes e faturas na memória
-            clientes.clear();
-            clientes.addAll(clientesImportados);
+                // Atualizar listas de clientes e faturas na memória
+                repositorio.substituirTudo(clientesImportados, faturasImportadas);
 
-            faturas.clear();
-            faturas.addAll(faturasImportadas);
+                // As alterações anteriores à importação deixam de se aplicar
+                if (!ficheiroJournal.compactarAgora(repositorio.getClientes(), repositorio.getFaturas())) {
+                    // O journal ainda descreve os dados anteriores, que voltariam no próximo arranque
+                    repositorio.substituirTudo(clientesAnteriores, faturasAnteriores);
+                    throw new IOException("Não foi possível guardar os dados importados; os dados anteriores foram repostos.");
+                }
+            } finally {
+                escrita.unlock();
+            }
         }
+        return faturasImportadas.size();
+    }
 
-        System.out.println(faturasImportadasComSucesso + " faturas foram importadas com sucesso.");
+    /**
+     * Cria um lote de faturas sem interação com o utilizador (ver {@link IngestaoFaturas}).
+     * As faturas válidas são numeradas a seguir à última fatura e guardadas numa única escrita no journal;
+     * as inválidas são rejeitadas e descritas no resultado.
+     *
+     * @param especificacoes Especificações das faturas a criar.
+     * @return Faturas criadas e erros das especificações rejeitadas.
+     * @throws IOException se não for possível guardar o lote; nesse caso nenhuma fatura é criada.
+     */
+    public IngestaoFaturas.Resultado ingerirFaturas(List<EspecificacaoFatura> especificacoes) throws IOException {
+        return new IngestaoFaturas(repositorio, ficheiroJournal).ingerir(especificacoes);
     }
 
     /**
      * Exporta as faturas registradas para um ficheiro de texto.
-     * Solicita o caminho do ficheiro ao utilizador.
+     * Solicita o caminho do ficheiro ao utilizador. Se o ficheiro tiver a extensão ".xml",
+     * exporta as faturas de um período no formato SAF-T (ver {@link ExportadorSAFT}).
      */
 
     public void exportarFaturas() {
-        System.out.println("Informe o caminho do ficheiro para exportar as faturas (ex: faturas.txt):");
+        System.out.println("Informe o caminho do ficheiro para exportar as faturas (ex: faturas.txt, ou faturas.xml para SAF-T):");
         String caminhoFicheiro = scanner.nextLine();
 
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(caminhoFicheiro))) {
-            for (Fatura fatura : faturas) {
+        if (caminhoFicheiro.trim().toLowerCase().endsWith(".xml")) {
+            exportarSAFT(caminhoFicheiro.trim());
+            return;
+        }
+
+        try {
+            exportarTexto(new File(caminhoFicheiro));
+            System.out.println("Faturas exportadas com sucesso para " + caminhoFicheiro);
+        } catch (IOException e) {
+            System.out.println("Erro ao exportar faturas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exporta todas as faturas para um ficheiro de texto legível.
+     *
+     * @param ficheiro Ficheiro a criar.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public void exportarTexto(File ficheiro) throws IOException {
+        Lock leitura = repositorio.getBloqueio().readLock();
+        leitura.lock();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(ficheiro))) {
+            for (Fatura fatura : repositorio.getFaturas()) {
                 bw.write("Fatura Nº: " + fatura.getNumero() + "\n");
                 bw.write("Cliente: " + fatura.getCliente().getNome() + "\n");
                 bw.write("Data: " + fatura.getData() + "\n");
@@ -631,43 +829,155 @@ public class POOFS {
                 for (Produto produto : fatura.getProdutos()) {
                     bw.write("  Código: " + produto.getCodigo() + ", Nome: " + produto.getNome() + ", Descrição: " + produto.getDescricao() + ", Quantidade: " + produto.getQuantidade() + ", Valor Unitário: " + produto.getValorUnitario() + "\n");
                 }
-                bw.write("Valor Total Sem IVA: " + fatura.getValorTotalSemIVA() + "\n");
-                bw.write("Valor Total Com IVA: " + fatura.getValorTotalComIVA() + "\n");
+                bw.write("Valor Total Sem IVA: " + Dinheiro.formatar(fatura.getTotalSemIVACentimos()) + "\n");
+                bw.write("Valor Total Com IVA: " + Dinheiro.formatar(fatura.getTotalComIVACentimos()) + "\n");
                 bw.write("--------------------------------------------------\n");
             }
-            System.out.println("Faturas exportadas com sucesso para " + caminhoFicheiro);
+        } finally {
+            leitura.unlock();
+        }
+    }
+
+    /**
+     * Exporta as faturas de um período para um ficheiro XML no formato SAF-T.
+     *
+     * @param caminhoFicheiro Caminho do ficheiro a criar.
+     */
+    private void exportarSAFT(String caminhoFicheiro) {
+        LocalDate inicio;
+        LocalDate fim;
+        try {
+            inicio = InputUtils.lerData("Informe a data de início do período (yyyy-MM-dd): ");
+            fim = InputUtils.lerData("Informe a data de fim do período (yyyy-MM-dd): ");
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+        if (fim.isBefore(inicio)) {
+            System.out.println("A data de fim não pode ser anterior à data de início.");
+            return;
+        }
+
+        try {
+            long exportadas = exportarSAFT(new File(caminhoFicheiro), inicio, fim);
+            System.out.println(exportadas + " faturas exportadas no formato SAF-T para " + caminhoFicheiro);
         } catch (IOException e) {
             System.out.println("Erro ao exportar faturas: " + e.getMessage());
         }
     }
 
+    /**
+     * Exporta as faturas de um período para um ficheiro XML no formato SAF-T.
+     *
+     * @param ficheiro Ficheiro a criar.
+     * @param inicio Primeiro dia do período.
+     * @param fim Último dia do período.
+     * @return Número de faturas exportadas.
+     * @throws IOException se ocorrer um erro de escrita.
+     */
+    public long exportarSAFT(File ficheiro, LocalDate inicio, LocalDate fim) throws IOException {
+        Lock leitura = repositorio.getBloqueio().readLock();
+        leitura.lock();
+        try {
+            return new ExportadorSAFT(indiceDatas, repositorio.getClientes()).exportar(ficheiro, inicio, fim);
+        } finally {
+            leitura.unlock();
+        }
+    }
+
     /**
      * Exibe estatísticas gerais do sistema.
-     * Inclui número de faturas, produtos e valores totais.
+     * Inclui número de faturas, produtos e valores totais, e os totais por localização,
+     * tipo de produto, classe de taxa e mês.
      */
 
     public void exibirEstatisticas() {
-        int numeroDeFaturas = faturas.size(); // Número de faturas
-        int numeroDeProdutos = faturas.stream()
-                .flatMap(f -> f.getProdutos().stream())
-                .mapToInt(Produto::getQuantidade) // Soma todas as quantidades
-                .sum();
-        double totalSemIVA = faturas.stream()
-                .mapToDouble(Fatura::getValorTotalSemIVA) // Soma os valores sem IVA de todas as faturas
-                .sum();
-        double totalIVA = faturas.stream()
-                .mapToDouble(Fatura::getValorTotalIva) // Soma os valores do IVA de todas as faturas
-                .sum();
-        double totalComIVA = faturas.stream()
-                .mapToDouble(Fatura::getValorTotalComIVA) // Soma os valores com IVA de todas as faturas
-                .sum();
+        repositorio.consultar(this::exibirEstatisticasConsultadas);
+    }
 
+    private void exibirEstatisticasConsultadas() {
+        // As estatísticas são mantidas a cada alteração, não é preciso percorrer as faturas
         System.out.println("\nEstatísticas:");
-        System.out.println("Número de faturas: " + numeroDeFaturas);
-        System.out.println("Número de produtos: " + numeroDeProdutos);
-        System.out.printf("Valor total sem IVA: %.2f\n", totalSemIVA);
-        System.out.printf("Valor total do IVA: %.2f\n", totalIVA);
-        System.out.printf("Valor total com IVA: %.2f\n", totalComIVA);
+        System.out.println("Número de faturas: " + estatisticas.getNumFaturas());
+        System.out.println("Número de produtos: " + estatisticas.getQuantidadeProdutos());
+        System.out.println("Valor total sem IVA: " + Dinheiro.formatar(estatisticas.getTotalSemIVACentimos()));
+        System.out.println("Valor total do IVA: " + Dinheiro.formatar(estatisticas.getTotalIvaCentimos()));
+        System.out.println("Valor total com IVA: " + Dinheiro.formatar(estatisticas.getTotalComIVACentimos()));
+
+        System.out.println("\nPor localização do cliente:");
+        for (Localizacao localizacao : Localizacao.values()) {
+            exibirTotais(localizacao.getNome(), estatisticas.getTotaisPorLocalizacao(localizacao));
+        }
+
+        System.out.println("\nPor tipo de produto:");
+        exibirTotais("Alimentar", estatisticas.getTotaisPorTipoProduto(true));
+        exibirTotais("Farmácia", estatisticas.getTotaisPorTipoProduto(false));
+
+        System.out.println("\nPor classe de taxa:");
+        for (ClasseTaxa classe : ClasseTaxa.values()) {
+            exibirTotais(classe.getNome(), estatisticas.getTotaisPorClasseTaxa(classe));
+        }
+        exibirTotais("Farmácia (sem classe)", estatisticas.getTotaisSemClasseTaxa());
+
+        System.out.println("\nPor mês:");
+        for (int mes : estatisticas.getMeses()) {
+            exibirTotais(String.format("%04d-%02d", mes / 100, mes % 100), estatisticas.getTotaisPorMes(mes));
+        }
+    }
+
+    /**
+     * Exibe o relatório de IVA de um período, mês a mês.
+     * Os totais são obtidos do índice de datas, sem percorrer as faturas.
+     */
+    public void exibirRelatorioIVA() {
+        LocalDate inicio = InputUtils.lerData("Informe a data de início do período (yyyy-MM-dd): ");
+        LocalDate fim = InputUtils.lerData("Informe a data de fim do período (yyyy-MM-dd): ");
+        if (fim.isBefore(inicio)) {
+            System.out.println("A data de fim não pode ser anterior à data de início.");
+            return;
+        }
+        exibirRelatorioIVA(inicio, fim);
+    }
+
+    /**
+     * Exibe o relatório de IVA do período indicado, mês a mês.
+     *
+     * @param inicio Primeiro dia do período.
+     * @param fim Último dia do período (não anterior ao início).
+     */
+    public void exibirRelatorioIVA(LocalDate inicio, LocalDate fim) {
+        repositorio.consultar(() -> exibirRelatorioIVAConsultado(inicio, fim));
+    }
+
+    private void exibirRelatorioIVAConsultado(LocalDate inicio, LocalDate fim) {
+        System.out.println("\nRelatório de IVA de " + inicio + " a " + fim + ":");
+        for (LocalDate mes = inicio.withDayOfMonth(1); !mes.isAfter(fim); mes = mes.plusMonths(1)) {
+            LocalDate de = mes.isBefore(inicio) ? inicio : mes;
+            LocalDate ultimoDia = mes.plusMonths(1).minusDays(1);
+            LocalDate ate = ultimoDia.isAfter(fim) ? fim : ultimoDia;
+            exibirTotaisPeriodo(String.format("%04d-%02d", mes.getYear(), mes.getMonthValue()), indiceDatas.getTotais(de, ate));
+        }
+        exibirTotaisPeriodo("Total", indiceDatas.getTotais(inicio, fim));
+    }
+
+    private void exibirTotaisPeriodo(String rotulo, long[] totais) {
+        long semIVA = totais[IndiceDatas.TOTAL_SEM_IVA];
+        long iva = totais[IndiceDatas.TOTAL_IVA];
+        System.out.println("  " + rotulo + ": " + totais[IndiceDatas.TOTAL_FATURAS] + " faturas, sem IVA "
+                + Dinheiro.formatar(semIVA) + ", IVA " + Dinheiro.formatar(iva) + ", com IVA " + Dinheiro.formatar(semIVA + iva));
+    }
+
+    /**
+     * Mostra uma linha das estatísticas detalhadas.
+     *
+     * @param rotulo Descrição da linha.
+     * @param totais Totais no formato de {@link EstatisticasFaturas}.
+     */
+    private void exibirTotais(String rotulo, long[] totais) {
+        long semIVA = totais[EstatisticasFaturas.SEM_IVA];
+        long iva = totais[EstatisticasFaturas.IVA];
+        System.out.println("  " + rotulo + ": " + totais[EstatisticasFaturas.QUANTIDADE] + " produtos, sem IVA "
+                + Dinheiro.formatar(semIVA) + ", IVA " + Dinheiro.formatar(iva) + ", com IVA " + Dinheiro.formatar(semIVA + iva));
     }
 
     /**
@@ -684,13 +994,94 @@ public class POOFS {
         this.scanner = new Scanner(System.in);
     }
     /**
-     * Obtém o handler responsável pela manipulação de ficheiros de objetos.
+     * Obtém o motor de armazenamento escolhido no arranque.
+     *
+     * @return Motor de armazenamento.
+     */
+
+    public Armazenamento getArmazenamento() {
+        return armazenamento;
+    }
+
+    /**
+     * Obtém o repositório com os clientes e as faturas do sistema.
+     *
+     * @return Repositório de dados.
+     */
+    public RepositorioDados getRepositorio() {
+        return repositorio;
+    }
+
+    /**
+     * Obtém as estatísticas das faturas, mantidas a cada alteração do repositório.
+     *
+     * @return Estatísticas das faturas.
+     */
+    public EstatisticasFaturas getEstatisticas() {
+        return estatisticas;
+    }
+
+    /**
+     * Guarda todos os dados no ficheiro de objetos e compacta o journal,
+     * para que o ficheiro de texto fique também atualizado. As estatísticas são guardadas ao lado.
+     * A gravação usa o bloqueio de leitura do repositório, pelo que vê um estado consistente.
      *
-     * @return Instância de FicheiroObjetoHandler.
+     * @return true se os dados foram guardados, false caso contrário (o journal é mantido).
      */
+    public boolean salvarDados() {
+        // Os ficheiros ficam com o mesmo estado: as alterações esperam que a gravação termine
+        Lock leitura = repositorio.getBloqueio().readLock();
+        leitura.lock();
+        try {
+            if (!ficheiroJournal.compactarAgora(repositorio.getClientes(), repositorio.getFaturas())) {
+                return false;
+            }
+        } finally {
+            leitura.unlock();
+        }
+        System.out.println("Dados salvos com sucesso.");
+        return true;
+    }
 
-    public FicheiroObjetoHandler getFicheiroObjetoHandler() {
-        return ficheiroObjetoHandler;
+    /**
+     * Escreve o snapshot usado na compactação do journal: os dados no motor de armazenamento (de onde são
+     * carregados no arranque) e as estatísticas. É chamado com o bloqueio do repositório.
+     *
+     * @param clientes Clientes a guardar.
+     * @param faturas Faturas a guardar.
+     * @throws IOException se os dados não ficarem completos no motor de armazenamento.
+     */
+    private void guardarSnapshot(List<Cliente> clientes, List<Fatura> faturas) throws IOException {
+        armazenamento.guardar(clientes, faturas);
+        try {
+            estatisticas.salvar(new File(FICHEIRO_ESTATISTICAS));
+        } catch (IOException e) {
+            // As estatísticas são recalculadas no arranque se não corresponderem aos dados
+            System.out.println("Erro ao salvar as estatísticas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Obtém um future que termina quando todas as alterações feitas até agora estiverem guardadas no disco.
+     *
+     * @return Future da sincronização do journal.
+     */
+    public CompletableFuture<Void> aguardarPersistencia() {
+        return ficheiroJournal.sincronizar();
+    }
+
+    /**
+     * Espera que as alterações pendentes fiquem guardadas e termina a escrita em segundo plano.
+     * As alterações ficam no journal e são reaplicadas no próximo arranque, pelo que não é preciso
+     * guardar todos os dados.
+     */
+    public void fechar() {
+        ficheiroJournal.fechar();
+        try {
+            armazenamento.fechar();
+        } catch (IOException e) {
+            System.out.println("Erro ao fechar o armazenamento: " + e.getMessage());
+        }
     }
 
 
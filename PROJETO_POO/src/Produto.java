@@ -3,43 +3,62 @@ import java.io.*;
 /**
  * Classe abstrata que representa um Produto.
  * Cada produto possui código, nome, descrição, valor unitário sem IVA, tipo de taxa, e quantidade.
+ * Os atributos que não dependem da linha da fatura estão numa {@link DefinicaoProduto} imutável, partilhada
+ * através do {@link CatalogoProdutos} por todas as linhas iguais; cada produto guarda apenas essa referência,
+ * o valor unitário e a quantidade. Os setters dos atributos da definição substituem a referência por outra
+ * definição, sem alterar as restantes linhas.
  *
  * @author Cíntia Cumbane (2020244607)
  * Cristiana Gonçalves (2019239753)
  * @version 3.0
  */
 public abstract class Produto implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     // Atributos privados para encapsulamento
-    private String codigo;
-    private String nome;
-    private String descricao;
-    private double valorUnitario;
-    private String tipoTaxa;
+    private DefinicaoProduto definicao; // Definição partilhada do produto
+    private long valorUnitarioCentimos; // Valor unitário em cêntimos
     private int quantidade;
 
     /**
      * Construtor para inicializar os atributos de um produto.
      *
-     * @param codigo        Código único do produto.
-     * @param nome          Nome do produto.
-     * @param descricao     Descrição do produto.
+     * @param definicao     Definição do produto, já validada pela subclasse.
      * @param valorUnitario Valor unitário sem IVA (deve ser positivo).
-     * @param tipoTaxa      Tipo de taxa ("Taxa reduzida", "Taxa intermédia", "Taxa normal").
      * @param quantidade    Quantidade disponível (deve ser não negativa).
      */
-    public Produto(String codigo, String nome, String descricao, double valorUnitario, String tipoTaxa, int quantidade) {
-        setCodigo(codigo);
-        setNome(nome);
-        setDescricao(descricao);
+    protected Produto(DefinicaoProduto definicao, double valorUnitario, int quantidade) {
         setValorUnitario(valorUnitario);
-        if (isTipoTaxaObrigatorio()) {
-            setTipoTaxa(tipoTaxa);
-        } else {
-            this.tipoTaxa = null;
-        }
         setQuantidade(quantidade);
+        this.definicao = CatalogoProdutos.partilhar(definicao);
+    }
+
+    /**
+     * Construtor usado para recriar uma linha de {@link LinhasFatura}, com valores já validados.
+     *
+     * @param definicao             Definição partilhada do produto.
+     * @param valorUnitarioCentimos Valor unitário sem IVA, em cêntimos.
+     * @param quantidade            Quantidade do produto.
+     */
+    Produto(DefinicaoProduto definicao, long valorUnitarioCentimos, int quantidade) {
+        this.definicao = definicao;
+        this.valorUnitarioCentimos = valorUnitarioCentimos;
+        this.quantidade = quantidade;
+    }
+
+    /**
+     * Cria o produto do tipo indicado pela definição, sem repetir as validações.
+     *
+     * @param definicao             Definição partilhada do produto.
+     * @param valorUnitarioCentimos Valor unitário sem IVA, em cêntimos.
+     * @param quantidade            Quantidade do produto.
+     * @return Novo produto alimentar ou de farmácia.
+     */
+    static Produto criar(DefinicaoProduto definicao, long valorUnitarioCentimos, int quantidade) {
+        if (definicao.isAlimentar()) {
+            return new ProdutoAlimentar(definicao, valorUnitarioCentimos, quantidade);
+        }
+        return new ProdutoFarmacia(definicao, valorUnitarioCentimos, quantidade);
     }
 
     // Métodos abstratos a serem implementados pelas subclasses
@@ -51,20 +70,73 @@ public abstract class Produto implements Serializable {
      */
     public abstract boolean isTipoTaxaObrigatorio();
 
+    /**
+     * Obtém a definição partilhada do produto.
+     *
+     * @return Definição do produto.
+     */
+    public DefinicaoProduto getDefinicao() {
+        return definicao;
+    }
+
+    /**
+     * Substitui a definição do produto pela definição partilhada igual à indicada.
+     *
+     * @param nova Nova definição.
+     */
+    protected void alterarDefinicao(DefinicaoProduto nova) {
+        definicao = CatalogoProdutos.partilhar(nova);
+    }
+
+    /**
+     * Calcula o imposto do produto em cêntimos, arredondado ao cêntimo (ver {@link Dinheiro}).
+     *
+     * @param localizacao Localização do cliente.
+     * @return Imposto aplicável ao produto, em cêntimos.
+     */
+    public long calcularImpostoCentimos(Localizacao localizacao) {
+        return Dinheiro.aplicarTaxa(getValorSemIVACentimos(), getTaxaIVAPontosBase(localizacao));
+    }
+
+    /**
+     * Obtém a taxa de IVA aplicável ao produto, em pontos base (600 corresponde a 6%).
+     *
+     * @param localizacao Localização do cliente.
+     * @return Taxa de IVA em pontos base.
+     */
+    public long getTaxaIVAPontosBase(Localizacao localizacao) {
+        return definicao.getTaxaIVAPontosBase(localizacao);
+    }
+
+    /**
+     * Calcula o imposto do produto com base na localização.
+     *
+     * @param localizacao Localização do cliente.
+     * @return Valor do imposto aplicável ao produto.
+     */
+    public double calcularImposto(Localizacao localizacao) {
+        return Dinheiro.paraDouble(calcularImpostoCentimos(localizacao));
+    }
+
     /**
      * Calcula o imposto do produto com base na localização.
      *
      * @param tipoLocalizacao Tipo de localização do cliente ("Continente", "Madeira", "Açores").
      * @return Valor do imposto aplicável ao produto.
+     * @throws IllegalArgumentException se a localização for inválida.
      */
-    public abstract double calcularImposto(String tipoLocalizacao);
+    public double calcularImposto(String tipoLocalizacao) {
+        return calcularImposto(Localizacao.deTexto(tipoLocalizacao));
+    }
 
     /**
      * Obtém a categoria do produto.
      *
      * @return A categoria do produto.
      */
-    public abstract String getCategoria();
+    public String getCategoria() {
+        return definicao.getCategoria();
+    }
 
     /**
      * Obtém detalhes específicos do produto para exibição em uma fatura.
@@ -84,57 +156,70 @@ public abstract class Produto implements Serializable {
     // Getters e Setters com validações
 
     public String getCodigo() {
-        return codigo;
+        return definicao.getCodigo();
     }
 
     public void setCodigo(String codigo) {
-        if (codigo == null || codigo.trim().isEmpty()) {
-            throw new IllegalArgumentException("O código do produto não pode ser nulo ou vazio.");
-        }
-        this.codigo = codigo.trim();
+        alterarDefinicao(definicao.comCodigo(validarCodigo(codigo)));
     }
 
     public String getNome() {
-        return nome;
+        return definicao.getNome();
     }
 
     public void setNome(String nome) {
-        if (nome == null || nome.trim().isEmpty()) {
-            throw new IllegalArgumentException("O nome do produto não pode ser nulo ou vazio.");
-        }
-        this.nome = nome.trim();
+        alterarDefinicao(definicao.comNome(validarNome(nome)));
     }
 
     public String getDescricao() {
-        return descricao;
+        return definicao.getDescricao();
     }
 
     public void setDescricao(String descricao) {
-        if (descricao == null || descricao.trim().isEmpty()) {
-            throw new IllegalArgumentException("A descrição do produto não pode ser nula ou vazia.");
-        }
-        this.descricao = descricao.trim();
+        alterarDefinicao(definicao.comDescricao(validarDescricao(descricao)));
     }
 
     public double getValorUnitario() {
-        return valorUnitario;
+        return Dinheiro.paraDouble(valorUnitarioCentimos);
+    }
+
+    /**
+     * Obtém o valor unitário do produto em cêntimos.
+     *
+     * @return Valor unitário em cêntimos.
+     */
+    public long getValorUnitarioCentimos() {
+        return valorUnitarioCentimos;
     }
 
     /**
-     * Define o valor unitário do produto.
+     * Obtém o valor sem IVA do produto (valor unitário vezes a quantidade) em cêntimos.
+     *
+     * @return Valor sem IVA em cêntimos.
+     */
+    public long getValorSemIVACentimos() {
+        return Dinheiro.multiplicar(valorUnitarioCentimos, quantidade);
+    }
+
+    /**
+     * Define o valor unitário do produto, arredondado ao cêntimo.
      *
      * @param valorUnitario Valor unitário sem IVA (deve ser positivo).
      * @throws IllegalArgumentException se o valor for inválido.
      */
     public void setValorUnitario(double valorUnitario) {
-        if (valorUnitario <= 0) {
+        if (!(valorUnitario > 0) || Double.isInfinite(valorUnitario)) {
+            throw new IllegalArgumentException("O valor unitário deve ser maior que zero.");
+        }
+        long centimos = Dinheiro.deDouble(valorUnitario);
+        if (centimos <= 0) {
             throw new IllegalArgumentException("O valor unitário deve ser maior que zero.");
         }
-        this.valorUnitario = valorUnitario;
+        this.valorUnitarioCentimos = centimos;
     }
 
     public String getTipoTaxa() {
-        return tipoTaxa;
+        return definicao.getTipoTaxa();
     }
 
     /**
@@ -144,15 +229,7 @@ public abstract class Produto implements Serializable {
      * @throws IllegalArgumentException se o tipo de taxa for inválido.
      */
     public void setTipoTaxa(String tipoTaxa) {
-        if (tipoTaxa == null) {
-            throw new IllegalArgumentException("O tipo de taxa não pode ser nulo.");
-        }
-        if (!tipoTaxa.equalsIgnoreCase("Taxa reduzida") &&
-                !tipoTaxa.equalsIgnoreCase("Taxa intermédia") &&
-                !tipoTaxa.equalsIgnoreCase("Taxa normal")) {
-            throw new IllegalArgumentException("Tipo de taxa inválido. Use 'Taxa reduzida', 'Taxa intermédia' ou 'Taxa normal'.");
-        }
-        this.tipoTaxa = tipoTaxa;
+        alterarDefinicao(definicao.comTipoTaxa(validarTipoTaxa(tipoTaxa)));
     }
 
     public int getQuantidade() {
@@ -182,6 +259,48 @@ public abstract class Produto implements Serializable {
         return calcularImposto(tipoLocalizacao) * quantidade;
     }
 
+    // Validações dos atributos da definição, usadas pelos construtores das subclasses e pelos setters
+
+    protected static String validarCodigo(String codigo) {
+        if (codigo == null || codigo.trim().isEmpty()) {
+            throw new IllegalArgumentException("O código do produto não pode ser nulo ou vazio.");
+        }
+        return codigo.trim();
+    }
+
+    protected static String validarNome(String nome) {
+        if (nome == null || nome.trim().isEmpty()) {
+            throw new IllegalArgumentException("O nome do produto não pode ser nulo ou vazio.");
+        }
+        return nome.trim();
+    }
+
+    protected static String validarDescricao(String descricao) {
+        if (descricao == null || descricao.trim().isEmpty()) {
+            throw new IllegalArgumentException("A descrição do produto não pode ser nula ou vazia.");
+        }
+        return descricao.trim();
+    }
+
+    /**
+     * Valida o tipo de taxa.
+     *
+     * @param tipoTaxa Tipo de taxa ("Taxa reduzida", "Taxa intermédia", "Taxa normal").
+     * @return O tipo de taxa indicado.
+     * @throws IllegalArgumentException se o tipo de taxa for inválido.
+     */
+    protected static String validarTipoTaxa(String tipoTaxa) {
+        if (tipoTaxa == null) {
+            throw new IllegalArgumentException("O tipo de taxa não pode ser nulo.");
+        }
+        if (!tipoTaxa.equalsIgnoreCase("Taxa reduzida") &&
+                !tipoTaxa.equalsIgnoreCase("Taxa intermédia") &&
+                !tipoTaxa.equalsIgnoreCase("Taxa normal")) {
+            throw new IllegalArgumentException("Tipo de taxa inválido. Use 'Taxa reduzida', 'Taxa intermédia' ou 'Taxa normal'.");
+        }
+        return tipoTaxa;
+    }
+
     /**
      * Representação textual do produto.
      *
@@ -190,11 +309,11 @@ public abstract class Produto implements Serializable {
     @Override
     public String toString() {
         return "Produto{" +
-                "codigo='" + codigo + '\'' +
-                ", nome='" + nome + '\'' +
-                ", descricao='" + descricao + '\'' +
-                ", valorUnitario=" + valorUnitario +
-                ", tipoTaxa='" + tipoTaxa + '\'' +
+                "codigo='" + getCodigo() + '\'' +
+                ", nome='" + getNome() + '\'' +
+                ", descricao='" + getDescricao() + '\'' +
+                ", valorUnitario=" + getValorUnitario() +
+                ", tipoTaxa='" + getTipoTaxa() + '\'' +
                 ", quantidade=" + quantidade +
                 '}';
     }
@@ -9,13 +9,9 @@ import java.util.*;
  * @version 3.0
  */
 public class ProdutoAlimentar extends Produto {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
-    // Atributos específicos de produtos alimentares
-    private String categoria;
-    private boolean biologico;
-    private List<String> certificacoes;
-    private final List<String> certificacoesValidas = List.of("ISO22000", "FSSC22000", "HACCP", "GMP"); // Certificações aceitas
+    private static final List<String> CERTIFICACOES_VALIDAS = List.of("ISO22000", "FSSC22000", "HACCP", "GMP"); // Certificações aceitas
 
     /**
      * Construtor para inicializar os atributos do produto alimentar.
@@ -33,11 +29,25 @@ public class ProdutoAlimentar extends Produto {
     public ProdutoAlimentar(String codigo, String nome, String descricao, double valorUnitario,
                             String tipoTaxa, boolean biologico, List<String> certificacoes,
                             String categoria, int quantidade) {
-        super(codigo, nome, descricao, valorUnitario, tipoTaxa, quantidade);
-        this.certificacoes = new ArrayList<>();
-        this.biologico = biologico;
-        setCertificacoes(certificacoes);
-        setCategoria(categoria);
+        super(definir(codigo, nome, descricao, tipoTaxa, biologico, certificacoes, categoria), valorUnitario, quantidade);
+    }
+
+    ProdutoAlimentar(DefinicaoProduto definicao, long valorUnitarioCentimos, int quantidade) {
+        super(definicao, valorUnitarioCentimos, quantidade);
+    }
+
+    /**
+     * Valida os atributos de um produto alimentar e cria a sua definição.
+     */
+    private static DefinicaoProduto definir(String codigo, String nome, String descricao, String tipoTaxa,
+                                            boolean biologico, List<String> certificacoes, String categoria) {
+        codigo = validarCodigo(codigo);
+        nome = validarNome(nome);
+        descricao = validarDescricao(descricao);
+        tipoTaxa = validarTipoTaxa(tipoTaxa);
+        certificacoes = validarCertificacoes(tipoTaxa, certificacoes);
+        return new DefinicaoProduto("Alimentar", codigo, nome, descricao, tipoTaxa, validarCategoria(tipoTaxa, categoria),
+                biologico, false, certificacoes, null);
     }
 
     /**
@@ -46,16 +56,16 @@ public class ProdutoAlimentar extends Produto {
      * @return Número de certificações.
      */
     public int getNumCertificacoes() {
-        return certificacoes.size();
+        return getDefinicao().getCertificacoes().size();
     }
 
     /**
      * Obtém a lista de certificações do produto.
      *
-     * @return Lista de certificações.
+     * @return Lista imutável de certificações.
      */
     public List<String> getCertificacoes() {
-        return certificacoes;
+        return getDefinicao().getCertificacoes();
     }
 
     /**
@@ -65,31 +75,31 @@ public class ProdutoAlimentar extends Produto {
      * @throws IllegalArgumentException Se as certificações forem inválidas para o tipo de taxa.
      */
     public void setCertificacoes(List<String> certificacoes) {
-        if (getTipoTaxa().equalsIgnoreCase("Taxa reduzida")) {
+        alterarDefinicao(getDefinicao().comCertificacoes(validarCertificacoes(getTipoTaxa(), certificacoes)));
+    }
+
+    private static List<String> validarCertificacoes(String tipoTaxa, List<String> certificacoes) {
+        if (tipoTaxa.equalsIgnoreCase("Taxa reduzida")) {
             if (certificacoes == null || certificacoes.size() < 1 || certificacoes.size() > 4) {
                 throw new IllegalArgumentException("Produtos com Taxa Reduzida devem ter entre 1 e 4 certificações.");
             }
             for (String certificacao : certificacoes) {
-                if (!certificacoesValidas.contains(certificacao)) {
+                if (!CERTIFICACOES_VALIDAS.contains(certificacao)) {
                    //throw new IllegalArgumentException("Certificação inválida: " + certificacao);
                 }
             }
-            this.certificacoes = new ArrayList<>(certificacoes);
-        } else if (getTipoTaxa().equalsIgnoreCase("Taxa intermédia") || getTipoTaxa().equalsIgnoreCase("Taxa normal")) {
+            return List.copyOf(certificacoes);
+        } else if (tipoTaxa.equalsIgnoreCase("Taxa intermédia") || tipoTaxa.equalsIgnoreCase("Taxa normal")) {
             // Remove certificações automaticamente para produtos com Taxa Intermédia ou Normal
             if (certificacoes != null && !certificacoes.isEmpty()) {
                 //System.out.println("Certificações removidas: Produtos com Taxa Intermédia ou Normal não podem ter certificações.");
             }
-            this.certificacoes = new ArrayList<>();
+            return List.of();
         } else {
             throw new IllegalArgumentException("Tipo de taxa desconhecido.");
         }
     }
 
-    public String getCategoria() {
-        return categoria;
-    }
-
     /**
      * Define a categoria do produto com base no tipo de taxa.
      *
@@ -97,31 +107,35 @@ public class ProdutoAlimentar extends Produto {
      * @throws IllegalArgumentException Se a categoria for inválida para o tipo de taxa.
      */
     public void setCategoria(String categoria) {
-        if (getTipoTaxa().equalsIgnoreCase("Taxa reduzida")) {
-            this.categoria = null;
-        } else if (getTipoTaxa().equalsIgnoreCase("Taxa intermédia")) {
+        alterarDefinicao(getDefinicao().comCategoria(validarCategoria(getTipoTaxa(), categoria)));
+    }
+
+    private static String validarCategoria(String tipoTaxa, String categoria) {
+        if (tipoTaxa.equalsIgnoreCase("Taxa reduzida")) {
+            return null;
+        } else if (tipoTaxa.equalsIgnoreCase("Taxa intermédia")) {
             if (!categoria.equalsIgnoreCase("congelados") &&
                     !categoria.equalsIgnoreCase("enlatados") &&
                     !categoria.equalsIgnoreCase("vinho")) {
                 throw new IllegalArgumentException("Categoria inválida para produtos com Taxa Intermédia.");
             }
-            this.categoria = categoria;
-        } else if (getTipoTaxa().equalsIgnoreCase("Taxa normal")) {
+            return categoria;
+        } else if (tipoTaxa.equalsIgnoreCase("Taxa normal")) {
             if (categoria != null && !categoria.trim().isEmpty()) {
                 throw new IllegalArgumentException("Produtos com Taxa Normal não podem ter categorias específicas.");
             }
-            this.categoria = null;
+            return null;
         } else {
             throw new IllegalArgumentException("Tipo de taxa desconhecido.");
         }
     }
 
     public boolean isBiologico() {
-        return biologico;
+        return getDefinicao().isBiologico();
     }
 
     public void setBiologico(boolean biologico) {
-        this.biologico = biologico;
+        alterarDefinicao(getDefinicao().comBiologico(biologico));
     }
 
     @Override
@@ -140,44 +154,6 @@ public class ProdutoAlimentar extends Produto {
                 ", Certificações: " + getNumCertificacoes();
     }
 
-    @Override
-    public double calcularImposto(String tipoLocalizacao) {
-        double taxaBase = switch (tipoLocalizacao) {
-            case "Continente" -> switch (getTipoTaxa()) {
-                case "Taxa reduzida" -> 6;
-                case "Taxa intermédia" -> 13;
-                case "Taxa normal" -> 23;
-                default -> 0;
-            };
-            case "Madeira" -> switch (getTipoTaxa()) {
-                case "Taxa reduzida" -> 5;
-                case "Taxa intermédia" -> 12;
-                case "Taxa normal" -> 22;
-                default -> 0;
-            };
-            case "Açores" -> switch (getTipoTaxa()) {
-                case "Taxa reduzida" -> 4;
-                case "Taxa intermédia" -> 9;
-                case "Taxa normal" -> 16;
-                default -> 0;
-            };
-            default -> throw new IllegalArgumentException("Tipo de localização inválido.");
-        };
-
-        if (isBiologico()) {
-            taxaBase -= taxaBase * 0.10; // Desconto de 10% se for biológico
-        }
-        if (certificacoes.size() == 4) {
-            taxaBase -= 1; // Redução de 1% se tiver 4 certificações
-        }
-        if ("vinho".equalsIgnoreCase(categoria)) {
-            taxaBase += 1; // Aumento de 1% se for vinho
-        }
-
-        taxaBase = Math.max(taxaBase, 0);
-        return (getValorUnitario() * getQuantidade() * taxaBase) / 100;
-    }
-
     @Override
     public String toString() {
         return "ProdutoAlimentar{" +
@@ -186,9 +162,9 @@ public class ProdutoAlimentar extends Produto {
                 ", descricao='" + getDescricao() + '\'' +
                 ", valorUnitario=" + getValorUnitario() +
                 ", tipoTaxa='" + getTipoTaxa() + '\'' +
-                ", biologico=" + biologico +
-                ", certificacoes=" + certificacoes +
-                ", categoria='" + categoria + '\'' +
+                ", biologico=" + isBiologico() +
+                ", certificacoes=" + getCertificacoes() +
+                ", categoria='" + getCategoria() + '\'' +
                 ", quantidade=" + getQuantidade() +
                 '}';
     }
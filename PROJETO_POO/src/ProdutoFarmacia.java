@@ -1,3 +1,5 @@
+import java.util.List;
+
 /**
  * Classe que representa um produto de farmácia.
  * Estende a classe Produto e inclui características específicas como prescrição, categoria e médico.
@@ -7,12 +9,7 @@
  * @version 3.0
  */
 public class ProdutoFarmacia extends Produto {
-    private static final long serialVersionUID = 1L;
-
-    // Atributos específicos de produtos de farmácia
-    private boolean comPrescricao;
-    private String categoria;
-    private String medico;
+    private static final long serialVersionUID = 2L;
 
     /**
      * Construtor para inicializar um produto de farmácia.
@@ -29,56 +26,64 @@ public class ProdutoFarmacia extends Produto {
      */
     public ProdutoFarmacia(String codigo, String nome, String descricao, double valorUnitario,
                            boolean comPrescricao, String categoria, String medico, int quantidade, String tipoTaxa) {
-        super(codigo, nome, descricao, valorUnitario, tipoTaxa, quantidade);
-        this.comPrescricao = comPrescricao;
+        super(definir(codigo, nome, descricao, comPrescricao, categoria, medico), valorUnitario, quantidade);
+    }
 
+    ProdutoFarmacia(DefinicaoProduto definicao, long valorUnitarioCentimos, int quantidade) {
+        super(definicao, valorUnitarioCentimos, quantidade);
+    }
+
+    /**
+     * Valida os atributos de um produto de farmácia e cria a sua definição.
+     */
+    private static DefinicaoProduto definir(String codigo, String nome, String descricao, boolean comPrescricao,
+                                            String categoria, String medico) {
+        codigo = validarCodigo(codigo);
+        nome = validarNome(nome);
+        descricao = validarDescricao(descricao);
         if (comPrescricao) {
             // Produtos com prescrição devem ter o nome do médico informado
             if (medico == null || medico.trim().isEmpty()) {
                 throw new IllegalArgumentException("Produtos com prescrição devem informar o nome do médico.");
             }
-            this.medico = medico;
-            this.categoria = null;
+            categoria = null;
         } else {
             // Validação da categoria para produtos sem prescrição
             if (!isValidCategoria(categoria)) {
                 throw new IllegalArgumentException("Categoria inválida. Use 'Beleza', 'Bem-estar', 'Bebês', 'Animais' ou 'Outro'.");
             }
-            this.categoria = categoria;
-            this.medico = null;
+            medico = null;
         }
+        return new DefinicaoProduto("Farmacia", codigo, nome, descricao, null, categoria, false, comPrescricao,
+                List.of(), medico);
     }
 
     // Getters e Setters
 
     public boolean isComPrescricao() {
-        return comPrescricao;
+        return getDefinicao().isComPrescricao();
     }
 
     public void setComPrescricao(boolean comPrescricao) {
-        this.comPrescricao = comPrescricao;
-    }
-
-    public String getCategoria() {
-        return categoria;
+        alterarDefinicao(getDefinicao().comPrescricao(comPrescricao));
     }
 
     public void setCategoria(String categoria) {
         if (!isValidCategoria(categoria)) {
             throw new IllegalArgumentException("Categoria inválida. Use 'Beleza', 'Bem-estar', 'Bebês', 'Animais' ou 'Outro'.");
         }
-        this.categoria = categoria;
+        alterarDefinicao(getDefinicao().comCategoria(categoria));
     }
 
     public String getMedico() {
-        return medico;
+        return getDefinicao().getMedico();
     }
 
     public void setMedico(String medico) {
         if (medico == null || medico.trim().isEmpty()) {
             throw new IllegalArgumentException("O nome do médico é obrigatório para produtos com prescrição.");
         }
-        this.medico = medico;
+        alterarDefinicao(getDefinicao().comMedico(medico));
     }
 
     /**
@@ -87,7 +92,7 @@ public class ProdutoFarmacia extends Produto {
      * @param categoria Categoria do produto.
      * @return true se a categoria for válida, false caso contrário.
      */
-    private boolean isValidCategoria(String categoria) {
+    private static boolean isValidCategoria(String categoria) {
         return categoria.equalsIgnoreCase("Beleza") ||
                 categoria.equalsIgnoreCase("Bem-estar") ||
                 categoria.equalsIgnoreCase("Bebês") ||
@@ -107,40 +112,10 @@ public class ProdutoFarmacia extends Produto {
 
     @Override
     public String getDetalhesFatura(String tipoLocalizacao) {
-        if (comPrescricao) {
-            return "Prescrição médica: " + (medico != null ? medico : "N/A");
-        }
-        return "Categoria: " + (categoria != null ? categoria : "N/A");
-    }
-
-    /**
-     * Calcula o imposto aplicável ao produto com base na localização e características específicas.
-     *
-     * @param tipoLocalizacao Tipo de localização do cliente ("Continente", "Madeira" ou "Açores").
-     * @return Valor do imposto aplicável ao produto.
-     */
-    @Override
-    public double calcularImposto(String tipoLocalizacao) {
-        double taxaBase;
-
-        // Determina a taxa base de imposto com base na localização e prescrição
-        switch (tipoLocalizacao) {
-            case "Continente" -> taxaBase = comPrescricao ? 6 : 23;
-            case "Madeira" -> taxaBase = comPrescricao ? 5 : 23;
-            case "Açores" -> taxaBase = comPrescricao ? 4 : 23;
-            default -> throw new IllegalArgumentException("Tipo de localização inválido.");
-        }
-
-        // Redução de 1% para a categoria "Animais" (sem prescrição)
-        if (!comPrescricao && categoria.equalsIgnoreCase("Animais")) {
-            taxaBase -= 1;
+        if (isComPrescricao()) {
+            return "Prescrição médica: " + (getMedico() != null ? getMedico() : "N/A");
         }
-
-        // Garante que a taxa base nunca seja negativa
-        taxaBase = Math.max(taxaBase, 0);
-
-        // Calcula o imposto total
-        return (getValorUnitario() * getQuantidade() * taxaBase) / 100;
+        return "Categoria: " + (getCategoria() != null ? getCategoria() : "N/A");
     }
 
     /**
@@ -156,9 +131,9 @@ public class ProdutoFarmacia extends Produto {
                 ", descricao='" + getDescricao() + '\'' +
                 ", valorUnitario=" + getValorUnitario() +
                 ", tipoTaxa='" + getTipoTaxa() + '\'' +
-                ", comPrescricao=" + comPrescricao +
-                ", categoria='" + (categoria != null ? categoria : "N/A") + '\'' +
-                ", medico='" + (medico != null ? medico : "N/A") + '\'' +
+                ", comPrescricao=" + isComPrescricao() +
+                ", categoria='" + (getCategoria() != null ? getCategoria() : "N/A") + '\'' +
+                ", medico='" + (getMedico() != null ? getMedico() : "N/A") + '\'' +
                 ", quantidade=" + getQuantidade() +
                 '}';
     }
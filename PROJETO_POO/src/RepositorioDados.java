@@ -0,0 +1,571 @@
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Classe que guarda os clientes e as faturas do sistema e mantém índices para procuras rápidas.
+ * Os índices (número de contribuinte para cliente, número para fatura e número de contribuinte
+ * para as faturas do cliente) são atualizados em todas as operações de criação, edição e importação.
+ * As alterações às faturas devem ser feitas através do repositório, para que os ouvintes registados
+ * (por exemplo, as estatísticas) sejam avisados de cada fatura retirada e adicionada.
+ * <p>
+ * O repositório pode ser usado por várias threads ao mesmo tempo:
+ * <ul>
+ *     <li>as alterações são feitas com o bloqueio de escrita de {@link #getBloqueio()} e as procuras com o
+ *     de leitura, pelo que os ouvintes são sempre avisados por uma thread de cada vez; {@link #alterar(Runnable)}
+ *     e {@link #consultar(Runnable)} permitem juntar várias operações (por exemplo, uma alteração e o seu registo
+ *     no journal, ou a leitura das estatísticas) numa só;</li>
+ *     <li>{@link #getClientes()} e {@link #getFaturas()} devolvem instantâneos, que não mudam com as alterações
+ *     seguintes (a lista de clientes é copiada a cada alteração e a de faturas só cresce, pelo que o instantâneo
+ *     não precisa de ser copiado);</li>
+ *     <li>os números das novas faturas são reservados com {@link #reservarNumerosFatura(int)}, sem repetições;</li>
+ *     <li>{@link #getBloqueioFatura(int)} dá um bloqueio por fatura, para que a mesma fatura não seja editada
+ *     em duas sessões ao mesmo tempo.</li>
+ * </ul>
+ * O estado de uma fatura ou de um cliente só é consistente para quem o lê com um dos bloqueios do repositório.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class RepositorioDados {
+    /**
+     * Número de bloqueios de fatura (potência de 2); as faturas partilham os bloqueios pelo resto do número.
+     */
+    private static final int NUM_BLOQUEIOS_FATURAS = 64;
+    private static final Fatura[] SEM_FATURAS = new Fatura[0];
+
+    private final ReentrantReadWriteLock bloqueio = new ReentrantReadWriteLock();
+    private final ReentrantLock[] bloqueiosFaturas = new ReentrantLock[NUM_BLOQUEIOS_FATURAS];
+    private final CopyOnWriteArrayList<Cliente> clientes;
+    private Fatura[] faturas; // As posições abaixo de numFaturas nunca são alteradas (ver getFaturas)
+    private int numFaturas;
+    private final MapaInteiro<Cliente> clientesPorNif;
+    private final MapaInteiro<Fatura> faturasPorNumero;
+    private final MapaInteiro<List<Fatura>> faturasPorNif;
+    private final List<Ouvinte> ouvintes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger ultimoNumeroFatura = new AtomicInteger();
+
+    /**
+     * Ouvinte das alterações às faturas do repositório.
+     * Uma edição é comunicada como a retirada da fatura (ainda no estado anterior) seguida da sua adição
+     * (já no novo estado). Os avisos são feitos com o bloqueio de escrita do repositório.
+     */
+    public interface Ouvinte {
+        /**
+         * Chamado depois de uma fatura ser adicionada ou de terminar a sua edição.
+         *
+         * @param fatura Fatura no estado atual.
+         */
+        void faturaAdicionada(Fatura fatura);
+
+        /**
+         * Chamado antes de uma fatura ser editada.
+         *
+         * @param fatura Fatura no estado anterior à edição.
+         */
+        void faturaRetirada(Fatura fatura);
+
+        /**
+         * Chamado depois de todas as faturas serem substituídas.
+         *
+         * @param faturas Novas faturas.
+         */
+        void faturasSubstituidas(List<Fatura> faturas);
+    }
+
+    /**
+     * Construtor da classe. Copia os clientes e as faturas indicados e indexa o seu conteúdo.
+     *
+     * @param clientes Lista de clientes já carregados.
+     * @param faturas Lista de faturas já carregadas.
+     */
+    public RepositorioDados(List<Cliente> clientes, List<Fatura> faturas) {
+        this.clientes = new CopyOnWriteArrayList<>(clientes);
+        this.faturas = faturas.toArray(SEM_FATURAS);
+        this.numFaturas = this.faturas.length;
+        this.clientesPorNif = new MapaInteiro<>(clientes.size());
+        this.faturasPorNumero = new MapaInteiro<>(faturas.size());
+        this.faturasPorNif = new MapaInteiro<>(clientes.size());
+        for (int i = 0; i < bloqueiosFaturas.length; i++) {
+            bloqueiosFaturas[i] = new ReentrantLock();
+        }
+        reindexar();
+    }
+
+    /**
+     * Regista um ouvinte das alterações às faturas. O ouvinte não é avisado das faturas que já existem.
+     *
+     * @param ouvinte Ouvinte a registar.
+     */
+    public void adicionarOuvinte(Ouvinte ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+
+    /**
+     * Obtém o bloqueio de leitura e escrita do repositório.
+     *
+     * @return Bloqueio do repositório.
+     */
+    public ReadWriteLock getBloqueio() {
+        return bloqueio;
+    }
+
+    /**
+     * Executa uma alteração com o bloqueio de escrita, sem que outras threads leiam ou alterem
+     * o repositório entretanto.
+     *
+     * @param alteracao Operações a executar.
+     */
+    public void alterar(Runnable alteracao) {
+        bloqueio.writeLock().lock();
+        try {
+            alteracao.run();
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Executa uma leitura com o bloqueio de leitura, vendo um estado consistente do repositório,
+     * das faturas e dos ouvintes (por exemplo, as estatísticas).
+     *
+     * @param leitura Operações a executar.
+     */
+    public void consultar(Runnable leitura) {
+        bloqueio.readLock().lock();
+        try {
+            leitura.run();
+        } finally {
+            bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Obtém o bloqueio de uma fatura, usado para que a mesma fatura não seja editada por duas threads
+     * ao mesmo tempo. O bloqueio é partilhado com outras faturas e é reentrante.
+     *
+     * @param numero Número da fatura.
+     * @return Bloqueio da fatura.
+     */
+    public Lock getBloqueioFatura(int numero) {
+        return bloqueiosFaturas[numero & (NUM_BLOQUEIOS_FATURAS - 1)];
+    }
+
+    /**
+     * Obtém um instantâneo da lista de clientes, apenas para leitura.
+     *
+     * @return Lista de clientes.
+     */
+    public List<Cliente> getClientes() {
+        return List.copyOf(clientes);
+    }
+
+    /**
+     * Obtém um instantâneo da lista de faturas, apenas para leitura. O instantâneo tem as faturas
+     * existentes no momento da chamada, mesmo que sejam adicionadas ou substituídas faturas depois.
+     *
+     * @return Lista de faturas.
+     */
+    public List<Fatura> getFaturas() {
+        bloqueio.readLock().lock();
+        try {
+            return new Instantaneo(faturas, numFaturas);
+        } finally {
+            bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Procura um cliente pelo número de contribuinte.
+     *
+     * @param numeroContribuinte Número de contribuinte.
+     * @return O cliente ou null se não existir.
+     */
+    public Cliente procurarCliente(int numeroContribuinte) {
+        bloqueio.readLock().lock();
+        try {
+            return clientesPorNif.get(numeroContribuinte);
+        } finally {
+            bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Verifica se existe um cliente com o número de contribuinte indicado.
+     *
+     * @param numeroContribuinte Número de contribuinte.
+     * @return true se existir, false caso contrário.
+     */
+    public boolean existeCliente(int numeroContribuinte) {
+        bloqueio.readLock().lock();
+        try {
+            return clientesPorNif.contem(numeroContribuinte);
+        } finally {
+            bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adiciona um novo cliente.
+     *
+     * @param cliente Cliente a adicionar.
+     * @throws IllegalArgumentException se já existir um cliente com o mesmo número de contribuinte.
+     */
+    public void adicionarCliente(Cliente cliente) {
+        bloqueio.writeLock().lock();
+        try {
+            if (clientesPorNif.contem(cliente.getNumeroContribuinte())) {
+                throw new IllegalArgumentException("Já existe um cliente com este número de contribuinte.");
+            }
+            clientes.add(cliente);
+            clientesPorNif.put(cliente.getNumeroContribuinte(), cliente);
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Altera o número de contribuinte de um cliente, atualizando os índices.
+     *
+     * @param cliente Cliente a alterar.
+     * @param novoNumero Novo número de contribuinte.
+     * @throws IllegalArgumentException se o número for inválido ou já pertencer a outro cliente.
+     */
+    public void alterarNumeroContribuinte(Cliente cliente, int novoNumero) {
+        bloqueio.writeLock().lock();
+        try {
+            int numeroAnterior = cliente.getNumeroContribuinte();
+            if (novoNumero == numeroAnterior) {
+                return;
+            }
+            if (clientesPorNif.contem(novoNumero)) {
+                throw new IllegalArgumentException("Já existe um cliente com este número de contribuinte.");
+            }
+            List<Fatura> doCliente = faturasPorNif.get(numeroAnterior);
+            avisarRetirada(doCliente);
+            try {
+                cliente.setNumeroContribuinte(novoNumero);
+            } catch (IllegalArgumentException e) {
+                avisarAdicao(doCliente);
+                throw e;
+            }
+
+            faturasPorNif.remove(numeroAnterior);
+            clientesPorNif.remove(numeroAnterior);
+            clientesPorNif.put(novoNumero, cliente);
+            if (doCliente != null) {
+                faturasPorNif.put(novoNumero, doCliente);
+            }
+            avisarAdicao(doCliente);
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Altera a localização de um cliente e recalcula o IVA das suas faturas.
+     *
+     * @param cliente Cliente a alterar.
+     * @param tipoLocalizacao Nova localização ("Continente", "Madeira" ou "Açores").
+     * @throws IllegalArgumentException se a localização for inválida.
+     */
+    public void alterarLocalizacao(Cliente cliente, String tipoLocalizacao) {
+        bloqueio.writeLock().lock();
+        try {
+            Localizacao anterior = cliente.getLocalizacao();
+            if (Localizacao.deTexto(tipoLocalizacao) == anterior) {
+                cliente.setTipoLocalizacao(tipoLocalizacao);
+                return;
+            }
+            List<Fatura> doCliente = faturasPorNif.get(cliente.getNumeroContribuinte());
+            avisarRetirada(doCliente);
+            cliente.setTipoLocalizacao(tipoLocalizacao);
+            if (doCliente != null) {
+                for (Fatura fatura : doCliente) {
+                    fatura.recalcularValores();
+                }
+            }
+            avisarAdicao(doCliente);
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Procura uma fatura pelo seu número.
+     *
+     * @param numero Número da fatura.
+     * @return A fatura ou null se não existir.
+     */
+    public Fatura procurarFatura(int numero) {
+        bloqueio.readLock().lock();
+        try {
+            return faturasPorNumero.get(numero);
+        } finally {
+            bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adiciona uma fatura. Se já existir uma fatura com o mesmo número, a primeira
+     * continua a ser a devolvida pelas procuras.
+     *
+     * @param fatura Fatura a adicionar.
+     */
+    public void adicionarFatura(Fatura fatura) {
+        adicionarFaturas(List.of(fatura));
+    }
+
+    /**
+     * Adiciona um lote de faturas numa única operação, avisando os ouvintes de cada fatura.
+     *
+     * @param lote Faturas a adicionar, pela ordem pretendida.
+     */
+    public void adicionarFaturas(List<Fatura> lote) {
+        bloqueio.writeLock().lock();
+        try {
+            int necessario = numFaturas + lote.size();
+            if (necessario > faturas.length) {
+                // Um novo array: os instantâneos já devolvidos continuam a usar o anterior
+                faturas = Arrays.copyOf(faturas, Math.max(necessario, faturas.length + (faturas.length >> 1) + 16));
+            }
+            for (Fatura fatura : lote) {
+                // A localização do cliente pode ter mudado depois de a fatura ser preparada
+                fatura.atualizarValores();
+                faturas[numFaturas++] = fatura;
+                indexarFatura(fatura);
+                avisarAdicao(fatura);
+            }
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Obtém o número a atribuir à próxima fatura: o seguinte ao maior número existente ou reservado.
+     *
+     * @return Número da próxima fatura.
+     */
+    public int getProximoNumeroFatura() {
+        return ultimoNumeroFatura.get() + 1;
+    }
+
+    /**
+     * Reserva números consecutivos para novas faturas, a seguir ao maior número existente ou reservado.
+     * Duas reservas nunca obtêm o mesmo número, mesmo em threads diferentes; os números reservados
+     * e não usados não voltam a ser atribuídos, exceto se forem libertados com {@link #libertarNumerosFatura(int, int)}.
+     *
+     * @param quantidade Quantidade de números a reservar.
+     * @return O primeiro número reservado.
+     */
+    public int reservarNumerosFatura(int quantidade) {
+        if (quantidade < 1) {
+            throw new IllegalArgumentException("A quantidade de números a reservar deve ser pelo menos 1.");
+        }
+        return ultimoNumeroFatura.getAndAdd(quantidade) + 1;
+    }
+
+    /**
+     * Devolve uma reserva de números que não chegou a ser usada (por exemplo, porque o registo no journal falhou),
+     * para que a numeração das faturas não fique com um intervalo. Só é possível se for a última reserva feita;
+     * deve ser chamado com o bloqueio de escrita com que os números foram reservados.
+     *
+     * @param primeiro Primeiro número reservado, devolvido por {@link #reservarNumerosFatura(int)}.
+     * @param quantidade Quantidade de números reservados.
+     * @return true se os números foram libertados, false se já tinham sido reservados números a seguir.
+     */
+    public boolean libertarNumerosFatura(int primeiro, int quantidade) {
+        return ultimoNumeroFatura.compareAndSet(primeiro + quantidade - 1, primeiro - 1);
+    }
+
+    /**
+     * Associa uma fatura a outro cliente, atualizando o índice de faturas por cliente.
+     *
+     * @param fatura Fatura a alterar.
+     * @param cliente Novo cliente.
+     */
+    public void alterarClienteDaFatura(Fatura fatura, Cliente cliente) {
+        bloqueio.writeLock().lock();
+        try {
+            List<Fatura> anteriores = faturasPorNif.get(fatura.getCliente().getNumeroContribuinte());
+            if (anteriores != null) {
+                anteriores.remove(fatura);
+            }
+            avisarRetirada(fatura);
+            fatura.setCliente(cliente);
+            faturasDoCliente(cliente.getNumeroContribuinte()).add(fatura);
+            avisarAdicao(fatura);
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Altera a data de uma fatura.
+     *
+     * @param fatura Fatura a alterar.
+     * @param data Nova data.
+     */
+    public void alterarDataDaFatura(Fatura fatura, LocalDate data) {
+        bloqueio.writeLock().lock();
+        try {
+            avisarRetirada(fatura);
+            fatura.setData(data);
+            avisarAdicao(fatura);
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Substitui os produtos de uma fatura.
+     *
+     * @param fatura Fatura a alterar.
+     * @param produtos Novos produtos.
+     */
+    public void alterarProdutosDaFatura(Fatura fatura, List<Produto> produtos) {
+        bloqueio.writeLock().lock();
+        try {
+            avisarRetirada(fatura);
+            fatura.setProdutos(produtos);
+            avisarAdicao(fatura);
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Obtém as faturas de um cliente.
+     *
+     * @param numeroContribuinte Número de contribuinte do cliente.
+     * @return Instantâneo das faturas do cliente, apenas para leitura.
+     */
+    public List<Fatura> getFaturasDoCliente(int numeroContribuinte) {
+        bloqueio.readLock().lock();
+        try {
+            List<Fatura> doCliente = faturasPorNif.get(numeroContribuinte);
+            return doCliente == null ? List.of() : List.copyOf(doCliente);
+        } finally {
+            bloqueio.readLock().unlock();
+        }
+    }
+
+    /**
+     * Substitui todos os clientes e faturas (por exemplo, numa importação) e reconstrói os índices.
+     *
+     * @param novosClientes Novos clientes.
+     * @param novasFaturas Novas faturas.
+     */
+    public void substituirTudo(List<Cliente> novosClientes, List<Fatura> novasFaturas) {
+        bloqueio.writeLock().lock();
+        try {
+            List<Cliente> copiaClientes = new ArrayList<>(novosClientes);
+            clientes.clear();
+            clientes.addAll(copiaClientes);
+            faturas = novasFaturas.toArray(SEM_FATURAS);
+            numFaturas = faturas.length;
+            reindexar();
+            List<Fatura> substituidas = getFaturas();
+            for (Ouvinte ouvinte : ouvintes) {
+                ouvinte.faturasSubstituidas(substituidas);
+            }
+        } finally {
+            bloqueio.writeLock().unlock();
+        }
+    }
+
+    private void reindexar() {
+        clientesPorNif.limpar();
+        faturasPorNumero.limpar();
+        faturasPorNif.limpar();
+        ultimoNumeroFatura.set(0);
+        for (Cliente cliente : clientes) {
+            if (!clientesPorNif.contem(cliente.getNumeroContribuinte())) {
+                clientesPorNif.put(cliente.getNumeroContribuinte(), cliente);
+            }
+        }
+        for (int i = 0; i < numFaturas; i++) {
+            indexarFatura(faturas[i]);
+        }
+    }
+
+    private void indexarFatura(Fatura fatura) {
+        if (!faturasPorNumero.contem(fatura.getNumero())) {
+            faturasPorNumero.put(fatura.getNumero(), fatura);
+        }
+        ultimoNumeroFatura.accumulateAndGet(fatura.getNumero(), Math::max);
+        faturasDoCliente(fatura.getCliente().getNumeroContribuinte()).add(fatura);
+    }
+
+    private List<Fatura> faturasDoCliente(int numeroContribuinte) {
+        List<Fatura> doCliente = faturasPorNif.get(numeroContribuinte);
+        if (doCliente == null) {
+            doCliente = new ArrayList<>();
+            faturasPorNif.put(numeroContribuinte, doCliente);
+        }
+        return doCliente;
+    }
+
+    private void avisarRetirada(Fatura fatura) {
+        for (Ouvinte ouvinte : ouvintes) {
+            ouvinte.faturaRetirada(fatura);
+        }
+    }
+
+    private void avisarAdicao(Fatura fatura) {
+        for (Ouvinte ouvinte : ouvintes) {
+            ouvinte.faturaAdicionada(fatura);
+        }
+    }
+
+    private void avisarRetirada(List<Fatura> faturasDoCliente) {
+        if (faturasDoCliente != null) {
+            for (Fatura fatura : faturasDoCliente) {
+                avisarRetirada(fatura);
+            }
+        }
+    }
+
+    private void avisarAdicao(List<Fatura> faturasDoCliente) {
+        if (faturasDoCliente != null) {
+            for (Fatura fatura : faturasDoCliente) {
+                avisarAdicao(fatura);
+            }
+        }
+    }
+
+    /**
+     * Instantâneo das faturas: as primeiras posições de um array de faturas, que não são alteradas
+     * depois de preenchidas.
+     */
+    private static final class Instantaneo extends AbstractList<Fatura> implements RandomAccess {
+        private final Fatura[] faturas;
+        private final int tamanho;
+
+        Instantaneo(Fatura[] faturas, int tamanho) {
+            this.faturas = faturas;
+            this.tamanho = tamanho;
+        }
+
+        @Override
+        public Fatura get(int indice) {
+            return faturas[Objects.checkIndex(indice, tamanho)];
+        }
+
+        @Override
+        public int size() {
+            return tamanho;
+        }
+    }
+}
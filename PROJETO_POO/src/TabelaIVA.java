@@ -0,0 +1,130 @@
+/**
+ * Tabela de taxas de IVA (em pontos base, ver {@link Dinheiro}) já com todos os ajustes aplicados.
+ * <p>
+ * Cada produto corresponde a um perfil (classe de taxa, biológico, número de certificações, vinho, prescrição, ...)
+ * e cada perfil tem uma linha com a taxa final para cada {@link Localizacao}, indexada por {@code ordinal()}.
+ * As linhas são calculadas uma única vez, quando a classe é carregada, e partilhadas por todos os produtos.
+ * Os perfis são numerados (primeiro os alimentares, depois os de farmácia) para que cada linha de fatura
+ * possa guardar o seu perfil num único byte (ver {@link LinhasFatura}).
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+final class TabelaIVA {
+    // Taxas base dos produtos alimentares, por localização e classe de taxa
+    private static final double[][] BASE_ALIMENTAR = {
+            {6, 13, 23}, // Continente
+            {5, 12, 22}, // Madeira
+            {4, 9, 16}   // Açores
+    };
+
+    // Taxas base dos produtos de farmácia com prescrição, por localização
+    private static final double[] BASE_PRESCRICAO = {6, 5, 4};
+    private static final double BASE_SEM_PRESCRICAO = 23;
+
+    /** Número de perfis de produtos alimentares; os perfis seguintes são os de produtos de farmácia. */
+    static final int PERFIS_ALIMENTARES = ClasseTaxa.values().length * 8;
+
+    private static final long[][] PERFIS = new long[PERFIS_ALIMENTARES + 4][];
+    private static final ClasseTaxa[] CLASSES = ClasseTaxa.values();
+
+    static {
+        for (ClasseTaxa classe : ClasseTaxa.values()) {
+            for (int ajustes = 0; ajustes < 8; ajustes++) {
+                boolean biologico = (ajustes & 1) != 0;
+                boolean quatroCertificacoes = (ajustes & 2) != 0;
+                boolean vinho = (ajustes & 4) != 0;
+
+                long[] taxas = new long[Localizacao.values().length];
+                for (Localizacao localizacao : Localizacao.values()) {
+                    double taxaBase = BASE_ALIMENTAR[localizacao.ordinal()][classe.ordinal()];
+                    if (biologico) {
+                        taxaBase -= taxaBase * 0.10; // Desconto de 10% se for biológico
+                    }
+                    if (quatroCertificacoes) {
+                        taxaBase -= 1; // Redução de 1% se tiver 4 certificações
+                    }
+                    if (vinho) {
+                        taxaBase += 1; // Aumento de 1% se for vinho
+                    }
+                    taxas[localizacao.ordinal()] = Dinheiro.pontosBase(Math.max(taxaBase, 0));
+                }
+                PERFIS[classe.ordinal() * 8 + ajustes] = taxas;
+            }
+        }
+
+        for (int perfil = 0; perfil < 4; perfil++) {
+            boolean comPrescricao = (perfil & 1) != 0;
+            boolean animais = (perfil & 2) != 0;
+
+            long[] taxas = new long[Localizacao.values().length];
+            for (Localizacao localizacao : Localizacao.values()) {
+                double taxaBase = comPrescricao ? BASE_PRESCRICAO[localizacao.ordinal()] : BASE_SEM_PRESCRICAO;
+                if (!comPrescricao && animais) {
+                    taxaBase -= 1; // Redução de 1% para a categoria "Animais" (sem prescrição)
+                }
+                taxas[localizacao.ordinal()] = Dinheiro.pontosBase(Math.max(taxaBase, 0));
+            }
+            PERFIS[PERFIS_ALIMENTARES + perfil] = taxas;
+        }
+    }
+
+    private TabelaIVA() {
+    }
+
+    /**
+     * Obtém o perfil de um produto alimentar.
+     *
+     * @param classe Classe de taxa do produto.
+     * @param biologico Indica se o produto é biológico.
+     * @param quatroCertificacoes Indica se o produto tem 4 certificações.
+     * @param vinho Indica se a categoria do produto é "vinho".
+     * @return Número do perfil.
+     */
+    static int perfilAlimentar(ClasseTaxa classe, boolean biologico, boolean quatroCertificacoes, boolean vinho) {
+        int ajustes = (biologico ? 1 : 0) | (quatroCertificacoes ? 2 : 0) | (vinho ? 4 : 0);
+        return classe.ordinal() * 8 + ajustes;
+    }
+
+    /**
+     * Obtém o perfil de um produto de farmácia.
+     *
+     * @param comPrescricao Indica se o produto necessita de prescrição médica.
+     * @param animais Indica se a categoria do produto é "Animais".
+     * @return Número do perfil.
+     */
+    static int perfilFarmacia(boolean comPrescricao, boolean animais) {
+        return PERFIS_ALIMENTARES + ((comPrescricao ? 1 : 0) | (animais ? 2 : 0));
+    }
+
+    /**
+     * Obtém as taxas de um perfil, uma por localização. O array devolvido é partilhado e não deve ser alterado.
+     *
+     * @param perfil Número do perfil.
+     * @return Taxas em pontos base, indexadas por {@link Localizacao#ordinal()}.
+     */
+    static long[] taxasDoPerfil(int perfil) {
+        return PERFIS[perfil];
+    }
+
+    /**
+     * Verifica se um perfil é de um produto alimentar.
+     *
+     * @param perfil Número do perfil.
+     * @return true se for de um produto alimentar, false se for de farmácia.
+     */
+    static boolean isPerfilAlimentar(int perfil) {
+        return perfil < PERFIS_ALIMENTARES;
+    }
+
+    /**
+     * Obtém a classe de taxa de um perfil.
+     *
+     * @param perfil Número do perfil.
+     * @return Classe de taxa, ou null se o perfil for de um produto de farmácia.
+     */
+    static ClasseTaxa classeDoPerfil(int perfil) {
+        return perfil < PERFIS_ALIMENTARES ? CLASSES[perfil / 8] : null;
+    }
+}
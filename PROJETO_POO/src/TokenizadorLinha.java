@@ -0,0 +1,224 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Classe que divide uma linha do ficheiro de clientes nos seus campos separados por ";".
+ * Os campos são guardados como posições sobre os caracteres da linha, sem expressões regulares
+ * nem cópias intermédias; só são criadas Strings para os campos de texto pedidos.
+ * Tal como {@code String.split}, os campos vazios no fim da linha são ignorados.
+ * A mesma instância pode ser reutilizada para todas as linhas de um ficheiro.
+ *
+ * @author Cíntia Cumbane (2020244607)
+ * Cristiana Gonçalves (2019239753)
+ * @version 3.0
+ */
+public class TokenizadorLinha {
+    private static final double[] POTENCIAS_DEZ = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private char[] caracteres;
+    private int[] inicios = new int[16];
+    private int[] fins = new int[16];
+    private int numCampos;
+
+    /**
+     * Divide a linha indicada em campos. As posições de cada campo já excluem os espaços nas pontas.
+     *
+     * @param linha Caracteres da linha.
+     * @param inicio Posição do primeiro caractere da linha.
+     * @param fim Posição a seguir ao último caractere da linha.
+     */
+    public void dividir(char[] linha, int inicio, int fim) {
+        this.caracteres = linha;
+        this.numCampos = 0;
+
+        int inicioCampo = inicio;
+        for (int i = inicio; i <= fim; i++) {
+            if (i == fim || linha[i] == ';') {
+                acrescentarCampo(inicioCampo, i);
+                inicioCampo = i + 1;
+            }
+        }
+
+        // Ignorar campos vazios no fim, como String.split
+        while (numCampos > 0 && inicios[numCampos - 1] == fins[numCampos - 1]) {
+            numCampos--;
+        }
+    }
+
+    /**
+     * Obtém o número de campos da última linha dividida.
+     *
+     * @return Número de campos.
+     */
+    public int getNumCampos() {
+        return numCampos;
+    }
+
+    /**
+     * Obtém o texto de um campo, sem espaços nas pontas.
+     *
+     * @param campo Índice do campo.
+     * @return Texto do campo.
+     */
+    public String texto(int campo) {
+        return new String(caracteres, inicios[campo], fins[campo] - inicios[campo]);
+    }
+
+    /**
+     * Obtém o texto de um campo, ou null se o campo não existir ou contiver "null".
+     *
+     * @param campo Índice do campo.
+     * @return Texto do campo ou null.
+     */
+    public String textoOuNulo(int campo) {
+        if (campo >= numCampos || igual(campo, "null")) {
+            return null;
+        }
+        return texto(campo);
+    }
+
+    /**
+     * Verifica se um campo é igual ao texto indicado, ignorando maiúsculas e minúsculas.
+     *
+     * @param campo Índice do campo.
+     * @param texto Texto a comparar.
+     * @return true se forem iguais, false caso contrário.
+     */
+    public boolean igual(int campo, String texto) {
+        int inicio = inicios[campo];
+        int tamanho = fins[campo] - inicio;
+        if (tamanho != texto.length()) {
+            return false;
+        }
+        for (int i = 0; i < tamanho; i++) {
+            char a = caracteres[inicio + i];
+            char b = texto.charAt(i);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verifica se um campo está vazio.
+     *
+     * @param campo Índice do campo.
+     * @return true se o campo estiver vazio, false caso contrário.
+     */
+    public boolean vazio(int campo) {
+        return inicios[campo] == fins[campo];
+    }
+
+    /**
+     * Lê um campo como número inteiro.
+     *
+     * @param campo Índice do campo.
+     * @return Valor inteiro do campo.
+     * @throws NumberFormatException se o campo não for um inteiro válido.
+     */
+    public int inteiro(int campo) {
+        int i = inicios[campo];
+        int fim = fins[campo];
+        boolean negativo = i < fim && caracteres[i] == '-';
+        if (negativo) {
+            i++;
+        }
+        if (i == fim) {
+            throw new NumberFormatException("Número inválido: \"" + texto(campo) + "\"");
+        }
+        long valor = 0;
+        for (; i < fim; i++) {
+            int digito = caracteres[i] - '0';
+            if (digito < 0 || digito > 9) {
+                throw new NumberFormatException("Número inválido: \"" + texto(campo) + "\"");
+            }
+            valor = valor * 10 + digito;
+            if (valor > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("Número demasiado grande: \"" + texto(campo) + "\"");
+            }
+        }
+        return (int) (negativo ? -valor : valor);
+    }
+
+    /**
+     * Lê um campo como número decimal. Os valores simples (dígitos com ponto decimal opcional)
+     * são convertidos diretamente; os restantes formatos usam {@link Double#parseDouble(String)}.
+     *
+     * @param campo Índice do campo.
+     * @return Valor decimal do campo.
+     * @throws NumberFormatException se o campo não for um número válido.
+     */
+    public double decimal(int campo) {
+        int i = inicios[campo];
+        int fim = fins[campo];
+        long mantissa = 0;
+        int casasDecimais = -1;
+        int digitos = 0;
+        for (; i < fim; i++) {
+            char c = caracteres[i];
+            if (c == '.' && casasDecimais < 0) {
+                casasDecimais = 0;
+            } else if (c >= '0' && c <= '9' && digitos < 15) {
+                mantissa = mantissa * 10 + (c - '0');
+                digitos++;
+                if (casasDecimais >= 0) {
+                    casasDecimais++;
+                }
+            } else {
+                return Double.parseDouble(texto(campo));
+            }
+        }
+        if (digitos == 0) {
+            throw new NumberFormatException("Número inválido: \"" + texto(campo) + "\"");
+        }
+        // A mantissa e a potência de dez são exatas, logo a divisão dá o valor corretamente arredondado
+        return casasDecimais <= 0 ? mantissa : mantissa / POTENCIAS_DEZ[casasDecimais];
+    }
+
+    /**
+     * Lê um campo como data no formato yyyy-MM-dd.
+     *
+     * @param campo Índice do campo.
+     * @return Data do campo.
+     * @throws java.time.DateTimeException se o campo não for uma data válida.
+     */
+    public LocalDate data(int campo) {
+        int i = inicios[campo];
+        if (fins[campo] - i != 10 || caracteres[i + 4] != '-' || caracteres[i + 7] != '-') {
+            return LocalDate.parse(texto(campo));
+        }
+        return LocalDate.of(digitos(i, 4), digitos(i + 5, 2), digitos(i + 8, 2));
+    }
+
+    private int digitos(int inicio, int quantidade) {
+        int valor = 0;
+        for (int i = inicio; i < inicio + quantidade; i++) {
+            int digito = caracteres[i] - '0';
+            if (digito < 0 || digito > 9) {
+                throw new NumberFormatException("Data inválida: \"" + new String(caracteres, inicio, quantidade) + "\"");
+            }
+            valor = valor * 10 + digito;
+        }
+        return valor;
+    }
+
+    private void acrescentarCampo(int inicio, int fim) {
+        while (inicio < fim && Character.isWhitespace(caracteres[inicio])) {
+            inicio++;
+        }
+        while (fim > inicio && Character.isWhitespace(caracteres[fim - 1])) {
+            fim--;
+        }
+        if (numCampos == inicios.length) {
+            inicios = Arrays.copyOf(inicios, numCampos * 2);
+            fins = Arrays.copyOf(fins, numCampos * 2);
+        }
+        inicios[numCampos] = inicio;
+        fins[numCampos] = fim;
+        numCampos++;
+    }
+}